@@ -0,0 +1,72 @@
+package edu.unc.genomics;
+
+import java.util.Arrays;
+
+import edu.unc.genomics.util.StatsAccumulator;
+
+/**
+ * Contig values stored in a float[] on the heap
+ *
+ * @author timpalpant
+ *
+ */
+class ArrayContigValues extends ContigValues {
+
+  private final float[] values;
+
+  public ArrayContigValues(int size) {
+    this.values = new float[size];
+    Arrays.fill(values, Float.NaN);
+  }
+
+  /**
+   * @param values
+   *          the array to store values in (it is not copied)
+   */
+  public ArrayContigValues(float[] values) {
+    this.values = values;
+  }
+
+  @Override
+  public Contig.Storage getStorage() {
+    return Contig.Storage.ARRAY;
+  }
+
+  @Override
+  public int size() {
+    return values.length;
+  }
+
+  @Override
+  public float get(int i) {
+    return values[i];
+  }
+
+  @Override
+  public void set(int i, float value) {
+    values[i] = value;
+  }
+
+  @Override
+  public void fill(int from, int to, float value) {
+    Arrays.fill(values, from, to, value);
+  }
+
+  /**
+   * @return the backing array of values
+   */
+  @Override
+  public float[] toArray() {
+    return values;
+  }
+
+  @Override
+  public void addTo(StatsAccumulator stats, int weight) {
+    for (float v : values) {
+      if (!Float.isNaN(v) && !Float.isInfinite(v)) {
+        stats.add(v, weight);
+      }
+    }
+  }
+
+}
@@ -4,7 +4,7 @@
 package edu.unc.genomics;
 
 import edu.unc.genomics.io.IntervalFileFormatException;
-import edu.unc.genomics.util.ArrayUtils;
+import edu.unc.genomics.util.FieldTokenizer;
 
 /**
  * @author timpalpant
@@ -13,6 +13,9 @@ import edu.unc.genomics.util.ArrayUtils;
 public class BedEntry extends ValuedInterval {
   private static final long serialVersionUID = 8657984166944604756L;
 
+  private static final ThreadLocal<FieldTokenizer> columns = FieldTokenizer.threadLocal('\t');
+  private static final ThreadLocal<FieldTokenizer> blocks = FieldTokenizer.threadLocal(',');
+
   private String itemRgb;
   private int thickStart;
   private int thickEnd;
@@ -42,56 +45,68 @@ public class BedEntry extends ValuedInterval {
       return null;
     }
 
-    String[] entry = line.split("\t");
-    if (entry.length < 3) {
+    FieldTokenizer entry = columns.get().reset(line);
+    if (entry.count() < 3) {
       throw new IntervalFileFormatException("Invalid Bed entry has < 3 columns");
     }
 
-    String chr = entry[0];
-    int start = Integer.parseInt(entry[1]) + 1; // Bed is 0-indexed
-    int stop = Integer.parseInt(entry[2]); // and half-open
+    String chr = entry.get(0);
+    int start = entry.getInt(1) + 1; // Bed is 0-indexed
+    int stop = entry.getInt(2); // and half-open
     if (start > stop) {
       throw new IntervalFileFormatException(
           "Invalid Bed entry has start > stop. Use strand column 6 (+/-) for Crick intervals");
     }
     BedEntry bed = new BedEntry(chr, start, stop);
 
-    if (entry.length >= 4) {
-      bed.setId(entry[3]);
+    if (entry.count() >= 4) {
+      bed.setId(entry.get(3));
     }
 
-    if (entry.length >= 5 && !entry[4].equalsIgnoreCase(".")) {
+    if (entry.count() >= 5 && !entry.equalsIgnoreCase(4, ".")) {
       try {
-        bed.setValue(Float.valueOf(entry[4]));
+        bed.setValue(entry.getFloat(4));
       } catch (NumberFormatException e) {
-        throw new IntervalFileFormatException("Invalid Bed value column (must be integer): " + entry[4]);
+        throw new IntervalFileFormatException("Invalid Bed value column (must be integer): " + entry.get(4));
       }
     }
 
     // Reverse start/stop if on the - strand
-    if (entry.length >= 6 && entry[5].equalsIgnoreCase("-")) {
+    if (entry.count() >= 6 && entry.equalsIgnoreCase(5, "-")) {
       bed.setStart(stop);
       bed.setStop(start);
     }
 
-    if (entry.length >= 8) {
-      bed.setThickStart(Integer.parseInt(entry[6]) + 1);
-      bed.setThickEnd(Integer.parseInt(entry[7]));
+    if (entry.count() >= 8) {
+      bed.setThickStart(entry.getInt(6) + 1);
+      bed.setThickEnd(entry.getInt(7));
     }
 
-    if (entry.length >= 9) {
-      bed.setItemRgb(entry[8]);
+    if (entry.count() >= 9) {
+      bed.setItemRgb(entry.get(8));
     }
 
-    if (entry.length >= 12) {
-      bed.setBlockCount(Integer.parseInt(entry[9]));
-      bed.setBlockSizes(ArrayUtils.mapToInt(entry[10].split(",")));
-      bed.setBlockStarts(ArrayUtils.mapToInt(entry[11].split(",")));
+    if (entry.count() >= 12) {
+      bed.setBlockCount(entry.getInt(9));
+      bed.setBlockSizes(parseBlocks(line, entry, 10));
+      bed.setBlockStarts(parseBlocks(line, entry, 11));
     }
 
     return bed;
   }
 
+  /**
+   * Parse a comma-separated list of integers from a column
+   */
+  private static int[] parseBlocks(String line, FieldTokenizer entry, int column) {
+    FieldTokenizer values = blocks.get().reset(line, entry.start(column), entry.end(column));
+    int[] ret = new int[values.count()];
+    for (int i = 0; i < ret.length; i++) {
+      ret[i] = values.getInt(i);
+    }
+    return ret;
+  }
+
   @Override
   public String toOutput() {
     return toBed();
@@ -1,6 +1,7 @@
 package edu.unc.genomics;
 
 import edu.unc.genomics.io.IntervalFileFormatException;
+import edu.unc.genomics.util.FieldTokenizer;
 
 /**
  * @author timpalpant
@@ -10,6 +11,8 @@ public class BedGraphEntry extends ValuedInterval {
 
   private static final long serialVersionUID = 3205776570270297617L;
 
+  private static final ThreadLocal<FieldTokenizer> columns = FieldTokenizer.threadLocal('\t');
+
   /**
    * @param chr
    * @param start
@@ -45,22 +48,22 @@ public class BedGraphEntry extends ValuedInterval {
       return null;
     }
 
-    String[] entry = line.split("\t");
-    if (entry.length < 3) {
+    FieldTokenizer entry = columns.get().reset(line);
+    if (entry.count() < 3) {
       throw new IntervalFileFormatException("Invalid BedGraph entry has < 3 columns");
     }
 
-    String chr = entry[0];
+    String chr = entry.get(0);
     // BedGraph is 0-indexed, half-open
-    int start = Integer.parseInt(entry[1]) + 1;
-    int stop = Integer.parseInt(entry[2]);
+    int start = entry.getInt(1) + 1;
+    int stop = entry.getInt(2);
     if (start > stop) {
       throw new IntervalFileFormatException("Invalid BedGraph entry has start > stop");
     }
     BedGraphEntry bedGraph = new BedGraphEntry(chr, start, stop);
 
-    if (entry.length >= 4) {
-      bedGraph.setValue(Double.parseDouble(entry[3]));
+    if (entry.count() >= 4) {
+      bedGraph.setValue(entry.getDouble(3));
     }
 
     return bedGraph;
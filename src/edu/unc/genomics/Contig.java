@@ -1,11 +1,15 @@
 package edu.unc.genomics;
 
-import java.util.Arrays;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 
 import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.apache.commons.math3.util.ArithmeticUtils;
 
+import edu.unc.genomics.util.StatsAccumulator;
+
 /**
  * A contiguous block of values in the genome
  * 
@@ -14,14 +18,17 @@ import org.apache.commons.math3.util.ArithmeticUtils;
  */
 public class Contig extends Interval {
 
-  private static final long serialVersionUID = -4260411310249231783L;
+  private static final long serialVersionUID = 5032410771298354214L;
 
-  private float[] values;
-  private SummaryStatistics stats;
+  // Serialized as their storage type and an array of values
+  private transient ContigValues values;
+  private transient StatsAccumulator stats;
+  // The SummaryStatistics view of stats returned by getStats()
+  private transient SummaryStatistics summary;
   private int span = 1;
 
   public Contig(Interval interval) {
-    this(interval, null);
+    this(interval, (float[]) null);
   }
 
   public Contig(Interval interval, float[] values) throws ContigException {
@@ -32,6 +39,72 @@ public class Contig extends Interval {
     this(interval.getChr(), interval.getStart(), interval.getStop(), values, span);
   }
 
+  /**
+   * Create a new Contig for an interval with no data, using a specific type of
+   * storage for its values
+   * 
+   * @param interval
+   *          the interval of the Contig
+   * @param storage
+   *          how to store the values of the Contig
+   */
+  public Contig(Interval interval, Storage storage) {
+    super(interval.getChr(), interval.getStart(), interval.getStop());
+    this.values = ContigValues.allocate(storage, actualNumberOfValues());
+  }
+
+  /**
+   * Create a new Contig for an interval, copying its values into a specific
+   * type of storage
+   * 
+   * @param interval
+   *          the interval of the Contig
+   * @param values
+   *          the values for this interval, one for each base pair
+   * @param storage
+   *          how to store the values of the Contig
+   * @throws ContigException
+   *           if values.length != interval.length()
+   */
+  public Contig(Interval interval, float[] values, Storage storage) throws ContigException {
+    this(interval, storage);
+    if (values.length != actualNumberOfValues()) {
+      throw new ContigException("Incorrect number of values for Contig (" + values.length + " != " + actualNumberOfValues() + ")");
+    }
+    fillRuns(this.values, values);
+  }
+
+  /**
+   * Copy values into storage, filling runs of identical values at once
+   */
+  private static void fillRuns(ContigValues storage, float[] values) {
+    int from = 0;
+    for (int i = 1; i <= values.length; i++) {
+      if (i == values.length || Float.floatToIntBits(values[i]) != Float.floatToIntBits(values[from])) {
+        storage.fill(from, i, values[from]);
+        from = i;
+      }
+    }
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    out.writeObject(values.getStorage());
+    out.writeObject(values.toArray());
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    Storage storage = (Storage) in.readObject();
+    float[] array = (float[]) in.readObject();
+    if (storage == Storage.ARRAY) {
+      values = new ArrayContigValues(array);
+    } else {
+      values = ContigValues.allocate(storage, array.length);
+      fillRuns(values, array);
+    }
+  }
+
   /**
    * Create a new Contig for the interval chr:start-stop with values in values[]
    * 
@@ -57,12 +130,12 @@ public class Contig extends Interval {
     // Verify that values has the correct length
     this.span = span;
     if (values == null) {
-      values = new float[actualNumberOfValues()];
-      Arrays.fill(values, Float.NaN);
+      this.values = new ArrayContigValues(actualNumberOfValues());
     } else if (values.length != actualNumberOfValues()) {
       throw new ContigException("Incorrect number of values for Contig (" + values.length + " != " + actualNumberOfValues() + ")");
+    } else {
+      this.values = new ArrayContigValues(values);
     }
-    this.values = values;
   }
 
   public Contig(String chr, int start, int stop) {
@@ -107,11 +180,12 @@ public class Contig extends Interval {
   }
 
   /**
-   * @return the values
+   * @return the values. For Contigs stored in an array, this is the backing
+   *         array; otherwise it is a copy.
    */
   public float[] getValues() {
     if (span == 1) {
-      return values;
+      return values.toArray();
     }
     
     float[] expandedValues = new float[length()];
@@ -123,7 +197,14 @@ public class Contig extends Interval {
   }
   
   public float[] getCondensedValues() {
-    return values;
+    return values.toArray();
+  }
+
+  /**
+   * @return how the values of this Contig are stored
+   */
+  public Storage getStorage() {
+    return values.getStorage();
   }
 
   /**
@@ -178,7 +259,7 @@ public class Contig extends Interval {
     }
 
     int i = Math.abs(bp - getStart()) / span;
-    return values[i];
+    return values.get(i);
   }
 
   /**
@@ -222,9 +303,13 @@ public class Contig extends Interval {
   public void set(int start, int stop, float value) throws ContigException {
     int low = Math.min(start, stop);
     int high = Math.max(start, stop);
-    for (int bp = low; bp <= high; bp++) {
-      set(bp, value);
+    if (!includes(low) || !includes(high)) {
+      throw new ContigException(low + "-" + high + " is outside the range of this Contig");
     }
+
+    values.fill((low - low()) / span, (high - low()) / span + 1, value);
+    stats = null;
+    summary = null;
   }
 
   /**
@@ -242,11 +327,10 @@ public class Contig extends Interval {
       throw new ContigException(bp + " is outside the range of this Contig");
     }
 
-    values[(bp - low())/span] = value;
+    values.set((bp - low())/span, value);
     // Invalidate stats if they have previously been computed
-    if (stats != null) {
-      stats = null;
-    }
+    stats = null;
+    summary = null;
   }
 
   /**
@@ -255,22 +339,23 @@ public class Contig extends Interval {
    * @return SummaryStatistics for the data
    */
   public SummaryStatistics getStats() {
-    if (stats == null) {
-      computeStats();
+    if (summary == null) {
+      summary = accumulateStats().toSummaryStatistics();
     }
 
-    return stats;
+    return summary;
   }
 
-  private void computeStats() {
-    stats = new SummaryStatistics();
-    for (float v : values) {
-      if (!Float.isNaN(v) && !Float.isInfinite(v)) {
-        for (int i = 0; i < span; i++) {
-          stats.addValue(v);
-        }
-      }
+  /**
+   * @return the statistics for the data, computing them if necessary
+   */
+  private StatsAccumulator accumulateStats() {
+    if (stats == null) {
+      stats = new StatsAccumulator();
+      values.addTo(stats, span);
     }
+
+    return stats;
   }
 
   /**
@@ -288,7 +373,7 @@ public class Contig extends Interval {
    * @return the number of base pairs with data in iter between start-stop
    */
   public long numBases() {
-    return getStats().getN();
+    return accumulateStats().getN();
   }
 
   /**
@@ -298,7 +383,7 @@ public class Contig extends Interval {
    *         start-stop
    */
   public float total() {
-    return (float) getStats().getSum();
+    return (float) accumulateStats().getSum();
   }
 
   /**
@@ -307,7 +392,7 @@ public class Contig extends Interval {
    * @return the mean of all base pairs with data in iter between start-stop
    */
   public float mean() {
-    return (float) getStats().getMean();
+    return (float) accumulateStats().getMean();
   }
 
   /**
@@ -317,7 +402,7 @@ public class Contig extends Interval {
    *         start-stop
    */
   public float stdev() {
-    return (float) Math.sqrt(getStats().getPopulationVariance());
+    return (float) accumulateStats().getPopulationStandardDeviation();
   }
 
   /**
@@ -326,7 +411,7 @@ public class Contig extends Interval {
    * @return the minimum value of the data in iter between start-stop
    */
   public float min() {
-    return (float) getStats().getMin();
+    return (float) accumulateStats().getMin();
   }
 
   /**
@@ -335,7 +420,7 @@ public class Contig extends Interval {
    * @return the minimum value of the data in iter between start-stop
    */
   public float max() {
-    return (float) getStats().getMax();
+    return (float) accumulateStats().getMax();
   }
 
   /**
@@ -525,7 +610,7 @@ public class Contig extends Interval {
    */
   public void setSpan(int span) {
     int n = (int) Math.ceil(((float) length()) / span);
-    float[] spanValues = new float[n];
+    ContigValues spanValues = ContigValues.allocate(getStorage(), n);
     
     int i = 0;
     int stop = high();
@@ -534,12 +619,29 @@ public class Contig extends Interval {
       for (int j = 0; j < Math.min(span, stop-bp); j++) {
         total += get(bp+j);
       }
-      spanValues[i] = (float) (total / span);
+      spanValues.set(i, (float) (total / span));
       i++;
     }
     
     values = spanValues;
     this.span = span;
+    stats = null;
+    summary = null;
+  }
+
+  /**
+   * The ways that the values of a Contig can be stored
+   * 
+   * @author timpalpant
+   *
+   */
+  public static enum Storage {
+    /** In a float[] on the heap */
+    ARRAY,
+    /** Off-heap, in direct buffers */
+    DIRECT,
+    /** As runs of identical values, for sparse or piecewise-constant data */
+    SPARSE
   }
 
   /**
@@ -0,0 +1,97 @@
+package edu.unc.genomics;
+
+import edu.unc.genomics.util.StatsAccumulator;
+
+/**
+ * The storage for the values of a Contig. Values are addressed by index (one
+ * per span of the Contig), and every value is initially NaN.
+ *
+ * @author timpalpant
+ *
+ */
+abstract class ContigValues {
+
+  /**
+   * Allocate storage for a number of values
+   *
+   * @param storage
+   *          the type of storage to allocate
+   * @param size
+   *          the number of values
+   * @return new storage with all values set to NaN
+   */
+  public static ContigValues allocate(Contig.Storage storage, int size) {
+    switch (storage) {
+    case ARRAY:
+      return new ArrayContigValues(size);
+    case DIRECT:
+      return new DirectContigValues(size);
+    case SPARSE:
+      return new SparseContigValues(size);
+    default:
+      throw new IllegalArgumentException("Unknown Contig storage " + storage);
+    }
+  }
+
+  /**
+   * @return the type of this storage
+   */
+  public abstract Contig.Storage getStorage();
+
+  /**
+   * @return the number of values
+   */
+  public abstract int size();
+
+  /**
+   * @param i
+   *          the index of a value
+   * @return the value at index i
+   */
+  public abstract float get(int i);
+
+  /**
+   * @param i
+   *          the index of a value
+   * @param value
+   *          the value to store at index i
+   */
+  public void set(int i, float value) {
+    fill(i, i + 1, value);
+  }
+
+  /**
+   * Set a range of values
+   *
+   * @param from
+   *          the first index to set (inclusive)
+   * @param to
+   *          the last index to set (exclusive)
+   * @param value
+   *          the value to store at each index
+   */
+  public abstract void fill(int from, int to, float value);
+
+  /**
+   * @return the values as an array (which may or may not be a copy)
+   */
+  public abstract float[] toArray();
+
+  /**
+   * Add all of the finite values to statistics
+   *
+   * @param stats
+   *          the accumulator to add values to
+   * @param weight
+   *          the number of times to add each value (e.g. the span)
+   */
+  public void addTo(StatsAccumulator stats, int weight) {
+    for (int i = 0; i < size(); i++) {
+      float v = get(i);
+      if (!Float.isNaN(v) && !Float.isInfinite(v)) {
+        stats.add(v, weight);
+      }
+    }
+  }
+
+}
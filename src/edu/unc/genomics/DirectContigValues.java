@@ -0,0 +1,78 @@
+package edu.unc.genomics;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Contig values stored off-heap in direct FloatBuffers, so that
+ * chromosome-scale Contigs do not occupy (or have to be copied around) the Java
+ * heap. A single direct buffer can hold at most 2^31 bytes, so the values are
+ * divided into pages.
+ *
+ * @author timpalpant
+ *
+ */
+class DirectContigValues extends ContigValues {
+
+  // 2^26 floats (256 MB) per page
+  static final int PAGE_BITS = 26;
+  private static final int PAGE_SIZE = 1 << PAGE_BITS;
+  private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+  private final int size;
+  private final FloatBuffer[] pages;
+
+  public DirectContigValues(int size) {
+    this.size = size;
+    int numPages = (int) ((size + (long) PAGE_MASK) >>> PAGE_BITS);
+    pages = new FloatBuffer[numPages];
+    for (int p = 0; p < numPages; p++) {
+      int pageSize = (int) Math.min(PAGE_SIZE, size - ((long) p << PAGE_BITS));
+      pages[p] = ByteBuffer.allocateDirect(4 * pageSize).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+    fill(0, size, Float.NaN);
+  }
+
+  @Override
+  public Contig.Storage getStorage() {
+    return Contig.Storage.DIRECT;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public float get(int i) {
+    return pages[i >>> PAGE_BITS].get(i & PAGE_MASK);
+  }
+
+  @Override
+  public void set(int i, float value) {
+    pages[i >>> PAGE_BITS].put(i & PAGE_MASK, value);
+  }
+
+  @Override
+  public void fill(int from, int to, float value) {
+    for (int i = from; i < to; i++) {
+      pages[i >>> PAGE_BITS].put(i & PAGE_MASK, value);
+    }
+  }
+
+  /**
+   * @return a copy of the values on the heap
+   */
+  @Override
+  public float[] toArray() {
+    float[] values = new float[size];
+    for (int p = 0; p < pages.length; p++) {
+      FloatBuffer page = pages[p].duplicate();
+      page.rewind();
+      page.get(values, p << PAGE_BITS, page.remaining());
+    }
+    return values;
+  }
+
+}
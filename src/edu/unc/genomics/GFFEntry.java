@@ -1,6 +1,7 @@
 package edu.unc.genomics;
 
 import edu.unc.genomics.io.IntervalFileFormatException;
+import edu.unc.genomics.util.FieldTokenizer;
 
 /**
  * @author timpalpant
@@ -9,6 +10,9 @@ import edu.unc.genomics.io.IntervalFileFormatException;
 public class GFFEntry extends ValuedInterval {
   private static final long serialVersionUID = 8657984166944604756L;
 
+  private static final ThreadLocal<FieldTokenizer> columns = FieldTokenizer.threadLocal('\t');
+  private static final ThreadLocal<FieldTokenizer> attributes = FieldTokenizer.threadLocal(';');
+
   private String source;
   private String feature;
   private String frame;
@@ -35,33 +39,32 @@ public class GFFEntry extends ValuedInterval {
       return null;
     }
 
-    String[] entry = line.split("\t");
-    if (entry.length < 9) {
+    FieldTokenizer entry = columns.get().reset(line);
+    if (entry.count() < 9) {
       throw new IntervalFileFormatException("Invalid GFF entry has < 9 columns");
     }
 
-    String chr = entry[0];
-    int start = Integer.parseInt(entry[3]);
-    int stop = Integer.parseInt(entry[4]);
-    String strand = entry[6];
+    String chr = entry.get(0);
+    int start = entry.getInt(3);
+    int stop = entry.getInt(4);
 
     GFFEntry gff = new GFFEntry(chr, start, stop);
-    gff.setSource(entry[1]);
-    gff.setFeature(entry[2]);
-    if (!entry[5].equals(".")) {
-      gff.setValue(Double.valueOf(entry[5]));
+    gff.setSource(entry.get(1));
+    gff.setFeature(entry.get(2));
+    if (!entry.equals(5, ".")) {
+      gff.setValue(entry.getDouble(5));
     }
-    gff.setFrame(entry[7]);
-    String[] note = entry[8].split(";");
-    String id = note[0].substring(9);
+    gff.setFrame(entry.get(7));
+    FieldTokenizer note = attributes.get().reset(line, entry.start(8), entry.end(8));
+    String id = note.get(0).substring(9);
     gff.setId(id);
 
     int tmpLow = gff.low();
     int tmpHigh = gff.high();
-    if (strand.equalsIgnoreCase("+")) {
+    if (entry.equalsIgnoreCase(6, "+")) {
       gff.setStart(tmpLow);
       gff.setStop(tmpHigh);
-    } else if (strand.equalsIgnoreCase("-")) {
+    } else if (entry.equalsIgnoreCase(6, "-")) {
       gff.setStart(tmpHigh);
       gff.setStop(tmpLow);
     }
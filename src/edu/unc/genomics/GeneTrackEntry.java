@@ -1,6 +1,7 @@
 package edu.unc.genomics;
 
 import edu.unc.genomics.io.IntervalFileFormatException;
+import edu.unc.genomics.util.FieldTokenizer;
 
 /**
  * A GeneTrack index file. Value corresponds to forward+reverse
@@ -11,6 +12,8 @@ import edu.unc.genomics.io.IntervalFileFormatException;
 public class GeneTrackEntry extends ValuedInterval {
   private static final long serialVersionUID = 8657984166944604756L;
 
+  private static final ThreadLocal<FieldTokenizer> columns = FieldTokenizer.threadLocal('\t');
+
   private double forward;
   private double reverse;
 
@@ -28,16 +31,16 @@ public class GeneTrackEntry extends ValuedInterval {
       return null;
     }
 
-    String[] entry = line.split("\t");
-    if (entry.length < 4) {
+    FieldTokenizer entry = columns.get().reset(line);
+    if (entry.count() < 4) {
       throw new IntervalFileFormatException("Invalid GeneTrack entry has < 4 columns: " + line);
     }
 
-    String chr = entry[0];
-    int pos = Integer.parseInt(entry[1]);
+    String chr = entry.get(0);
+    int pos = entry.getInt(1);
     GeneTrackEntry gt = new GeneTrackEntry(chr, pos, pos);
-    gt.setForward(Double.parseDouble(entry[2]));
-    gt.setReverse(Double.parseDouble(entry[3]));
+    gt.setForward(entry.getDouble(2));
+    gt.setReverse(entry.getDouble(3));
 
     return gt;
   }
@@ -0,0 +1,148 @@
+package edu.unc.genomics;
+
+import java.util.Arrays;
+
+import edu.unc.genomics.util.StatsAccumulator;
+
+/**
+ * Contig values stored as runs of identical values, which is much smaller than
+ * an array for sparse or piecewise-constant data such as variableStep or
+ * bedGraph data. Run i covers the indices [starts[i], starts[i+1]), and
+ * adjacent runs always have different values.
+ *
+ * @author timpalpant
+ *
+ */
+class SparseContigValues extends ContigValues {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final int size;
+  private int[] starts = new int[INITIAL_CAPACITY];
+  private float[] runValues = new float[INITIAL_CAPACITY];
+  private int numRuns = 0;
+
+  public SparseContigValues(int size) {
+    this.size = size;
+    if (size > 0) {
+      starts[0] = 0;
+      runValues[0] = Float.NaN;
+      numRuns = 1;
+    }
+  }
+
+  @Override
+  public Contig.Storage getStorage() {
+    return Contig.Storage.SPARSE;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return the number of runs of identical values
+   */
+  int numRuns() {
+    return numRuns;
+  }
+
+  @Override
+  public float get(int i) {
+    return runValues[runOf(i)];
+  }
+
+  @Override
+  public void fill(int from, int to, float value) {
+    if (from >= to) {
+      return;
+    }
+
+    // Replace the runs i-j that overlap [from, to) with at most 3 runs
+    int i = runOf(from);
+    int j = runOf(to - 1);
+    int stopJ = runStop(j);
+    float valueJ = runValues[j];
+    ensureCapacity(numRuns + 2);
+    int n = (starts[i] < from) ? 1 : 0;
+    int inserted = n + 1 + ((to < stopJ) ? 1 : 0);
+    System.arraycopy(starts, j + 1, starts, i + inserted, numRuns - j - 1);
+    System.arraycopy(runValues, j + 1, runValues, i + inserted, numRuns - j - 1);
+    numRuns += inserted - (j - i + 1);
+    // The first run (if any) keeps its start and value
+    starts[i + n] = from;
+    runValues[i + n] = value;
+    if (to < stopJ) {
+      starts[i + n + 1] = to;
+      runValues[i + n + 1] = valueJ;
+    }
+
+    coalesce(Math.max(0, i - 1), Math.min(numRuns - 1, i + inserted));
+  }
+
+  @Override
+  public float[] toArray() {
+    float[] values = new float[size];
+    for (int i = 0; i < numRuns; i++) {
+      Arrays.fill(values, starts[i], runStop(i), runValues[i]);
+    }
+    return values;
+  }
+
+  @Override
+  public void addTo(StatsAccumulator stats, int weight) {
+    for (int i = 0; i < numRuns; i++) {
+      float v = runValues[i];
+      if (!Float.isNaN(v) && !Float.isInfinite(v)) {
+        stats.add(v, (long) (runStop(i) - starts[i]) * weight);
+      }
+    }
+  }
+
+  /**
+   * @return the index of the run containing index i
+   */
+  private int runOf(int i) {
+    int run = Arrays.binarySearch(starts, 0, numRuns, i);
+    // Otherwise the run is the one before the insertion point
+    return (run >= 0) ? run : -(run + 1) - 1;
+  }
+
+  /**
+   * @return the (exclusive) end of run i
+   */
+  private int runStop(int i) {
+    return (i + 1 < numRuns) ? starts[i + 1] : size;
+  }
+
+  /**
+   * Merge adjacent runs with the same value in the runs lo-hi
+   */
+  private void coalesce(int lo, int hi) {
+    int w = lo;
+    for (int k = lo + 1; k <= hi; k++) {
+      if (Float.floatToIntBits(runValues[k]) != Float.floatToIntBits(runValues[w])) {
+        w++;
+        starts[w] = starts[k];
+        runValues[w] = runValues[k];
+      }
+    }
+
+    int removed = hi - w;
+    if (removed > 0) {
+      System.arraycopy(starts, hi + 1, starts, w + 1, numRuns - hi - 1);
+      System.arraycopy(runValues, hi + 1, runValues, w + 1, numRuns - hi - 1);
+      numRuns -= removed;
+    }
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity > starts.length) {
+      int newCapacity = Math.max(capacity, 2 * starts.length);
+      starts = Arrays.copyOf(starts, newCapacity);
+      runValues = Arrays.copyOf(runValues, newCapacity);
+    }
+  }
+
+}
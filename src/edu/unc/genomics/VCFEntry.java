@@ -8,6 +8,7 @@ import java.util.Map;
 import org.apache.commons.lang3.StringUtils;
 
 import edu.unc.genomics.io.IntervalFileFormatException;
+import edu.unc.genomics.util.FieldTokenizer;
 
 /**
  * An entry in a VCF v4.1 file
@@ -19,6 +20,12 @@ public class VCFEntry extends Interval {
 
   private static final long serialVersionUID = 6831019853585975440L;
 
+  private static final ThreadLocal<FieldTokenizer> columns = FieldTokenizer.threadLocal('\t');
+  private static final ThreadLocal<FieldTokenizer> altFields = FieldTokenizer.threadLocal(',');
+  private static final ThreadLocal<FieldTokenizer> infoFields = FieldTokenizer.threadLocal(';');
+  private static final ThreadLocal<FieldTokenizer> keyValues = FieldTokenizer.threadLocal('=');
+  private static final ThreadLocal<FieldTokenizer> genotypeFields = FieldTokenizer.threadLocal(':');
+
   private String ref;
   private String[] alt = null;
   private Double qual = null;
@@ -36,40 +43,43 @@ public class VCFEntry extends Interval {
       return null;
     }
 
-    String[] entry = line.split("\t");
-    if (entry.length < 8) {
+    FieldTokenizer entry = columns.get().reset(line);
+    if (entry.count() < 8) {
       throw new IntervalFileFormatException("Invalid VCF entry has < 8 columns");
     }
 
-    String chr = entry[0];
-    int pos = Integer.parseInt(entry[1]);
-    String id = entry[2];
+    String chr = entry.get(0);
+    int pos = entry.getInt(1);
+    String id = entry.get(2);
     VCFEntry vcf = new VCFEntry(chr, pos, id);
-    vcf.setRef(entry[3]);
-    if (!entry[4].equalsIgnoreCase(".")) {
-      vcf.setAlt(entry[4].split(","));
+    vcf.setRef(entry.get(3));
+    if (!entry.equalsIgnoreCase(4, ".")) {
+      vcf.setAlt(altFields.get().reset(line, entry.start(4), entry.end(4)).toArray());
     }
-    if (!entry[5].equalsIgnoreCase(".")) {
-      vcf.setQual(Double.parseDouble(entry[5]));
+    if (!entry.equalsIgnoreCase(5, ".")) {
+      vcf.setQual(entry.getDouble(5));
     }
-    vcf.setFilter(entry[6]);
-    for (String token : entry[7].split(";")) {
-      String[] keypair = token.split("=");
-      if (keypair.length == 1) {
-        vcf.addInfo(keypair[0], null);
-      } else if (keypair.length == 2) {
-        vcf.addInfo(keypair[0], keypair[1]);
+    vcf.setFilter(entry.get(6));
+    FieldTokenizer tokens = infoFields.get().reset(line, entry.start(7), entry.end(7));
+    FieldTokenizer keypair = keyValues.get();
+    for (int i = 0; i < tokens.count(); i++) {
+      keypair.reset(line, tokens.start(i), tokens.end(i));
+      if (keypair.count() == 1) {
+        vcf.addInfo(keypair.get(0), null);
+      } else if (keypair.count() == 2) {
+        vcf.addInfo(keypair.get(0), keypair.get(1));
       } else {
-        throw new IntervalFileFormatException("Invalid key-value pair (" + token + ") in info string (" + entry[7]
-            + ") in VCF file!");
+        throw new IntervalFileFormatException("Invalid key-value pair (" + tokens.get(i) + ") in info string ("
+            + entry.get(7) + ") in VCF file!");
       }
     }
 
     // If the VCF file has genotype information
-    if (entry.length > 8) {
-      vcf.setFormat(entry[8].split(":"));
-      for (int i = 9; i < entry.length; i++) {
-        vcf.addGenotype(entry[i].split(":"));
+    if (entry.count() > 8) {
+      FieldTokenizer genotype = genotypeFields.get();
+      vcf.setFormat(genotype.reset(line, entry.start(8), entry.end(8)).toArray());
+      for (int i = 9; i < entry.count(); i++) {
+        vcf.addGenotype(genotype.reset(line, entry.start(i), entry.end(i)).toArray());
       }
     }
 
@@ -0,0 +1,140 @@
+package edu.unc.genomics.io;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The locations and genomic bounds of the compressed blocks written to a
+ * BigWig file, from which its R-tree indexes are built. Entries are stored in
+ * parallel primitive arrays, since there can be millions of blocks.
+ *
+ * The entries for each chromosome must be added consecutively and in
+ * increasing order, but the chromosomes may be added in any order.
+ *
+ * @author timpalpant
+ *
+ */
+class BBBlockIndex {
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  private int[] chromIds = new int[INITIAL_CAPACITY];
+  private int[] starts = new int[INITIAL_CAPACITY];
+  private int[] ends = new int[INITIAL_CAPACITY];
+  private long[] offsets = new long[INITIAL_CAPACITY];
+  private int[] sizes = new int[INITIAL_CAPACITY];
+  private int size = 0;
+
+  /**
+   * Add an entry for a block
+   *
+   * @param chromId
+   *          the id of the block's chromosome
+   * @param start
+   *          the first base in the block (0-based)
+   * @param end
+   *          the end of the block (0-based, exclusive)
+   * @return the index of the new entry
+   */
+  public int add(int chromId, int start, int end) {
+    if (size == chromIds.length) {
+      int capacity = 2 * size;
+      chromIds = Arrays.copyOf(chromIds, capacity);
+      starts = Arrays.copyOf(starts, capacity);
+      ends = Arrays.copyOf(ends, capacity);
+      offsets = Arrays.copyOf(offsets, capacity);
+      sizes = Arrays.copyOf(sizes, capacity);
+    }
+
+    chromIds[size] = chromId;
+    starts[size] = start;
+    ends[size] = end;
+    return size++;
+  }
+
+  /**
+   * Record where a block was written
+   *
+   * @param i
+   *          the index of the block's entry
+   * @param offset
+   *          the file offset of the compressed block
+   * @param size
+   *          the size of the compressed block
+   */
+  public void setLocation(int i, long offset, int size) {
+    offsets[i] = offset;
+    sizes[i] = size;
+  }
+
+  /**
+   * Shift the file offsets of all blocks, e.g. when they are copied from a
+   * temporary file into the BigWig file
+   *
+   * @param delta
+   *          the amount to add to each offset
+   */
+  public void shift(long delta) {
+    for (int i = 0; i < size; i++) {
+      offsets[i] += delta;
+    }
+  }
+
+  /**
+   * @return the entries in order of (chromosome id, start)
+   */
+  public int[] sortedOrder() {
+    // Find the consecutive runs of entries for each chromosome
+    List<int[]> runs = new ArrayList<>();
+    for (int i = 0; i < size; i++) {
+      if (i == 0 || chromIds[i] != chromIds[i - 1]) {
+        runs.add(new int[] { chromIds[i], i, i + 1 });
+      } else {
+        runs.get(runs.size() - 1)[2] = i + 1;
+      }
+    }
+    Collections.sort(runs, new Comparator<int[]>() {
+      @Override
+      public int compare(int[] a, int[] b) {
+        return Integer.compare(a[0], b[0]);
+      }
+    });
+
+    int[] order = new int[size];
+    int k = 0;
+    for (int[] run : runs) {
+      for (int i = run[1]; i < run[2]; i++) {
+        order[k++] = i;
+      }
+    }
+    return order;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int getChromId(int i) {
+    return chromIds[i];
+  }
+
+  public int getStart(int i) {
+    return starts[i];
+  }
+
+  public int getEnd(int i) {
+    return ends[i];
+  }
+
+  public long getOffset(int i) {
+    return offsets[i];
+  }
+
+  public int getSize(int i) {
+    return sizes[i];
+  }
+
+}
@@ -0,0 +1,239 @@
+package edu.unc.genomics.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the chromosome B+ tree and the R-tree indexes of BigWig files, in the
+ * layout used by the UCSC tools: levels are written from the root down, and
+ * every node is padded to the full block size.
+ *
+ * @author timpalpant
+ *
+ */
+class BBTreeWriter {
+
+  public static final int CHROM_TREE_MAGIC = 0x78CA8C91;
+  public static final int R_TREE_MAGIC = 0x2468ACE0;
+  public static final int MAX_BLOCK_SIZE = 256;
+
+  private static final int CHROM_TREE_HEADER_SIZE = 32;
+  private static final int R_TREE_HEADER_SIZE = 48;
+  private static final int NODE_HEADER_SIZE = 4;
+  private static final int R_TREE_LEAF_ITEM_SIZE = 32;
+  private static final int R_TREE_CHILD_ITEM_SIZE = 24;
+
+  private BBTreeWriter() {
+  }
+
+  /**
+   * Write a chromosome B+ tree
+   *
+   * @param out
+   *          the file to write to
+   * @param position
+   *          the file position of the tree
+   * @param names
+   *          the chromosome names, in sorted order
+   * @param ids
+   *          the id of each chromosome
+   * @param sizes
+   *          the length of each chromosome
+   * @return the file position after the tree
+   * @throws IOException
+   *           if a disk write error occurs
+   */
+  public static long writeChromTree(FileChannel out, long position, String[] names, int[] ids, int[] sizes)
+      throws IOException {
+    int n = names.length;
+    int blockSize = Math.max(1, Math.min(MAX_BLOCK_SIZE, n));
+    byte[][] keys = new byte[n][];
+    int keySize = 1;
+    for (int i = 0; i < n; i++) {
+      keys[i] = names[i].getBytes(StandardCharsets.US_ASCII);
+      keySize = Math.max(keySize, keys[i].length);
+    }
+
+    ByteBuffer header = newBuffer(CHROM_TREE_HEADER_SIZE);
+    header.putInt(CHROM_TREE_MAGIC).putInt(blockSize).putInt(keySize).putInt(8).putLong(n).putLong(0);
+    position = write(out, header, position);
+
+    // Leaf and child items are the same size, since both values are 8 bytes
+    int nodeSize = NODE_HEADER_SIZE + blockSize * (keySize + 8);
+    int[] levels = levelSizes(n, blockSize);
+    long[] levelStarts = levelStarts(levels, position, nodeSize, nodeSize);
+    for (int l = levels.length - 1; l >= 0; l--) {
+      long itemsPerSlot = pow(blockSize, l);
+      for (int j = 0; j < levels[l]; j++) {
+        ByteBuffer node = newBuffer(nodeSize);
+        long first = j * blockSize * itemsPerSlot;
+        int count = (int) Math.min(blockSize, (l == 0) ? n - first : levels[l - 1] - (long) j * blockSize);
+        node.put((byte) ((l == 0) ? 1 : 0)).put((byte) 0).putShort((short) count);
+        for (int k = 0; k < count; k++) {
+          int item = (int) (first + k * itemsPerSlot);
+          node.put(keys[item]);
+          node.position(node.position() + keySize - keys[item].length);
+          if (l == 0) {
+            node.putInt(ids[item]).putInt(sizes[item]);
+          } else {
+            node.putLong(levelStarts[l - 1] + ((long) j * blockSize + k) * nodeSize);
+          }
+        }
+        node.position(nodeSize);
+        position = write(out, node, position);
+      }
+    }
+
+    return position;
+  }
+
+  /**
+   * Write an R-tree index of blocks
+   *
+   * @param out
+   *          the file to write to
+   * @param position
+   *          the file position of the tree
+   * @param index
+   *          the blocks to index
+   * @param order
+   *          the entries of index in order of (chromosome id, start)
+   * @param itemsPerSlot
+   *          the maximum number of items in each block
+   * @param endFileOffset
+   *          the file position after the indexed data
+   * @return the file position after the tree
+   * @throws IOException
+   *           if a disk write error occurs
+   */
+  public static long writeRTree(FileChannel out, long position, BBBlockIndex index, int[] order, int itemsPerSlot,
+      long endFileOffset) throws IOException {
+    int n = order.length;
+    int blockSize = MAX_BLOCK_SIZE;
+    ByteBuffer header = newBuffer(R_TREE_HEADER_SIZE);
+    header.putInt(R_TREE_MAGIC).putInt(blockSize).putLong(n);
+    if (n > 0) {
+      putBounds(header, index, order[0], order[n - 1]);
+    } else {
+      header.putInt(0).putInt(0).putInt(0).putInt(0);
+    }
+    header.putLong(endFileOffset).putInt(itemsPerSlot).putInt(0);
+    position = write(out, header, position);
+
+    int leafSize = NODE_HEADER_SIZE + blockSize * R_TREE_LEAF_ITEM_SIZE;
+    int childSize = NODE_HEADER_SIZE + blockSize * R_TREE_CHILD_ITEM_SIZE;
+    int[] levels = levelSizes(n, blockSize);
+    long[] levelStarts = levelStarts(levels, position, leafSize, childSize);
+    for (int l = levels.length - 1; l >= 0; l--) {
+      long itemsPerSlotAtLevel = pow(blockSize, l);
+      int nodeSize = (l == 0) ? leafSize : childSize;
+      for (int j = 0; j < levels[l]; j++) {
+        ByteBuffer node = newBuffer(nodeSize);
+        long first = j * blockSize * itemsPerSlotAtLevel;
+        int count = (int) Math.min(blockSize, (l == 0) ? n - first : levels[l - 1] - (long) j * blockSize);
+        node.put((byte) ((l == 0) ? 1 : 0)).put((byte) 0).putShort((short) count);
+        for (int k = 0; k < count; k++) {
+          long lo = first + k * itemsPerSlotAtLevel;
+          if (l == 0) {
+            int e = order[(int) lo];
+            putBounds(node, index, e, e);
+            node.putLong(index.getOffset(e)).putLong(index.getSize(e));
+          } else {
+            long hi = Math.min(lo + itemsPerSlotAtLevel, n) - 1;
+            putBounds(node, index, order[(int) lo], order[(int) hi]);
+            long child = (long) j * blockSize + k;
+            node.putLong(levelStarts[l - 1] + child * ((l == 1) ? leafSize : childSize));
+          }
+        }
+        node.position(nodeSize);
+        position = write(out, node, position);
+      }
+    }
+
+    return position;
+  }
+
+  /**
+   * Write a buffer to a file at a specific position
+   *
+   * @param out
+   *          the file to write to
+   * @param buf
+   *          the buffer to write, from its start to its position
+   * @param position
+   *          the file position to write at
+   * @return the file position after the buffer
+   * @throws IOException
+   *           if a disk write error occurs
+   */
+  public static long write(FileChannel out, ByteBuffer buf, long position) throws IOException {
+    buf.flip();
+    while (buf.hasRemaining()) {
+      position += out.write(buf, position);
+    }
+    return position;
+  }
+
+  /**
+   * @return a zeroed little-endian buffer
+   */
+  public static ByteBuffer newBuffer(int size) {
+    return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * Entries within a chromosome do not overlap, so a sorted range of entries
+   * is bounded by the start of the first and the end of the last
+   */
+  private static void putBounds(ByteBuffer buf, BBBlockIndex index, int first, int last) {
+    buf.putInt(index.getChromId(first)).putInt(index.getStart(first));
+    buf.putInt(index.getChromId(last)).putInt(index.getEnd(last));
+  }
+
+  /**
+   * @return the number of nodes in each level of a tree with n items, from the
+   *         leaves up to the root
+   */
+  private static int[] levelSizes(int n, int blockSize) {
+    List<Integer> levels = new ArrayList<>();
+    int count = Math.max(1, (n + blockSize - 1) / blockSize);
+    levels.add(count);
+    while (count > 1) {
+      count = (count + blockSize - 1) / blockSize;
+      levels.add(count);
+    }
+
+    int[] sizes = new int[levels.size()];
+    for (int i = 0; i < sizes.length; i++) {
+      sizes[i] = levels.get(i);
+    }
+    return sizes;
+  }
+
+  /**
+   * @return the file position of each level, when the levels are written from
+   *         the root down starting at position
+   */
+  private static long[] levelStarts(int[] levels, long position, int leafSize, int childSize) {
+    long[] starts = new long[levels.length];
+    for (int l = levels.length - 1; l >= 0; l--) {
+      starts[l] = position;
+      position += (long) levels[l] * ((l == 0) ? leafSize : childSize);
+    }
+    return starts;
+  }
+
+  private static long pow(int base, int exponent) {
+    long result = 1;
+    for (int i = 0; i < exponent; i++) {
+      result *= base;
+    }
+    return result;
+  }
+
+}
@@ -0,0 +1,21 @@
+package edu.unc.genomics.io;
+
+/**
+ * A decompressed BGZF block
+ *
+ * @author timpalpant
+ *
+ */
+final class BGZFBlock {
+
+  /** The decompressed data */
+  final byte[] data;
+  /** The size of the compressed block, which is the gap to the next block */
+  final int compressedSize;
+
+  BGZFBlock(byte[] data, int compressedSize) {
+    this.data = data;
+    this.compressedSize = compressedSize;
+  }
+
+}
@@ -0,0 +1,179 @@
+package edu.unc.genomics.io;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An LRU cache of decompressed BGZF blocks, keyed by file and compressed block
+ * address, so that nearby queries on a BGZF file only inflate each block once.
+ * The cache holds at most a fixed number of bytes of decompressed data, and
+ * counts hits and misses so that its size can be tuned.
+ *
+ * A single cache is shared by all of the BGZF files that are opened without
+ * their own cache. Its size is set with the system property
+ * CACHE_BYTES_PROPERTY (64 MB by default, 0 to disable caching).
+ *
+ * @author timpalpant
+ *
+ */
+public class BGZFBlockCache {
+
+  public static final String CACHE_BYTES_PROPERTY = "edu.unc.genomics.io.bgzfCacheBytes";
+  public static final long DEFAULT_CACHE_BYTES = 64L << 20;
+
+  /** Approximate memory for each cached block outside of its data */
+  private static final int BLOCK_OVERHEAD = 96;
+
+  private static final BGZFBlockCache shared = new BGZFBlockCache(Long.getLong(CACHE_BYTES_PROPERTY,
+      DEFAULT_CACHE_BYTES));
+
+  private final long maxBytes;
+  private final LinkedHashMap<Key, BGZFBlock> blocks = new LinkedHashMap<>(16, 0.75f, true);
+  private long size = 0;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * @param maxBytes
+   *          the most memory to use for cached blocks, or 0 to disable caching
+   */
+  public BGZFBlockCache(long maxBytes) {
+    if (maxBytes < 0) {
+      throw new IllegalArgumentException("Cache size must be >= 0");
+    }
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * @return the cache that is shared by all BGZF files by default
+   */
+  public static BGZFBlockCache getShared() {
+    return shared;
+  }
+
+  /**
+   * @param file
+   *          identifies the file and its version
+   * @param address
+   *          the compressed address of the block
+   * @return the cached block, or null if it is not cached
+   */
+  BGZFBlock get(String file, long address) {
+    BGZFBlock block;
+    synchronized (blocks) {
+      block = blocks.get(new Key(file, address));
+    }
+    if (block == null) {
+      misses.incrementAndGet();
+    } else {
+      hits.incrementAndGet();
+    }
+    return block;
+  }
+
+  /**
+   * Add a block to the cache, evicting the least recently used blocks if the
+   * cache is full
+   */
+  void put(String file, long address, BGZFBlock block) {
+    long blockBytes = sizeOf(block);
+    if (blockBytes > maxBytes) {
+      return;
+    }
+
+    synchronized (blocks) {
+      BGZFBlock previous = blocks.put(new Key(file, address), block);
+      if (previous != null) {
+        size -= sizeOf(previous);
+      }
+      size += blockBytes;
+      Iterator<BGZFBlock> it = blocks.values().iterator();
+      while (size > maxBytes && it.hasNext()) {
+        size -= sizeOf(it.next());
+        it.remove();
+      }
+    }
+  }
+
+  private static long sizeOf(BGZFBlock block) {
+    return block.data.length + BLOCK_OVERHEAD;
+  }
+
+  /**
+   * Remove all blocks from the cache
+   */
+  public void clear() {
+    synchronized (blocks) {
+      blocks.clear();
+      size = 0;
+    }
+  }
+
+  /**
+   * @return the number of lookups that found their block in the cache
+   */
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  /**
+   * @return the number of lookups that had to read and inflate their block
+   */
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  /**
+   * @return the memory used by the cached blocks
+   */
+  public long getSize() {
+    synchronized (blocks) {
+      return size;
+    }
+  }
+
+  /**
+   * @return the number of cached blocks
+   */
+  public int getNumBlocks() {
+    synchronized (blocks) {
+      return blocks.size();
+    }
+  }
+
+  /**
+   * @return the most memory to use for cached blocks
+   */
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * A block in a particular version of a file
+   */
+  private static final class Key {
+    private final String file;
+    private final long address;
+
+    Key(String file, long address) {
+      this.file = file;
+      this.address = address;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * file.hashCode() + (int) (address ^ (address >>> 32));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return address == other.address && file.equals(other.file);
+    }
+  }
+
+}
@@ -0,0 +1,202 @@
+package edu.unc.genomics.io;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A cursor for reading the decompressed data of a BGZF file, with the same
+ * virtual file offsets as BlockCompressedInputStream: the compressed address of
+ * a block in the upper 48 bits, and the offset within the decompressed block in
+ * the lower 16 bits. A cursor at the end of a block is reported as the start
+ * of the next block.
+ *
+ * Blocks come from the file's BGZFBlockCache, so cursors that read the same
+ * part of a file share the decompressed blocks. A cursor is not thread-safe,
+ * but any number of cursors may read the same BGZFFile concurrently.
+ *
+ * @author timpalpant
+ *
+ */
+public class BGZFBlockReader implements LineReader {
+
+  private final BGZFFile file;
+  private BGZFBlock block;
+  private long address = 0;
+  private int offset = 0;
+  private byte[] lineBuffer = new byte[256];
+  private byte[] lineArray;
+  private int lineStart;
+
+  BGZFBlockReader(BGZFFile file) {
+    this.file = file;
+  }
+
+  /**
+   * Move the cursor to a virtual file offset
+   *
+   * @param virtualOffset
+   *          a virtual file offset, such as from getFilePointer() or a Tabix
+   *          index
+   * @throws IOException
+   *           if the offset is not in the file
+   */
+  public void seek(long virtualOffset) throws IOException {
+    long newAddress = virtualOffset >>> 16;
+    int newOffset = (int) (virtualOffset & 0xffff);
+    BGZFBlock newBlock = file.getBlock(newAddress);
+    int available = (newBlock == null) ? 0 : newBlock.data.length;
+    if (newOffset > available) {
+      throw new IOException("Invalid file pointer: " + virtualOffset);
+    }
+    block = newBlock;
+    address = newAddress;
+    offset = newOffset;
+  }
+
+  /**
+   * @return the virtual file offset of the cursor
+   */
+  public long getFilePointer() {
+    if (block != null && offset == block.data.length) {
+      return (address + block.compressedSize) << 16;
+    }
+    return (address << 16) | offset;
+  }
+
+  /**
+   * Load the next block if the current one has been read
+   *
+   * @return false if there is no more data in the file
+   */
+  private boolean ensureAvailable() throws IOException {
+    while (block == null || offset == block.data.length) {
+      if (block != null) {
+        address += block.compressedSize;
+        offset = 0;
+      }
+      block = file.getBlock(address);
+      if (block == null) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the next decompressed byte, or -1 at the end of the file
+   */
+  public int read() throws IOException {
+    if (!ensureAvailable()) {
+      return -1;
+    }
+    return block.data[offset++] & 0xff;
+  }
+
+  /**
+   * Find the next line terminated by '\n', '\r', or "\r\n", without decoding
+   * it. If the whole line is in one block, it is left in the decompressed
+   * block, otherwise it is copied into a buffer that is reused for each line.
+   * Either way the line is in getLineArray(), starting at getLineStart(), and
+   * is only valid until the next line is read.
+   *
+   * @return the length of the line, without its terminator, or -1 at the end
+   *         of the file
+   */
+  public int scanLine() throws IOException {
+    if (!ensureAvailable()) {
+      return -1;
+    }
+
+    byte[] data = block.data;
+    int end = indexOfLineEnd(data, offset);
+    if (end < data.length) {
+      lineArray = data;
+      lineStart = offset;
+      offset = end + 1;
+      if (data[end] == '\r') {
+        skipNewline();
+      }
+      return end - lineStart;
+    }
+
+    // The line continues in the next block
+    int length = 0;
+    for (;;) {
+      int n = end - offset;
+      if (length + n > lineBuffer.length) {
+        lineBuffer = Arrays.copyOf(lineBuffer, Math.max(length + n, 2 * lineBuffer.length));
+      }
+      System.arraycopy(data, offset, lineBuffer, length, n);
+      length += n;
+      offset = end;
+      if (end < data.length) {
+        offset++;
+        if (data[end] == '\r') {
+          skipNewline();
+        }
+        break;
+      } else if (!ensureAvailable()) {
+        break;
+      }
+      data = block.data;
+      end = indexOfLineEnd(data, offset);
+    }
+
+    lineArray = lineBuffer;
+    lineStart = 0;
+    return length;
+  }
+
+  /**
+   * @return the index of the first '\n' or '\r' in data from start, or the
+   *         length of data if there are none
+   */
+  private static int indexOfLineEnd(byte[] data, int start) {
+    int i = start;
+    while (i < data.length && data[i] != '\n' && data[i] != '\r') {
+      i++;
+    }
+    return i;
+  }
+
+  /**
+   * Skip the \n of a \r\n terminator, which may be in the next block
+   */
+  private void skipNewline() throws IOException {
+    if (ensureAvailable() && block.data[offset] == '\n') {
+      offset++;
+    }
+  }
+
+  /**
+   * @return the array that holds the line found by the last call to scanLine()
+   */
+  public byte[] getLineArray() {
+    return lineArray;
+  }
+
+  /**
+   * @return the index of the line found by the last call to scanLine() in
+   *         getLineArray()
+   */
+  public int getLineStart() {
+    return lineStart;
+  }
+
+  /**
+   * Read a line terminated by '\n', '\r', or "\r\n", decoded with the default
+   * character set, as with BlockCompressedInputStream.readLine()
+   *
+   * @return the line, without its terminator, or null at the end of the file
+   */
+  @Override
+  public String readLine() throws IOException {
+    int length = scanLine();
+    if (length < 0) {
+      return null;
+    }
+    return new String(lineArray, lineStart, length, Charset.defaultCharset());
+  }
+
+}
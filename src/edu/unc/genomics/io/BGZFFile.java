@@ -0,0 +1,199 @@
+package edu.unc.genomics.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A BGZF (block gzip) file that is read one block at a time, with random
+ * access by compressed block address. Decompressed blocks are kept in a
+ * BGZFBlockCache, so that reading the same block again does not inflate it
+ * again.
+ *
+ * Blocks are read with a shared RandomAccessFile, so a single BGZFFile may be
+ * shared by any number of threads, each with its own BGZFBlockReader.
+ *
+ * @author timpalpant
+ *
+ */
+public class BGZFFile implements Closeable {
+
+  private static final Logger log = Logger.getLogger(BGZFFile.class);
+
+  /** The size of the fixed part of a gzip header */
+  private static final int GZIP_HEADER_SIZE = 12;
+  /** The size of the CRC32 and ISIZE fields at the end of each block */
+  private static final int GZIP_FOOTER_SIZE = 8;
+  private static final int GZIP_ID1 = 31;
+  private static final int GZIP_ID2 = 139;
+  private static final int GZIP_FLG_FEXTRA = 4;
+  private static final int BGZF_ID1 = 'B';
+  private static final int BGZF_ID2 = 'C';
+
+  private final Path p;
+  private final RandomAccessFile raf;
+  private final long length;
+  private final String key;
+  private final BGZFBlockCache cache;
+
+  /**
+   * Open a BGZF file with the shared block cache
+   *
+   * @param p
+   *          the file to open
+   * @throws IOException
+   *           if the file cannot be opened
+   */
+  public BGZFFile(Path p) throws IOException {
+    this(p, BGZFBlockCache.getShared());
+  }
+
+  /**
+   * @param p
+   *          the file to open
+   * @param cache
+   *          the cache to keep decompressed blocks in
+   * @throws IOException
+   *           if the file cannot be opened
+   */
+  public BGZFFile(Path p, BGZFBlockCache cache) throws IOException {
+    this.p = p;
+    this.cache = cache;
+    raf = new RandomAccessFile(p.toFile(), "r");
+    length = raf.length();
+    // Cached blocks are only reused for the same version of the file
+    key = p.toRealPath() + ":" + length + ":" + Files.getLastModifiedTime(p).toMillis();
+  }
+
+  /**
+   * @return a new cursor for reading this file, positioned at the start
+   */
+  public BGZFBlockReader newReader() {
+    return new BGZFBlockReader(this);
+  }
+
+  /**
+   * Get a decompressed block from the cache, or read and inflate it
+   *
+   * @param address
+   *          the compressed address of the block
+   * @return the block, or null if the address is at the end of the file
+   * @throws IOException
+   *           if the block cannot be read or is invalid
+   */
+  BGZFBlock getBlock(long address) throws IOException {
+    if (address >= length) {
+      return null;
+    }
+
+    BGZFBlock block = cache.get(key, address);
+    if (block == null) {
+      block = readBlock(address);
+      cache.put(key, address, block);
+    }
+    return block;
+  }
+
+  /**
+   * Read and inflate the block at an address
+   */
+  private BGZFBlock readBlock(long address) throws IOException {
+    byte[] compressed;
+    int headerSize;
+    synchronized (raf) {
+      raf.seek(address);
+      byte[] header = new byte[GZIP_HEADER_SIZE];
+      raf.readFully(header);
+      if ((header[0] & 0xff) != GZIP_ID1 || (header[1] & 0xff) != GZIP_ID2 || (header[3] & GZIP_FLG_FEXTRA) == 0) {
+        throw new IOException("Invalid BGZF block header at address " + address + " in file " + p);
+      }
+      int xlen = unpackShort(header, 10);
+      headerSize = GZIP_HEADER_SIZE + xlen;
+      byte[] extra = new byte[xlen];
+      raf.readFully(extra);
+      int blockSize = findBlockSize(extra);
+      if (blockSize < headerSize + GZIP_FOOTER_SIZE) {
+        throw new IOException("Invalid BGZF block size at address " + address + " in file " + p);
+      }
+
+      compressed = new byte[blockSize];
+      System.arraycopy(header, 0, compressed, 0, GZIP_HEADER_SIZE);
+      System.arraycopy(extra, 0, compressed, GZIP_HEADER_SIZE, xlen);
+      raf.readFully(compressed, headerSize, blockSize - headerSize);
+    }
+
+    int uncompressedSize = unpackInt(compressed, compressed.length - 4);
+    byte[] data = new byte[uncompressedSize];
+    Inflater inflater = new Inflater(true);
+    try {
+      inflater.setInput(compressed, headerSize, compressed.length - headerSize - GZIP_FOOTER_SIZE);
+      int n = inflater.inflate(data);
+      if (n != uncompressedSize) {
+        throw new IOException("BGZF block at address " + address + " inflated to " + n + " bytes, expected "
+            + uncompressedSize);
+      }
+    } catch (DataFormatException e) {
+      throw new IOException("Error inflating BGZF block at address " + address + " in file " + p, e);
+    } finally {
+      inflater.end();
+    }
+
+    return new BGZFBlock(data, compressed.length);
+  }
+
+  /**
+   * Find the BC subfield in the gzip extra field
+   *
+   * @return the total size of the block
+   */
+  private int findBlockSize(byte[] extra) throws IOException {
+    int i = 0;
+    while (i + 4 <= extra.length) {
+      int slen = unpackShort(extra, i + 2);
+      if (extra[i] == BGZF_ID1 && extra[i + 1] == BGZF_ID2 && slen == 2 && i + 6 <= extra.length) {
+        return unpackShort(extra, i + 4) + 1;
+      }
+      i += 4 + slen;
+    }
+    throw new IOException("Gzip block in file " + p + " is not a BGZF block");
+  }
+
+  private static int unpackShort(byte[] buf, int i) {
+    return (buf[i] & 0xff) | ((buf[i + 1] & 0xff) << 8);
+  }
+
+  private static int unpackInt(byte[] buf, int i) {
+    return (buf[i] & 0xff) | ((buf[i + 1] & 0xff) << 8) | ((buf[i + 2] & 0xff) << 16) | ((buf[i + 3] & 0xff) << 24);
+  }
+
+  /**
+   * @return the length of the compressed file
+   */
+  public long length() {
+    return length;
+  }
+
+  /**
+   * @return the cache that decompressed blocks are kept in
+   */
+  public BGZFBlockCache getCache() {
+    return cache;
+  }
+
+  public Path getPath() {
+    return p;
+  }
+
+  @Override
+  public void close() throws IOException {
+    log.debug("Closing BGZF file " + p);
+    raf.close();
+  }
+
+}
@@ -4,7 +4,10 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
@@ -14,9 +17,11 @@ import org.broad.igv.bbfile.BBTotalSummaryBlock;
 import org.broad.igv.bbfile.BigWigIterator;
 import org.broad.igv.bbfile.RPChromosomeRegion;
 import org.broad.igv.bbfile.WigItem;
+import org.broad.igv.bbfile.ZoomDataRecord;
+import org.broad.igv.bbfile.ZoomLevelIterator;
 
-import edu.unc.genomics.Contig;
 import edu.unc.genomics.Interval;
+import edu.unc.genomics.util.StatsAccumulator;
 
 /**
  * A BigWig file. For more information, see:
@@ -36,23 +41,92 @@ public class BigWigFileReader extends WigFileReader {
 
   private static final Logger log = Logger.getLogger(BigWigFileReader.class);
 
-  private BBFileReader reader;
-  private BBTotalSummaryBlock summary;
+  /**
+   * BBFileReader seeks a single shared stream, so each thread queries the file
+   * through its own reader. The readers are held here rather than in a
+   * ThreadLocal, so that close() can release every one of them.
+   */
+  private final ConcurrentMap<Thread, BBFileReader> readers = new ConcurrentHashMap<>();
+  private volatile boolean closed = false;
+  private final BBTotalSummaryBlock summary;
+  // The number of bases summarized by each record of each zoom level
+  private final int[] reductionLevels;
 
   public BigWigFileReader(Path p) throws IOException {
     super(p);
 
     log.debug("Opening BigWig file reader " + p);
-    reader = new BBFileReader(p.toString());
+    BBFileReader reader = open();
+    readers.put(Thread.currentThread(), reader);
     summary = reader.getTotalSummaryBlock();
+    reductionLevels = new int[reader.getZoomLevelCount()];
+    for (int i = 0; i < reductionLevels.length; i++) {
+      reductionLevels[i] = reader.getZoomLevels().getZoomLevelHeader(i + 1).getReductionLevel();
+    }
   }
 
   public BigWigFileReader(BigWigFileReader other) throws IOException {
-    super(other.p);
+    this(other.p);
+  }
 
-    log.debug("Cloning BigWig file reader " + p);
-    reader = new BBFileReader(other.p.toString());
-    summary = reader.getTotalSummaryBlock();
+  /**
+   * Open a new handle to the BigWig file
+   */
+  private BBFileReader open() throws IOException {
+    log.debug("Opening new file handle to BigWig file " + p);
+    return new BBFileReader(p.toString());
+  }
+
+  /**
+   * @return the BigWig reader for the current thread, opening it if necessary
+   * @throws IllegalStateException
+   *           if this reader has been closed
+   */
+  private BBFileReader reader() {
+    if (closed) {
+      throw new IllegalStateException("BigWig file reader " + p + " is closed");
+    }
+
+    Thread thread = Thread.currentThread();
+    BBFileReader reader = readers.get(thread);
+    if (reader == null) {
+      releaseDeadThreads();
+      try {
+        reader = open();
+      } catch (IOException e) {
+        throw new RuntimeException("Error opening BigWig file " + p, e);
+      }
+      readers.put(thread, reader);
+
+      // Do not leak a handle opened while this reader was being closed
+      if (closed) {
+        if (readers.remove(thread, reader)) {
+          closeHandle(reader);
+        }
+        throw new IllegalStateException("BigWig file reader " + p + " is closed");
+      }
+    }
+
+    return reader;
+  }
+
+  /**
+   * Close the handles of threads that have finished
+   */
+  private void releaseDeadThreads() {
+    for (Map.Entry<Thread, BBFileReader> entry : readers.entrySet()) {
+      if (!entry.getKey().isAlive() && readers.remove(entry.getKey(), entry.getValue())) {
+        closeHandle(entry.getValue());
+      }
+    }
+  }
+
+  private void closeHandle(BBFileReader reader) {
+    try {
+      reader.getBBFis().close();
+    } catch (IOException e) {
+      log.warn("Error closing BigWig file handle " + p + ": " + e.getMessage());
+    }
   }
 
   public static boolean isBigWig(Path p) throws IOException {
@@ -68,69 +142,161 @@ public class BigWigFileReader extends WigFileReader {
   @Override
   public void close() {
     log.debug("Closing BigWig file reader " + p);
+    closed = true;
+    for (Thread thread : readers.keySet()) {
+      BBFileReader reader = readers.remove(thread);
+      if (reader != null) {
+        closeHandle(reader);
+      }
+    }
   }
 
   @Override
-  public synchronized Contig query(Interval interval) {
-    float[] values = new float[interval.length()];
-    Arrays.fill(values, Float.NaN);
-    BigWigIterator it = reader.getBigWigIterator(interval.getChr(), interval.low() - 1, interval.getChr(),
+  protected void fill(Interval interval, float[] values) {
+    Arrays.fill(values, 0, interval.length(), Float.NaN);
+    BigWigIterator it = reader().getBigWigIterator(interval.getChr(), interval.low() - 1, interval.getChr(),
         interval.high(), false);
     while (it.hasNext()) {
       WigItem item = it.next();
       float value = item.getWigValue();
       if (!Float.isNaN(value)) {
-        for (int bp = item.getStartBase() + 1; bp <= item.getEndBase(); bp++) {
-          if (interval.includes(bp)) {
-            values[bp - interval.low()] = value;
-          }
+        int start = Math.max(item.getStartBase() + 1, interval.low());
+        int stop = Math.min(item.getEndBase(), interval.high());
+        if (start <= stop) {
+          Arrays.fill(values, start - interval.low(), stop - interval.low() + 1, value);
         }
       }
     }
-
-    if (interval.isCrick()) {
-      ArrayUtils.reverse(values);
-    }
-
-    return new Contig(interval, values);
   }
   
   @Override
-  public synchronized SummaryStatistics queryStats(Interval interval) {
-    SummaryStatistics stats = new SummaryStatistics();
-    BigWigIterator it = reader.getBigWigIterator(interval.getChr(), interval.low() - 1, interval.getChr(),
+  public SummaryStatistics queryStats(Interval interval) {
+    StatsAccumulator stats = new StatsAccumulator();
+    BigWigIterator it = reader().getBigWigIterator(interval.getChr(), interval.low() - 1, interval.getChr(),
         interval.high(), false);
     while (it.hasNext()) {
       WigItem item = it.next();
       float value = item.getWigValue();
       if (!Float.isNaN(value)) {
-        for (int bp = item.getStartBase() + 1; bp <= item.getEndBase(); bp++) {
-          if (interval.includes(bp)) {
-            stats.addValue(value);
-          }
+        // Add the value once for each base of the item within the interval
+        int start = Math.max(item.getStartBase() + 1, interval.low());
+        int stop = Math.min(item.getEndBase(), interval.high());
+        stats.add(value, stop - start + 1);
+      }
+    }
+
+    return stats.toSummaryStatistics();
+  }
+
+  /**
+   * The summaries are computed from the coarsest zoom level whose records are
+   * no larger than half of a bin, without decoding the raw data. Zoom records
+   * that straddle the boundary between bins are divided between them in
+   * proportion to their overlap, so the summaries are approximate. If no zoom
+   * level is fine enough, the raw data is used and the summaries are exact.
+   */
+  @Override
+  public StatsAccumulator[] querySummary(Interval interval, int numBins) {
+    Bins bins = new Bins(interval, numBins);
+    StatsAccumulator[] summaries = bins.newSummaries();
+
+    int zoomLevel = getZoomLevel(interval.length() / numBins);
+    if (zoomLevel > 0) {
+      log.debug("Summarizing " + interval + " in " + numBins + " bins from zoom level " + zoomLevel);
+      summarizeZoomLevel(interval, zoomLevel, bins, summaries);
+    } else {
+      log.debug("Summarizing " + interval + " in " + numBins + " bins from raw data");
+      summarizeRawData(interval, bins, summaries);
+    }
+
+    if (interval.isCrick()) {
+      ArrayUtils.reverse(summaries);
+    }
+
+    return summaries;
+  }
+
+  /**
+   * @param basesPerBin
+   *          the number of bases in each bin of a summary
+   * @return the coarsest zoom level with a reduction level no more than half of
+   *         basesPerBin, or 0 if there is none (and the raw data should be used)
+   */
+  public int getZoomLevel(int basesPerBin) {
+    int best = 0;
+    for (int i = 0; i < reductionLevels.length; i++) {
+      if (2L * reductionLevels[i] <= basesPerBin && (best == 0 || reductionLevels[i] > reductionLevels[best - 1])) {
+        best = i + 1;
+      }
+    }
+
+    return best;
+  }
+
+  /**
+   * Add the zoom records overlapping interval to the bins that they overlap
+   */
+  private void summarizeZoomLevel(Interval interval, int zoomLevel, Bins bins, StatsAccumulator[] summaries) {
+    ZoomLevelIterator it = reader().getZoomLevelIterator(zoomLevel, interval.getChr(), interval.low() - 1,
+        interval.getChr(), interval.high(), false);
+    while (it.hasNext()) {
+      ZoomDataRecord record = it.next();
+      int basesCovered = record.getBasesCovered();
+      if (basesCovered <= 0) {
+        continue;
+      }
+
+      // Zoom records are 0-based, half-open
+      int recordLength = record.getChromEnd() - record.getChromStart();
+      int start = Math.max(record.getChromStart() + 1, interval.low());
+      int stop = Math.min(record.getChromEnd(), interval.high());
+      for (int i = bins.indexOf(start); start <= stop; i++) {
+        int binStop = Math.min(stop, bins.stop(i));
+        // The share of the record's bases that fall in this bin
+        long n = Math.round((double) basesCovered * (binStop - start + 1) / recordLength);
+        if (n > 0) {
+          double scale = (double) n / basesCovered;
+          summaries[i].addSummary(n, scale * record.getSumData(), scale * record.getSumSquares(),
+              record.getMinVal(), record.getMaxVal());
         }
+        start = binStop + 1;
       }
     }
+  }
 
-    return stats;
+  /**
+   * Add the raw data in interval to the bins that it overlaps
+   */
+  private void summarizeRawData(Interval interval, Bins bins, StatsAccumulator[] summaries) {
+    BigWigIterator it = reader().getBigWigIterator(interval.getChr(), interval.low() - 1, interval.getChr(),
+        interval.high(), false);
+    while (it.hasNext()) {
+      WigItem item = it.next();
+      float value = item.getWigValue();
+      if (!Float.isNaN(value)) {
+        int start = Math.max(item.getStartBase() + 1, interval.low());
+        int stop = Math.min(item.getEndBase(), interval.high());
+        bins.add(summaries, start, stop, value);
+      }
+    }
   }
 
   @Override
-  public synchronized Set<String> chromosomes() {
-    return new LinkedHashSet<String>(reader.getChromosomeNames());
+  public Set<String> chromosomes() {
+    return new LinkedHashSet<String>(reader().getChromosomeNames());
   }
 
   @Override
-  public synchronized int getChrStart(String chr) {
-    int chrID = reader.getChromosomeID(chr);
-    RPChromosomeRegion region = reader.getChromosomeBounds(chrID, chrID);
+  public int getChrStart(String chr) {
+    int chrID = reader().getChromosomeID(chr);
+    RPChromosomeRegion region = reader().getChromosomeBounds(chrID, chrID);
     return region.getStartBase() + 1;
   }
 
   @Override
-  public synchronized int getChrStop(String chr) {
-    int chrID = reader.getChromosomeID(chr);
-    RPChromosomeRegion region = reader.getChromosomeBounds(chrID, chrID);
+  public int getChrStop(String chr) {
+    int chrID = reader().getChromosomeID(chr);
+    RPChromosomeRegion region = reader().getChromosomeBounds(chrID, chrID);
     return region.getEndBase();
   }
 
@@ -145,47 +311,47 @@ public class BigWigFileReader extends WigFileReader {
   }
 
   @Override
-  public synchronized boolean includes(String chr, int start, int stop) {
-    int chrID = reader.getChromosomeID(chr);
+  public boolean includes(String chr, int start, int stop) {
+    int chrID = reader().getChromosomeID(chr);
     if (chrID == -1) {
       return false;
     }
-    RPChromosomeRegion region = reader.getChromosomeBounds(chrID, chrID);
+    RPChromosomeRegion region = reader().getChromosomeBounds(chrID, chrID);
     return region.getStartBase() <= start && region.getEndBase() >= stop;
   }
 
   @Override
-  public synchronized boolean includes(String chr) {
-    return reader.getChromosomeID(chr) != -1;
+  public boolean includes(String chr) {
+    return reader().getChromosomeID(chr) != -1;
   }
 
   @Override
-  public synchronized long numBases() {
+  public long numBases() {
     return summary.getBasesCovered();
   }
 
   @Override
-  public synchronized double total() {
+  public double total() {
     return summary.getSumData();
   }
 
   @Override
-  public synchronized double mean() {
+  public double mean() {
     return total() / numBases();
   }
 
   @Override
-  public synchronized double stdev() {
+  public double stdev() {
     return Math.sqrt(summary.getSumSquares() / numBases() - Math.pow(mean(), 2));
   }
 
   @Override
-  public synchronized double min() {
+  public double min() {
     return summary.getMinVal();
   }
 
   @Override
-  public synchronized double max() {
+  public double max() {
     return summary.getMaxVal();
   }
 
@@ -0,0 +1,468 @@
+package edu.unc.genomics.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.log4j.Logger;
+
+import edu.unc.genomics.Assembly;
+import edu.unc.genomics.Contig;
+import edu.unc.genomics.util.NamedDaemonThreadFactory;
+import edu.unc.genomics.util.StatsAccumulator;
+
+/**
+ * A class for writing data to binary BigWig files
+ *
+ * Contigs are written as they are received, so memory use is bounded
+ * regardless of the size of the genome. All of the Contigs for a chromosome
+ * must be written consecutively and in increasing order, but chromosomes may
+ * be written in any order. The data blocks and zoom-level summaries are
+ * compressed on a pool of threads, and the indexes are written when the file
+ * is closed.
+ *
+ * Zoom levels are computed on the fly in bins of a fixed number of bases,
+ * starting at INITIAL_REDUCTION and increasing by ZOOM_INCREMENT, rather than
+ * from an initial pass over the data as wigToBigWig does.
+ *
+ * @author timpalpant
+ *
+ */
+public class BigWigFileWriter implements Closeable {
+
+  private static final Logger log = Logger.getLogger(BigWigFileWriter.class);
+
+  public static final int MAGIC = 0x888FFC26;
+  public static final short VERSION = 4;
+  /** The maximum number of items in a data section or zoom block */
+  public static final int ITEMS_PER_SLOT = 1024;
+  public static final int INITIAL_REDUCTION = 40;
+  public static final int ZOOM_INCREMENT = 4;
+  public static final int MAX_ZOOM_LEVELS = 10;
+
+  private static final int HEADER_SIZE = 64;
+  private static final int ZOOM_HEADER_SIZE = 24;
+  private static final int TOTAL_SUMMARY_SIZE = 40;
+  private static final int SECTION_HEADER_SIZE = 24;
+  private static final int ZOOM_RECORD_SIZE = 32;
+  private static final byte BEDGRAPH_SECTION = 1;
+  private static final byte FIXEDSTEP_SECTION = 3;
+
+  private final Path p;
+  private final FileChannel channel;
+  private final ExecutorService executor;
+  // Chromosome ids are the indices of the chromosomes in sorted order
+  private final String[] chromNames;
+  private final int[] chromSizes;
+  private final Set<String> writtenChroms = new HashSet<>();
+  private final long totalSummaryOffset;
+  private final long fullDataOffset;
+  private final BlockCompressor data;
+  private final BBBlockIndex dataIndex = new BBBlockIndex();
+  private final ZoomLevel[] zoomLevels;
+  private final StatsAccumulator stats = new StatsAccumulator();
+
+  // The current chromosome and data section
+  private String chr;
+  private int chromId;
+  private int chromEnd;
+  private boolean chromHasData;
+  private final int[] runStarts = new int[ITEMS_PER_SLOT];
+  private final int[] runEnds = new int[ITEMS_PER_SLOT];
+  private final float[] runValues = new float[ITEMS_PER_SLOT];
+  private int numRuns = 0;
+  private int sectionCount = 0;
+
+  /**
+   * Create a new BigWig file, compressing blocks on all available processors
+   *
+   * @param p
+   *          the Path to the BigWig file
+   * @param assembly
+   *          the lengths of the chromosomes in the genome
+   * @throws IOException
+   *           if a disk write error occurs
+   */
+  public BigWigFileWriter(Path p, Assembly assembly) throws IOException {
+    this(p, assembly, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Create a new BigWig file
+   *
+   * @param p
+   *          the Path to the BigWig file
+   * @param assembly
+   *          the lengths of the chromosomes in the genome
+   * @param numThreads
+   *          the number of threads to compress blocks with
+   * @throws IOException
+   *           if a disk write error occurs
+   */
+  public BigWigFileWriter(Path p, Assembly assembly, int numThreads) throws IOException {
+    this.p = p;
+    log.debug("Initializing BigWig file writer " + p);
+    chromNames = assembly.chromosomes().toArray(new String[0]);
+    Arrays.sort(chromNames);
+    chromSizes = new int[chromNames.length];
+    int maxChromSize = 0;
+    for (int i = 0; i < chromNames.length; i++) {
+      chromSizes[i] = assembly.getChrLength(chromNames[i]);
+      maxChromSize = Math.max(maxChromSize, chromSizes[i]);
+    }
+
+    // Only zoom levels that summarize a chromosome in more than one record
+    List<Integer> reductions = new ArrayList<>();
+    for (long r = INITIAL_REDUCTION; r < maxChromSize && reductions.size() < MAX_ZOOM_LEVELS; r *= ZOOM_INCREMENT) {
+      reductions.add((int) r);
+    }
+
+    executor = (numThreads > 1) ? Executors.newFixedThreadPool(numThreads, new NamedDaemonThreadFactory(
+        "bigwig-compressor")) : null;
+    int maxPending = 2 * Math.max(1, numThreads);
+    channel = FileChannel.open(p, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING);
+    totalSummaryOffset = HEADER_SIZE + ZOOM_HEADER_SIZE * reductions.size();
+    fullDataOffset = totalSummaryOffset + TOTAL_SUMMARY_SIZE;
+    // The data starts with the number of sections, which is written on close
+    data = new BlockCompressor(channel, fullDataOffset + 4, executor, maxPending);
+    zoomLevels = new ZoomLevel[reductions.size()];
+    for (int i = 0; i < zoomLevels.length; i++) {
+      zoomLevels[i] = new ZoomLevel(reductions.get(i), executor, maxPending);
+    }
+  }
+
+  /**
+   * Add a Contig of values to this BigWig file. Contigs without any data are
+   * skipped.
+   *
+   * @param contig
+   *          the Contig of values to write
+   * @throws IOException
+   *           if a disk write error occurs
+   * @throws IllegalArgumentException
+   *           if the chromosome of contig is not in the assembly, or contig is
+   *           out of order
+   */
+  public void write(Contig contig) throws IOException {
+    if (!contig.getChr().equals(chr)) {
+      startChromosome(contig.getChr());
+    }
+
+    // Break the values into runs of identical values
+    int runStart = contig.low();
+    float runValue = contig.get(runStart);
+    for (int bp = contig.low() + 1; bp <= contig.high(); bp++) {
+      float value = contig.get(bp);
+      if (Float.floatToIntBits(value) != Float.floatToIntBits(runValue)) {
+        addRun(runStart - 1, bp - 1, runValue);
+        runStart = bp;
+        runValue = value;
+      }
+    }
+    addRun(runStart - 1, contig.high(), runValue);
+    flushSection();
+  }
+
+  @Override
+  public void close() throws IOException {
+    log.debug("Closing BigWig file writer " + p);
+    try {
+      endChromosome();
+      data.flush();
+      ByteBuffer count = BBTreeWriter.newBuffer(4);
+      count.putInt(sectionCount);
+      BBTreeWriter.write(channel, count, fullDataOffset);
+
+      long fullIndexOffset = data.position();
+      long position = BBTreeWriter.writeRTree(channel, fullIndexOffset, dataIndex, dataIndex.sortedOrder(), 1,
+          fullIndexOffset);
+
+      // Only chromosomes with data are included in the chromosome tree
+      long chromTreeOffset = position;
+      List<Integer> used = new ArrayList<>();
+      for (int i = 0; i < chromNames.length; i++) {
+        if (writtenChroms.contains(chromNames[i])) {
+          used.add(i);
+        }
+      }
+      String[] names = new String[used.size()];
+      int[] ids = new int[used.size()];
+      int[] sizes = new int[used.size()];
+      for (int i = 0; i < names.length; i++) {
+        ids[i] = used.get(i);
+        names[i] = chromNames[ids[i]];
+        sizes[i] = chromSizes[ids[i]];
+      }
+      position = BBTreeWriter.writeChromTree(channel, chromTreeOffset, names, ids, sizes);
+
+      int uncompressBufSize = data.getMaxBlockSize();
+      ByteBuffer zoomHeaders = BBTreeWriter.newBuffer(ZOOM_HEADER_SIZE * zoomLevels.length);
+      for (ZoomLevel level : zoomLevels) {
+        long dataOffset = position;
+        long indexOffset = level.copyTo(channel, dataOffset);
+        position = BBTreeWriter.writeRTree(channel, indexOffset, level.index, level.index.sortedOrder(),
+            ITEMS_PER_SLOT, indexOffset);
+        zoomHeaders.putInt(level.reduction).putInt(0).putLong(dataOffset).putLong(indexOffset);
+        uncompressBufSize = Math.max(uncompressBufSize, level.compressor.getMaxBlockSize());
+      }
+      BBTreeWriter.write(channel, zoomHeaders, HEADER_SIZE);
+
+      ByteBuffer summary = BBTreeWriter.newBuffer(TOTAL_SUMMARY_SIZE);
+      if (stats.getN() > 0) {
+        summary.putLong(stats.getN()).putDouble(stats.getMin()).putDouble(stats.getMax());
+        summary.putDouble(stats.getSum()).putDouble(stats.getSumOfSquares());
+      }
+      summary.position(TOTAL_SUMMARY_SIZE);
+      BBTreeWriter.write(channel, summary, totalSummaryOffset);
+
+      ByteBuffer header = BBTreeWriter.newBuffer(HEADER_SIZE);
+      header.putInt(MAGIC).putShort(VERSION).putShort((short) zoomLevels.length);
+      header.putLong(chromTreeOffset).putLong(fullDataOffset).putLong(fullIndexOffset);
+      header.putShort((short) 0).putShort((short) 0).putLong(0);
+      header.putLong(totalSummaryOffset).putInt(uncompressBufSize).putLong(0);
+      BBTreeWriter.write(channel, header, 0);
+    } finally {
+      if (executor != null) {
+        executor.shutdown();
+      }
+      for (ZoomLevel level : zoomLevels) {
+        level.delete();
+      }
+      channel.close();
+    }
+  }
+
+  private void startChromosome(String chr) throws IOException {
+    int id = Arrays.binarySearch(chromNames, chr);
+    if (id < 0) {
+      throw new IllegalArgumentException("Chromosome " + chr + " is not in the assembly");
+    }
+
+    endChromosome();
+    this.chr = chr;
+    chromId = id;
+    chromEnd = 0;
+    chromHasData = false;
+  }
+
+  private void endChromosome() throws IOException {
+    if (chr != null) {
+      for (ZoomLevel level : zoomLevels) {
+        level.endChromosome();
+      }
+    }
+  }
+
+  /**
+   * Add a run of a value to the current data section
+   *
+   * @param start
+   *          the start of the run (0-based)
+   * @param end
+   *          the end of the run (0-based, exclusive)
+   * @param value
+   *          the value of each base in the run
+   */
+  private void addRun(int start, int end, float value) throws IOException {
+    if (Float.isNaN(value)) {
+      return;
+    }
+    start = Math.max(start, 0);
+    end = Math.min(end, chromSizes[chromId]);
+    if (start >= end) {
+      return;
+    } else if (start < chromEnd) {
+      throw new IllegalArgumentException("Contigs for chromosome " + chr + " must be written in increasing order");
+    } else if (!chromHasData) {
+      if (!writtenChroms.add(chr)) {
+        throw new IllegalArgumentException("All Contigs for chromosome " + chr + " must be written consecutively");
+      }
+      chromHasData = true;
+    }
+
+    if (numRuns == ITEMS_PER_SLOT) {
+      flushSection();
+    }
+    runStarts[numRuns] = start;
+    runEnds[numRuns] = end;
+    runValues[numRuns] = value;
+    numRuns++;
+    chromEnd = end;
+  }
+
+  /**
+   * Write the current data section, using fixedStep format if the runs are
+   * contiguous and all the same length, and bedGraph format otherwise
+   */
+  private void flushSection() throws IOException {
+    if (numRuns == 0) {
+      return;
+    }
+
+    int step = runEnds[0] - runStarts[0];
+    boolean fixedStep = true;
+    for (int i = 1; i < numRuns && fixedStep; i++) {
+      fixedStep = (runStarts[i] == runEnds[i - 1] && runEnds[i] - runStarts[i] == step);
+    }
+
+    ByteBuffer section = BBTreeWriter.newBuffer(SECTION_HEADER_SIZE + numRuns * (fixedStep ? 4 : 12));
+    section.putInt(chromId).putInt(runStarts[0]).putInt(runEnds[numRuns - 1]);
+    section.putInt(fixedStep ? step : 0).putInt(fixedStep ? step : 0);
+    section.put(fixedStep ? FIXEDSTEP_SECTION : BEDGRAPH_SECTION).put((byte) 0).putShort((short) numRuns);
+    for (int i = 0; i < numRuns; i++) {
+      if (!fixedStep) {
+        section.putInt(runStarts[i]).putInt(runEnds[i]);
+      }
+      section.putFloat(runValues[i]);
+
+      stats.add(runValues[i], runEnds[i] - runStarts[i]);
+      for (ZoomLevel level : zoomLevels) {
+        level.add(chromId, runStarts[i], runEnds[i], runValues[i]);
+      }
+    }
+
+    int entry = dataIndex.add(chromId, runStarts[0], runEnds[numRuns - 1]);
+    data.submit(section.array(), dataIndex, entry);
+    sectionCount++;
+    numRuns = 0;
+  }
+
+  /**
+   * @return the path
+   */
+  public final Path getPath() {
+    return p;
+  }
+
+  /**
+   * Accumulates the summary records of a zoom level in bins of a fixed number
+   * of bases, and writes them in compressed blocks to a temporary file until
+   * the BigWig file is closed
+   */
+  private static class ZoomLevel {
+
+    final int reduction;
+    final Path tmp;
+    final FileChannel tmpChannel;
+    final BlockCompressor compressor;
+    final BBBlockIndex index = new BBBlockIndex();
+    final ByteBuffer block = BBTreeWriter.newBuffer(ITEMS_PER_SLOT * ZOOM_RECORD_SIZE);
+    int numRecords = 0;
+    int blockStart;
+    int blockEnd;
+
+    // The current record
+    int chromId;
+    long bin = -1;
+    int start;
+    int end;
+    int validCount;
+    float min;
+    float max;
+    double sum;
+    double sumSquares;
+
+    ZoomLevel(int reduction, ExecutorService executor, int maxPending) throws IOException {
+      this.reduction = reduction;
+      tmp = Files.createTempFile("zoom" + reduction, ".bw");
+      tmp.toFile().deleteOnExit();
+      tmpChannel = FileChannel.open(tmp, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      compressor = new BlockCompressor(tmpChannel, 0, executor, maxPending);
+    }
+
+    void add(int chromId, int runStart, int runEnd, float value) throws IOException {
+      this.chromId = chromId;
+      for (int s = runStart; s < runEnd;) {
+        long b = s / reduction;
+        int binEnd = (int) Math.min((b + 1) * reduction, runEnd);
+        if (b != bin) {
+          endRecord();
+          bin = b;
+          start = s;
+          min = value;
+          max = value;
+        }
+
+        int n = binEnd - s;
+        validCount += n;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        sum += (double) value * n;
+        sumSquares += (double) value * value * n;
+        end = binEnd;
+        s = binEnd;
+      }
+    }
+
+    void endChromosome() throws IOException {
+      endRecord();
+      flushBlock();
+    }
+
+    private void endRecord() throws IOException {
+      if (validCount > 0) {
+        if (block.position() == 0) {
+          blockStart = start;
+        }
+        block.putInt(chromId).putInt(start).putInt(end).putInt(validCount);
+        block.putFloat(min).putFloat(max).putFloat((float) sum).putFloat((float) sumSquares);
+        blockEnd = end;
+        numRecords++;
+        if (!block.hasRemaining()) {
+          flushBlock();
+        }
+      }
+
+      bin = -1;
+      validCount = 0;
+      sum = 0;
+      sumSquares = 0;
+    }
+
+    private void flushBlock() throws IOException {
+      if (block.position() > 0) {
+        int entry = index.add(chromId, blockStart, blockEnd);
+        compressor.submit(Arrays.copyOf(block.array(), block.position()), index, entry);
+        block.clear();
+      }
+    }
+
+    /**
+     * Copy the zoom data (the number of records and the compressed blocks)
+     * into the BigWig file
+     *
+     * @return the file position after the zoom data
+     */
+    long copyTo(FileChannel out, long position) throws IOException {
+      compressor.flush();
+      ByteBuffer count = BBTreeWriter.newBuffer(4);
+      count.putInt(numRecords);
+      position = BBTreeWriter.write(out, count, position);
+
+      long size = compressor.position();
+      for (long copied = 0; copied < size;) {
+        copied += tmpChannel.transferTo(copied, size - copied, out.position(position + copied));
+      }
+      index.shift(position);
+      return position + size;
+    }
+
+    void delete() throws IOException {
+      tmpChannel.close();
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+}
@@ -0,0 +1,106 @@
+package edu.unc.genomics.io;
+
+import edu.unc.genomics.Interval;
+import edu.unc.genomics.util.StatsAccumulator;
+
+/**
+ * Divides an interval into a number of bins of (nearly) equal size. Bin i
+ * covers the base pairs [low + floor(i*L/N), low + floor((i+1)*L/N) - 1],
+ * where L is the length of the interval and N is the number of bins, so bins
+ * are in order of increasing base pair regardless of the strand of the
+ * interval.
+ *
+ * @author timpalpant
+ *
+ */
+class Bins {
+
+  private final int low;
+  private final long length;
+  private final int numBins;
+
+  /**
+   * @param interval
+   *          the interval to divide
+   * @param numBins
+   *          the number of bins, which may not be more than the length of the
+   *          interval
+   */
+  public Bins(Interval interval, int numBins) {
+    if (numBins < 1) {
+      throw new IllegalArgumentException("Number of bins must be >= 1");
+    } else if (numBins > interval.length()) {
+      throw new IllegalArgumentException("Cannot divide interval " + interval + " into " + numBins + " bins");
+    }
+
+    this.low = interval.low();
+    this.length = interval.length();
+    this.numBins = numBins;
+  }
+
+  /**
+   * @return the number of bins
+   */
+  public int size() {
+    return numBins;
+  }
+
+  /**
+   * @param i
+   *          the index of a bin
+   * @return the first base pair in bin i
+   */
+  public int start(int i) {
+    return low + (int) (i * length / numBins);
+  }
+
+  /**
+   * @param i
+   *          the index of a bin
+   * @return the last base pair in bin i
+   */
+  public int stop(int i) {
+    return start(i + 1) - 1;
+  }
+
+  /**
+   * @param bp
+   *          a base pair in the interval
+   * @return the index of the bin containing bp
+   */
+  public int indexOf(int bp) {
+    return (int) (((bp - low + 1L) * numBins - 1) / length);
+  }
+
+  /**
+   * Add a value for a range of base pairs to the summaries of the bins that
+   * the range overlaps
+   *
+   * @param summaries
+   *          the summary of each bin
+   * @param start
+   *          the first base pair of the range (must be in the interval)
+   * @param stop
+   *          the last base pair of the range (must be in the interval)
+   * @param value
+   *          the value for each base pair in the range
+   */
+  public void add(StatsAccumulator[] summaries, int start, int stop, float value) {
+    for (int i = indexOf(start); start <= stop; i++) {
+      int binStop = Math.min(stop, stop(i));
+      summaries[i].add(value, binStop - start + 1);
+      start = binStop + 1;
+    }
+  }
+
+  /**
+   * @return a new, empty summary for each bin
+   */
+  public StatsAccumulator[] newSummaries() {
+    StatsAccumulator[] summaries = new StatsAccumulator[numBins];
+    for (int i = 0; i < numBins; i++) {
+      summaries[i] = new StatsAccumulator();
+    }
+    return summaries;
+  }
+}
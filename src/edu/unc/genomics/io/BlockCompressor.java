@@ -0,0 +1,169 @@
+package edu.unc.genomics.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses blocks with zlib on a pool of threads and writes them to a file
+ * in the order that they were submitted. At most maxPending blocks are held in
+ * memory at once; submitting more blocks waits for the oldest to be written.
+ *
+ * @author timpalpant
+ *
+ */
+class BlockCompressor {
+
+  private final FileChannel out;
+  private final ExecutorService executor;
+  private final int maxPending;
+  private final Deque<PendingBlock> pending = new ArrayDeque<>();
+  private long position;
+  private int maxBlockSize = 0;
+
+  /**
+   * @param out
+   *          the file to write compressed blocks to
+   * @param position
+   *          the file position to write the first block at
+   * @param executor
+   *          the threads to compress blocks on, or null to compress them on
+   *          the calling thread
+   * @param maxPending
+   *          the maximum number of blocks to hold in memory
+   */
+  public BlockCompressor(FileChannel out, long position, ExecutorService executor, int maxPending) {
+    this.out = out;
+    this.position = position;
+    this.executor = executor;
+    this.maxPending = Math.max(1, maxPending);
+  }
+
+  /**
+   * Compress a block and write it after all previously submitted blocks
+   *
+   * @param block
+   *          the uncompressed block, which must not be modified afterward
+   * @param index
+   *          the index to record the location of the compressed block in
+   * @param entry
+   *          the index entry for the block
+   * @throws IOException
+   *           if a disk write error occurs
+   */
+  public void submit(final byte[] block, BBBlockIndex index, int entry) throws IOException {
+    maxBlockSize = Math.max(maxBlockSize, block.length);
+    Future<byte[]> compressed = null;
+    if (executor != null) {
+      compressed = executor.submit(new Callable<byte[]>() {
+        @Override
+        public byte[] call() {
+          return compress(block);
+        }
+      });
+    }
+    pending.add(new PendingBlock(block, compressed, index, entry));
+
+    while (pending.size() > maxPending) {
+      writeNext();
+    }
+  }
+
+  /**
+   * Write all of the pending blocks
+   *
+   * @throws IOException
+   *           if a disk write error occurs
+   */
+  public void flush() throws IOException {
+    while (!pending.isEmpty()) {
+      writeNext();
+    }
+  }
+
+  private void writeNext() throws IOException {
+    PendingBlock next = pending.remove();
+    byte[] compressed;
+    if (next.compressed == null) {
+      compressed = compress(next.block);
+    } else {
+      try {
+        compressed = next.compressed.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while compressing block", e);
+      } catch (ExecutionException e) {
+        throw new IOException("Error compressing block", e.getCause());
+      }
+    }
+
+    next.index.setLocation(next.entry, position, compressed.length);
+    ByteBuffer buf = ByteBuffer.wrap(compressed);
+    while (buf.hasRemaining()) {
+      position += out.write(buf, position);
+    }
+  }
+
+  /**
+   * @return the file position after the last block that has been written
+   */
+  public long position() {
+    return position;
+  }
+
+  /**
+   * @return the size of the largest uncompressed block
+   */
+  public int getMaxBlockSize() {
+    return maxBlockSize;
+  }
+
+  /**
+   * Compress a block in zlib format
+   *
+   * @param block
+   *          the data to compress
+   * @return the compressed data
+   */
+  static byte[] compress(byte[] block) {
+    Deflater deflater = new Deflater();
+    try {
+      deflater.setInput(block);
+      deflater.finish();
+      byte[] compressed = new byte[block.length + block.length / 1000 + 64];
+      int n = 0;
+      while (!deflater.finished()) {
+        if (n == compressed.length) {
+          compressed = Arrays.copyOf(compressed, 2 * compressed.length);
+        }
+        n += deflater.deflate(compressed, n, compressed.length - n);
+      }
+      return Arrays.copyOf(compressed, n);
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static class PendingBlock {
+    final byte[] block;
+    final Future<byte[]> compressed;
+    final BBBlockIndex index;
+    final int entry;
+
+    PendingBlock(byte[] block, Future<byte[]> compressed, BBBlockIndex index, int entry) {
+      this.block = block;
+      this.compressed = compressed;
+      this.index = index;
+      this.entry = entry;
+    }
+  }
+
+}
@@ -0,0 +1,515 @@
+package edu.unc.genomics.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import edu.unc.genomics.Contig;
+
+/**
+ * A cursor for scanning lines of ASCII text directly from the bytes of a file.
+ * Numbers are parsed in place, so scanning does not allocate any Strings
+ * (except to fall back to Float.parseFloat for the rare values that cannot be
+ * parsed exactly with the fast path).
+ *
+ * The bytes are read either from a shared MappedFileBuffer, or with positional
+ * reads from a shared FileChannel into a buffer owned by this scanner. Neither
+ * changes any state of the shared source, so many threads may scan the same
+ * file concurrently as long as every thread uses its own scanner.
+ *
+ * @author timpalpant
+ *
+ */
+class ByteLineScanner {
+
+  public static final int DEFAULT_BUFFER_SIZE = 65536;
+
+  private static final byte[] TRACK = "track".getBytes();
+  private static final byte[] FIXEDSTEP = Contig.Type.FIXEDSTEP.getId().getBytes();
+  private static final byte[] VARIABLESTEP = Contig.Type.VARIABLESTEP.getId().getBytes();
+  private static final byte[] NAN = "NaN".getBytes();
+  private static final byte[] INF = "Inf".getBytes();
+  private static final byte[] INFINITY = "Infinity".getBytes();
+
+  /** Powers of ten that are exactly representable as doubles */
+  private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+      1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+  /** Doubles can exactly represent all integers up to 2^53 */
+  private static final long MAX_EXACT_MANTISSA = 1L << 53;
+  /** The number of significant digits that will always fit in a long */
+  private static final int MAX_DIGITS = 18;
+  /** Numbers longer than this may need to be re-read from the source */
+  private static final int MAX_TOKEN_LENGTH = 64;
+
+  private final MappedFileBuffer mapped;
+  private final FileChannel channel;
+  private final long size;
+  private ByteBuffer window;
+  private long windowStart;
+  private int offset;
+  private int limit;
+
+  // A line that a later scan of the same section may continue from
+  private Object markSection;
+  private int markKey;
+  private long markPosition;
+
+  /**
+   * Scan the bytes of a memory-mapped file
+   *
+   * @param mapped
+   *          the mapped file to scan
+   */
+  public ByteLineScanner(MappedFileBuffer mapped) {
+    this.mapped = mapped;
+    this.channel = null;
+    this.size = mapped.size();
+  }
+
+  /**
+   * Scan the bytes of a file using positional reads
+   *
+   * @param channel
+   *          the file to scan
+   * @throws IOException
+   *           if the size of the file cannot be determined
+   */
+  public ByteLineScanner(FileChannel channel) throws IOException {
+    this.mapped = null;
+    this.channel = channel;
+    this.size = channel.size();
+    this.window = ByteBuffer.allocate(DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Move the cursor to an absolute position in the file
+   *
+   * @param pos
+   *          the byte offset to seek to
+   * @throws IOException
+   *           if a disk read error occurs
+   */
+  public void seek(long pos) throws IOException {
+    if (window != null && pos >= windowStart && pos < windowStart + limit) {
+      offset = (int) (pos - windowStart);
+    } else {
+      load(pos);
+    }
+  }
+
+  /**
+   * Remember the start of a line, so that a later scan of the same section of
+   * the file (e.g. a contig) can continue forward from it rather than seek
+   * back to a checkpoint
+   *
+   * @param section
+   *          the section of the file that the line is in
+   * @param key
+   *          identifies the line within its section (e.g. its base pair)
+   * @param position
+   *          the byte offset of the start of the line
+   */
+  public void mark(Object section, int key, long position) {
+    markSection = section;
+    markKey = key;
+    markPosition = position;
+  }
+
+  /**
+   * Forget the marked line
+   */
+  public void clearMark() {
+    markSection = null;
+  }
+
+  /**
+   * Move the cursor to the marked line, if it is in a section and its key is
+   * in a range
+   *
+   * @return true if the cursor was moved to the marked line
+   * @throws IOException
+   *           if a disk read error occurs
+   */
+  public boolean resume(Object section, int minKey, int maxKey) throws IOException {
+    if (markSection != section || markKey < minKey || markKey > maxKey) {
+      return false;
+    }
+
+    seek(markPosition);
+    return true;
+  }
+
+  /**
+   * @return the key of the marked line
+   */
+  public int getMarkKey() {
+    return markKey;
+  }
+
+  /**
+   * @return the absolute byte offset of the cursor in the file
+   */
+  public long getPosition() {
+    return windowStart + offset;
+  }
+
+  /**
+   * @return true if there are more bytes to read
+   */
+  public boolean hasRemaining() {
+    return getPosition() < size;
+  }
+
+  /**
+   * Load the window of bytes containing pos, and place the cursor at pos
+   */
+  private void load(long pos) throws IOException {
+    if (pos >= size) {
+      windowStart = pos;
+      offset = 0;
+      limit = 0;
+    } else if (mapped != null) {
+      int segment = (int) (pos >>> MappedFileBuffer.SEGMENT_BITS);
+      window = mapped.getSegment(segment);
+      windowStart = ((long) segment) << MappedFileBuffer.SEGMENT_BITS;
+      offset = (int) (pos - windowStart);
+      limit = window.limit();
+    } else {
+      window.clear();
+      while (window.hasRemaining() && channel.read(window, pos + window.position()) != -1)
+        ;
+      window.flip();
+      windowStart = pos;
+      offset = 0;
+      limit = window.limit();
+    }
+  }
+
+  /**
+   * @return the next byte without consuming it, or -1 at the end of the file
+   */
+  private int peek() throws IOException {
+    if (offset >= limit) {
+      long pos = getPosition();
+      if (pos >= size) {
+        return -1;
+      }
+      load(pos);
+    }
+
+    return window.get(offset) & 0xFF;
+  }
+
+  /**
+   * @return the byte at an absolute position in the file
+   */
+  private int get(long pos) throws IOException {
+    if (pos >= windowStart && pos < windowStart + limit) {
+      return window.get((int) (pos - windowStart)) & 0xFF;
+    } else if (mapped != null) {
+      int i = (int) (pos >>> MappedFileBuffer.SEGMENT_BITS);
+      return mapped.getSegment(i).get((int) (pos & MappedFileBuffer.SEGMENT_MASK)) & 0xFF;
+    }
+
+    ByteBuffer b = ByteBuffer.allocate(1);
+    channel.read(b, pos);
+    return b.get(0) & 0xFF;
+  }
+
+  /**
+   * Ensure that the next MAX_TOKEN_LENGTH bytes are in the current window, so
+   * that a token can be re-read without going back to the file
+   */
+  private void ensureTokenInWindow() throws IOException {
+    if (channel != null && limit - offset < MAX_TOKEN_LENGTH && windowStart + limit < size) {
+      load(getPosition());
+    }
+  }
+
+  /**
+   * Advance the cursor past the end of the current line. Lines may be
+   * terminated by \n, \r, or \r\n
+   */
+  public void skipLine() throws IOException {
+    int c;
+    while ((c = peek()) != -1) {
+      offset++;
+      if (c == '\n') {
+        return;
+      } else if (c == '\r') {
+        if (peek() == '\n') {
+          offset++;
+        }
+        return;
+      }
+    }
+  }
+
+  /**
+   * @return true if the cursor is at the start of a track, fixedStep, or
+   *         variableStep header line
+   */
+  public boolean isHeaderLine() throws IOException {
+    return isTrackLine() || isContigHeaderLine();
+  }
+
+  /**
+   * @return true if the cursor is at the start of a track line
+   */
+  public boolean isTrackLine() throws IOException {
+    ensureTokenInWindow();
+    return startsWith(TRACK);
+  }
+
+  /**
+   * @return true if the cursor is at the start of a fixedStep or variableStep
+   *         header line
+   */
+  public boolean isContigHeaderLine() throws IOException {
+    ensureTokenInWindow();
+    return startsWith(FIXEDSTEP) || startsWith(VARIABLESTEP);
+  }
+
+  /**
+   * Read the rest of the current line as a String, and advance the cursor past
+   * the end of the line. Only intended for the occasional header line.
+   * 
+   * @return the rest of the line (without the line terminator), or null if
+   *         there are no more bytes to read
+   */
+  public String readLine() throws IOException {
+    if (!hasRemaining()) {
+      return null;
+    }
+
+    StringBuilder line = new StringBuilder();
+    int c;
+    while ((c = peek()) != -1 && c != '\n' && c != '\r') {
+      line.append((char) c);
+      offset++;
+    }
+    skipLine();
+    return line.toString();
+  }
+
+  /**
+   * @param prefix
+   * @return true if the bytes at the cursor match prefix
+   */
+  private boolean startsWith(byte[] prefix) throws IOException {
+    long pos = getPosition();
+    if (pos + prefix.length > size) {
+      return false;
+    }
+
+    for (int i = 0; i < prefix.length; i++) {
+      if (get(pos + i) != prefix[i]) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Consume prefix if it is at the cursor
+   *
+   * @return true if prefix was consumed
+   */
+  private boolean consume(byte[] prefix) throws IOException {
+    if (startsWith(prefix)) {
+      seek(getPosition() + prefix.length);
+      return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * Skip spaces and tabs (but not newlines)
+   */
+  private void skipBlanks() throws IOException {
+    int c;
+    while ((c = peek()) == ' ' || c == '\t') {
+      offset++;
+    }
+  }
+
+  /**
+   * Parse an integer at the cursor, skipping leading spaces or tabs, and leave
+   * the cursor on the byte following the integer
+   *
+   * @return the parsed integer
+   * @throws IOException
+   *           if a disk read error occurs
+   * @throws NumberFormatException
+   *           if there is not a valid integer at the cursor
+   */
+  public int nextInt() throws IOException {
+    skipBlanks();
+    ensureTokenInWindow();
+    long start = getPosition();
+    boolean negative = false;
+    int c = peek();
+    if (c == '-' || c == '+') {
+      negative = (c == '-');
+      offset++;
+    }
+
+    long value = 0;
+    int numDigits = 0;
+    while ((c = peek()) >= '0' && c <= '9') {
+      value = 10 * value + (c - '0');
+      if (value > Integer.MAX_VALUE + 1L) {
+        throw new NumberFormatException("Integer out of range at byte " + start);
+      }
+      numDigits++;
+      offset++;
+    }
+
+    if (numDigits == 0) {
+      throw new NumberFormatException("Cannot parse integer at byte " + start);
+    }
+    if (negative) {
+      value = -value;
+    }
+    if (value > Integer.MAX_VALUE) {
+      throw new NumberFormatException("Integer out of range at byte " + start);
+    }
+    return (int) value;
+  }
+
+  /**
+   * Parse a floating-point value at the cursor, skipping leading spaces or
+   * tabs, and leave the cursor on the byte following the value. The result is
+   * identical to Float.parseFloat, but in addition to NaN and Infinity, the
+   * abbreviation Inf (as written by WigFileWriter) is also accepted.
+   *
+   * @return the parsed value
+   * @throws IOException
+   *           if a disk read error occurs
+   * @throws NumberFormatException
+   *           if there is not a valid floating-point value at the cursor
+   */
+  public float nextFloat() throws IOException {
+    skipBlanks();
+    ensureTokenInWindow();
+    long start = getPosition();
+    boolean negative = false;
+    int c = peek();
+    if (c == '-' || c == '+') {
+      negative = (c == '-');
+      offset++;
+      c = peek();
+    }
+
+    if (c == 'N') {
+      if (consume(NAN)) {
+        return Float.NaN;
+      }
+      throw new NumberFormatException("Cannot parse value at byte " + start);
+    } else if (c == 'I') {
+      if (consume(INFINITY) || consume(INF)) {
+        return negative ? Float.NEGATIVE_INFINITY : Float.POSITIVE_INFINITY;
+      }
+      throw new NumberFormatException("Cannot parse value at byte " + start);
+    }
+
+    long mantissa = 0;
+    int exponent = 0;
+    int numDigits = 0;
+    int significantDigits = 0;
+    boolean exact = true;
+    // Integer part
+    while ((c = peek()) >= '0' && c <= '9') {
+      numDigits++;
+      if (significantDigits < MAX_DIGITS) {
+        mantissa = 10 * mantissa + (c - '0');
+        if (mantissa > 0) {
+          significantDigits++;
+        }
+      } else {
+        exponent++;
+        exact &= (c == '0');
+      }
+      offset++;
+    }
+    // Fractional part
+    if (c == '.') {
+      offset++;
+      while ((c = peek()) >= '0' && c <= '9') {
+        numDigits++;
+        if (significantDigits < MAX_DIGITS) {
+          mantissa = 10 * mantissa + (c - '0');
+          exponent--;
+          if (mantissa > 0) {
+            significantDigits++;
+          }
+        } else {
+          exact &= (c == '0');
+        }
+        offset++;
+      }
+    }
+    if (numDigits == 0) {
+      throw new NumberFormatException("Cannot parse value at byte " + start);
+    }
+    // Exponent
+    if (c == 'e' || c == 'E') {
+      offset++;
+      boolean negativeExponent = false;
+      c = peek();
+      if (c == '-' || c == '+') {
+        negativeExponent = (c == '-');
+        offset++;
+      }
+      int e = 0;
+      int expDigits = 0;
+      while ((c = peek()) >= '0' && c <= '9') {
+        if (e < 100_000) {
+          e = 10 * e + (c - '0');
+        }
+        expDigits++;
+        offset++;
+      }
+      if (expDigits == 0) {
+        throw new NumberFormatException("Cannot parse exponent at byte " + start);
+      }
+      exponent += negativeExponent ? -e : e;
+    }
+    // Java float literal suffixes
+    if (c == 'f' || c == 'F' || c == 'd' || c == 'D') {
+      offset++;
+    }
+
+    if (mantissa == 0) {
+      return negative ? -0.0f : 0.0f;
+    }
+
+    if (exact && mantissa < MAX_EXACT_MANTISSA && exponent >= -22 && exponent <= 22) {
+      // A single correctly-rounded double operation
+      double d = (exponent >= 0) ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+      // Rounding the double to a float is only ambiguous if it falls exactly
+      // halfway between two floats (or outside of the normal float range)
+      long bits = Double.doubleToRawLongBits(d);
+      if ((bits & 0x1FFFFFFFL) != 0x10000000L && d >= Float.MIN_NORMAL && d <= Float.MAX_VALUE) {
+        float value = (float) d;
+        return negative ? -value : value;
+      }
+    }
+
+    return slowParseFloat(start);
+  }
+
+  /**
+   * Fall back to Float.parseFloat for the bytes from start to the cursor
+   */
+  private float slowParseFloat(long start) throws IOException {
+    long stop = getPosition();
+    char[] chars = new char[(int) (stop - start)];
+    for (int i = 0; i < chars.length; i++) {
+      chars[i] = (char) get(start + i);
+    }
+    return Float.parseFloat(new String(chars));
+  }
+}
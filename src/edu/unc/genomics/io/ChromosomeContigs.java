@@ -0,0 +1,157 @@
+package edu.unc.genomics.io;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.unc.genomics.Interval;
+
+/**
+ * Holds the contigs for a single chromosome in a TextWigFile, sorted by start
+ * so that the contigs overlapping a query can be found by binary search rather
+ * than by checking every contig
+ *
+ * @author timpalpant
+ *
+ */
+class ChromosomeContigs {
+
+  private static final Comparator<ContigIndex> START_ORDER = new Comparator<ContigIndex>() {
+    @Override
+    public int compare(ContigIndex c1, ContigIndex c2) {
+      return Integer.compare(c1.low(), c2.low());
+    }
+  };
+
+  private final ContigIndex[] contigs;
+  private final int[] starts;
+  // maxStops[i] is the greatest stop of contigs[0..i]
+  private final int[] maxStops;
+  private final int start, stop, step, span;
+
+  /**
+   * @param contigs
+   *          the contigs for this chromosome, in any order
+   */
+  public ChromosomeContigs(Collection<ContigIndex> contigs) {
+    this.contigs = contigs.toArray(new ContigIndex[contigs.size()]);
+    // Stable, so contigs with the same start keep the order in the file
+    Arrays.sort(this.contigs, START_ORDER);
+
+    starts = new int[this.contigs.length];
+    maxStops = new int[this.contigs.length];
+    int minStep = Integer.MAX_VALUE;
+    int minSpan = Integer.MAX_VALUE;
+    int maxStop = -1;
+    for (int i = 0; i < this.contigs.length; i++) {
+      ContigIndex c = this.contigs[i];
+      starts[i] = c.low();
+      maxStop = Math.max(maxStop, c.high());
+      maxStops[i] = maxStop;
+      minSpan = Math.min(minSpan, c.getSpan());
+      if (c.isVariableStep()) {
+        minStep = 1;
+      } else {
+        minStep = Math.min(minStep, ((FixedStepContigIndex) c).getStep());
+      }
+    }
+
+    start = (this.contigs.length > 0) ? starts[0] : -1;
+    stop = maxStop;
+    step = minStep;
+    span = minSpan;
+  }
+
+  /**
+   * Group contigs by chromosome
+   * 
+   * @param contigs
+   *          the contigs for all chromosomes, in the order they appear in the
+   *          Wig file
+   * @return the searchable contigs for each chromosome
+   */
+  public static Map<String, ChromosomeContigs> byChromosome(Collection<ContigIndex> contigs) {
+    Map<String, List<ContigIndex>> chromContigs = new HashMap<>();
+    for (ContigIndex contig : contigs) {
+      if (!chromContigs.containsKey(contig.getChr())) {
+        chromContigs.put(contig.getChr(), new ArrayList<ContigIndex>());
+      }
+      chromContigs.get(contig.getChr()).add(contig);
+    }
+
+    Map<String, ChromosomeContigs> byChromosome = new HashMap<>();
+    for (Map.Entry<String, List<ContigIndex>> entry : chromContigs.entrySet()) {
+      byChromosome.put(entry.getKey(), new ChromosomeContigs(entry.getValue()));
+    }
+    return byChromosome;
+  }
+
+  /**
+   * @param interval
+   *          the query interval (on this chromosome)
+   * @return the contigs overlapping interval, sorted by start
+   */
+  public List<ContigIndex> getOverlapping(Interval interval) {
+    // The last contig that starts at or before the end of the interval
+    int i = Arrays.binarySearch(starts, interval.high());
+    if (i >= 0) {
+      // Move to the last of any contigs with the same start
+      while (i + 1 < starts.length && starts[i + 1] == interval.high()) {
+        i++;
+      }
+    } else {
+      i = -(i + 1) - 1;
+    }
+
+    // Walk back while earlier contigs could still reach the interval
+    List<ContigIndex> overlapping = new ArrayList<>();
+    for (; i >= 0 && maxStops[i] >= interval.low(); i--) {
+      if (contigs[i].high() >= interval.low()) {
+        overlapping.add(contigs[i]);
+      }
+    }
+
+    Collections.reverse(overlapping);
+    return overlapping;
+  }
+
+  /**
+   * @return all of the contigs for this chromosome, sorted by start
+   */
+  public List<ContigIndex> getContigs() {
+    return Arrays.asList(contigs);
+  }
+
+  /**
+   * @return the first base pair with data on this chromosome
+   */
+  public int getStart() {
+    return start;
+  }
+
+  /**
+   * @return the last base pair with data on this chromosome
+   */
+  public int getStop() {
+    return stop;
+  }
+
+  /**
+   * @return the smallest step of any contig on this chromosome
+   */
+  public int getStep() {
+    return step;
+  }
+
+  /**
+   * @return the smallest span of any contig on this chromosome
+   */
+  public int getSpan() {
+    return span;
+  }
+}
@@ -2,14 +2,11 @@ package edu.unc.genomics.io;
 
 import java.io.IOException;
 import java.io.Serializable;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
-import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
-
-import ed.javatools.BufferedRandomAccessFile;
 import edu.unc.genomics.Contig;
 import edu.unc.genomics.Interval;
+import edu.unc.genomics.util.StatsAccumulator;
 
 /**
  * Holds index information about a Contig in a WigFile
@@ -19,12 +16,16 @@ import edu.unc.genomics.Interval;
  */
 abstract class ContigIndex extends Interval implements Serializable {
 
-  private static final long serialVersionUID = 7665673936467048945L;
+  private static final long serialVersionUID = -2946003562153302281L;
+  private static final int INITIAL_INDEX_CAPACITY = 16;
 
   private int span;
   private long startLine;
   private long stopLine;
-  private Map<Integer, Long> index = new HashMap<Integer, Long>();
+  // Checkpoints of known file positions, as parallel arrays sorted by bp
+  private int[] indexedBPs = new int[INITIAL_INDEX_CAPACITY];
+  private long[] indexedPositions = new long[INITIAL_INDEX_CAPACITY];
+  private int numIndexed = 0;
 
   protected ContigIndex(String chr, int start, int stop, int span) {
     super(chr, start, stop);
@@ -49,29 +50,81 @@ abstract class ContigIndex extends Interval implements Serializable {
   }
 
   /**
-   * Fill data from this contig into the array of values
+   * Fill data from this contig into the array of values, parsing directly from
+   * the bytes of the Wig file
    * 
-   * @param raf
-   *          the file handle to get the data from
+   * @param scanner
+   *          a scanner over the Wig file
    * @param interval
    *          the query interval
    * @param values
    *          the array to load the values into
    */
-  public abstract void fill(BufferedRandomAccessFile raf, Interval interval, float[] values) throws WigFileException,
-      IOException;
+  public void fill(ByteLineScanner scanner, final Interval interval, final float[] values) throws WigFileException,
+      IOException {
+    scan(scanner, interval, new ValueVisitor() {
+      @Override
+      public void visit(int start, int stop, float value) {
+        Arrays.fill(values, start - interval.low(), stop - interval.low() + 1, value);
+      }
+    });
+  }
 
   /**
-   * Fill data from this contig into statistics
+   * Fill data from this contig into statistics, parsing directly from the
+   * bytes of the Wig file
    * 
-   * @param raf
-   *          the file handle to get the data from
+   * @param scanner
+   *          a scanner over the Wig file
    * @param interval
    *          the query interval
    * @param stats
-   *          the SummaryStatistics to load values into
+   *          the accumulator to add values to
+   */
+  public void fillStats(ByteLineScanner scanner, Interval interval, final StatsAccumulator stats)
+      throws WigFileException, IOException {
+    scan(scanner, interval, new ValueVisitor() {
+      @Override
+      public void visit(int start, int stop, float value) {
+        stats.add(value, stop - start + 1);
+      }
+    });
+  }
+
+  /**
+   * Add data from this contig to the summaries of the bins of an interval,
+   * parsing directly from the bytes of the Wig file
+   * 
+   * @param scanner
+   *          a scanner over the Wig file
+   * @param interval
+   *          the query interval
+   * @param bins
+   *          the bins of interval
+   * @param summaries
+   *          the summary of each bin
    */
-  public abstract void fillStats(BufferedRandomAccessFile raf, Interval interval, SummaryStatistics stats)
+  public void fillSummaries(ByteLineScanner scanner, Interval interval, final Bins bins,
+      final StatsAccumulator[] summaries) throws WigFileException, IOException {
+    scan(scanner, interval, new ValueVisitor() {
+      @Override
+      public void visit(int start, int stop, float value) {
+        bins.add(summaries, start, stop, value);
+      }
+    });
+  }
+
+  /**
+   * Scan the entries of this contig that overlap an interval
+   * 
+   * @param scanner
+   *          a scanner over the Wig file
+   * @param interval
+   *          the query interval
+   * @param visitor
+   *          called with each (non-NaN) entry, clamped to the query interval
+   */
+  protected abstract void scan(ByteLineScanner scanner, Interval interval, ValueVisitor visitor)
       throws WigFileException, IOException;
 
   /**
@@ -89,28 +142,125 @@ abstract class ContigIndex extends Interval implements Serializable {
   @Override
   public abstract String toOutput();
 
+  /**
+   * Store a checkpoint of the file position for a base pair. Checkpoints are
+   * normally stored in increasing order of bp, in which case this is a simple
+   * append.
+   * 
+   * @param bp
+   *          the base pair
+   * @param pos
+   *          the file position of the line for bp
+   */
   public void storeIndex(int bp, long pos) {
-    index.put(bp, pos);
+    int i = numIndexed;
+    if (numIndexed > 0 && bp <= indexedBPs[numIndexed - 1]) {
+      i = Arrays.binarySearch(indexedBPs, 0, numIndexed, bp);
+      if (i >= 0) {
+        indexedPositions[i] = pos;
+        return;
+      }
+      i = -(i + 1);
+    }
+
+    if (numIndexed == indexedBPs.length) {
+      int capacity = 2 * indexedBPs.length;
+      indexedBPs = Arrays.copyOf(indexedBPs, capacity);
+      indexedPositions = Arrays.copyOf(indexedPositions, capacity);
+    }
+    System.arraycopy(indexedBPs, i, indexedBPs, i + 1, numIndexed - i);
+    System.arraycopy(indexedPositions, i, indexedPositions, i + 1, numIndexed - i);
+    indexedBPs[i] = bp;
+    indexedPositions[i] = pos;
+    numIndexed++;
   }
 
-  public long getIndex(int bp) {
-    return index.get(bp);
+  /**
+   * @param bp
+   *          a base pair with a checkpoint in the index
+   * @return the file position of the line for bp
+   * @throws WigFileException
+   *           if bp does not have a checkpoint in the index
+   */
+  public long getIndex(int bp) throws WigFileException {
+    int i = Arrays.binarySearch(indexedBPs, 0, numIndexed, bp);
+    if (i < 0) {
+      throw new WigFileException("Base pair " + bp + " is not in the index for contig " + toOutput());
+    }
+
+    return indexedPositions[i];
   }
 
   /**
    * @param bp
-   * @return the closest known upstream bp in the index
+   * @return the closest known upstream bp in the index, or -1 if there are no
+   *         indexed base pairs <= bp
    */
   public int getUpstreamIndexedBP(int bp) {
-    int closestBP = -1;
-    // TODO Better way to seek for indexed position (R-tree)
-    for (int indexBP : index.keySet()) {
-      if (indexBP > closestBP && indexBP <= bp) {
-        closestBP = indexBP;
+    int i = Arrays.binarySearch(indexedBPs, 0, numIndexed, bp);
+    if (i < 0) {
+      // The insertion point is the first indexed bp > bp
+      i = -(i + 1) - 1;
+      if (i < 0) {
+        return -1;
       }
     }
 
-    return closestBP;
+    return indexedBPs[i];
+  }
+
+  /**
+   * @return the number of checkpoints in the index
+   */
+  public int numIndexed() {
+    return numIndexed;
+  }
+
+  /**
+   * @return the base pairs with checkpoints, in increasing order
+   */
+  public int[] getIndexedBPs() {
+    return Arrays.copyOf(indexedBPs, numIndexed);
+  }
+
+  /**
+   * @return the file positions of the checkpoints, in the same order as
+   *         getIndexedBPs()
+   */
+  public long[] getIndexedPositions() {
+    return Arrays.copyOf(indexedPositions, numIndexed);
+  }
+
+  /**
+   * Replace all of the checkpoints in the index
+   *
+   * @param bps
+   *          the base pairs with checkpoints, in increasing order
+   * @param positions
+   *          the file positions of the lines for bps
+   */
+  public void setIndex(int[] bps, long[] positions) {
+    if (bps.length != positions.length) {
+      throw new IllegalArgumentException("Number of indexed base pairs and file positions must match");
+    }
+    indexedBPs = bps;
+    indexedPositions = positions;
+    numIndexed = bps.length;
+  }
+
+  /**
+   * Receives the entries of a contig as they are scanned
+   */
+  interface ValueVisitor {
+    /**
+     * @param start
+     *          the first base pair of the entry
+     * @param stop
+     *          the last base pair of the entry
+     * @param value
+     *          the value of the entry
+     */
+    void visit(int start, int stop, float value);
   }
 
   /**
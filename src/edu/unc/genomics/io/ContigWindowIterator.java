@@ -0,0 +1,91 @@
+package edu.unc.genomics.io;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.log4j.Logger;
+
+import edu.unc.genomics.Contig;
+import edu.unc.genomics.Interval;
+
+/**
+ * Iterates over all of the data in a Wig file, chromosome by chromosome, in
+ * consecutive windows of a fixed number of bases. The values of each window
+ * are loaded into a reused buffer, so the Contig returned by next() is only
+ * valid until the following call to next().
+ *
+ * @author timpalpant
+ *
+ */
+class ContigWindowIterator implements Iterator<Contig> {
+
+  private static final Logger log = Logger.getLogger(ContigWindowIterator.class);
+
+  private final WigFileReader reader;
+  private final int windowSize;
+  private final float[] buffer;
+  private final Iterator<String> chromosomes;
+  private String chr;
+  private int bp;
+  private int chrStop;
+
+  public ContigWindowIterator(WigFileReader reader, int windowSize) {
+    this.reader = reader;
+    this.windowSize = windowSize;
+    this.buffer = new float[windowSize];
+    this.chromosomes = reader.chromosomes().iterator();
+    advanceChromosome();
+  }
+
+  @Override
+  public boolean hasNext() {
+    return (chr != null);
+  }
+
+  @Override
+  public Contig next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException("No more windows in Wig file " + reader.getPath());
+    }
+
+    int stop = (int) Math.min((long) bp + windowSize - 1, chrStop);
+    Interval window = new Interval(chr, bp, stop);
+    // Only the last window of a chromosome is shorter than the buffer
+    float[] values = (window.length() == windowSize) ? buffer : new float[window.length()];
+    try {
+      reader.fill(window, values);
+    } catch (IOException | WigFileException e) {
+      log.error("Error loading window " + window + " from Wig file " + reader.getPath());
+      throw new RuntimeException(e);
+    }
+
+    if (stop == chrStop) {
+      advanceChromosome();
+    } else {
+      bp = stop + 1;
+    }
+
+    return new Contig(window, values);
+  }
+
+  @Override
+  public void remove() throws UnsupportedOperationException {
+    throw new UnsupportedOperationException("Cannot remove windows from a Wig file");
+  }
+
+  private void advanceChromosome() {
+    chr = null;
+    while (chromosomes.hasNext()) {
+      String next = chromosomes.next();
+      int chrStart = reader.getChrStart(next);
+      chrStop = reader.getChrStop(next);
+      if (chrStart <= chrStop) {
+        chr = next;
+        bp = chrStart;
+        return;
+      }
+    }
+  }
+
+}
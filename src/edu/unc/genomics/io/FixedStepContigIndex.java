@@ -2,9 +2,6 @@ package edu.unc.genomics.io;
 
 import java.io.IOException;
 
-import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
-
-import ed.javatools.BufferedRandomAccessFile;
 import edu.unc.genomics.Contig;
 import edu.unc.genomics.Interval;
 
@@ -110,7 +107,7 @@ class FixedStepContigIndex extends ContigIndex {
   }
 
   @Override
-  public void fill(BufferedRandomAccessFile raf, Interval interval, float[] values) throws WigFileException,
+  protected void scan(ByteLineScanner scanner, Interval interval, ValueVisitor visitor) throws WigFileException,
       IOException {
     // Clamp to bases that are covered by this Contig
     int low = Math.max(getStart(), interval.low());
@@ -120,82 +117,46 @@ class FixedStepContigIndex extends ContigIndex {
     long startLine = getLineNumForBasePair(low);
     long stopLine = getLineNumForBasePair(high);
 
-    // Find the closest known upstream base-pair position in the index
+    // Continue from where the last scan of this contig stopped if it is
+    // upstream of the start line, or otherwise seek to the closest known
+    // upstream base-pair position in the index
     int closestUpstream = getUpstreamIndexedBP(low);
-    synchronized (raf) {
-      // Seek to the closest known position in the index
-      raf.seek(getIndex(closestUpstream));
-
-      // Skip to the start line
-      long currentLine;
-      for (currentLine = getLineNumForBasePair(closestUpstream); currentLine < startLine; currentLine++) {
-        raf.readLine2();
-      }
-
-      // Get the base pair we are at (may be < start if span > 1)
-      int bp = getBasePairForLineNum(currentLine);
-
-      // Load the values from disk into the array
-      while (currentLine <= stopLine) {
-        String line = raf.readLine2();
-        currentLine++;
-
-        float value = Float.parseFloat(line);
-        if (!Float.isNaN(value)) {
-          for (int i = bp; i <= bp + getSpan() - 1; i++) {
-            if (interval.includes(i)) {
-              values[i - interval.low()] = value;
-            }
-          }
-        }
+    long currentLine;
+    if (scanner.resume(this, closestUpstream, low)) {
+      currentLine = getLineNumForBasePair(scanner.getMarkKey());
+    } else {
+      scanner.seek(getIndex(closestUpstream));
+      currentLine = getLineNumForBasePair(closestUpstream);
+    }
+    scanner.clearMark();
 
-        bp += getStep();
-      }
+    // Skip to the start line
+    for (; currentLine < startLine; currentLine++) {
+      scanner.skipLine();
     }
-  }
 
-  @Override
-  public void fillStats(BufferedRandomAccessFile raf, Interval interval, SummaryStatistics stats)
-      throws WigFileException, IOException {
-    // Clamp to bases that are covered by this Contig
-    int low = Math.max(getStart(), interval.low());
-    int high = Math.min(getStop(), interval.high());
+    // Get the base pair we are at (may be < start if span > 1)
+    int bp = getBasePairForLineNum(currentLine);
 
-    // Figure out what lines we need
-    long startLine = getLineNumForBasePair(low);
-    long stopLine = getLineNumForBasePair(high);
+    // Parse the values in place from the raw bytes
+    while (currentLine <= stopLine) {
+      float value = scanner.nextFloat();
+      scanner.skipLine();
+      currentLine++;
 
-    // Find the closest known upstream base-pair position in the index
-    int closestUpstream = getUpstreamIndexedBP(low);
-    synchronized (raf) {
-      // Seek to the closest known position in the index
-      raf.seek(getIndex(closestUpstream));
-
-      // Skip to the start line
-      long currentLine;
-      for (currentLine = getLineNumForBasePair(closestUpstream); currentLine < startLine; currentLine++) {
-        raf.readLine2();
+      if (!Float.isNaN(value)) {
+        int entryLow = Math.max(bp, interval.low());
+        int entryHigh = Math.min(bp + getSpan() - 1, interval.high());
+        if (entryLow <= entryHigh) {
+          visitor.visit(entryLow, entryHigh, value);
+        }
       }
 
-      // Get the base pair we are at (may be < start if span > 1)
-      int bp = getBasePairForLineNum(currentLine);
-
-      // Load the values from disk into the array
-      while (currentLine <= stopLine) {
-        String line = raf.readLine2();
-        currentLine++;
-
-        float value = Float.parseFloat(line);
-        if (!Float.isNaN(value)) {
-          for (int i = bp; i <= bp + getSpan() - 1; i++) {
-            if (interval.includes(i)) {
-              stats.addValue(value);
-            }
-          }
-        }
+      bp += getStep();
+    }
 
-        bp += getStep();
-      }
+    if (currentLine <= getStopLine()) {
+      scanner.mark(this, bp, scanner.getPosition());
     }
   }
 }
@@ -0,0 +1,104 @@
+package edu.unc.genomics.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A read-only, memory-mapped view of an entire file. Since a single
+ * MappedByteBuffer cannot address more than 2 GB, large files are mapped as a
+ * series of fixed-size segments.
+ *
+ * The segments are only accessed with absolute gets, so a single
+ * MappedFileBuffer may be shared by any number of threads, each with its own
+ * ByteLineScanner.
+ *
+ * @author timpalpant
+ *
+ */
+class MappedFileBuffer implements Closeable {
+
+  private static final Logger log = Logger.getLogger(MappedFileBuffer.class);
+
+  static final int SEGMENT_BITS = 30;
+  static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+  static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+  private final Path p;
+  private final FileChannel channel;
+  private final long size;
+  private final MappedByteBuffer[] segments;
+
+  /**
+   * Map a file into memory
+   *
+   * @param p
+   *          the file to map
+   * @throws IOException
+   *           if the file cannot be opened or mapped
+   */
+  public MappedFileBuffer(Path p) throws IOException {
+    this.p = p;
+    log.debug("Memory-mapping file " + p);
+    channel = FileChannel.open(p, StandardOpenOption.READ);
+    try {
+      size = channel.size();
+      int numSegments = (int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_BITS);
+      segments = new MappedByteBuffer[numSegments];
+      for (int i = 0; i < numSegments; i++) {
+        long offset = ((long) i) << SEGMENT_BITS;
+        segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(SEGMENT_SIZE, size - offset));
+      }
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Closes the underlying file handle. The mapped segments remain valid until
+   * they are garbage-collected.
+   */
+  @Override
+  public void close() throws IOException {
+    log.debug("Closing memory-mapped file " + p);
+    channel.close();
+  }
+
+  /**
+   * @return the size of the mapped file, in bytes
+   */
+  public long size() {
+    return size;
+  }
+
+  /**
+   * @return the number of mapped segments
+   */
+  public int numSegments() {
+    return segments.length;
+  }
+
+  /**
+   * @param i
+   *          the index of a segment
+   * @return the mapped segment, which covers file offsets [i*SEGMENT_SIZE,
+   *         (i+1)*SEGMENT_SIZE)
+   */
+  public ByteBuffer getSegment(int i) {
+    return segments[i];
+  }
+
+  /**
+   * @return the path to the mapped file
+   */
+  public Path getPath() {
+    return p;
+  }
+}
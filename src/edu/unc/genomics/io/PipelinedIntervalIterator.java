@@ -0,0 +1,257 @@
+package edu.unc.genomics.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import edu.unc.genomics.Interval;
+import edu.unc.genomics.IntervalFactory;
+import edu.unc.genomics.util.NamedDaemonThreadFactory;
+
+/**
+ * Iterates over the lines of a text file as parsed intervals, like
+ * StringIntervalIterator, but reads the lines on one thread and parses them in
+ * batches on a pool of threads. Intervals are returned in the order of the
+ * lines in the file, and lines that do not parse are skipped.
+ *
+ * At most maxPending batches are read ahead of the caller; the reading thread
+ * waits when the caller falls behind. The threads are started by the first
+ * call to hasNext() or next(), and stop when the lines are exhausted or the
+ * iterator is closed. The iterator itself must only be used by one thread.
+ *
+ * @author timpalpant
+ *
+ */
+class PipelinedIntervalIterator<T extends Interval> implements Iterator<T>, Closeable {
+
+  private static final Logger log = Logger.getLogger(PipelinedIntervalIterator.class);
+
+  public static final int DEFAULT_BATCH_SIZE = 4096;
+
+  private final LineReader reader;
+  private final IntervalFactory<T> factory;
+  private final int numThreads;
+  private final int batchSize;
+  private final BlockingQueue<Future<List<T>>> pending;
+
+  private ExecutorService executor;
+  private volatile boolean closed = false;
+
+  /** The batch being returned, or null when the lines are exhausted */
+  private List<T> batch = Collections.emptyList();
+  private int next = 0;
+
+  /**
+   * @param reader
+   *          the lines to parse, which are only read by this iterator's
+   *          reading thread
+   * @param factory
+   *          parses the lines, and must be safe to call from many threads
+   * @param numThreads
+   *          the number of threads to parse lines on
+   * @param batchSize
+   *          the number of lines in each batch
+   * @param maxPending
+   *          the most batches to read ahead of the caller
+   */
+  public PipelinedIntervalIterator(LineReader reader, IntervalFactory<T> factory, int numThreads, int batchSize,
+      int maxPending) {
+    if (numThreads < 1) {
+      throw new IllegalArgumentException("Number of threads must be >= 1");
+    }
+    if (batchSize < 1 || maxPending < 1) {
+      throw new IllegalArgumentException("Batch size and number of pending batches must be >= 1");
+    }
+    this.reader = reader;
+    this.factory = factory;
+    this.numThreads = numThreads;
+    this.batchSize = batchSize;
+    this.pending = new ArrayBlockingQueue<>(maxPending);
+  }
+
+  /**
+   * Parse lines on numThreads threads, reading up to 2 batches per thread
+   * ahead of the caller
+   */
+  public PipelinedIntervalIterator(LineReader reader, IntervalFactory<T> factory, int numThreads) {
+    this(reader, factory, numThreads, DEFAULT_BATCH_SIZE, 2 * numThreads);
+  }
+
+  /**
+   * Start the reading thread and the parsing threads
+   */
+  private void start() {
+    executor = Executors.newFixedThreadPool(numThreads, new NamedDaemonThreadFactory("interval-parser"));
+    Thread readerThread = new NamedDaemonThreadFactory("interval-reader").newThread(new Runnable() {
+      @Override
+      public void run() {
+        readBatches();
+      }
+    });
+    readerThread.start();
+  }
+
+  /**
+   * Read batches of lines and submit them to be parsed, in order. The end of
+   * the lines is marked with a null batch, and an error reading them with a
+   * batch that fails with the error.
+   */
+  private void readBatches() {
+    List<String> lines = new ArrayList<>(batchSize);
+    Exception error = null;
+    try {
+      try {
+        String line;
+        while (!closed && (line = reader.readLine()) != null) {
+          lines.add(line);
+          if (lines.size() == batchSize) {
+            put(executor.submit(parse(lines)));
+            lines = new ArrayList<>(batchSize);
+          }
+        }
+      } catch (IOException | RuntimeException e) {
+        error = e;
+      }
+
+      // Return the lines that were read before any error
+      if (!lines.isEmpty() && !closed) {
+        put(executor.submit(parse(lines)));
+      }
+      put(done(error));
+    } catch (InterruptedException e) {
+      // Nothing is waiting for the lines any more
+    }
+  }
+
+  /**
+   * Wait for room in the queue for a batch, unless the iterator is closed
+   */
+  private void put(Future<List<T>> parsed) throws InterruptedException {
+    // The reading thread is not interrupted when the iterator is closed, since
+    // that would close a reader on an interruptible channel
+    while (!pending.offer(parsed, 100, TimeUnit.MILLISECONDS)) {
+      if (closed) {
+        return;
+      }
+    }
+  }
+
+  private Callable<List<T>> parse(final List<String> lines) {
+    return new Callable<List<T>>() {
+      @Override
+      public List<T> call() {
+        List<T> intervals = new ArrayList<>(lines.size());
+        for (String line : lines) {
+          T interval = factory.parse(line);
+          if (interval != null) {
+            intervals.add(interval);
+          }
+        }
+        return intervals;
+      }
+    };
+  }
+
+  /**
+   * @return a finished batch that marks the end of the lines, or fails with
+   *         an error
+   */
+  private Future<List<T>> done(final Exception e) {
+    FutureTask<List<T>> task = new FutureTask<>(new Callable<List<T>>() {
+      @Override
+      public List<T> call() throws Exception {
+        if (e != null) {
+          throw e;
+        }
+        return null;
+      }
+    });
+    task.run();
+    return task;
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (executor == null && !closed) {
+      start();
+    }
+
+    while (batch != null && next == batch.size()) {
+      batch = nextBatch();
+      next = 0;
+    }
+    return batch != null;
+  }
+
+  private List<T> nextBatch() {
+    if (closed) {
+      return null;
+    }
+
+    List<T> parsed;
+    try {
+      parsed = pending.take().get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      close();
+      throw new RuntimeException("Interrupted while parsing intervals", e);
+    } catch (ExecutionException e) {
+      close();
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      log.error("Error getting next line from file");
+      throw new RuntimeException("Error getting next line from file", e.getCause());
+    }
+
+    if (parsed == null) {
+      close();
+    }
+    return parsed;
+  }
+
+  @Override
+  public T next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    return batch.get(next++);
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException("Cannot remove lines from TextIntervalFile");
+  }
+
+  /**
+   * Stop reading and parsing lines. Does not close the LineReader.
+   */
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    batch = null;
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+    pending.clear();
+  }
+
+}
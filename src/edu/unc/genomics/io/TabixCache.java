@@ -0,0 +1,274 @@
+package edu.unc.genomics.io;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import net.sf.samtools.TabixReader;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A cache of the bgzipped, Tabix-indexed copies of text interval files, so
+ * that each file is only converted once, across reader instances and JVM runs.
+ *
+ * Copies are keyed by the identity of the original file (its path, size,
+ * modification time, and file key), so a file that is modified is converted
+ * again, and the copy of its previous version is deleted. They are stored in
+ * the directory given by the system property CACHE_DIR_PROPERTY, or a
+ * subdirectory of java.io.tmpdir by default.
+ *
+ * Whenever a file is converted, copies that have not been used for the number
+ * of days given by the system property MAX_AGE_PROPERTY (30 by default) are
+ * deleted, as are temporary files left by conversions that did not finish.
+ * Only files named like the cache's own copies are ever deleted, so the cache
+ * directory may be shared with other files.
+ * The cache directory can also be deleted at any time when no process is
+ * reading from it; the copies will be made again as they are needed.
+ *
+ * @author timpalpant
+ *
+ */
+class TabixCache {
+
+  private static final Logger log = Logger.getLogger(TabixCache.class);
+
+  public static final String CACHE_DIR_PROPERTY = "edu.unc.genomics.io.tabixCacheDir";
+  private static final String DEFAULT_CACHE_DIR = "java-genomics-io-tabix";
+
+  public static final String MAX_AGE_PROPERTY = "edu.unc.genomics.io.tabixCacheMaxAgeDays";
+  private static final long DEFAULT_MAX_AGE_DAYS = 30;
+  /** Temporary files older than this are left from conversions that failed */
+  private static final long STALE_TMP_MILLIS = TimeUnit.DAYS.toMillis(1);
+  private static final String TMP_SUFFIX = ".tmp";
+  /** The number of hex digits of each hash in the names of cached files */
+  private static final int HASH_LENGTH = 16;
+  /** The names of cached copies, which are the only files that are pruned */
+  private static final Pattern CACHED_NAME = Pattern.compile(".+\\.[0-9a-f]{" + HASH_LENGTH + "}\\.[0-9a-f]{"
+      + HASH_LENGTH + "}\\.gz");
+  /** The names of temporary files that cached copies are converted to */
+  private static final Pattern TMP_NAME = Pattern.compile(CACHED_NAME.pattern() + "[0-9]+" + Pattern.quote(TMP_SUFFIX));
+
+  private static final ConcurrentMap<Path, Object> locks = new ConcurrentHashMap<>();
+
+  /**
+   * Creates a bgzipped, Tabix-indexed copy of a file
+   */
+  interface Converter {
+    /**
+     * @param output
+     *          the bgzipped file to write, whose index must be written next to
+     *          it with the extension TabixReader.DEFAULT_INDEX_EXTENSION
+     * @throws IOException
+     *           if an error occurs converting the file
+     */
+    void convert(Path output) throws IOException;
+  }
+
+  private TabixCache() {
+  }
+
+  /**
+   * Get the bgzipped, Tabix-indexed copy of a file, converting it if it is not
+   * in the cache yet. Concurrent calls for the same file in this JVM wait for
+   * a single conversion.
+   *
+   * @param p
+   *          the original file
+   * @param variant
+   *          distinguishes different conversions of the same file, e.g. by
+   *          different interval formats
+   * @param converter
+   *          converts the file if it is not in the cache
+   * @return the bgzipped copy of p, with a Tabix index next to it
+   * @throws IOException
+   *           if an error occurs converting the file
+   */
+  public static Path get(Path p, String variant, Converter converter) throws IOException {
+    Path cached = getCachedPath(p, variant);
+    Object lock = new Object();
+    Object existing = locks.putIfAbsent(cached, lock);
+    if (existing != null) {
+      lock = existing;
+    }
+
+    try {
+      synchronized (lock) {
+        Path index = indexOf(cached);
+        if (Files.exists(cached) && Files.exists(index)) {
+          log.debug("Using cached Tabix copy " + cached + " of " + p);
+          touch(cached);
+          return cached;
+        }
+
+        // Remove the copies of previous versions of this file, and anything
+        // else that has expired, before making another copy
+        prune(getSourcePrefix(p, variant), cached);
+
+        // Convert to temporary files and then move them into place, so that
+        // other processes never see a partial copy. The index is moved first,
+        // so that the data file never appears without its index.
+        log.debug("Converting " + p + " to cached Tabix copy " + cached);
+        Path tmp = Files.createTempFile(cached.getParent(), cached.getFileName().toString(), TMP_SUFFIX);
+        Path tmpIndex = indexOf(tmp);
+        try {
+          converter.convert(tmp);
+          move(tmpIndex, index);
+          move(tmp, cached);
+        } finally {
+          Files.deleteIfExists(tmp);
+          Files.deleteIfExists(tmpIndex);
+        }
+      }
+    } finally {
+      locks.remove(cached, lock);
+    }
+
+    return cached;
+  }
+
+  /**
+   * Delete the cached copies of other versions of a file, copies that have not
+   * been used recently, and temporary files left by failed conversions. Files
+   * that were not named by the cache, or that cannot be deleted (e.g. because
+   * they are open on some platforms), are skipped.
+   *
+   * @param sourcePrefix
+   *          the prefix of the names of the copies of the file being converted
+   * @param keep
+   *          the copy of the current version of the file
+   */
+  private static void prune(String sourcePrefix, Path keep) throws IOException {
+    long now = System.currentTimeMillis();
+    long maxAge = TimeUnit.DAYS.toMillis(Long.getLong(MAX_AGE_PROPERTY, DEFAULT_MAX_AGE_DAYS));
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(keep.getParent())) {
+      for (Path f : files) {
+        String name = f.getFileName().toString();
+        if (f.equals(keep) || f.equals(indexOf(keep))) {
+          continue;
+        }
+
+        long age;
+        try {
+          age = now - Files.getLastModifiedTime(f).toMillis();
+        } catch (NoSuchFileException e) {
+          // Already deleted with its data file, or by another process
+          continue;
+        }
+
+        boolean isIndex = name.endsWith(TabixReader.DEFAULT_INDEX_EXTENSION);
+        String data = isIndex ? name.substring(0, name.length() - TabixReader.DEFAULT_INDEX_EXTENSION.length()) : name;
+        boolean delete;
+        if (TMP_NAME.matcher(data).matches()) {
+          // May belong to a conversion that is still running in another process
+          delete = (age > STALE_TMP_MILLIS);
+        } else if (!CACHED_NAME.matcher(data).matches()) {
+          // Not a cached file
+          delete = false;
+        } else if (isIndex) {
+          // Indexes are deleted with their data files, or if they are orphaned
+          delete = name.startsWith(sourcePrefix) || !Files.exists(f.resolveSibling(data));
+        } else {
+          delete = name.startsWith(sourcePrefix) || (age > maxAge);
+        }
+
+        if (delete) {
+          try {
+            log.debug("Deleting cached Tabix file " + f);
+            if (!name.endsWith(TabixReader.DEFAULT_INDEX_EXTENSION)) {
+              Files.deleteIfExists(indexOf(f));
+            }
+            Files.deleteIfExists(f);
+          } catch (IOException e) {
+            log.warn("Could not delete cached Tabix file " + f);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the directory that cached files are stored in
+   * @throws IOException
+   *           if the directory cannot be created
+   */
+  public static Path getCacheDir() throws IOException {
+    String dir = System.getProperty(CACHE_DIR_PROPERTY);
+    Path cacheDir = (dir != null) ? Paths.get(dir) : Paths.get(System.getProperty("java.io.tmpdir"),
+        DEFAULT_CACHE_DIR);
+    return Files.createDirectories(cacheDir);
+  }
+
+  private static Path getCachedPath(Path p, String variant) throws IOException {
+    BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class);
+    String identity = p.toRealPath() + "\t" + attrs.size() + "\t" + attrs.lastModifiedTime().toMillis() + "\t"
+        + attrs.fileKey() + "\t" + variant;
+    return getCacheDir().resolve(getSourcePrefix(p, variant) + sha1(identity).substring(0, HASH_LENGTH) + ".gz");
+  }
+
+  /**
+   * @return the prefix of the names of all cached copies of a file, whatever
+   *         its version
+   */
+  private static String getSourcePrefix(Path p, String variant) throws IOException {
+    String source = p.toRealPath() + "\t" + variant;
+    return p.getFileName() + "." + sha1(source).substring(0, HASH_LENGTH) + ".";
+  }
+
+  /**
+   * Mark a cached copy as recently used, so that it is not pruned. This is
+   * done at most once a day, since readers key their caches of the copy's
+   * blocks by its modification time.
+   */
+  private static void touch(Path cached) {
+    try {
+      long now = System.currentTimeMillis();
+      if (now - Files.getLastModifiedTime(cached).toMillis() > TimeUnit.DAYS.toMillis(1)) {
+        Files.setLastModifiedTime(cached, FileTime.fromMillis(now));
+      }
+    } catch (IOException e) {
+      log.debug("Could not update the modification time of " + cached);
+    }
+  }
+
+  private static Path indexOf(Path p) {
+    return p.resolveSibling(p.getFileName() + TabixReader.DEFAULT_INDEX_EXTENSION);
+  }
+
+  private static void move(Path source, Path target) throws IOException {
+    try {
+      Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  private static String sha1(String s) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-1").digest(s.getBytes(StandardCharsets.UTF_8));
+      StringBuilder hex = new StringBuilder();
+      for (byte b : digest) {
+        hex.append(String.format("%02x", b));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform is required to support SHA-1
+      throw new RuntimeException(e);
+    }
+  }
+
+}
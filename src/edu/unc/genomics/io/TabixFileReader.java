@@ -13,7 +13,9 @@ import edu.unc.genomics.Interval;
 import edu.unc.genomics.IntervalFactory;
 
 /**
- * For reading from Tabix-indexed files
+ * For reading from Tabix-indexed files. Queries are thread-safe, and share the
+ * parsed index and decompressed blocks with every other reader of the same
+ * file.
  * 
  * @author timpalpant
  *
@@ -41,6 +43,7 @@ public class TabixFileReader<T extends Interval> extends IntervalFileReader<T> {
   @Override
   public void close() throws IOException {
     log.debug("Closing Tabix file reader " + p);
+    reader.close();
   }
 
   @Override
@@ -52,8 +55,9 @@ public class TabixFileReader<T extends Interval> extends IntervalFileReader<T> {
   public int count() throws IntervalFileFormatException {
     // FIXME More efficiently count Tabix entries using index information?
     if (count == 0) {
-      try {
-        TabixReader tmpReader = new TabixReader(p);
+      // Scan without caching, so that the whole file does not evict the blocks
+      // that queries are using
+      try (TabixReader tmpReader = new TabixReader(p, new BGZFBlockCache(0))) {
         StringIntervalIterator<T> tmpIter = new StringIntervalIterator<T>(tmpReader.iterator(), factory);
         while (tmpIter.hasNext()) {
           tmpIter.next();
@@ -1,7 +1,5 @@
 package edu.unc.genomics.io;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
@@ -10,15 +8,15 @@ import java.util.Comparator;
 import java.util.Iterator;
 import java.util.Set;
 
+import net.sf.samtools.TabixWriter;
 import net.sf.samtools.TabixWriter.Conf;
-import net.sf.samtools.TabixWriter.TabixException;
 
 import org.apache.log4j.Logger;
 
 import edu.unc.genomics.Interval;
 import edu.unc.genomics.IntervalFactory;
-import edu.unc.genomics.util.FileUtils;
-import edu.unc.genomics.util.Tabix;
+import edu.unc.genomics.util.ExternalSort;
+import edu.unc.genomics.util.TabixIndexingWriter;
 
 /**
  * Base class for all ASCII-text, line-based, tab-delimited interval files, such
@@ -31,28 +29,56 @@ public abstract class TextIntervalFileReader<T extends Interval> extends Interva
 
   private static final Logger log = Logger.getLogger(TextIntervalFileReader.class);
 
+  /**
+   * System property with the memory budget (in bytes) for sorting files to
+   * convert them to Tabix. The default is a quarter of the maximum heap.
+   */
+  public static final String SORT_MEMORY_PROPERTY = "edu.unc.genomics.io.sortMemory";
+
+  /**
+   * System property with the number of threads to parse lines on when
+   * iterating over a file. If it is more than 1, lines are read on another
+   * thread and parsed in batches on a pool of this many threads. The default is
+   * 1, which reads and parses lines on the calling thread.
+   */
+  public static final String PARSE_THREADS_PROPERTY = "edu.unc.genomics.io.parseThreads";
+
   protected IntervalFactory<T> factory;
   private Set<String> chromosomes;
   private int count = 0;
 
   private final BufferedLineReader reader;
   private final Iterator<T> iter;
+  private final PipelinedIntervalIterator<T> pipeline;
 
   private Path bgzip;
-  private Path index;
-  private TabixFileReader<T> tabixFile;
+  private volatile TabixFileReader<T> tabixFile;
 
   protected TextIntervalFileReader(Path p, IntervalFactory<T> factory) throws IOException {
     super(p);
     this.factory = factory;
     log.debug("Opening ASCII-text interval file reader " + p);
     reader = new BufferedLineReader(Files.newBufferedReader(p, Charset.defaultCharset()));
-    iter = new StringIntervalIterator<T>(reader.iterator(), factory);
+    int parseThreads = Integer.getInteger(PARSE_THREADS_PROPERTY, 1);
+    if (parseThreads > 1) {
+      log.debug("Parsing lines on " + parseThreads + " threads");
+      pipeline = new PipelinedIntervalIterator<T>(reader, factory, parseThreads);
+      iter = pipeline;
+    } else {
+      pipeline = null;
+      iter = new StringIntervalIterator<T>(reader.iterator(), factory);
+    }
   }
 
   @Override
   public void close() throws IOException {
+    if (pipeline != null) {
+      pipeline.close();
+    }
     reader.close();
+    if (tabixFile != null) {
+      tabixFile.close();
+    }
   }
 
   @Override
@@ -86,60 +112,42 @@ public abstract class TextIntervalFileReader<T extends Interval> extends Interva
     return iter;
   }
 
+  /**
+   * Queries are answered from a Tabix-indexed copy of this file, which is
+   * created by the first query. Concurrent queries are safe.
+   */
   @Override
-  public synchronized Iterator<T> query(String chr, int start, int stop) {
+  public Iterator<T> query(String chr, int start, int stop) {
     // Index the file with Tabix to enable querying
-    if (tabixFile == null) {
-      convertToTabix();
+    TabixFileReader<T> tabix = tabixFile;
+    if (tabix == null) {
+      synchronized (this) {
+        if (tabixFile == null) {
+          convertToTabix();
+        }
+        tabix = tabixFile;
+      }
     }
 
-    return tabixFile.query(chr, start, stop);
+    return tabix.query(chr, start, stop);
   }
 
   /**
-   * Filter, sort, BGZip, and index this file with Tabix for random querying
+   * Filter, sort, BGZip, and index this file with Tabix for random querying.
+   * The converted file is cached, so this is only done once for each file.
    */
   private synchronized void convertToTabix() {
     log.debug("Auto-indexing ASCII interval file with Tabix");
     try {
-      // Filter the input file
-      Path filtered = Files.createTempFile(p.getFileName().toString(), ".filtered");
-      filtered.toFile().deleteOnExit();
-      log.debug("Filtering interval file to temp: " + filtered);
-      try (BufferedWriter writer = Files.newBufferedWriter(filtered, Charset.defaultCharset());
-          BufferedReader reader = Files.newBufferedReader(p, Charset.defaultCharset())) {
-        String line;
-        T interval;
-        while ((line = reader.readLine()) != null) {
-          interval = factory.parse(line);
-          // This will filter out comment lines and invalid lines
-          if (interval != null) {
-            writer.write(line);
-            writer.newLine();
-          }
+      bgzip = TabixCache.get(p, factory.getClass().getName(), new TabixCache.Converter() {
+        @Override
+        public void convert(Path output) throws IOException {
+          writeTabix(output);
         }
-      }
-
-      // Sort the input file
-      Path sorted = Files.createTempFile(p.getFileName().toString(), ".sorted");
-      log.debug("Sorting interval file to temp: " + sorted);
-      sorted.toFile().deleteOnExit();
-      FileUtils.sort(filtered, sorted, getTabixComparator());
-
-      // BGZip the sorted file
-      bgzip = p.resolveSibling(sorted.getFileName() + ".gz");
-      bgzip.toFile().deleteOnExit();
-      Tabix.bgzip(sorted, bgzip);
-
-      // Index the BGZipped file with Tabix
-      index = Tabix.index(bgzip, factory.tabixConf());
-      index.toFile().deleteOnExit();
+      });
     } catch (IOException ioe) {
-      log.error("Error sorting and compressing interval file");
+      log.error("Error sorting, compressing, and indexing interval file");
       throw new RuntimeException(ioe);
-    } catch (TabixException te) {
-      log.error("Error indexing with Tabix");
-      throw new RuntimeException(te);
     }
 
     // Open the file with a new TabixFile reader
@@ -152,10 +160,93 @@ public abstract class TextIntervalFileReader<T extends Interval> extends Interva
   }
 
   /**
-   * Returns a comparator that will sort two entries by genomic location
+   * Filter and sort this file, and write it bgzipped with a Tabix index. The
+   * filtered lines are sorted into runs in a single pass over the file, and the
+   * merged runs are compressed and indexed as they are written. Runs are sorted
+   * and merged on all available processors, within the memory budget set by
+   * SORT_MEMORY_PROPERTY.
+   * 
+   * @param output
+   *          the bgzipped file to write
+   * @throws IOException
+   *           if an error occurs reading or writing
+   */
+  private void writeTabix(Path output) throws IOException {
+    long maxHeapBytes = Long.getLong(SORT_MEMORY_PROPERTY, Runtime.getRuntime().maxMemory() / 4);
+    int numThreads = Runtime.getRuntime().availableProcessors();
+    ExternalSort sorter = new ExternalSort(maxHeapBytes, numThreads, false);
+    log.debug("Sorting interval file to " + output + " with a memory budget of " + maxHeapBytes + " bytes");
+    try (TabixIndexingWriter writer = new TabixIndexingWriter(output, factory.tabixConf())) {
+      if (overridesTabixComparator()) {
+        log.debug("Sorting with the comparator of " + getClass().getName());
+        sorter.sort(p, getTabixComparator(), new ExternalSort.LineFilter() {
+          @Override
+          public boolean accept(String line) {
+            // This will filter out comment lines and invalid lines
+            return factory.parse(line) != null;
+          }
+        }, writer, Charset.defaultCharset());
+      } else {
+        sorter.sort(p, getTabixKeyExtractor(), writer, Charset.defaultCharset());
+      }
+    }
+  }
+
+  /**
+   * @return true if a subclass still customizes the sort order through the
+   *         deprecated getTabixComparator()
+   */
+  private boolean overridesTabixComparator() {
+    for (Class<?> c = getClass(); c != TextIntervalFileReader.class; c = c.getSuperclass()) {
+      try {
+        c.getDeclaredMethod("getTabixComparator");
+        return true;
+      } catch (NoSuchMethodException e) {
+        // Check the superclass
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns a key extractor that will sort entries by genomic location, in the
+   * order that Tabix expects for this file's conf. Comment lines and invalid
+   * lines are dropped. Subclasses that need a different order should override
+   * this rather than getTabixComparator().
+   * 
+   * @return a new genomic locus key extractor
+   */
+  protected ExternalSort.KeyExtractor getTabixKeyExtractor() {
+    final Conf conf = factory.tabixConf();
+    // Tabix reads the start column as 0-based for UCSC-style files
+    final int startOffset = ((conf.preset & TabixWriter.TI_FLAG_UCSC) != 0) ? 1 : 0;
+    return new ExternalSort.KeyExtractor() {
+      @Override
+      public boolean extract(String line, ExternalSort.SortKey key) {
+        // This will filter out comment lines and invalid lines
+        T entry = factory.parse(line);
+        if (entry == null) {
+          return false;
+        }
+
+        key.chr = entry.getChr();
+        key.start = entry.low() - startOffset;
+        key.stop = (conf.endColumn > 0) ? entry.high() : 0;
+        return true;
+      }
+    };
+  }
+
+  /**
+   * Returns a comparator that will sort two entries by genomic location. This
+   * is only used to sort the file if a subclass overrides it.
    * 
    * @return a new genomic locus comparator
+   * @deprecated override getTabixKeyExtractor() instead, which extracts the key
+   *             of each line once rather than splitting the lines for every
+   *             comparison
    */
+  @Deprecated
   protected Comparator<String> getTabixComparator() {
     // Make a new comparator that will sort the file by genomic location
     return new Comparator<String>() {
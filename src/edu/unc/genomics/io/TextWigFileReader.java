@@ -1,29 +1,26 @@
 package edu.unc.genomics.io;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.math3.stat.descriptive.StatisticalSummary;
 import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
 import org.apache.log4j.Logger;
 
-import ed.javatools.BufferedRandomAccessFile;
 import edu.ucsc.genome.TrackHeader;
 import edu.ucsc.genome.TrackHeaderException;
-import edu.unc.genomics.Contig;
 import edu.unc.genomics.Interval;
-import edu.unc.genomics.util.ChecksumUtils;
+import edu.unc.genomics.util.StatsAccumulator;
 
 /**
  * An ASCII-text Wiggle file. For more information, see:
@@ -37,19 +34,37 @@ import edu.unc.genomics.util.ChecksumUtils;
  *
  */
 public class TextWigFileReader extends WigFileReader {
-  private static final long serialVersionUID = 7L;
+  private static final long serialVersionUID = 8L;
   public static final String INDEX_EXTENSION = ".idx";
   public static final int KEY_GRANULARITY = 10_000;
 
   private static Logger log = Logger.getLogger(TextWigFileReader.class);
 
-  private BufferedRandomAccessFile raf;
+  /**
+   * How to check that a saved index is still valid for its Wig file
+   */
+  public enum IndexValidation {
+    /**
+     * Match the size and modification time of the Wig file, and a checksum of
+     * a sample of its blocks. This does not depend on the size of the file.
+     */
+    FAST,
+    /**
+     * Match a checksum of the entire Wig file, which requires reading it
+     */
+    STRICT;
+  }
+
+  private FileChannel channel;
+  private MappedFileBuffer mapped;
   private Path index;
-  private Map<String, List<ContigIndex>> contigs = new HashMap<>();
-  private long checksum;
-  private SummaryStatistics stats;
+  private Map<String, ChromosomeContigs> contigs = new HashMap<>();
+  private TextWigIndex.Fingerprint fingerprint;
+  private StatisticalSummary stats;
 
   /**
+   * Open a Wig file, using a saved index if it passes fast validation
+   * 
    * @param p
    *          the Path to the Wig file
    * @throws IOException
@@ -58,12 +73,28 @@ public class TextWigFileReader extends WigFileReader {
    *           if an error occurs while indexing the Wig file
    */
   public TextWigFileReader(Path p) throws IOException, WigFileFormatException {
+    this(p, IndexValidation.FAST);
+  }
+
+  /**
+   * @param p
+   *          the Path to the Wig file
+   * @param validation
+   *          how to check that a saved index is still valid for p. If it is
+   *          not, the index is regenerated
+   * @throws IOException
+   *           if an error occurs while opening or reading from the Wig file
+   * @throws WigFileException
+   *           if an error occurs while indexing the Wig file
+   */
+  public TextWigFileReader(Path p, IndexValidation validation) throws IOException, WigFileFormatException {
     super(p);
     log.debug("Opening ASCII-text Wig file " + p);
-    raf = new BufferedRandomAccessFile(p.toFile(), "r");
+    open();
 
-    String headerLine = raf.readLine2();
+    String headerLine = newScanner().readLine();
     if (headerLine == null) {
+      close();
       throw new WigFileFormatException("Cannot open empty Wig file " + p + " for reading");
     } else if (headerLine.startsWith("track")) {
       try {
@@ -74,8 +105,8 @@ public class TextWigFileReader extends WigFileReader {
       }
     }
 
-    // Compute the checksum of this file
-    checksum = ChecksumUtils.crc32(p);
+    // Compute the fingerprint of this file to match against the saved index
+    fingerprint = TextWigIndex.Fingerprint.of(p, validation);
 
     // Attempt to load an index from disk, or generate one otherwise
     index = p.resolveSibling(p.getFileName() + INDEX_EXTENSION);
@@ -104,11 +135,12 @@ public class TextWigFileReader extends WigFileReader {
   public TextWigFileReader(Path p, Path index) throws IOException, WigFileException {
     super(p);
     log.debug("Opening ASCII-text Wig file " + p + " with index " + index);
-    raf = new BufferedRandomAccessFile(p.toFile(), "r");
+    open();
     this.index = index;
 
-    String headerLine = raf.readLine2();
+    String headerLine = newScanner().readLine();
     if (headerLine == null) {
+      close();
       throw new WigFileFormatException("Cannot open empty Wig file " + p + " for reading");
     } else if (headerLine.startsWith("track")) {
       try {
@@ -123,7 +155,9 @@ public class TextWigFileReader extends WigFileReader {
   }
 
   /**
-   * Copy constructor - open a new file handle, but leave the index intact
+   * Copy constructor - open a new file handle, but leave the index intact.
+   * Since queries do not share any file pointer, it is not necessary to clone a
+   * reader in order to query it from multiple threads.
    * 
    * @param other
    * @throws IOException
@@ -132,63 +166,125 @@ public class TextWigFileReader extends WigFileReader {
     super(other.p);
     index = other.index;
     log.debug("Opening new file handle to ASCII-text Wig file " + p);
-    raf = new BufferedRandomAccessFile(other.p.toFile(), "r");
 
     // Shallow-copy the index
     contigs = other.contigs;
-    checksum = other.checksum;
+    fingerprint = other.fingerprint;
     stats = other.stats;
+    open();
+  }
+
+  /**
+   * Open the file handles used for queries. The Wig file is memory-mapped for
+   * zero-copy queries if possible; otherwise queries fall back to positional
+   * reads from a FileChannel. Neither has a shared file pointer, so queries may
+   * run concurrently without any locking.
+   * 
+   * @throws IOException
+   *           if the Wig file cannot be opened
+   */
+  private void open() throws IOException {
+    channel = FileChannel.open(p, StandardOpenOption.READ);
+    try {
+      mapped = new MappedFileBuffer(p);
+    } catch (IOException e) {
+      log.warn("Could not memory-map Wig file " + p + ": " + e.getMessage());
+      mapped = null;
+    }
+  }
+
+  /**
+   * @return a new cursor for querying data from this Wig file
+   * @throws IOException
+   */
+  private ByteLineScanner newScanner() throws IOException {
+    if (mapped != null) {
+      return new ByteLineScanner(mapped);
+    }
+
+    return new ByteLineScanner(channel);
   }
 
   @Override
   public void close() {
     log.debug("Closing Wig file reader " + p);
     try {
-      raf.close();
+      channel.close();
+      if (mapped != null) {
+        mapped.close();
+      }
     } catch (IOException e) {
       throw new RuntimeException("Error closing TextWigFile " + p);
     }
   }
 
   @Override
-  public Contig query(Interval interval) throws IOException, WigFileException {
-    float[] values = new float[interval.length()];
-    Arrays.fill(values, Float.NaN);
+  protected void fill(Interval interval, float[] values) throws IOException, WigFileException {
+    fill(newScanner(), interval, values);
+  }
+
+  private void fill(ByteLineScanner scanner, Interval interval, float[] values) throws IOException,
+      WigFileException {
+    Arrays.fill(values, 0, interval.length(), Float.NaN);
     // Load the values from each relevant contig into the array
     for (ContigIndex c : getContigsOverlappingInterval(interval)) {
-      c.fill(raf, interval, values);
-    }
-
-    if (interval.isCrick()) {
-      ArrayUtils.reverse(values);
+      c.fill(scanner, interval, values);
     }
+  }
 
-    return new Contig(interval, values);
+  /**
+   * Batch queries share one scanner, which continues forward from the end of
+   * the previous interval when it is in the same contig
+   */
+  @Override
+  protected Cursor newCursor() throws IOException {
+    final ByteLineScanner scanner = newScanner();
+    return new Cursor() {
+      @Override
+      public void fill(Interval interval, float[] values) throws IOException, WigFileException {
+        TextWigFileReader.this.fill(scanner, interval, values);
+      }
+    };
   }
 
   @Override
   public SummaryStatistics queryStats(Interval interval) throws IOException, WigFileException {
-    SummaryStatistics stats = new SummaryStatistics();
+    StatsAccumulator stats = new StatsAccumulator();
 
     // Load the values from each relevant contig
+    ByteLineScanner scanner = newScanner();
     for (ContigIndex c : getContigsOverlappingInterval(interval)) {
-      c.fillStats(raf, interval, stats);
+      c.fillStats(scanner, interval, stats);
     }
 
-    return stats;
+    return stats.toSummaryStatistics();
   }
 
-  private List<ContigIndex> getContigsOverlappingInterval(Interval interval) {
-    List<ContigIndex> relevantContigs = new ArrayList<>();
+  @Override
+  public StatsAccumulator[] querySummary(Interval interval, int numBins) throws IOException, WigFileException {
+    Bins bins = new Bins(interval, numBins);
+    StatsAccumulator[] summaries = bins.newSummaries();
 
-    if (contigs.containsKey(interval.getChr())) {
-      for (ContigIndex c : contigs.get(interval.getChr())) {
-        if (c.intersection(interval) != null) {
-          relevantContigs.add(c);
-        }
-      }
+    // Stream the values from each relevant contig into the bins
+    ByteLineScanner scanner = newScanner();
+    for (ContigIndex c : getContigsOverlappingInterval(interval)) {
+      c.fillSummaries(scanner, interval, bins, summaries);
+    }
+
+    if (interval.isCrick()) {
+      ArrayUtils.reverse(summaries);
     }
 
+    return summaries;
+  }
+
+  private List<ContigIndex> getContigsOverlappingInterval(Interval interval) {
+    ChromosomeContigs chromContigs = contigs.get(interval.getChr());
+    if (chromContigs == null) {
+      return Collections.emptyList();
+    }
+
+    List<ContigIndex> relevantContigs = chromContigs.getOverlapping(interval);
     log.debug("Found " + relevantContigs.size() + " contigs overlapping query interval " + interval);
     return relevantContigs;
   }
@@ -204,8 +300,8 @@ public class TextWigFileReader extends WigFileReader {
     }
 
     s.append("Contigs:\n");
-    for (List<ContigIndex> chromContigs : contigs.values()) {
-      for (ContigIndex c : chromContigs) {
+    for (ChromosomeContigs chromContigs : contigs.values()) {
+      for (ContigIndex c : chromContigs.getContigs()) {
         s.append("\t").append(c.toOutput()).append('\n');
       }
     }
@@ -232,14 +328,7 @@ public class TextWigFileReader extends WigFileReader {
       return -1;
     }
 
-    int start = Integer.MAX_VALUE;
-    for (ContigIndex c : contigs.get(chr)) {
-      if (c.getStart() < start) {
-        start = c.getStart();
-      }
-    }
-
-    return start;
+    return contigs.get(chr).getStart();
   }
 
   @Override
@@ -248,14 +337,7 @@ public class TextWigFileReader extends WigFileReader {
       return -1;
     }
 
-    int stop = -1;
-    for (ContigIndex c : contigs.get(chr)) {
-      if (c.getStop() > stop) {
-        stop = c.getStop();
-      }
-    }
-
-    return stop;
+    return contigs.get(chr).getStop();
   }
 
   @Override
@@ -264,16 +346,7 @@ public class TextWigFileReader extends WigFileReader {
       return -1;
     }
 
-    int step = Integer.MAX_VALUE;
-    for (ContigIndex c : contigs.get(chr)) {
-      if (c.isVariableStep()) {
-        return 1;
-      } else if (((FixedStepContigIndex) c).getStep() < step) {
-        step = ((FixedStepContigIndex) c).getStep();
-      }
-    }
-
-    return step;
+    return contigs.get(chr).getStep();
   }
 
   @Override
@@ -282,14 +355,7 @@ public class TextWigFileReader extends WigFileReader {
       return -1;
     }
 
-    int span = Integer.MAX_VALUE;
-    for (ContigIndex c : contigs.get(chr)) {
-      if (c.getSpan() < span) {
-        span = c.getSpan();
-      }
-    }
-
-    return span;
+    return contigs.get(chr).getSpan();
   }
 
   @Override
@@ -331,7 +397,9 @@ public class TextWigFileReader extends WigFileReader {
    */
   @Override
   public double stdev() {
-    return Math.sqrt(stats.getPopulationVariance());
+    // Population (not sample) standard deviation
+    long n = stats.getN();
+    return Math.sqrt(stats.getVariance() * (n - 1) / n);
   }
 
   /**
@@ -351,125 +419,18 @@ public class TextWigFileReader extends WigFileReader {
   }
 
   /**
-   * Index this WigFile
+   * Index this WigFile, using all available processors
    * 
    * @throws IOException
    * @throws WigFileException
    */
   private void generateIndex() throws IOException, WigFileFormatException {
     log.debug("Indexing ASCII text Wig file: " + p);
-
-    // Index the Contigs and data in the Wig File by going through it once
-    stats = new SummaryStatistics();
-    contigs = new HashMap<>();
-    ContigIndex contig = null;
-    int bp = 0;
-    double value;
-    long cursor = raf.getFilePointer();
-    int count = 0;
-    String line = null;
-    long lineNum = 0;
-    raf.seek(0);
-    while ((line = raf.readLine2()) != null) {
-      lineNum++;
-
-      if (line.startsWith("track")) {
-        continue;
-      } else if (line.startsWith(Contig.Type.FIXEDSTEP.getId()) || line.startsWith(Contig.Type.VARIABLESTEP.getId())) {
-        // If this is the end of a previous Contig, store the stop info
-        if (contigs.size() > 0) {
-          contig.setStopLine(lineNum - 1);
-          contig.setStop(bp + contig.getSpan() - 1);
-        }
-
-        // Now parse the new Contig and add to the list of Contigs
-        contig = ContigIndex.parseHeader(line);
-        log.debug("Found contig header: " + line + " (line " + lineNum + ")");
-        if (!contigs.containsKey(contig.getChr())) {
-          contigs.put(contig.getChr(), new ArrayList<ContigIndex>());
-        }
-        contigs.get(contig.getChr()).add(contig);
-
-        // Set the new Contig's start info
-        contig.setStartLine(lineNum + 1);
-        if (contig.isVariableStep()) {
-          cursor = raf.getFilePointer();
-          String firstLine = raf.readLine2();
-          int delim = firstLine.indexOf('\t');
-          if (delim == -1) {
-            delim = firstLine.indexOf(' ');
-            if (delim == -1) {
-              throw new WigFileFormatException("Illegal format in variableStep contig, line " + lineNum
-                  + ". Can't find tab or space delimiting bp, value pair");
-            }
-          }
-          try {
-            bp = Integer.parseInt(firstLine.substring(0, delim));
-          } catch (NumberFormatException e) {
-            throw new WigFileFormatException("Illegal format in variableStep contig, line " + lineNum
-                + ". Can't parse base pair " + firstLine.substring(0, delim));
-          }
-          contig.setStart(bp);
-          raf.seek(cursor);
-        } else {
-          bp = contig.getStart() - ((FixedStepContigIndex) contig).getStep();
-        }
-      } else {
-        if (contig == null) {
-          throw new WigFileFormatException("Missing contig header (fixedStep or variableStep), line " + lineNum);
-        } else if (contig.isFixedStep()) {
-          bp += ((FixedStepContigIndex) contig).getStep();
-          try {
-            value = Double.parseDouble(line);
-          } catch (NumberFormatException e) {
-            throw new WigFileFormatException("Illegal format in fixedStep contig, line " + lineNum
-                + ". Can't parse value " + line);
-          }
-        } else {
-          int delim = line.indexOf('\t');
-          if (delim == -1) {
-            delim = line.indexOf(' ');
-            if (delim == -1) {
-              throw new WigFileFormatException("Illegal format in variableStep contig, line " + lineNum
-                  + ". Can't find tab or space delimiting bp, value pair");
-            }
-          }
-
-          try {
-            bp = Integer.parseInt(line.substring(0, delim));
-            value = Double.parseDouble(line.substring(delim + 1));
-          } catch (NumberFormatException e) {
-            throw new WigFileFormatException("Illegal format in variableStep contig, line " + lineNum
-                + ". Can't parse bp " + line.substring(0, delim) + " or value " + line.substring(delim + 1));
-          }
-        }
-
-        if (!Double.isNaN(value) && !Double.isInfinite(value)) {
-          count++;
-          for (int i = 0; i < contig.getSpan(); i++) {
-            stats.addValue(value);
-          }
-        }
-
-        // Store this line in the index
-        if ((lineNum - contig.getStartLine()) % KEY_GRANULARITY == 0) {
-          contig.storeIndex(bp, cursor);
-        }
-      }
-
-      // Store the cursor position if the next line will be stored in the index
-      if ((lineNum + 1 - contig.getStartLine()) % KEY_GRANULARITY == 0) {
-        cursor = raf.getFilePointer();
-      }
-    }
-
-    // Set the stop info for the last contig
-    if (contig != null) {
-      contig.setStopLine(lineNum);
-      contig.setStop(bp + contig.getSpan() - 1);
-    }
-
-    log.debug("Indexed " + count + " entries in Wig file");
+    WigIndexer indexer = new WigIndexer(mapped, channel, Runtime.getRuntime().availableProcessors(),
+        WigIndexer.MIN_CHUNK_SIZE);
+    indexer.index();
+    stats = indexer.getStats();
+    contigs = indexer.getContigs();
   }
 
   /**
@@ -479,49 +440,19 @@ public class TextWigFileReader extends WigFileReader {
    * @throws IOException
    * @throws WigFileException
    */
-  private void loadIndex(Path p, boolean matchChecksum) throws IOException, WigFileException {
+  private void loadIndex(Path p, boolean matchFingerprint) throws IOException, WigFileException {
     log.debug("Attempting to load Wig file index from disk");
-    try (ObjectInputStream dis = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(p)))) {
-      // Load and match version
-      long version = dis.readLong();
-      if (version != serialVersionUID) {
-        log.warn("Version of index does not match version of Wig file!");
-        throw new WigFileException("Cannot load index from older version!");
-      }
-      // Load and optionally match checksum
-      long indexChecksum = dis.readLong();
-      if (matchChecksum && indexChecksum != checksum) {
-        log.warn("Index does not match checksum of Wig file!");
-        throw new WigFileException("Index does not match checksum of Wig file!");
-      }
-
-      // Load statistics
-      try {
-        stats = (SummaryStatistics) dis.readObject();
-      } catch (ClassNotFoundException e) {
-        log.error("ClassNotFoundException while loading Wig statistics from index file");
-        e.printStackTrace();
-        throw new WigFileException("ClassNotFoundException while trying to load Wig statistics from index file");
-      }
-
-      try {
-        // Load Contigs
-        int numContigs = dis.readInt();
-        contigs = new HashMap<String, List<ContigIndex>>();
-        for (int i = 0; i < numContigs; i++) {
-          ContigIndex contig = (ContigIndex) dis.readObject();
-          if (!contigs.containsKey(contig.getChr())) {
-            contigs.put(contig.getChr(), new ArrayList<ContigIndex>());
-          }
-          contigs.get(contig.getChr()).add(contig);
-        }
-        log.debug("Loaded index information for " + contigs.size() + " contigs");
-      } catch (ClassNotFoundException e) {
-        log.error("ClassNotFoundException while loading Wig index from file");
-        e.printStackTrace();
-        throw new WigFileException("ClassNotFoundException while trying to load Wig index from file");
-      }
+    TextWigIndex saved = TextWigIndex.load(p);
+    // Optionally match fingerprint
+    if (!matchFingerprint) {
+      fingerprint = saved.getFingerprint();
+    } else if (!fingerprint.validates(saved.getFingerprint())) {
+      log.warn("Index does not match fingerprint of Wig file!");
+      throw new WigFileException("Index does not match fingerprint of Wig file!");
     }
+
+    stats = saved.getStats();
+    contigs = saved.getContigs();
   }
 
   /**
@@ -532,26 +463,8 @@ public class TextWigFileReader extends WigFileReader {
    */
   private void saveIndex(Path p) throws IOException {
     log.debug("Writing Wig index information to disk");
-    try (ObjectOutputStream dos = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(p)))) {
-      // Write the serialization version and corresponding Wig file checksum
-      // at the top so it can easily be matched
-      dos.writeLong(serialVersionUID);
-      dos.writeLong(checksum);
-
-      // Write statistics
-      dos.writeObject(stats);
-
-      // Write Contigs
-      int numContigs = 0;
-      for (List<ContigIndex> chromContigs : contigs.values()) {
-        numContigs += chromContigs.size();
-      }
-      dos.writeInt(numContigs);
-      for (List<ContigIndex> chromContigs : contigs.values()) {
-        for (ContigIndex c : chromContigs) {
-          dos.writeObject(c);
-        }
-      }
+    try {
+      new TextWigIndex(fingerprint, stats, contigs).save(p);
     } catch (IOException e) {
       log.error("Error saving Wig index information to disk!: " + e.getMessage());
       e.printStackTrace();
@@ -0,0 +1,399 @@
+package edu.unc.genomics.io;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.math3.stat.descriptive.StatisticalSummary;
+import org.apache.commons.math3.stat.descriptive.StatisticalSummaryValues;
+import org.apache.log4j.Logger;
+
+import edu.unc.genomics.io.TextWigFileReader.IndexValidation;
+import edu.unc.genomics.util.ChecksumUtils;
+
+/**
+ * The index of a TextWigFile, with a compact binary on-disk format. The file
+ * has a fixed layout of primitive values, so it is loaded by memory-mapping it
+ * and reading the values in place, without any deserialization:
+ *
+ * <pre>
+ * header:      magic, version, number of contigs, checksum of the Wig file,
+ *              statistics (n, sum, mean, variance, min, max),
+ *              offset of the chromosome names, offset of the checkpoints,
+ *              size, modification time, and sampled checksum of the Wig file,
+ *              validation mode
+ * contigs:     fixed-size records (chromosome, type, start, stop, span, step,
+ *              start line, stop line, number of checkpoints, checkpoint offset)
+ * chromosomes: count, then the length and UTF-8 bytes of each name
+ * checkpoints: for each contig, the file positions (long[]), then the
+ *              base pairs (int[])
+ * </pre>
+ *
+ * All values are big-endian. Index files in any other format (including the
+ * serialized Java objects written by older versions) are rejected by load, so
+ * that they are regenerated.
+ *
+ * @author timpalpant
+ *
+ */
+class TextWigIndex {
+
+  private static final Logger log = Logger.getLogger(TextWigIndex.class);
+
+  /** "WIGINDEX" in ASCII */
+  static final long MAGIC = 0x5749_4749_4E44_4558L;
+  static final int VERSION = 2;
+
+  static final int HEADER_SIZE = 120;
+  static final int CONTIG_RECORD_SIZE = 56;
+
+  private static final int FIXEDSTEP = 0;
+  private static final int VARIABLESTEP = 1;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  /** The first bytes of a serialized Java object stream */
+  private static final short JAVA_STREAM_MAGIC = (short) 0xACED;
+
+  private final Fingerprint fingerprint;
+  private final StatisticalSummary stats;
+  private final Map<String, ChromosomeContigs> contigs;
+
+  /**
+   * @param fingerprint
+   *          the fingerprint of the indexed Wig file
+   * @param stats
+   *          statistics about the values in the Wig file
+   * @param contigs
+   *          the contigs for each chromosome
+   */
+  public TextWigIndex(Fingerprint fingerprint, StatisticalSummary stats, Map<String, ChromosomeContigs> contigs) {
+    this.fingerprint = fingerprint;
+    this.stats = new StatisticalSummaryValues(stats.getMean(), stats.getVariance(), stats.getN(), stats.getMax(),
+        stats.getMin(), stats.getSum());
+    this.contigs = contigs;
+  }
+
+  /**
+   * Load an index from disk
+   *
+   * @param p
+   *          the index file
+   * @return the loaded index
+   * @throws IOException
+   *           if the index file cannot be read
+   * @throws WigFileException
+   *           if the index file is not in the current format
+   */
+  public static TextWigIndex load(Path p) throws IOException, WigFileException {
+    log.debug("Loading Wig file index from " + p);
+    try (FileChannel channel = FileChannel.open(p, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size < HEADER_SIZE) {
+        throw new WigFileException("Wig index file " + p + " is too short");
+      } else if (size > Integer.MAX_VALUE) {
+        throw new WigFileException("Wig index file " + p + " is too large");
+      }
+      MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      return read(buf);
+    } catch (IndexOutOfBoundsException | BufferUnderflowException | IllegalArgumentException
+        | NegativeArraySizeException e) {
+      throw new WigFileException("Wig index file " + p + " is corrupt");
+    }
+  }
+
+  /**
+   * Read an index from a buffer
+   */
+  private static TextWigIndex read(ByteBuffer buf) throws WigFileException {
+    if (buf.getLong(0) != MAGIC) {
+      if (buf.getShort(0) == JAVA_STREAM_MAGIC) {
+        log.info("Wig index is in the old serialized format");
+      }
+      throw new WigFileException("Not a Wig index file");
+    }
+    int version = buf.getInt(8);
+    if (version != VERSION) {
+      log.warn("Version of index does not match version of Wig file!");
+      throw new WigFileException("Cannot load index from version " + version);
+    }
+
+    int numContigs = buf.getInt(12);
+    long checksum = buf.getLong(16);
+    long n = buf.getLong(24);
+    double sum = buf.getDouble(32);
+    double mean = buf.getDouble(40);
+    double variance = buf.getDouble(48);
+    double min = buf.getDouble(56);
+    double max = buf.getDouble(64);
+    StatisticalSummary stats = new StatisticalSummaryValues(mean, variance, n, max, min, sum);
+    int namesOffset = toInt(buf.getLong(72));
+    long fileSize = buf.getLong(88);
+    long lastModified = buf.getLong(96);
+    long sampledChecksum = buf.getLong(104);
+    int validation = buf.getInt(112);
+    if (validation < 0 || validation >= IndexValidation.values().length) {
+      throw new WigFileException("Unknown validation mode " + validation + " in Wig index");
+    }
+    Fingerprint fingerprint = new Fingerprint(IndexValidation.values()[validation], fileSize, lastModified,
+        sampledChecksum, checksum);
+
+    // Chromosome names
+    int numChromosomes = buf.getInt(namesOffset);
+    String[] chromosomes = new String[numChromosomes];
+    int pos = namesOffset + 4;
+    for (int i = 0; i < numChromosomes; i++) {
+      int length = buf.getInt(pos);
+      byte[] name = new byte[length];
+      ByteBuffer b = buf.duplicate();
+      b.position(pos + 4);
+      b.get(name);
+      chromosomes[i] = new String(name, UTF8);
+      pos += 4 + length;
+    }
+
+    // Contig records and their checkpoints
+    List<ContigIndex> contigs = new ArrayList<>(numContigs);
+    for (int i = 0; i < numContigs; i++) {
+      int record = HEADER_SIZE + i * CONTIG_RECORD_SIZE;
+      String chr = chromosomes[buf.getInt(record)];
+      int type = buf.getInt(record + 4);
+      int start = buf.getInt(record + 8);
+      int stop = buf.getInt(record + 12);
+      int span = buf.getInt(record + 16);
+      int step = buf.getInt(record + 20);
+      ContigIndex contig;
+      if (type == FIXEDSTEP) {
+        contig = new FixedStepContigIndex(chr, start, stop, span, step);
+      } else if (type == VARIABLESTEP) {
+        contig = new VariableStepContigIndex(chr, start, stop, span);
+      } else {
+        throw new WigFileException("Unknown contig type " + type + " in Wig index");
+      }
+      contig.setStartLine(buf.getLong(record + 24));
+      contig.setStopLine(buf.getLong(record + 32));
+
+      int numIndexed = buf.getInt(record + 40);
+      int checkpoints = toInt(buf.getLong(record + 48));
+      long[] positions = new long[numIndexed];
+      int[] bps = new int[numIndexed];
+      ByteBuffer b = buf.duplicate();
+      b.position(checkpoints);
+      b.asLongBuffer().get(positions);
+      b.position(checkpoints + 8 * numIndexed);
+      b.asIntBuffer().get(bps);
+      contig.setIndex(bps, positions);
+      contigs.add(contig);
+    }
+
+    log.debug("Loaded index information for " + numContigs + " contigs");
+    return new TextWigIndex(fingerprint, stats, ChromosomeContigs.byChromosome(contigs));
+  }
+
+  private static int toInt(long offset) throws WigFileException {
+    if (offset < 0 || offset > Integer.MAX_VALUE) {
+      throw new WigFileException("Invalid offset " + offset + " in Wig index");
+    }
+    return (int) offset;
+  }
+
+  /**
+   * Save this index to disk
+   *
+   * @param p
+   *          the index file to write
+   * @throws IOException
+   *           if the index file cannot be written
+   */
+  public void save(Path p) throws IOException {
+    log.debug("Writing Wig index to " + p);
+    // Assign each chromosome a number
+    List<String> chromosomes = new ArrayList<>(contigs.keySet());
+    List<byte[]> names = new ArrayList<>();
+    Map<String, Integer> chrIds = new HashMap<>();
+    int namesSize = 4;
+    int numContigs = 0;
+    for (String chr : chromosomes) {
+      byte[] name = chr.getBytes(UTF8);
+      chrIds.put(chr, names.size());
+      names.add(name);
+      namesSize += 4 + name.length;
+      numContigs += contigs.get(chr).getContigs().size();
+    }
+
+    long namesOffset = HEADER_SIZE + (long) numContigs * CONTIG_RECORD_SIZE;
+    // Align the checkpoints for the benefit of anyone mapping the file
+    long checkpointsOffset = align(namesOffset + namesSize);
+    long size = checkpointsOffset;
+    for (ChromosomeContigs chromContigs : contigs.values()) {
+      for (ContigIndex c : chromContigs.getContigs()) {
+        size = align(size + 12L * c.numIndexed());
+      }
+    }
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("Wig index is too large to save");
+    }
+
+    ByteBuffer buf = ByteBuffer.allocate((int) size);
+    buf.putLong(0, MAGIC);
+    buf.putInt(8, VERSION);
+    buf.putInt(12, numContigs);
+    buf.putLong(16, fingerprint.checksum);
+    buf.putLong(24, stats.getN());
+    buf.putDouble(32, stats.getSum());
+    buf.putDouble(40, stats.getMean());
+    buf.putDouble(48, stats.getVariance());
+    buf.putDouble(56, stats.getMin());
+    buf.putDouble(64, stats.getMax());
+    buf.putLong(72, namesOffset);
+    buf.putLong(80, checkpointsOffset);
+    buf.putLong(88, fingerprint.size);
+    buf.putLong(96, fingerprint.lastModified);
+    buf.putLong(104, fingerprint.sampledChecksum);
+    buf.putInt(112, fingerprint.validation.ordinal());
+
+    buf.position((int) namesOffset);
+    buf.putInt(names.size());
+    for (byte[] name : names) {
+      buf.putInt(name.length);
+      buf.put(name);
+    }
+
+    int record = HEADER_SIZE;
+    int checkpoints = (int) checkpointsOffset;
+    for (String chr : chromosomes) {
+      for (ContigIndex c : contigs.get(chr).getContigs()) {
+        buf.putInt(record, chrIds.get(chr));
+        buf.putInt(record + 4, c.isFixedStep() ? FIXEDSTEP : VARIABLESTEP);
+        buf.putInt(record + 8, c.getStart());
+        buf.putInt(record + 12, c.getStop());
+        buf.putInt(record + 16, c.getSpan());
+        buf.putInt(record + 20, c.isFixedStep() ? ((FixedStepContigIndex) c).getStep() : 0);
+        buf.putLong(record + 24, c.getStartLine());
+        buf.putLong(record + 32, c.getStopLine());
+        buf.putInt(record + 40, c.numIndexed());
+        buf.putLong(record + 48, checkpoints);
+        record += CONTIG_RECORD_SIZE;
+
+        buf.position(checkpoints);
+        buf.asLongBuffer().put(c.getIndexedPositions());
+        buf.position(checkpoints + 8 * c.numIndexed());
+        buf.asIntBuffer().put(c.getIndexedBPs());
+        checkpoints = (int) align(checkpoints + 12L * c.numIndexed());
+      }
+    }
+
+    buf.clear();
+    try (FileChannel channel = FileChannel.open(p, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      while (buf.hasRemaining()) {
+        channel.write(buf);
+      }
+    }
+  }
+
+  /**
+   * @return offset rounded up to a multiple of 8 bytes
+   */
+  private static long align(long offset) {
+    return (offset + 7) & ~7L;
+  }
+
+  /**
+   * @return the fingerprint of the indexed Wig file
+   */
+  public Fingerprint getFingerprint() {
+    return fingerprint;
+  }
+
+  /**
+   * @return statistics about the values in the Wig file
+   */
+  public StatisticalSummary getStats() {
+    return stats;
+  }
+
+  /**
+   * @return the contigs for each chromosome
+   */
+  public Map<String, ChromosomeContigs> getContigs() {
+    return contigs;
+  }
+
+  /**
+   * Identifies the version of a Wig file that an index was generated from, so
+   * that stale indexes can be detected
+   */
+  static class Fingerprint {
+    private final IndexValidation validation;
+    private final long size;
+    private final long lastModified;
+    private final long sampledChecksum;
+    private final long checksum;
+
+    Fingerprint(IndexValidation validation, long size, long lastModified, long sampledChecksum, long checksum) {
+      this.validation = validation;
+      this.size = size;
+      this.lastModified = lastModified;
+      this.sampledChecksum = sampledChecksum;
+      this.checksum = checksum;
+    }
+
+    /**
+     * Compute the fingerprint of a Wig file. The sampled checksum is always
+     * computed, but the full checksum (which requires reading the entire file)
+     * is only computed for strict validation.
+     * 
+     * @param p
+     *          the Wig file
+     * @param validation
+     *          the validation mode
+     * @return the fingerprint of p
+     * @throws IOException
+     *           if p cannot be read
+     */
+    public static Fingerprint of(Path p, IndexValidation validation) throws IOException {
+      long size = Files.size(p);
+      long lastModified = Files.getLastModifiedTime(p).toMillis();
+      long sampledChecksum = ChecksumUtils.sampledCrc32(p);
+      long checksum = (validation == IndexValidation.STRICT) ? ChecksumUtils.crc32(p) : 0;
+      return new Fingerprint(validation, size, lastModified, sampledChecksum, checksum);
+    }
+
+    /**
+     * Check whether an index generated from a file with the saved fingerprint
+     * is valid for the file with this fingerprint. With fast validation, the
+     * size, modification time, and sampled checksum must match. With strict
+     * validation, the saved fingerprint must also have been computed with
+     * strict validation, and the full checksums must match.
+     * 
+     * @param saved
+     *          the fingerprint recorded in an index
+     * @return true if the index is valid for this file
+     */
+    public boolean validates(Fingerprint saved) {
+      if (size != saved.size) {
+        return false;
+      } else if (validation == IndexValidation.STRICT) {
+        return saved.validation == IndexValidation.STRICT && checksum == saved.checksum;
+      }
+
+      return lastModified == saved.lastModified && sampledChecksum == saved.sampledChecksum;
+    }
+
+    /**
+     * @return the validation mode that this fingerprint was computed for
+     */
+    public IndexValidation getValidation() {
+      return validation;
+    }
+  }
+}
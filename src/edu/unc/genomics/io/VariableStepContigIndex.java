@@ -2,9 +2,6 @@ package edu.unc.genomics.io;
 
 import java.io.IOException;
 
-import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
-
-import ed.javatools.BufferedRandomAccessFile;
 import edu.unc.genomics.Contig;
 import edu.unc.genomics.Interval;
 
@@ -71,80 +68,46 @@ class VariableStepContigIndex extends ContigIndex {
   }
 
   @Override
-  public void fill(BufferedRandomAccessFile raf, Interval interval, float[] values) throws WigFileException,
+  protected void scan(ByteLineScanner scanner, Interval interval, ValueVisitor visitor) throws WigFileException,
       IOException {
     // Clamp to bases that are covered by this Contig
     int low = Math.max(getStart(), interval.low());
     int high = Math.min(getStop(), interval.high());
 
-    // Find the closest known upstream base-pair position
+    // Continue from where the last scan of this contig stopped if no earlier
+    // entry can overlap the interval, or otherwise seek to the closest known
+    // upstream base-pair position in the index
     int closestUpstream = getUpstreamIndexedBP(low);
-    synchronized (raf) {
-      // Seek to the closest known position in the index
-      raf.seek(getIndex(closestUpstream));
-
-      // Load the data from the file into the values array
-      String line;
-      int bp = low;
-      while ((line = raf.readLine2()) != null && bp <= high) {
-        // Break if at the next Contig
-        if (line.startsWith("track") || line.startsWith(Contig.Type.FIXEDSTEP.getId())
-            || line.startsWith(Contig.Type.VARIABLESTEP.getId())) {
-          break;
-        }
-
-        String[] entry = line.split("\\s+");
-        bp = Integer.parseInt(entry[0]);
-        if (bp + getSpan() - 1 >= low) {
-          float value = Float.parseFloat(entry[1]);
-          if (!Float.isNaN(value)) {
-            for (int i = bp; i <= bp + getSpan() - 1; i++) {
-              if (interval.includes(i)) {
-                values[i - interval.low()] = value;
-              }
-            }
-          }
-        }
-      }
+    if (!scanner.resume(this, closestUpstream, low - getSpan() + 1)) {
+      scanner.seek(getIndex(closestUpstream));
     }
-  }
+    scanner.clearMark();
 
-  @Override
-  public void fillStats(BufferedRandomAccessFile raf, Interval interval, SummaryStatistics stats)
-      throws WigFileException, IOException {
-    // Clamp to bases that are covered by this Contig
-    int low = Math.max(getStart(), interval.low());
-    int high = Math.min(getStop(), interval.high());
+    // Parse the entries in place from the raw bytes
+    while (scanner.hasRemaining()) {
+      // Break if at the next Contig
+      if (scanner.isHeaderLine()) {
+        break;
+      }
 
-    // Find the closest known upstream base-pair position
-    int closestUpstream = getUpstreamIndexedBP(low);
-    synchronized (raf) {
-      // Seek to the closest known position in the index
-      raf.seek(getIndex(closestUpstream));
-
-      // Load the data from the file into the values array
-      String line;
-      int bp = low;
-      while ((line = raf.readLine2()) != null && bp <= high) {
-        // Break if at the next Contig
-        if (line.startsWith("track") || line.startsWith(Contig.Type.FIXEDSTEP.getId())
-            || line.startsWith(Contig.Type.VARIABLESTEP.getId())) {
-          break;
-        }
+      long lineStart = scanner.getPosition();
+      int bp = scanner.nextInt();
+      if (bp > high) {
+        scanner.mark(this, bp, lineStart);
+        break;
+      }
 
-        String[] entry = line.split("\\s+");
-        bp = Integer.parseInt(entry[0]);
-        if (bp + getSpan() - 1 >= low) {
-          float value = Float.parseFloat(entry[1]);
-          if (!Float.isNaN(value)) {
-            for (int i = bp; i <= bp + getSpan() - 1; i++) {
-              if (interval.includes(i)) {
-                stats.addValue(value);
-              }
-            }
+      if (bp + getSpan() - 1 >= low) {
+        float value = scanner.nextFloat();
+        if (!Float.isNaN(value)) {
+          int entryLow = Math.max(bp, interval.low());
+          int entryHigh = Math.min(bp + getSpan() - 1, interval.high());
+          if (entryLow <= entryHigh) {
+            visitor.visit(entryLow, entryHigh, value);
           }
         }
       }
+      scanner.skipLine();
     }
   }
 }
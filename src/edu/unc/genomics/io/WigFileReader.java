@@ -3,14 +3,20 @@ package edu.unc.genomics.io;
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 
+import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
 import org.apache.log4j.Logger;
 
 import edu.ucsc.genome.TrackHeader;
 import edu.unc.genomics.Contig;
 import edu.unc.genomics.Interval;
+import edu.unc.genomics.util.StatsAccumulator;
 
 /**
  * The base class for ASCII-text Wig files and binary BigWig files.
@@ -19,12 +25,21 @@ import edu.unc.genomics.Interval;
  * base class WigFile, and the correct format (Wig/BigWig) can be autodetected
  * by calling WigFile.autodetect()
  * 
+ * Queries do not share any mutable state, so a single WigFileReader may be
+ * queried concurrently from many threads.
+ * 
  * @author timpalpant
  *
  */
 public abstract class WigFileReader implements Closeable, Cloneable {
 
   private static final Logger log = Logger.getLogger(WigFileReader.class);
+  /**
+   * The maximum number of bases that a batch query will read at once when
+   * coalescing overlapping or adjacent intervals
+   */
+  public static final int MAX_BATCH_READ_LENGTH = 1 << 20;
+
   protected final Path p;
   protected TrackHeader header = TrackHeader.newWiggle();
 
@@ -86,7 +101,76 @@ public abstract class WigFileReader implements Closeable, Cloneable {
    * @throws WigFileException
    *           if the Wig file does not contain data for this Interval
    */
-  public abstract Contig query(Interval interval) throws IOException, WigFileException;
+  public Contig query(Interval interval) throws IOException, WigFileException {
+    float[] values = new float[interval.length()];
+    fill(interval, values);
+    if (interval.isCrick()) {
+      ArrayUtils.reverse(values);
+    }
+
+    return new Contig(interval, values);
+  }
+
+  /**
+   * Load the data for an interval into an existing array, in order of
+   * increasing base pair (regardless of the strand of the interval), so that
+   * buffers can be reused between queries
+   * 
+   * @param interval
+   *          the Interval of data to query for
+   * @param values
+   *          an array of at least interval.length() values. The value for
+   *          interval.low() is stored in values[0], etc., and bases without
+   *          data are set to NaN.
+   * @throws IOException
+   *           if a disk read error occurs
+   * @throws WigFileException
+   *           if the Wig file does not contain data for this Interval
+   */
+  protected abstract void fill(Interval interval, float[] values) throws IOException, WigFileException;
+
+  /**
+   * @return a new Cursor for loading the data of a batch query. By default,
+   *         each interval is loaded independently with fill().
+   * @throws IOException
+   *           if the file cannot be read
+   */
+  protected Cursor newCursor() throws IOException {
+    return new Cursor() {
+      @Override
+      public void fill(Interval interval, float[] values) throws IOException, WigFileException {
+        WigFileReader.this.fill(interval, values);
+      }
+    };
+  }
+
+  /**
+   * Stream all of the data in this Wig file, chromosome by chromosome, in
+   * consecutive windows of a fixed number of bases. Each chromosome is read
+   * sequentially from its first to its last base pair with data, and the
+   * values of each window are loaded into a reused buffer, so that the whole
+   * genome can be processed in constant memory.
+   * 
+   * The Contig returned by each call to next() is only valid until the
+   * following call to next(); copy its values to keep them.
+   * 
+   * @param windowSize
+   *          the number of bases in each window (the last window of each
+   *          chromosome may be shorter)
+   * @return the windows of data in this Wig file
+   */
+  public Iterable<Contig> windows(final int windowSize) {
+    if (windowSize < 1) {
+      throw new IllegalArgumentException("Window size must be >= 1");
+    }
+
+    return new Iterable<Contig>() {
+      @Override
+      public Iterator<Contig> iterator() {
+        return new ContigWindowIterator(WigFileReader.this, windowSize);
+      }
+    };
+  }
 
   /**
    * Query for a Contig of data in this Wig file corresponding to a specific
@@ -102,12 +186,162 @@ public abstract class WigFileReader implements Closeable, Cloneable {
    * @throws WigFileException
    *           if the Wig file does not contain data for this Interval
    */
-  public synchronized Contig query(Interval interval, int span) throws IOException, WigFileException {
+  public Contig query(Interval interval, int span) throws IOException, WigFileException {
     Contig contig = query(interval);
     contig.setSpan(span);
     return contig;
   }
 
+  /**
+   * Query for Contigs of data for many intervals at once. The intervals are
+   * sorted by chromosome and position, and overlapping or adjacent intervals
+   * are coalesced into a single read (of at most MAX_BATCH_READ_LENGTH bases).
+   * The reads are made in order through one Cursor, which for text Wig files
+   * moves forward through each chromosome and skips the gaps between reads,
+   * rather than seeking back to an index checkpoint for each one. The results
+   * are delivered to the callback in sorted order, along with the index of
+   * their interval in intervals.
+   * 
+   * @param intervals
+   *          the Intervals of data to query for
+   * @param callback
+   *          called once with the result for each interval
+   * @throws IOException
+   *           if a disk read error occurs
+   * @throws WigFileException
+   *           if the Wig file does not contain data for one of the Intervals
+   */
+  public void query(final List<? extends Interval> intervals, QueryCallback callback) throws IOException,
+      WigFileException {
+    Integer[] order = new Integer[intervals.size()];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer i, Integer j) {
+        Interval a = intervals.get(i);
+        Interval b = intervals.get(j);
+        int c = a.getChr().compareTo(b.getChr());
+        if (c == 0) {
+          c = Integer.compare(a.low(), b.low());
+        }
+        return c;
+      }
+    });
+
+    Cursor cursor = newCursor();
+    int first = 0;
+    while (first < order.length) {
+      // Extend the read while the next interval overlaps or is adjacent to it
+      Interval interval = intervals.get(order[first]);
+      String chr = interval.getChr();
+      int low = interval.low();
+      int high = interval.high();
+      int last = first + 1;
+      for (; last < order.length; last++) {
+        Interval next = intervals.get(order[last]);
+        int nextHigh = Math.max(high, next.high());
+        if (!next.getChr().equals(chr) || next.low() > high + 1
+            || (long) nextHigh - low + 1 > MAX_BATCH_READ_LENGTH) {
+          break;
+        }
+        high = nextHigh;
+      }
+
+      // Read the coalesced interval into a single array, and copy each
+      // interval's values out of it
+      float[] read = new float[high - low + 1];
+      cursor.fill(new Interval(chr, low, high), read);
+      for (int k = first; k < last; k++) {
+        Interval i = intervals.get(order[k]);
+        float[] values = (last - first == 1) ? read : Arrays.copyOfRange(read, i.low() - low, i.high() - low + 1);
+        if (i.isCrick()) {
+          ArrayUtils.reverse(values);
+        }
+        callback.result(order[k], new Contig(i, values));
+      }
+
+      first = last;
+    }
+  }
+
+  /**
+   * Query for Contigs of data for many intervals at once, reading the file in
+   * one sorted sweep as in query(List, QueryCallback). All of the results are
+   * held in memory until they are iterated over.
+   * 
+   * @param intervals
+   *          the Intervals of data to query for
+   * @return the Contigs of data for intervals, in the same order as intervals
+   * @throws IOException
+   *           if a disk read error occurs
+   * @throws WigFileException
+   *           if the Wig file does not contain data for one of the Intervals
+   */
+  public Iterator<Contig> query(List<? extends Interval> intervals) throws IOException, WigFileException {
+    final Contig[] results = new Contig[intervals.size()];
+    query(intervals, new QueryCallback() {
+      @Override
+      public void result(int index, Contig result) {
+        results[index] = result;
+      }
+    });
+
+    return Arrays.asList(results).iterator();
+  }
+
+  /**
+   * Summarize the data in an interval in a number of (nearly) equal-sized bins,
+   * without loading all of the data in the interval into memory. Bin i covers
+   * the base pairs [low + floor(i*L/N), low + floor((i+1)*L/N) - 1] of the
+   * interval, where L is its length and N is the number of bins.
+   * 
+   * @param interval
+   *          the Interval of data to summarize
+   * @param numBins
+   *          the number of bins to divide the interval into (no more than the
+   *          length of the interval)
+   * @return the summary (mean, min, max, number of bases covered, etc.) of each
+   *         bin, in the orientation of interval
+   * @throws IOException
+   *           if a disk read error occurs
+   * @throws WigFileException
+   *           if the Wig file does not contain data for this Interval
+   */
+  public abstract StatsAccumulator[] querySummary(Interval interval, int numBins) throws IOException,
+      WigFileException;
+
+  /**
+   * Query for an aggregate of the data in each of a number of (nearly)
+   * equal-sized bins across an interval, without loading all of the data in
+   * the interval into memory. See querySummary(Interval, int) for the
+   * definition of the bins.
+   * 
+   * @param interval
+   *          the Interval of data to query for
+   * @param numBins
+   *          the number of bins to divide the interval into (no more than the
+   *          length of the interval)
+   * @param aggregation
+   *          how to aggregate the data in each bin
+   * @return the aggregate value of each bin, in the orientation of interval
+   * @throws IOException
+   *           if a disk read error occurs
+   * @throws WigFileException
+   *           if the Wig file does not contain data for this Interval
+   */
+  public final float[] query(Interval interval, int numBins, Aggregation aggregation) throws IOException,
+      WigFileException {
+    StatsAccumulator[] summaries = querySummary(interval, numBins);
+    float[] values = new float[numBins];
+    for (int i = 0; i < numBins; i++) {
+      values[i] = aggregation.of(summaries[i]);
+    }
+
+    return values;
+  }
+
   /**
    * Query for a Contig of data in this Wig file corresponding to a specific
    * interval
@@ -298,4 +532,80 @@ public abstract class WigFileReader implements Closeable, Cloneable {
 
   @Override
   public abstract WigFileReader clone();
+
+  /**
+   * Loads the data for a series of intervals that are sorted by chromosome and
+   * position and do not overlap, as fill() does. Implementations may keep their
+   * place in the file between intervals, so that each chromosome is read in
+   * one forward pass.
+   * 
+   * @author timpalpant
+   *
+   */
+  protected static interface Cursor {
+    void fill(Interval interval, float[] values) throws IOException, WigFileException;
+  }
+
+  /**
+   * Receives the results of a batch query
+   * 
+   * @author timpalpant
+   *
+   */
+  public static interface QueryCallback {
+    /**
+     * @param index
+     *          the index of the queried interval in the list of intervals
+     * @param result
+     *          the Contig of data for the interval
+     */
+    void result(int index, Contig result);
+  }
+
+  /**
+   * Ways to aggregate the data in a bin
+   * 
+   * @author timpalpant
+   *
+   */
+  public static enum Aggregation {
+    /** The mean value of the bases with data */
+    MEAN,
+    /** The minimum value */
+    MIN,
+    /** The maximum value */
+    MAX,
+    /** The sum of the values of the bases with data */
+    SUM,
+    /** The number of bases with data */
+    COVERAGE;
+
+    /**
+     * @param stats
+     *          the summary of the data in a bin
+     * @return the aggregate value of the bin. Bins without any data are NaN,
+     *         except for COVERAGE, which is 0.
+     */
+    public float of(StatsAccumulator stats) {
+      if (this == COVERAGE) {
+        return stats.getN();
+      } else if (stats.getN() == 0) {
+        return Float.NaN;
+      }
+
+      switch (this) {
+      case MEAN:
+        return (float) stats.getMean();
+      case MIN:
+        return (float) stats.getMin();
+      case MAX:
+        return (float) stats.getMax();
+      case SUM:
+        return (float) stats.getSum();
+      default:
+        throw new IllegalStateException("Unknown aggregation " + this);
+      }
+    }
+  }
+
 }
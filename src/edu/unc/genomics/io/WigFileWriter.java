@@ -2,23 +2,30 @@ package edu.unc.genomics.io;
 
 import java.io.Closeable;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
-import java.nio.file.Files;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
 
 import edu.ucsc.genome.TrackHeader;
 import edu.unc.genomics.Contig;
+import edu.unc.genomics.util.FastFloatFormat;
 
 /**
  * A class for writing data to Wiggle files in either fixedStep or variableStep
  * format
  * 
+ * Values are formatted directly into a large byte buffer (with the same output
+ * as newFormatter()), which is flushed to the file with channel writes.
+ * 
  * @author timpalpant
  *
  */
@@ -26,8 +33,16 @@ public class WigFileWriter implements Closeable {
 
   private static final Logger log = Logger.getLogger(WigFileWriter.class);
 
+  public static final int BUFFER_SIZE = 1 << 20;
+  // Room for the longest formatted line (the position and value of a base)
+  private static final int MAX_LINE_LENGTH = 128;
+
   private final Path p;
-  private final PrintWriter writer;
+  private final FileChannel channel;
+  private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+  private final Charset charset = Charset.defaultCharset();
+  private final byte[] lineSeparator = System.lineSeparator().getBytes(charset);
+  private final FastFloatFormat formatter = new FastFloatFormat(FastFloatFormat.DEFAULT_MAX_FRACTION_DIGITS, charset);
 
   /**
    * Write or append to a Wiggle file
@@ -42,7 +57,14 @@ public class WigFileWriter implements Closeable {
   public WigFileWriter(Path p, OpenOption... options) throws IOException {
     this.p = p;
     log.debug("Initializing Wig file writer " + p);
-    this.writer = new PrintWriter(Files.newBufferedWriter(p, Charset.defaultCharset(), options));
+    // Open the file in the same way as Files.newBufferedWriter
+    Set<OpenOption> opts = new HashSet<>(Arrays.asList(options));
+    if (opts.isEmpty()) {
+      opts.add(StandardOpenOption.CREATE);
+      opts.add(StandardOpenOption.TRUNCATE_EXISTING);
+    }
+    opts.add(StandardOpenOption.WRITE);
+    this.channel = FileChannel.open(p, opts);
   }
 
   /**
@@ -63,28 +85,29 @@ public class WigFileWriter implements Closeable {
       log.error("Refusing to write track header with type=" + header.getType().getId() + " to Wig file");
     } else {
       log.debug("Writing Wig file header: " + header);
-      writer.println(header);
+      synchronized (buffer) {
+        println(header.toString());
+      }
     }
   }
 
   @Override
   public final void close() throws IOException {
     log.debug("Closing Wig file writer " + p);
-    writer.close();
+    try {
+      synchronized (buffer) {
+        flush();
+      }
+    } finally {
+      channel.close();
+    }
   }
 
   /**
    * Formats values for writing into Wig files
    */
   public static DecimalFormat newFormatter() {
-    DecimalFormat formatter = new DecimalFormat();
-    formatter.setMaximumFractionDigits(8);
-    formatter.setGroupingUsed(false);
-    DecimalFormatSymbols symbols = formatter.getDecimalFormatSymbols();
-    symbols.setInfinity("Inf");
-    symbols.setNaN("NaN");
-    formatter.setDecimalFormatSymbols(symbols);
-    return formatter;
+    return FastFloatFormat.newDecimalFormat(FastFloatFormat.DEFAULT_MAX_FRACTION_DIGITS);
   }
 
   /**
@@ -119,13 +142,15 @@ public class WigFileWriter implements Closeable {
    * @return the Future corresponding to this Contig's write job
    */
   public final void writeFixedStepContig(final Contig contig) {
-    log.debug("Writing contig: " + contig.getFixedStepHeader());
-    DecimalFormat formatter = newFormatter();
+    String header = contig.getFixedStepHeader();
+    log.debug("Writing contig: " + header);
     int step = contig.getMinStep();
-    synchronized (writer) {
-      writer.println(contig.getFixedStepHeader());
+    synchronized (buffer) {
+      println(header);
       for (int bp = contig.getFirstBaseWithData(); bp <= contig.high(); bp += step) {
-        writer.println(formatter.format(contig.get(bp)));
+        ensureCapacity(MAX_LINE_LENGTH);
+        formatter.format(contig.get(bp), buffer);
+        buffer.put(lineSeparator);
       }
     }
   }
@@ -140,17 +165,21 @@ public class WigFileWriter implements Closeable {
    * @return
    */
   public final void writeVariableStepContig(final Contig contig) {
-    log.debug("Writing contig: " + contig.getVariableStepHeader());
-    DecimalFormat formatter = newFormatter();
+    String header = contig.getVariableStepHeader();
+    log.debug("Writing contig: " + header);
     int bp = contig.getFirstBaseWithData();
     int span = contig.getVariableStepSpan();
-    synchronized (writer) {
-      writer.println(contig.getVariableStepHeader());
+    synchronized (buffer) {
+      println(header);
       while (bp <= contig.high()) {
         float value = contig.get(bp);
         // Write the value and skip the span size
         if (!Float.isNaN(value)) {
-          writer.println(bp + "\t" + formatter.format(value));
+          ensureCapacity(MAX_LINE_LENGTH);
+          formatter.format(bp, buffer);
+          buffer.put((byte) '\t');
+          formatter.format(value, buffer);
+          buffer.put(lineSeparator);
           bp += span;
         } else {
           bp++;
@@ -159,6 +188,46 @@ public class WigFileWriter implements Closeable {
     }
   }
 
+  /**
+   * Write a line of text
+   */
+  private void println(String line) {
+    byte[] bytes = line.getBytes(charset);
+    ensureCapacity(bytes.length + lineSeparator.length);
+    if (bytes.length + lineSeparator.length > buffer.capacity()) {
+      write(ByteBuffer.wrap(bytes));
+    } else {
+      buffer.put(bytes);
+    }
+    buffer.put(lineSeparator);
+  }
+
+  /**
+   * Flush the buffer if it does not have room for n more bytes
+   */
+  private void ensureCapacity(int n) {
+    if (buffer.remaining() < n) {
+      flush();
+    }
+  }
+
+  private void flush() {
+    buffer.flip();
+    write(buffer);
+    buffer.clear();
+  }
+
+  private void write(ByteBuffer buf) {
+    try {
+      while (buf.hasRemaining()) {
+        channel.write(buf);
+      }
+    } catch (IOException e) {
+      log.error("Error writing to Wig file " + p);
+      throw new RuntimeException(e);
+    }
+  }
+
   /**
    * @return the path
    */
@@ -0,0 +1,413 @@
+package edu.unc.genomics.io;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.apache.commons.math3.stat.descriptive.StatisticalSummary;
+import org.apache.log4j.Logger;
+
+import edu.unc.genomics.Contig;
+import edu.unc.genomics.util.StatsAccumulator;
+
+/**
+ * Indexes an ASCII-text Wig file in parallel. The file is split into chunks of
+ * whole lines, and indexed in two passes over the chunks:
+ *
+ * 1. Each chunk is scanned for contig headers, and its lines are counted. The
+ * headers are then parsed in order, which gives the contig and line number at
+ * the start of every chunk.
+ *
+ * 2. Each chunk is parsed, computing partial statistics and the checkpoints for
+ * the lines in that chunk. The partial results are then merged in order.
+ *
+ * Both passes run on a ForkJoinPool, with a separate ByteLineScanner for each
+ * chunk.
+ *
+ * @author timpalpant
+ *
+ */
+class WigIndexer {
+
+  private static final Logger log = Logger.getLogger(WigIndexer.class);
+
+  /** Files are not split into chunks smaller than this many bytes */
+  public static final long MIN_CHUNK_SIZE = 4 * 1024 * 1024;
+  /** Use several chunks per thread in case some take longer than others */
+  private static final int CHUNKS_PER_THREAD = 4;
+
+  private final MappedFileBuffer mapped;
+  private final FileChannel channel;
+  private final int numThreads;
+  private final long minChunkSize;
+
+  private List<ContigIndex> contigs;
+  private StatisticalSummary stats;
+
+  /**
+   * @param mapped
+   *          the memory-mapped Wig file, or null if it could not be mapped
+   * @param channel
+   *          the Wig file
+   * @param numThreads
+   *          the number of threads to index with
+   * @param minChunkSize
+   *          the minimum number of bytes to index in each task
+   */
+  public WigIndexer(MappedFileBuffer mapped, FileChannel channel, int numThreads, long minChunkSize) {
+    this.mapped = mapped;
+    this.channel = channel;
+    this.numThreads = numThreads;
+    this.minChunkSize = minChunkSize;
+  }
+
+  /**
+   * Index the Wig file
+   *
+   * @throws IOException
+   *           if a disk read error occurs
+   * @throws WigFileFormatException
+   *           if the Wig file is not formatted correctly
+   */
+  public void index() throws IOException, WigFileFormatException {
+    long[] boundaries = getChunkBoundaries();
+    int numChunks = boundaries.length - 1;
+    log.debug("Indexing Wig file in " + numChunks + " chunks with " + numThreads + " threads");
+
+    ForkJoinPool pool = (numChunks > 1) ? new ForkJoinPool(numThreads) : null;
+    try {
+      // Pass 1: find the contig headers in each chunk
+      List<HeaderScan> headerScans = new ArrayList<>();
+      for (int i = 0; i < numChunks; i++) {
+        headerScans.add(new HeaderScan(boundaries[i], boundaries[i + 1]));
+      }
+      run(pool, headerScans);
+
+      // Parse the headers to find the contig and line number at the start of
+      // each chunk
+      contigs = new ArrayList<>();
+      List<ValueScan> valueScans = new ArrayList<>();
+      long lineNum = 1;
+      for (int i = 0; i < numChunks; i++) {
+        HeaderScan scan = headerScans.get(i);
+        valueScans.add(new ValueScan(boundaries[i], boundaries[i + 1], lineNum, contigs.size() - 1));
+        for (int j = 0; j < scan.headers.size(); j++) {
+          long headerLineNum = lineNum + scan.headerLines.get(j);
+          log.debug("Found contig header: " + scan.headers.get(j) + " (line " + headerLineNum + ")");
+          if (contigs.size() > 0) {
+            contigs.get(contigs.size() - 1).setStopLine(headerLineNum - 1);
+          }
+          ContigIndex contig = ContigIndex.parseHeader(scan.headers.get(j));
+          contig.setStartLine(headerLineNum + 1);
+          contigs.add(contig);
+        }
+        lineNum += scan.numLines;
+      }
+      if (contigs.size() > 0) {
+        contigs.get(contigs.size() - 1).setStopLine(lineNum - 1);
+      }
+
+      // Pass 2: parse the values in each chunk
+      run(pool, valueScans);
+      merge(valueScans);
+    } finally {
+      if (pool != null) {
+        pool.shutdown();
+      }
+    }
+  }
+
+  /**
+   * Split the file into chunks that start at the beginning of a line
+   *
+   * @return the start of each chunk, followed by the end of the file
+   */
+  private long[] getChunkBoundaries() throws IOException {
+    long size = channel.size();
+    int numChunks = (int) Math.max(1, Math.min(numThreads * CHUNKS_PER_THREAD, size / minChunkSize));
+    long[] boundaries = new long[numChunks + 1];
+    boundaries[numChunks] = size;
+    ByteLineScanner scanner = newScanner();
+    for (int i = 1; i < numChunks; i++) {
+      // Move to the start of the line following the byte before the boundary,
+      // so that a boundary that is already at the start of a line is kept
+      scanner.seek(i * (size / numChunks) - 1);
+      scanner.skipLine();
+      boundaries[i] = Math.max(boundaries[i - 1], scanner.getPosition());
+    }
+
+    return boundaries;
+  }
+
+  private ByteLineScanner newScanner() throws IOException {
+    if (mapped != null) {
+      return new ByteLineScanner(mapped);
+    }
+
+    return new ByteLineScanner(channel);
+  }
+
+  /**
+   * Run tasks on the pool (or in this thread if pool is null) and wait for
+   * them to complete
+   */
+  private static <T> void run(ForkJoinPool pool, List<? extends Callable<T>> tasks) throws IOException,
+      WigFileFormatException {
+    try {
+      if (pool == null) {
+        for (Callable<T> task : tasks) {
+          task.call();
+        }
+      } else {
+        for (Future<T> result : pool.invokeAll(tasks)) {
+          result.get();
+        }
+      }
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new RuntimeException(cause);
+    } catch (IOException | RuntimeException e) {
+      throw e;
+    } catch (InterruptedException e) {
+      throw new IOException("Interrupted while indexing Wig file");
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Merge the checkpoints, extents, and statistics from each chunk
+   */
+  private void merge(List<ValueScan> valueScans) throws WigFileFormatException {
+    int[] firstBPs = new int[contigs.size()];
+    int[] lastBPs = new int[contigs.size()];
+    boolean[] hasData = new boolean[contigs.size()];
+    StatsAccumulator stats = new StatsAccumulator();
+    long count = 0;
+    for (ValueScan scan : valueScans) {
+      for (ContigPart part : scan.parts) {
+        ContigIndex contig = contigs.get(part.contig);
+        for (int i = 0; i < part.numIndexed; i++) {
+          contig.storeIndex(part.indexedBPs[i], part.indexedPositions[i]);
+        }
+        if (part.numEntries > 0) {
+          if (!hasData[part.contig]) {
+            firstBPs[part.contig] = part.firstBP;
+            hasData[part.contig] = true;
+          }
+          lastBPs[part.contig] = part.lastBP;
+        }
+      }
+
+      stats.merge(scan.stats);
+      count += scan.count;
+    }
+
+    for (int i = 0; i < contigs.size(); i++) {
+      ContigIndex contig = contigs.get(i);
+      if (contig.isVariableStep()) {
+        if (!hasData[i]) {
+          throw new WigFileFormatException("Illegal format in variableStep contig, line " + contig.getStartLine()
+              + ". Contig has no data");
+        }
+        contig.setStart(firstBPs[i]);
+      } else if (!hasData[i]) {
+        lastBPs[i] = contig.getStart() - ((FixedStepContigIndex) contig).getStep();
+      }
+      contig.setStop(lastBPs[i] + contig.getSpan() - 1);
+    }
+
+    this.stats = stats.getSummary();
+    log.debug("Indexed " + count + " entries in Wig file");
+  }
+
+  /**
+   * @return the contigs for each chromosome
+   */
+  public Map<String, ChromosomeContigs> getContigs() {
+    return ChromosomeContigs.byChromosome(contigs);
+  }
+
+  /**
+   * @return statistics about the values in the Wig file
+   */
+  public StatisticalSummary getStats() {
+    return stats;
+  }
+
+  /**
+   * Pass 1: count the lines in a chunk and find its contig headers
+   */
+  private class HeaderScan implements Callable<Void> {
+    private final long start;
+    private final long stop;
+    private long numLines = 0;
+    // The line (relative to the start of the chunk) of each header
+    private final List<Long> headerLines = new ArrayList<>();
+    private final List<String> headers = new ArrayList<>();
+
+    public HeaderScan(long start, long stop) {
+      this.start = start;
+      this.stop = stop;
+    }
+
+    @Override
+    public Void call() throws IOException {
+      ByteLineScanner scanner = newScanner();
+      scanner.seek(start);
+      while (scanner.getPosition() < stop) {
+        if (scanner.isContigHeaderLine()) {
+          headerLines.add(numLines);
+          headers.add(scanner.readLine());
+        } else {
+          scanner.skipLine();
+        }
+        numLines++;
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Pass 2: parse the values in a chunk
+   */
+  private class ValueScan implements Callable<Void> {
+    private final long start;
+    private final long stop;
+    private final long startLine;
+    private final int startContig;
+    private final List<ContigPart> parts = new ArrayList<>();
+    private final StatsAccumulator stats = new StatsAccumulator();
+    private long count = 0;
+
+    /**
+     * @param start
+     *          the first byte of the chunk
+     * @param stop
+     *          the byte following the chunk
+     * @param startLine
+     *          the line number of the first line in the chunk
+     * @param startContig
+     *          the contig that the chunk starts in, or -1 if it starts before
+     *          the first contig
+     */
+    public ValueScan(long start, long stop, long startLine, int startContig) {
+      this.start = start;
+      this.stop = stop;
+      this.startLine = startLine;
+      this.startContig = startContig;
+    }
+
+    @Override
+    public Void call() throws IOException, WigFileFormatException {
+      ByteLineScanner scanner = newScanner();
+      scanner.seek(start);
+      int c = startContig;
+      ContigIndex contig = null;
+      ContigPart part = null;
+      int step = 0;
+      if (c >= 0) {
+        contig = contigs.get(c);
+        part = new ContigPart(c);
+        parts.add(part);
+        step = contig.isFixedStep() ? ((FixedStepContigIndex) contig).getStep() : 0;
+      }
+
+      long lineNum = startLine;
+      while (scanner.getPosition() < stop) {
+        long pos = scanner.getPosition();
+        if (scanner.isTrackLine()) {
+          scanner.skipLine();
+        } else if (scanner.isContigHeaderLine()) {
+          scanner.skipLine();
+          contig = contigs.get(++c);
+          part = new ContigPart(c);
+          parts.add(part);
+          step = contig.isFixedStep() ? ((FixedStepContigIndex) contig).getStep() : 0;
+        } else if (contig == null) {
+          throw new WigFileFormatException("Missing contig header (fixedStep or variableStep), line " + lineNum);
+        } else {
+          int bp;
+          float value;
+          try {
+            if (contig.isFixedStep()) {
+              bp = contig.getStart() + (int) (lineNum - contig.getStartLine()) * step;
+            } else {
+              bp = scanner.nextInt();
+            }
+            value = scanner.nextFloat();
+          } catch (NumberFormatException e) {
+            throw new WigFileFormatException("Illegal format in " + typeOf(contig) + " contig, line " + lineNum + ". "
+                + e.getMessage());
+          }
+          scanner.skipLine();
+
+          if (!Float.isNaN(value) && !Float.isInfinite(value)) {
+            count++;
+            stats.add(value, contig.getSpan());
+          }
+
+          // Store this line in the index
+          if ((lineNum - contig.getStartLine()) % TextWigFileReader.KEY_GRANULARITY == 0) {
+            part.storeIndex(bp, pos);
+          }
+          if (part.numEntries == 0) {
+            part.firstBP = bp;
+          }
+          part.lastBP = bp;
+          part.numEntries++;
+        }
+
+        lineNum++;
+      }
+
+      return null;
+    }
+  }
+
+  /**
+   * The part of a contig within a single chunk
+   */
+  private static class ContigPart {
+    private final int contig;
+    private int numEntries = 0;
+    private int firstBP;
+    private int lastBP;
+    private int[] indexedBPs = new int[4];
+    private long[] indexedPositions = new long[4];
+    private int numIndexed = 0;
+
+    public ContigPart(int contig) {
+      this.contig = contig;
+    }
+
+    public void storeIndex(int bp, long pos) {
+      if (numIndexed == indexedBPs.length) {
+        indexedBPs = Arrays.copyOf(indexedBPs, 2 * numIndexed);
+        indexedPositions = Arrays.copyOf(indexedPositions, 2 * numIndexed);
+      }
+      indexedBPs[numIndexed] = bp;
+      indexedPositions[numIndexed] = pos;
+      numIndexed++;
+    }
+  }
+
+  /**
+   * @return the type of a contig, for error messages
+   */
+  private static String typeOf(ContigIndex contig) {
+    return contig.isFixedStep() ? Contig.Type.FIXEDSTEP.getId() : Contig.Type.VARIABLESTEP.getId();
+  }
+}
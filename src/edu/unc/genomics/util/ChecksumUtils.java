@@ -1,8 +1,11 @@
 package edu.unc.genomics.util;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.zip.Adler32;
 import java.util.zip.CRC32;
 import java.util.zip.CheckedInputStream;
@@ -12,7 +15,7 @@ import org.apache.log4j.Logger;
 
 /**
  * Helper utilities for calculating checksums of files including Adler32 and
- * CRC32
+ * CRC32, of either the entire file or a sample of its blocks
  * 
  * @author timpalpant
  *
@@ -21,6 +24,9 @@ public class ChecksumUtils {
 
   private static final Logger log = Logger.getLogger(ChecksumUtils.class);
 
+  public static final int DEFAULT_SAMPLE_BLOCK_SIZE = 65_536;
+  public static final int DEFAULT_SAMPLE_NUM_BLOCKS = 16;
+
   public static long adler32(Path p) throws IOException {
     return ChecksumUtils.file(p, new Adler32());
   }
@@ -39,4 +45,68 @@ public class ChecksumUtils {
       return cis.getChecksum().getValue();
     }
   }
+
+  public static long sampledCrc32(Path p) throws IOException {
+    return ChecksumUtils.sampled(p, new CRC32(), DEFAULT_SAMPLE_BLOCK_SIZE, DEFAULT_SAMPLE_NUM_BLOCKS);
+  }
+
+  /**
+   * Calculate a checksum of a sample of the blocks in a file: the first block,
+   * the last block, and numBlocks evenly-spaced blocks in between, as well as
+   * the size of the file. The cost does not depend on the size of the file,
+   * but changes that do not touch any sampled block will not be detected.
+   * 
+   * @param p
+   *          the file
+   * @param c
+   *          the checksum to update
+   * @param blockSize
+   *          the number of bytes in each sampled block
+   * @param numBlocks
+   *          the number of blocks to sample between the first and last blocks
+   * @return the checksum of the sampled blocks
+   * @throws IOException
+   */
+  public static long sampled(Path p, Checksum c, int blockSize, int numBlocks) throws IOException {
+    log.debug("Calculating sampled checksum for " + p);
+    try (FileChannel channel = FileChannel.open(p, StandardOpenOption.READ)) {
+      long size = channel.size();
+      ByteBuffer buf = ByteBuffer.allocate(Math.max(blockSize, 8));
+      buf.putLong(size);
+      c.update(buf.array(), 0, 8);
+
+      if (size <= (long) blockSize * (numBlocks + 2)) {
+        // Small files are checksummed entirely
+        update(channel, c, buf, 0, size);
+      } else {
+        update(channel, c, buf, 0, blockSize);
+        long stride = (size - blockSize) / (numBlocks + 1);
+        for (int i = 1; i <= numBlocks; i++) {
+          update(channel, c, buf, i * stride, blockSize);
+        }
+        update(channel, c, buf, size - blockSize, blockSize);
+      }
+
+      log.debug("Sampled checksum = " + c.getValue());
+      return c.getValue();
+    }
+  }
+
+  /**
+   * Update a checksum with length bytes of a file, starting at pos
+   */
+  private static void update(FileChannel channel, Checksum c, ByteBuffer buf, long pos, long length)
+      throws IOException {
+    long stop = pos + length;
+    while (pos < stop) {
+      buf.clear();
+      buf.limit((int) Math.min(buf.capacity(), stop - pos));
+      int n = channel.read(buf, pos);
+      if (n == -1) {
+        throw new IOException("Unexpected end of file while calculating checksum");
+      }
+      c.update(buf.array(), 0, n);
+      pos += n;
+    }
+  }
 }
\ No newline at end of file
@@ -1,258 +1,1041 @@
-package edu.unc.genomics.util;
-
-import java.util.*;
-import java.io.*;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
-import java.nio.file.Path;
-
-/**
- * Adapted for java-genomics-io and updated to Java 7 by Timothy Palpant
- * 
- * Goal: offer a generic external-memory sorting program in Java.
- * 
- * It must be : hackable (easy to adapt), scalable to large files, sensibly
- * efficient.
- * 
- * This software is in the public domain.
- * 
- * Usage: java com/google/code/externalsorting/ExternalSort somefile.txt out.txt
- * 
- * You can change the default maximal number of temporary files with the -t
- * flag: java com/google/code/externalsorting/ExternalSort somefile.txt out.txt
- * -t 3
- * 
- * For very large files, you might want to use an appropriate flag to allocate
- * more memory to the Java VM: java -Xms2G
- * com/google/code/externalsorting/ExternalSort somefile.txt out.txt
- * 
- * By (in alphabetical order) Philippe Beaudoin, Jon Elsas, Christan Grant,
- * Daniel Haran, Daniel Lemire, April 2010 originally posted at
- * http://www.daniel
- * -lemire.com/blog/archives/2010/04/01/external-memory-sorting-in-java/
- */
-public class ExternalSort {
-
-  public static int DEFAULTMAXTEMPFILES = 1024;
-
-  // we divide the file into small blocks. If the blocks
-  // are too small, we shall create too many temporary files.
-  // If they are too big, we shall be using too much memory.
-  public static long estimateBestSizeOfBlocks(Path fileToBeSorted, int maxTmpFiles) throws IOException {
-    /**
-     * We multiply by two because later on someone insisted on counting the
-     * memory usage as 2 bytes per character. By this model, loading a file with
-     * 1 character will use 2 bytes.
-     */
-    long sizeoffile = 2 * Files.size(fileToBeSorted);
-
-    // we don't want to open up much more than maxtmpfiles temporary files,
-    // better run out of memory first.
-    long blocksize = sizeoffile / maxTmpFiles + (sizeoffile % maxTmpFiles == 0 ? 0 : 1);
-
-    // on the other hand, we don't want to create many temporary files
-    // for naught. If blocksize is smaller than half the free memory, grow it.
-    long freemem = Runtime.getRuntime().freeMemory();
-    if (blocksize < freemem / 2) {
-      blocksize = freemem / 2;
-    }
-
-    return blocksize;
-  }
-
-  /**
-   * This will simply load the file by blocks of x rows, then sort them
-   * in-memory, and write the result to temporary files that have to be merged
-   * later.
-   * 
-   * @param file
-   *          some flat file
-   * @param cmp
-   *          string comparator
-   * @return a list of temporary flat files
-   */
-  public static List<Path> sortInBatch(Path p, Comparator<String> cmp) throws IOException {
-    return sortInBatch(p, cmp, DEFAULTMAXTEMPFILES, Charset.defaultCharset());
-  }
-
-  /**
-   * This will simply load the file by blocks of x rows, then sort them
-   * in-memory, and write the result to temporary files that have to be merged
-   * later. You can specify a bound on the number of temporary files that will
-   * be created.
-   * 
-   * @param file
-   *          some flat file
-   * @param cmp
-   *          string comparator
-   * @param maxtmpfiles
-   *          maximal number of temporary files
-   * @param Charset
-   *          character set to use
-   * @return a list of temporary flat files
-   */
-  public static List<Path> sortInBatch(Path p, Comparator<String> cmp, int maxtmpfiles, Charset cs) throws IOException {
-    List<Path> files = new ArrayList<Path>();
-    BufferedReader fbr = Files.newBufferedReader(p, cs);
-    long blocksize = estimateBestSizeOfBlocks(p, maxtmpfiles); // in bytes
-
-    try {
-      List<String> tmplist = new ArrayList<String>();
-      String line = "";
-      try {
-        while (line != null) {
-          long currentblocksize = 0;// in bytes
-          while ((currentblocksize < blocksize) && ((line = fbr.readLine()) != null)) { // as
-                                                                                        // long
-                                                                                        // as
-                                                                                        // you
-                                                                                        // have
-                                                                                        // enough
-                                                                                        // memory
-            tmplist.add(line);
-            currentblocksize += line.length() * 2; // java uses 16 bits per
-                                                   // character?
-          }
-          files.add(sortAndSave(tmplist, cmp, cs));
-          tmplist.clear();
-        }
-      } catch (EOFException oef) {
-        if (tmplist.size() > 0) {
-          files.add(sortAndSave(tmplist, cmp, cs));
-          tmplist.clear();
-        }
-      }
-    } finally {
-      fbr.close();
-    }
-
-    return files;
-  }
-
-  public static Path sortAndSave(List<String> tmplist, Comparator<String> cmp, Charset cs) throws IOException {
-    Collections.sort(tmplist, cmp);
-    Path tmpFile = Files.createTempFile("sortInBatch", "flatfile");
-    tmpFile.toFile().deleteOnExit();
-
-    try (BufferedWriter fbw = Files.newBufferedWriter(tmpFile, cs)) {
-      for (String r : tmplist) {
-        fbw.write(r);
-        fbw.newLine();
-      }
-    }
-
-    return tmpFile;
-  }
-
-  /**
-   * This merges a bunch of temporary flat files
-   * 
-   * @param files
-   * @param output
-   *          file
-   * @return The number of lines sorted. (P. Beaudoin)
-   */
-  public static int mergeSortedFiles(List<Path> files, Path outputFile, final Comparator<String> cmp)
-      throws IOException {
-    return mergeSortedFiles(files, outputFile, cmp, Charset.defaultCharset());
-  }
-
-  /**
-   * This merges a bunch of temporary flat files
-   * 
-   * @param files
-   * @param output
-   *          file
-   * @param Charset
-   *          character set to use to load the strings
-   * @return The number of lines sorted. (P. Beaudoin)
-   */
-  public static int mergeSortedFiles(List<Path> files, Path outputFile, final Comparator<String> cmp, Charset cs)
-      throws IOException {
-    PriorityQueue<BinaryFileBuffer> pq = new PriorityQueue<BinaryFileBuffer>(11, new Comparator<BinaryFileBuffer>() {
-      public int compare(BinaryFileBuffer i, BinaryFileBuffer j) {
-        return cmp.compare(i.peek(), j.peek());
-      }
-    });
-
-    for (Path p : files) {
-      BinaryFileBuffer bfb = new BinaryFileBuffer(p, cs);
-      pq.add(bfb);
-    }
-
-    int rowCounter = 0;
-    try (BufferedWriter fbw = Files.newBufferedWriter(outputFile, cs)) {
-      while (pq.size() > 0) {
-        BinaryFileBuffer bfb = pq.poll();
-        String r = bfb.pop();
-        fbw.write(r);
-        fbw.newLine();
-        ++rowCounter;
-        if (bfb.empty()) {
-          bfb.close();
-          Files.deleteIfExists(bfb.p); // we don't need you anymore
-        } else {
-          pq.add(bfb); // add it back
-        }
-      }
-    } finally {
-      for (BinaryFileBuffer bfb : pq) {
-        bfb.close();
-      }
-    }
-
-    return rowCounter;
-  }
-
-}
-
-class BinaryFileBuffer {
-
-  public BufferedReader fbr;
-  public Path p;
-  private String cache;
-  private boolean empty;
-
-  public BinaryFileBuffer(Path p, Charset cs) throws IOException {
-    this.p = p;
-    fbr = Files.newBufferedReader(p, cs);
-    reload();
-  }
-
-  public boolean empty() {
-    return empty;
-  }
-
-  private void reload() throws IOException {
-    try {
-      if ((this.cache = fbr.readLine()) == null) {
-        empty = true;
-        cache = null;
-      } else {
-        empty = false;
-      }
-    } catch (EOFException e) {
-      empty = true;
-      cache = null;
-    }
-  }
-
-  public void close() throws IOException {
-    fbr.close();
-  }
-
-  public String peek() {
-    if (empty()) {
-      return null;
-    }
-
-    return cache.toString();
-  }
-
-  public String pop() throws IOException {
-    String answer = peek();
-    reload();
-    return answer;
-  }
-
-}
\ No newline at end of file
+package edu.unc.genomics.util;
+
+import java.util.*;
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Adapted for java-genomics-io and updated to Java 7 by Timothy Palpant
+ * 
+ * Goal: offer a generic external-memory sorting program in Java.
+ * 
+ * It must be : hackable (easy to adapt), scalable to large files, sensibly
+ * efficient.
+ * 
+ * This software is in the public domain.
+ * 
+ * Usage: java com/google/code/externalsorting/ExternalSort somefile.txt out.txt
+ * 
+ * You can change the default maximal number of temporary files with the -t
+ * flag: java com/google/code/externalsorting/ExternalSort somefile.txt out.txt
+ * -t 3
+ * 
+ * For very large files, you might want to use an appropriate flag to allocate
+ * more memory to the Java VM: java -Xms2G
+ * com/google/code/externalsorting/ExternalSort somefile.txt out.txt
+ * 
+ * By (in alphabetical order) Philippe Beaudoin, Jon Elsas, Christan Grant,
+ * Daniel Haran, Daniel Lemire, April 2010 originally posted at
+ * http://www.daniel
+ * -lemire.com/blog/archives/2010/04/01/external-memory-sorting-in-java/
+ */
+public class ExternalSort {
+
+  public static int DEFAULTMAXTEMPFILES = 1024;
+
+  // the most runs that are merged at once. If there are more runs, groups of
+  // them are merged (in parallel) into larger runs first.
+  public static int DEFAULTMERGEFANIN = 128;
+
+  // temporary runs are compressed with the fastest level, since they are only
+  // compressed to save disk bandwidth
+  private static final int RUN_COMPRESSION_LEVEL = Deflater.BEST_SPEED;
+  private static final int RUN_BUFFER_SIZE = 65536;
+
+  // the memory that each open run uses while it is merged: its read buffers,
+  // and for compressed runs the inflater and its window
+  private static final int RUN_READ_BYTES = 2 * RUN_BUFFER_SIZE;
+  private static final int COMPRESSED_RUN_READ_BYTES = 4 * RUN_BUFFER_SIZE;
+
+  // object header, array header, and list slot of each line sorted as a String
+  private static final int STRING_OVERHEAD = 64;
+
+  private final long maxHeapBytes;
+  private final int numThreads;
+  private final boolean compressRuns;
+
+  /**
+   * Sort files within a fixed memory budget, rather than one estimated from
+   * the free memory of the JVM. The chunks that are being read and sorted
+   * share the budget, and so do the runs that are open while merging, so the
+   * sort uses about maxHeapBytes however large the file is.
+   * 
+   * @param maxHeapBytes
+   *          the most memory to use for sorting
+   * @param numThreads
+   *          the number of threads to sort chunks and merge runs on
+   * @param compressRuns
+   *          whether to compress the temporary files
+   */
+  public ExternalSort(long maxHeapBytes, int numThreads, boolean compressRuns) {
+    if (maxHeapBytes <= 0) {
+      throw new IllegalArgumentException("Memory budget must be > 0");
+    }
+    if (numThreads < 1) {
+      throw new IllegalArgumentException("Number of threads must be >= 1");
+    }
+    this.maxHeapBytes = maxHeapBytes;
+    this.numThreads = numThreads;
+    this.compressRuns = compressRuns;
+  }
+
+  /**
+   * Sort files on a single thread within a fixed memory budget
+   * 
+   * @param maxHeapBytes
+   *          the most memory to use for sorting
+   */
+  public ExternalSort(long maxHeapBytes) {
+    this(maxHeapBytes, 1, false);
+  }
+
+  /**
+   * Sort a file by keys that are extracted from each line once. The lines are
+   * packed into byte[] pages while they are sorted, so the memory of each chunk
+   * is counted exactly.
+   * 
+   * @param input
+   *          some flat file
+   * @param keys
+   *          extracts the key of each line, and drops lines without one
+   * @param out
+   *          receives the sorted lines
+   * @param cs
+   *          character set to use
+   * @return The number of lines sorted.
+   */
+  public int sort(Path input, KeyExtractor keys, LineWriter out, Charset cs) throws IOException {
+    List<Path> runs = sortKeyedChunks(input, keys, cs, numThreads, compressRuns, getChunkBytes());
+    return mergeSortedRuns(runs, out, cs, numThreads, compressRuns, getMergeFanIn());
+  }
+
+  /**
+   * Sort a file with a Comparator. Since the comparator needs each line as a
+   * String, the memory of each chunk is estimated from the length of its lines
+   * rather than counted exactly.
+   * 
+   * @param input
+   *          some flat file
+   * @param cmp
+   *          string comparator
+   * @param filter
+   *          the lines to keep, or null to keep all lines
+   * @param out
+   *          receives the sorted lines
+   * @param cs
+   *          character set to use
+   * @return The number of lines sorted.
+   */
+  public int sort(Path input, Comparator<String> cmp, LineFilter filter, LineWriter out, Charset cs)
+      throws IOException {
+    List<Path> runs = sortChunks(input, cmp, cs, filter, numThreads, compressRuns, getChunkBytes());
+    return mergeSortedFiles(runs, out, cmp, cs, numThreads, compressRuns, getMergeFanIn());
+  }
+
+  /**
+   * @return the memory budget of each chunk. One chunk is read while each
+   *         thread sorts another, so they share the budget.
+   */
+  public long getChunkBytes() {
+    return maxHeapBytes / (numThreads + 1);
+  }
+
+  /**
+   * @return the most runs to merge at once, so that the runs open on all
+   *         threads fit within the budget
+   */
+  public int getMergeFanIn() {
+    long perRun = compressRuns ? COMPRESSED_RUN_READ_BYTES : RUN_READ_BYTES;
+    long fanIn = maxHeapBytes / (numThreads * perRun);
+    return (int) Math.max(2, Math.min(DEFAULTMERGEFANIN, fanIn));
+  }
+
+  // we divide the file into small blocks. If the blocks
+  // are too small, we shall create too many temporary files.
+  // If they are too big, we shall be using too much memory.
+  public static long estimateBestSizeOfBlocks(Path fileToBeSorted, int maxTmpFiles) throws IOException {
+    /**
+     * We multiply by two because later on someone insisted on counting the
+     * memory usage as 2 bytes per character. By this model, loading a file with
+     * 1 character will use 2 bytes.
+     */
+    long sizeoffile = 2 * Files.size(fileToBeSorted);
+
+    // we don't want to open up much more than maxtmpfiles temporary files,
+    // better run out of memory first.
+    long blocksize = sizeoffile / maxTmpFiles + (sizeoffile % maxTmpFiles == 0 ? 0 : 1);
+
+    // on the other hand, we don't want to create many temporary files
+    // for naught. If blocksize is smaller than half the free memory, grow it.
+    long freemem = Runtime.getRuntime().freeMemory();
+    if (blocksize < freemem / 2) {
+      blocksize = freemem / 2;
+    }
+
+    return blocksize;
+  }
+
+  /**
+   * This will simply load the file by blocks of x rows, then sort them
+   * in-memory, and write the result to temporary files that have to be merged
+   * later.
+   * 
+   * @param file
+   *          some flat file
+   * @param cmp
+   *          string comparator
+   * @return a list of temporary flat files
+   */
+  public static List<Path> sortInBatch(Path p, Comparator<String> cmp) throws IOException {
+    return sortInBatch(p, cmp, DEFAULTMAXTEMPFILES, Charset.defaultCharset());
+  }
+
+  /**
+   * This will simply load the file by blocks of x rows, then sort them
+   * in-memory, and write the result to temporary files that have to be merged
+   * later. You can specify a bound on the number of temporary files that will
+   * be created.
+   * 
+   * @param file
+   *          some flat file
+   * @param cmp
+   *          string comparator
+   * @param maxtmpfiles
+   *          maximal number of temporary files
+   * @param Charset
+   *          character set to use
+   * @return a list of temporary flat files
+   */
+  public static List<Path> sortInBatch(Path p, Comparator<String> cmp, int maxtmpfiles, Charset cs) throws IOException {
+    return sortInBatch(p, cmp, maxtmpfiles, cs, null);
+  }
+
+  /**
+   * This will simply load the file by blocks of x rows, then sort them
+   * in-memory, and write the result to temporary files that have to be merged
+   * later. Only the lines accepted by the filter are sorted, so that filtering
+   * does not need a separate pass over the file.
+   * 
+   * @param file
+   *          some flat file
+   * @param cmp
+   *          string comparator
+   * @param maxtmpfiles
+   *          maximal number of temporary files
+   * @param Charset
+   *          character set to use
+   * @param filter
+   *          the lines to keep, or null to keep all lines
+   * @return a list of temporary flat files
+   */
+  public static List<Path> sortInBatch(Path p, Comparator<String> cmp, int maxtmpfiles, Charset cs, LineFilter filter)
+      throws IOException {
+    return sortInBatch(p, cmp, maxtmpfiles, cs, filter, 1, false);
+  }
+
+  /**
+   * Sort a file in chunks, sorting and saving each chunk on a pool of threads
+   * while the next chunk is read. The chunks are smaller so that all of the
+   * chunks in memory at once fit in the same space as a single chunk.
+   * 
+   * @param file
+   *          some flat file
+   * @param cmp
+   *          string comparator
+   * @param maxtmpfiles
+   *          maximal number of temporary files
+   * @param Charset
+   *          character set to use
+   * @param filter
+   *          the lines to keep, or null to keep all lines
+   * @param numThreads
+   *          the number of threads to sort chunks on
+   * @param compressRuns
+   *          whether to compress the temporary files
+   * @return a list of temporary flat files
+   */
+  public static List<Path> sortInBatch(Path p, final Comparator<String> cmp, int maxtmpfiles, final Charset cs,
+      LineFilter filter, int numThreads, final boolean compressRuns) throws IOException {
+    long blocksize = estimateBestSizeOfBlocks(p, maxtmpfiles) / (numThreads + 1); // in bytes
+    return sortChunks(p, cmp, cs, filter, numThreads, compressRuns, blocksize);
+  }
+
+  /**
+   * Sort a file in chunks of at most blocksize (estimated) bytes
+   */
+  private static List<Path> sortChunks(Path p, final Comparator<String> cmp, final Charset cs, LineFilter filter,
+      int numThreads, final boolean compressRuns, long blocksize) throws IOException {
+    try (RunGenerator runs = new RunGenerator(numThreads);
+        BufferedReader fbr = Files.newBufferedReader(p, cs)) {
+      List<String> tmplist = new ArrayList<String>();
+      long currentblocksize = 0; // in bytes
+      String line;
+      while ((line = fbr.readLine()) != null) {
+        if (filter != null && !filter.accept(line)) {
+          continue;
+        }
+        tmplist.add(line);
+        currentblocksize += line.length() * 2 + STRING_OVERHEAD; // java uses 16 bits per character
+        if (currentblocksize >= blocksize) {
+          runs.submit(sortAndSaveTask(tmplist, cmp, cs, compressRuns));
+          tmplist = new ArrayList<String>();
+          currentblocksize = 0;
+        }
+      }
+      if (tmplist.size() > 0 || runs.size() == 0) {
+        runs.submit(sortAndSaveTask(tmplist, cmp, cs, compressRuns));
+      }
+
+      return runs.finish();
+    }
+  }
+
+  private static Callable<Path> sortAndSaveTask(final List<String> tmplist, final Comparator<String> cmp,
+      final Charset cs, final boolean compress) {
+    return new Callable<Path>() {
+      public Path call() throws IOException {
+        return sortAndSave(tmplist, cmp, cs, compress);
+      }
+    };
+  }
+
+  public static Path sortAndSave(List<String> tmplist, Comparator<String> cmp, Charset cs) throws IOException {
+    return sortAndSave(tmplist, cmp, cs, false);
+  }
+
+  public static Path sortAndSave(List<String> tmplist, Comparator<String> cmp, Charset cs, boolean compress)
+      throws IOException {
+    Collections.sort(tmplist, cmp);
+    Path tmpFile = Files.createTempFile("sortInBatch", "flatfile");
+    tmpFile.toFile().deleteOnExit();
+
+    try (BufferedWriter fbw = newRunWriter(tmpFile, cs, compress)) {
+      for (String r : tmplist) {
+        fbw.write(r);
+        fbw.newLine();
+      }
+    }
+
+    return tmpFile;
+  }
+
+  /**
+   * This merges a bunch of temporary flat files
+   * 
+   * @param files
+   * @param output
+   *          file
+   * @return The number of lines sorted. (P. Beaudoin)
+   */
+  public static int mergeSortedFiles(List<Path> files, Path outputFile, final Comparator<String> cmp)
+      throws IOException {
+    return mergeSortedFiles(files, outputFile, cmp, Charset.defaultCharset());
+  }
+
+  /**
+   * This merges a bunch of temporary flat files
+   * 
+   * @param files
+   * @param output
+   *          file
+   * @param Charset
+   *          character set to use to load the strings
+   * @return The number of lines sorted. (P. Beaudoin)
+   */
+  public static int mergeSortedFiles(List<Path> files, Path outputFile, final Comparator<String> cmp, Charset cs)
+      throws IOException {
+    try (BufferedWriter fbw = Files.newBufferedWriter(outputFile, cs)) {
+      return mergeSortedFiles(files, newLineWriter(fbw), cmp, cs);
+    }
+  }
+
+  /**
+   * This merges a bunch of temporary flat files into any destination. If there
+   * are more than DEFAULTMERGEFANIN files, groups of them are first merged into
+   * larger temporary files on a pool of threads.
+   * 
+   * @param files
+   * @param out
+   *          receives the merged lines in sorted order
+   * @param Charset
+   *          character set to use to load the strings
+   * @param numThreads
+   *          the number of threads to merge groups of files on
+   * @param compressRuns
+   *          whether to compress the intermediate temporary files
+   * @return The number of lines sorted.
+   */
+  public static int mergeSortedFiles(List<Path> files, LineWriter out, final Comparator<String> cmp,
+      final Charset cs, int numThreads, final boolean compressRuns) throws IOException {
+    return mergeSortedFiles(files, out, cmp, cs, numThreads, compressRuns, DEFAULTMERGEFANIN);
+  }
+
+  private static int mergeSortedFiles(List<Path> files, LineWriter out, final Comparator<String> cmp,
+      final Charset cs, int numThreads, final boolean compressRuns, int fanIn) throws IOException {
+    files = cascade(files, numThreads, fanIn, new RunMerger() {
+      public Path merge(List<Path> group) throws IOException {
+        Path tmpFile = Files.createTempFile("mergeSortedFiles", "flatfile");
+        tmpFile.toFile().deleteOnExit();
+        try (BufferedWriter fbw = newRunWriter(tmpFile, cs, compressRuns)) {
+          mergeSortedFiles(group, newLineWriter(fbw), cmp, cs);
+        }
+        return tmpFile;
+      }
+    });
+    return mergeSortedFiles(files, out, cmp, cs);
+  }
+
+  /**
+   * This merges a bunch of temporary flat files into any destination, such as
+   * a compressed file, without writing an intermediate sorted file
+   * 
+   * @param files
+   * @param out
+   *          receives the merged lines in sorted order
+   * @param Charset
+   *          character set to use to load the strings
+   * @return The number of lines sorted.
+   */
+  public static int mergeSortedFiles(List<Path> files, LineWriter out, final Comparator<String> cmp, Charset cs)
+      throws IOException {
+    PriorityQueue<BinaryFileBuffer> pq = new PriorityQueue<BinaryFileBuffer>(11, new Comparator<BinaryFileBuffer>() {
+      public int compare(BinaryFileBuffer i, BinaryFileBuffer j) {
+        return cmp.compare(i.peek(), j.peek());
+      }
+    });
+
+    int rowCounter = 0;
+    try {
+      for (Path p : files) {
+        BinaryFileBuffer bfb = new BinaryFileBuffer(p, cs);
+        if (bfb.empty()) {
+          bfb.close();
+          Files.deleteIfExists(p);
+        } else {
+          pq.add(bfb);
+        }
+      }
+
+      while (pq.size() > 0) {
+        BinaryFileBuffer bfb = pq.poll();
+        String r = bfb.pop();
+        out.writeLine(r);
+        ++rowCounter;
+        if (bfb.empty()) {
+          bfb.close();
+          Files.deleteIfExists(bfb.p); // we don't need you anymore
+        } else {
+          pq.add(bfb); // add it back
+        }
+      }
+    } finally {
+      for (BinaryFileBuffer bfb : pq) {
+        bfb.close();
+      }
+    }
+
+    return rowCounter;
+  }
+
+  /**
+   * Sort a file by keys that are extracted from each line once, rather than
+   * with a Comparator that parses both lines on every comparison. The lines in
+   * each chunk are sorted by primitive keys and written to temporary run files
+   * together with their keys, so merging does not parse them again either.
+   * Merge the runs with mergeSortedRuns.
+   * 
+   * @param p
+   *          some flat file
+   * @param keys
+   *          extracts the key of each line, and drops lines without one
+   * @return a list of temporary run files
+   */
+  public static List<Path> sortInBatch(Path p, KeyExtractor keys) throws IOException {
+    return sortInBatch(p, keys, DEFAULTMAXTEMPFILES, Charset.defaultCharset());
+  }
+
+  /**
+   * Sort a file by keys that are extracted from each line once. Merge the runs
+   * with mergeSortedRuns.
+   * 
+   * @param p
+   *          some flat file
+   * @param keys
+   *          extracts the key of each line, and drops lines without one
+   * @param maxtmpfiles
+   *          maximal number of temporary files
+   * @param cs
+   *          character set to use
+   * @return a list of temporary run files
+   */
+  public static List<Path> sortInBatch(Path p, KeyExtractor keys, int maxtmpfiles, Charset cs) throws IOException {
+    return sortInBatch(p, keys, maxtmpfiles, cs, 1, false);
+  }
+
+  /**
+   * Sort a file by keys that are extracted from each line once, sorting and
+   * saving each chunk on a pool of threads while the next chunk is read. Merge
+   * the runs with mergeSortedRuns.
+   * 
+   * @param p
+   *          some flat file
+   * @param keys
+   *          extracts the key of each line, and drops lines without one
+   * @param maxtmpfiles
+   *          maximal number of temporary files
+   * @param cs
+   *          character set to use
+   * @param numThreads
+   *          the number of threads to sort chunks on
+   * @param compressRuns
+   *          whether to compress the temporary files
+   * @return a list of temporary run files
+   */
+  public static List<Path> sortInBatch(Path p, KeyExtractor keys, int maxtmpfiles, Charset cs, int numThreads,
+      boolean compressRuns) throws IOException {
+    long blocksize = estimateBestSizeOfBlocks(p, maxtmpfiles) / (numThreads + 1); // in bytes
+    return sortKeyedChunks(p, keys, cs, numThreads, compressRuns, blocksize);
+  }
+
+  /**
+   * Sort a file by keys in chunks that each use at most chunkBytes of memory
+   */
+  private static List<Path> sortKeyedChunks(Path p, KeyExtractor keys, Charset cs, int numThreads,
+      boolean compressRuns, long chunkBytes) throws IOException {
+    KeyedChunk chunk = new KeyedChunk(cs, compressRuns, chunkBytes);
+    SortKey key = new SortKey();
+    try (RunGenerator runs = new RunGenerator(numThreads);
+        BufferedReader fbr = Files.newBufferedReader(p, cs)) {
+      String line;
+      while ((line = fbr.readLine()) != null) {
+        if (keys.extract(line, key) && !chunk.add(line, key)) {
+          runs.submit(chunk);
+          chunk = new KeyedChunk(cs, compressRuns, chunkBytes);
+          chunk.add(line, key);
+        }
+      }
+      if (chunk.size() > 0 || runs.size() == 0) {
+        runs.submit(chunk);
+      }
+
+      return runs.finish();
+    }
+  }
+
+  /**
+   * This merges the run files written by sortInBatch with a KeyExtractor
+   * 
+   * @param files
+   *          the run files, which are deleted once they have been merged
+   * @param outputFile
+   *          the sorted output file
+   * @param cs
+   *          character set to use
+   * @return The number of lines sorted.
+   */
+  public static int mergeSortedRuns(List<Path> files, Path outputFile, Charset cs) throws IOException {
+    try (BufferedWriter fbw = Files.newBufferedWriter(outputFile, cs)) {
+      return mergeSortedRuns(files, newLineWriter(fbw), cs);
+    }
+  }
+
+  /**
+   * This merges the run files written by sortInBatch with a KeyExtractor. Lines
+   * with equal keys are merged in their original order.
+   * 
+   * @param files
+   *          the run files, which are deleted once they have been merged
+   * @param out
+   *          receives the merged lines in sorted order
+   * @param cs
+   *          character set to use
+   * @return The number of lines sorted.
+   */
+  public static int mergeSortedRuns(List<Path> files, LineWriter out, Charset cs) throws IOException {
+    return mergeSortedRuns(files, out, cs, 1, false);
+  }
+
+  /**
+   * This merges the run files written by sortInBatch with a KeyExtractor. If
+   * there are more than DEFAULTMERGEFANIN runs, groups of them are first merged
+   * into larger runs on a pool of threads. Lines with equal keys are merged in
+   * their original order.
+   * 
+   * @param files
+   *          the run files, which are deleted once they have been merged
+   * @param out
+   *          receives the merged lines in sorted order
+   * @param cs
+   *          character set to use
+   * @param numThreads
+   *          the number of threads to merge groups of runs on
+   * @param compressRuns
+   *          whether to compress the intermediate runs
+   * @return The number of lines sorted.
+   */
+  public static int mergeSortedRuns(List<Path> files, LineWriter out, Charset cs, int numThreads,
+      boolean compressRuns) throws IOException {
+    return mergeSortedRuns(files, out, cs, numThreads, compressRuns, DEFAULTMERGEFANIN);
+  }
+
+  private static int mergeSortedRuns(List<Path> files, final LineWriter out, final Charset cs, int numThreads,
+      final boolean compressRuns, int fanIn) throws IOException {
+    files = cascade(files, numThreads, fanIn, new RunMerger() {
+      public Path merge(List<Path> group) throws IOException {
+        return KeyedRunBuffer.mergeToRun(group, compressRuns);
+      }
+    });
+
+    final int[] rowCounter = new int[1];
+    KeyedRunBuffer.merge(files, new KeyedRunBuffer.RecordWriter() {
+      public void write(KeyedRunBuffer run) throws IOException {
+        out.writeLine(new String(run.line, 0, run.lineLength, cs));
+        ++rowCounter[0];
+      }
+    });
+    return rowCounter[0];
+  }
+
+  /**
+   * Merge groups of runs until there are at most fanIn runs
+   * 
+   * @return the merged runs, in the same order as the runs they were merged
+   *         from
+   */
+  private static List<Path> cascade(List<Path> files, int numThreads, int fanIn, final RunMerger merger)
+      throws IOException {
+    while (files.size() > fanIn) {
+      try (RunGenerator runs = new RunGenerator(numThreads)) {
+        for (int i = 0; i < files.size(); i += fanIn) {
+          final List<Path> group = files.subList(i, Math.min(i + fanIn, files.size()));
+          runs.submit(new Callable<Path>() {
+            public Path call() throws IOException {
+              return (group.size() == 1) ? group.get(0) : merger.merge(group);
+            }
+          });
+        }
+        files = runs.finish();
+      }
+    }
+
+    return files;
+  }
+
+  /**
+   * @return a LineWriter that writes each line to a Writer, followed by a line
+   *         separator
+   */
+  public static LineWriter newLineWriter(final BufferedWriter writer) {
+    return new LineWriter() {
+      public void writeLine(String line) throws IOException {
+        writer.write(line);
+        writer.newLine();
+      }
+    };
+  }
+
+  /**
+   * @return a writer for a temporary file, which may be compressed
+   */
+  static BufferedWriter newRunWriter(Path p, Charset cs, boolean compress) throws IOException {
+    return new BufferedWriter(new OutputStreamWriter(newRunOutputStream(p, compress), cs.newEncoder()),
+        RUN_BUFFER_SIZE);
+  }
+
+  /**
+   * @return a stream to write a temporary file, which may be compressed
+   */
+  static OutputStream newRunOutputStream(Path p, boolean compress) throws IOException {
+    OutputStream os = Files.newOutputStream(p);
+    if (compress) {
+      return new GZIPOutputStream(os, RUN_BUFFER_SIZE) {
+        {
+          def.setLevel(RUN_COMPRESSION_LEVEL);
+        }
+      };
+    }
+    return new BufferedOutputStream(os, RUN_BUFFER_SIZE);
+  }
+
+  /**
+   * @return a stream to read a temporary file, which is decompressed if it was
+   *         written compressed
+   */
+  static InputStream newRunInputStream(Path p) throws IOException {
+    BufferedInputStream is = new BufferedInputStream(Files.newInputStream(p), RUN_BUFFER_SIZE);
+    is.mark(2);
+    int magic = is.read() | (is.read() << 8);
+    is.reset();
+    if (magic == GZIPInputStream.GZIP_MAGIC) {
+      return new BufferedInputStream(new GZIPInputStream(is, RUN_BUFFER_SIZE), RUN_BUFFER_SIZE);
+    }
+    return is;
+  }
+
+  /**
+   * Merges a group of runs into a single run
+   */
+  private interface RunMerger {
+    Path merge(List<Path> group) throws IOException;
+  }
+
+  /**
+   * Writes runs on a pool of threads (or the calling thread), and collects
+   * them in the order that they were submitted. At most numThreads runs are
+   * pending at once, so that the chunks of data they hold are bounded.
+   */
+  private static class RunGenerator implements Closeable {
+    private final ExecutorService executor;
+    private final int maxPending;
+    private final Deque<Future<Path>> pending = new ArrayDeque<Future<Path>>();
+    private final List<Path> files = new ArrayList<Path>();
+
+    RunGenerator(int numThreads) {
+      if (numThreads < 1) {
+        throw new IllegalArgumentException("Number of threads must be >= 1");
+      }
+      executor = (numThreads > 1) ? Executors.newFixedThreadPool(numThreads, new NamedDaemonThreadFactory(
+          "external-sort")) : null;
+      maxPending = numThreads;
+    }
+
+    void submit(Callable<Path> run) throws IOException {
+      if (executor == null) {
+        try {
+          files.add(run.call());
+        } catch (IOException | RuntimeException e) {
+          throw e;
+        } catch (Exception e) {
+          throw new IOException(e);
+        }
+        return;
+      }
+
+      pending.add(executor.submit(run));
+      while (pending.size() > maxPending) {
+        collectNext();
+      }
+    }
+
+    /**
+     * @return the number of runs submitted so far
+     */
+    int size() {
+      return files.size() + pending.size();
+    }
+
+    /**
+     * @return all of the runs, in the order they were submitted
+     */
+    List<Path> finish() throws IOException {
+      while (!pending.isEmpty()) {
+        collectNext();
+      }
+      return files;
+    }
+
+    private void collectNext() throws IOException {
+      try {
+        files.add(pending.remove().get());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while sorting", e);
+      } catch (ExecutionException e) {
+        throw new IOException("Error writing sorted run", e.getCause());
+      }
+    }
+
+    @Override
+    public void close() {
+      if (executor != null) {
+        executor.shutdownNow();
+      }
+    }
+  }
+
+  /**
+   * Extracts the sort key of a line
+   */
+  public interface KeyExtractor {
+    /**
+     * @param line
+     *          a line of the file being sorted
+     * @param key
+     *          set to the key of the line
+     * @return true if the line has a key, or false to drop the line
+     */
+    boolean extract(String line, SortKey key);
+  }
+
+  /**
+   * The key of a line for sorting with a KeyExtractor. Lines are sorted by
+   * chr, then start, then stop, and lines with equal keys keep their original
+   * order.
+   */
+  public static class SortKey {
+    public String chr;
+    public int start;
+    public int stop;
+  }
+
+  /**
+   * Selects the lines of a file to sort
+   */
+  public interface LineFilter {
+    boolean accept(String line);
+  }
+
+  /**
+   * Receives merged lines
+   */
+  public interface LineWriter {
+    void writeLine(String line) throws IOException;
+  }
+
+}
+
+class BinaryFileBuffer {
+
+  public BufferedReader fbr;
+  public Path p;
+  private String cache;
+  private boolean empty;
+
+  public BinaryFileBuffer(Path p, Charset cs) throws IOException {
+    this.p = p;
+    fbr = new BufferedReader(new InputStreamReader(ExternalSort.newRunInputStream(p), cs.newDecoder()));
+    reload();
+  }
+
+  public boolean empty() {
+    return empty;
+  }
+
+  private void reload() throws IOException {
+    try {
+      if ((this.cache = fbr.readLine()) == null) {
+        empty = true;
+        cache = null;
+      } else {
+        empty = false;
+      }
+    } catch (EOFException e) {
+      empty = true;
+      cache = null;
+    }
+  }
+
+  public void close() throws IOException {
+    fbr.close();
+  }
+
+  public String peek() {
+    if (empty()) {
+      return null;
+    }
+
+    return cache.toString();
+  }
+
+  public String pop() throws IOException {
+    String answer = peek();
+    reload();
+    return answer;
+  }
+
+}
+
+/**
+ * Reads the records of a run file written by KeyedChunk
+ */
+class KeyedRunBuffer implements Comparable<KeyedRunBuffer> {
+
+  /**
+   * Receives merged records
+   */
+  interface RecordWriter {
+    void write(KeyedRunBuffer run) throws IOException;
+  }
+
+  public final Path p;
+  private final int index;
+  private final DataInputStream in;
+  private final String[] chrs;
+  public int chrId;
+  public String chr;
+  public int start;
+  public int stop;
+  public byte[] line = new byte[256];
+  public int lineLength;
+
+  /**
+   * @param p
+   *          the run file
+   * @param index
+   *          the order of the run, which breaks ties between equal keys
+   */
+  public KeyedRunBuffer(Path p, int index) throws IOException {
+    this.p = p;
+    this.index = index;
+    in = new DataInputStream(ExternalSort.newRunInputStream(p));
+    chrs = new String[in.readInt()];
+    for (int i = 0; i < chrs.length; i++) {
+      chrs[i] = in.readUTF();
+    }
+  }
+
+  /**
+   * Merge runs in order, deleting each run once it has been merged
+   * 
+   * @param files
+   *          the runs to merge
+   * @param out
+   *          receives each record in sorted order
+   */
+  public static void merge(List<Path> files, RecordWriter out) throws IOException {
+    List<KeyedRunBuffer> runs = new ArrayList<KeyedRunBuffer>();
+    try {
+      for (int i = 0; i < files.size(); i++) {
+        runs.add(new KeyedRunBuffer(files.get(i), i));
+      }
+      mergeBuffers(runs, out);
+    } finally {
+      for (KeyedRunBuffer run : runs) {
+        run.close();
+      }
+    }
+  }
+
+  private static void mergeBuffers(List<KeyedRunBuffer> runs, RecordWriter out) throws IOException {
+    PriorityQueue<KeyedRunBuffer> pq = new PriorityQueue<KeyedRunBuffer>(Math.max(1, runs.size()));
+    for (KeyedRunBuffer run : runs) {
+      if (run.next()) {
+        pq.add(run);
+      } else {
+        run.close();
+        Files.deleteIfExists(run.p);
+      }
+    }
+
+    while (pq.size() > 0) {
+      KeyedRunBuffer run = pq.poll();
+      out.write(run);
+      if (run.next()) {
+        pq.add(run);
+      } else {
+        run.close();
+        Files.deleteIfExists(run.p); // we don't need you anymore
+      }
+    }
+  }
+
+  /**
+   * Merge runs into a single larger run, deleting them once they have been
+   * merged
+   * 
+   * @param files
+   *          the runs to merge
+   * @param compress
+   *          whether to compress the new run
+   * @return the new run
+   */
+  public static Path mergeToRun(List<Path> files, boolean compress) throws IOException {
+    Path tmpFile = Files.createTempFile("mergeSortedRuns", "run");
+    tmpFile.toFile().deleteOnExit();
+    List<KeyedRunBuffer> runs = new ArrayList<KeyedRunBuffer>();
+    try (final DataOutputStream out = new DataOutputStream(ExternalSort.newRunOutputStream(tmpFile, compress))) {
+      // The chromosomes of the new run are the union of the runs' chromosomes
+      SortedSet<String> allChrs = new TreeSet<String>();
+      for (int i = 0; i < files.size(); i++) {
+        KeyedRunBuffer run = new KeyedRunBuffer(files.get(i), i);
+        runs.add(run);
+        allChrs.addAll(Arrays.asList(run.chrs));
+      }
+      out.writeInt(allChrs.size());
+      Map<String, Integer> ranks = new HashMap<String, Integer>();
+      for (String chr : allChrs) {
+        ranks.put(chr, ranks.size());
+        out.writeUTF(chr);
+      }
+      final int[][] runRanks = new int[runs.size()][];
+      for (int i = 0; i < runs.size(); i++) {
+        String[] chrs = runs.get(i).chrs;
+        runRanks[i] = new int[chrs.length];
+        for (int j = 0; j < chrs.length; j++) {
+          runRanks[i][j] = ranks.get(chrs[j]);
+        }
+      }
+
+      mergeBuffers(runs, new RecordWriter() {
+        public void write(KeyedRunBuffer run) throws IOException {
+          out.writeInt(runRanks[run.index][run.chrId]);
+          out.writeInt(run.start);
+          out.writeInt(run.stop);
+          out.writeInt(run.lineLength);
+          out.write(run.line, 0, run.lineLength);
+        }
+      });
+      out.writeInt(-1);
+    } finally {
+      for (KeyedRunBuffer run : runs) {
+        run.close();
+      }
+    }
+
+    return tmpFile;
+  }
+
+  /**
+   * Read the next record
+   * 
+   * @return false if there are no more records
+   */
+  public boolean next() throws IOException {
+    chrId = in.readInt();
+    if (chrId < 0) {
+      return false;
+    }
+
+    chr = chrs[chrId];
+    start = in.readInt();
+    stop = in.readInt();
+    lineLength = in.readInt();
+    if (lineLength > line.length) {
+      line = new byte[Math.max(lineLength, 2 * line.length)];
+    }
+    in.readFully(line, 0, lineLength);
+    return true;
+  }
+
+  @Override
+  public int compareTo(KeyedRunBuffer o) {
+    if (chr != o.chr) {
+      int c = chr.compareTo(o.chr);
+      if (c != 0) {
+        return c;
+      }
+    }
+    if (start != o.start) {
+      return (start < o.start) ? -1 : 1;
+    }
+    if (stop != o.stop) {
+      return (stop < o.stop) ? -1 : 1;
+    }
+    return Integer.compare(index, o.index);
+  }
+
+  public void close() throws IOException {
+    in.close();
+  }
+
+}
@@ -0,0 +1,231 @@
+package edu.unc.genomics.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Arrays;
+
+/**
+ * Formats floats as text directly into a ByteBuffer without allocating,
+ * producing exactly the same output as a DecimalFormat with a maximum number
+ * of fraction digits, no grouping, and the symbols "Inf" and "NaN" (see
+ * newDecimalFormat).
+ *
+ * The value of a float is m*2^e for a 24-bit integer m, so it can be scaled by
+ * 10^digits and rounded (half-even, as DecimalFormat does) exactly with long
+ * arithmetic. Values too large for this, and locales that do not use ASCII
+ * digits, are formatted with the DecimalFormat instead.
+ *
+ * Instances are not thread-safe.
+ *
+ * @author timpalpant
+ *
+ */
+public class FastFloatFormat {
+
+  public static final int DEFAULT_MAX_FRACTION_DIGITS = 8;
+  /** The most fraction digits that can be computed with long arithmetic */
+  public static final int MAX_FRACTION_DIGITS = 11;
+  // Below 2^53, the digits of the integer part are exact
+  private static final float MAX_FAST_VALUE = 0x1p53f;
+
+  private final DecimalFormat format;
+  private final Charset charset;
+  private final int maxFractionDigits;
+  private final long scale;
+  private final boolean ascii;
+  private final byte decimalSeparator;
+  private final byte minusSign;
+  private final byte[] nan;
+  private final byte[] infinity;
+  private final byte[] negativeInfinity;
+  private final byte[] digits = new byte[20];
+
+  /**
+   * Format with DEFAULT_MAX_FRACTION_DIGITS in the default locale and charset
+   */
+  public FastFloatFormat() {
+    this(DEFAULT_MAX_FRACTION_DIGITS);
+  }
+
+  /**
+   * Format in the default locale and charset
+   *
+   * @param maxFractionDigits
+   *          the maximum number of digits after the decimal separator
+   */
+  public FastFloatFormat(int maxFractionDigits) {
+    this(maxFractionDigits, Charset.defaultCharset());
+  }
+
+  /**
+   * @param maxFractionDigits
+   *          the maximum number of digits after the decimal separator
+   * @param charset
+   *          the charset to encode output with
+   */
+  public FastFloatFormat(int maxFractionDigits, Charset charset) {
+    if (maxFractionDigits < 0 || maxFractionDigits > MAX_FRACTION_DIGITS) {
+      throw new IllegalArgumentException("Maximum fraction digits must be between 0 and " + MAX_FRACTION_DIGITS);
+    }
+
+    this.format = newDecimalFormat(maxFractionDigits);
+    this.charset = charset;
+    this.maxFractionDigits = maxFractionDigits;
+    long scale = 1;
+    for (int i = 0; i < maxFractionDigits; i++) {
+      scale *= 10;
+    }
+    this.scale = scale;
+
+    DecimalFormatSymbols symbols = format.getDecimalFormatSymbols();
+    String sample = "0123456789-" + symbols.getDecimalSeparator() + symbols.getMinusSign();
+    ascii = (symbols.getZeroDigit() == '0' && Arrays.equals(sample.getBytes(StandardCharsets.US_ASCII),
+        sample.getBytes(charset)) && symbols.getDecimalSeparator() < 0x80 && symbols.getMinusSign() < 0x80);
+    decimalSeparator = (byte) symbols.getDecimalSeparator();
+    minusSign = (byte) symbols.getMinusSign();
+    nan = format.format(Float.NaN).getBytes(charset);
+    infinity = format.format(Float.POSITIVE_INFINITY).getBytes(charset);
+    negativeInfinity = format.format(Float.NEGATIVE_INFINITY).getBytes(charset);
+  }
+
+  /**
+   * Create the DecimalFormat that defines the output of this class
+   *
+   * @param maxFractionDigits
+   *          the maximum number of digits after the decimal separator
+   * @return a new DecimalFormat
+   */
+  public static DecimalFormat newDecimalFormat(int maxFractionDigits) {
+    DecimalFormat formatter = new DecimalFormat();
+    formatter.setMaximumFractionDigits(maxFractionDigits);
+    formatter.setGroupingUsed(false);
+    DecimalFormatSymbols symbols = formatter.getDecimalFormatSymbols();
+    symbols.setInfinity("Inf");
+    symbols.setNaN("NaN");
+    formatter.setDecimalFormatSymbols(symbols);
+    return formatter;
+  }
+
+  /**
+   * Format a value into a buffer
+   *
+   * @param value
+   *          the value to format
+   * @param out
+   *          the buffer to write to, which must have room for the formatted
+   *          value (at most 64 bytes, except for very large values)
+   */
+  public void format(float value, ByteBuffer out) {
+    if (Float.isNaN(value)) {
+      out.put(nan);
+    } else if (Float.isInfinite(value)) {
+      out.put((value > 0) ? infinity : negativeInfinity);
+    } else if (!ascii || Math.abs(value) >= MAX_FAST_VALUE) {
+      out.put(format.format(value).getBytes(charset));
+    } else {
+      formatFinite(value, out);
+    }
+  }
+
+  /**
+   * Format a value as a String (for convenience; this allocates)
+   *
+   * @param value
+   *          the value to format
+   * @return the formatted value
+   */
+  public String format(float value) {
+    ByteBuffer buf = ByteBuffer.allocate(64);
+    format(value, buf);
+    return new String(buf.array(), 0, buf.position(), charset);
+  }
+
+  /**
+   * Format an integer into a buffer
+   *
+   * @param value
+   *          the value to format
+   * @param out
+   *          the buffer to write to
+   */
+  public void format(long value, ByteBuffer out) {
+    if (!ascii || value == Long.MIN_VALUE) {
+      out.put(Long.toString(value).getBytes(charset));
+      return;
+    } else if (value < 0) {
+      out.put((byte) '-');
+      value = -value;
+    }
+    putDigits(value, out);
+  }
+
+  private void formatFinite(float value, ByteBuffer out) {
+    int bits = Float.floatToRawIntBits(value);
+    int exponent = (bits >>> 23) & 0xFF;
+    long mantissa = bits & 0x7FFFFF;
+    if (exponent == 0) {
+      exponent = 1;
+    } else {
+      mantissa |= 0x800000;
+    }
+    // value = mantissa * 2^shift
+    int shift = exponent - 150;
+
+    long integer;
+    long fraction;
+    if (shift >= 0) {
+      integer = mantissa << shift;
+      fraction = 0;
+    } else {
+      // Round value * 10^digits to the nearest integer, ties to even
+      long scaled = mantissa * scale;
+      int s = -shift;
+      long q = 0;
+      if (s < 62) {
+        q = scaled >>> s;
+        long remainder = scaled & ((1L << s) - 1);
+        long half = 1L << (s - 1);
+        if (remainder > half || (remainder == half && (q & 1) == 1)) {
+          q++;
+        }
+      }
+      integer = q / scale;
+      fraction = q % scale;
+    }
+
+    // DecimalFormat keeps the sign of negative values that round to zero
+    if (bits < 0) {
+      out.put(minusSign);
+    }
+    putDigits(integer, out);
+    if (fraction != 0) {
+      out.put(decimalSeparator);
+      int n = maxFractionDigits;
+      while (fraction % 10 == 0) {
+        fraction /= 10;
+        n--;
+      }
+      for (int i = n - 1; i >= 0; i--) {
+        digits[i] = (byte) ('0' + fraction % 10);
+        fraction /= 10;
+      }
+      out.put(digits, 0, n);
+    }
+  }
+
+  /**
+   * Write the digits of a non-negative value
+   */
+  private void putDigits(long value, ByteBuffer out) {
+    int i = digits.length;
+    do {
+      digits[--i] = (byte) ('0' + value % 10);
+      value /= 10;
+    } while (value > 0);
+    out.put(digits, i, digits.length - i);
+  }
+
+}
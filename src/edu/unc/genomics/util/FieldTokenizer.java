@@ -0,0 +1,393 @@
+package edu.unc.genomics.util;
+
+import java.util.Arrays;
+
+/**
+ * Splits a line into delimited fields without a regex, and without allocating
+ * a String for each field. The tokenizer only records where each field begins
+ * and ends, and numbers are parsed in place, so one tokenizer can be reset and
+ * reused for every line of a file. Fields are only copied into Strings when
+ * they are requested with get().
+ *
+ * Fields are counted in the same way as String.split: trailing empty fields
+ * are dropped, and a line without any delimiters is a single field.
+ *
+ * A tokenizer is not thread-safe. Use threadLocal() to share a tokenizer
+ * between the calls to a static parse method.
+ *
+ * @author timpalpant
+ *
+ */
+public class FieldTokenizer {
+
+  /** Powers of ten that are exactly representable as doubles */
+  private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+      1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+  /** Powers of ten that are exactly representable as floats */
+  private static final float[] FLOAT_POWERS_OF_TEN = { 1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f,
+      1e9f, 1e10f };
+  /** Doubles can exactly represent all integers up to 2^53 */
+  private static final long MAX_EXACT_MANTISSA = 1L << 53;
+  /** Floats can exactly represent all integers up to 2^24 */
+  private static final long MAX_EXACT_FLOAT_MANTISSA = 1L << 24;
+  /** The number of significant digits that will always fit in a long */
+  private static final int MAX_DIGITS = 18;
+
+  private final char delimiter;
+  private CharSequence line;
+  private int[] starts = new int[16];
+  private int[] ends = new int[16];
+  private int count = 0;
+  // The last number read by parseDecimal is (-1)^negative * mantissa *
+  // 10^exponent
+  private boolean negative;
+  private long mantissa;
+  private int exponent;
+
+  /**
+   * @param delimiter
+   *          the character between fields
+   */
+  public FieldTokenizer(char delimiter) {
+    this.delimiter = delimiter;
+  }
+
+  /**
+   * @param delimiter
+   *          the character between fields
+   * @return a ThreadLocal that holds a separate tokenizer for each thread
+   */
+  public static ThreadLocal<FieldTokenizer> threadLocal(final char delimiter) {
+    return new ThreadLocal<FieldTokenizer>() {
+      @Override
+      protected FieldTokenizer initialValue() {
+        return new FieldTokenizer(delimiter);
+      }
+    };
+  }
+
+  /**
+   * Split a line into fields
+   *
+   * @param line
+   *          the line to split
+   * @return this tokenizer
+   */
+  public FieldTokenizer reset(CharSequence line) {
+    return reset(line, 0, line.length());
+  }
+
+  /**
+   * Split part of a line (such as a field split by another tokenizer) into
+   * fields
+   *
+   * @param line
+   *          the line to split
+   * @param begin
+   *          the index of the first character to split
+   * @param end
+   *          the index after the last character to split
+   * @return this tokenizer
+   */
+  public FieldTokenizer reset(CharSequence line, int begin, int end) {
+    this.line = line;
+    count = 0;
+    int fieldStart = begin;
+    for (int i = begin; i < end; i++) {
+      if (line.charAt(i) == delimiter) {
+        add(fieldStart, i);
+        fieldStart = i + 1;
+      }
+    }
+    add(fieldStart, end);
+
+    // Drop trailing empty fields, like String.split
+    if (count > 1) {
+      while (count > 0 && starts[count - 1] == ends[count - 1]) {
+        count--;
+      }
+    }
+    return this;
+  }
+
+  private void add(int start, int end) {
+    if (count == starts.length) {
+      starts = Arrays.copyOf(starts, 2 * count);
+      ends = Arrays.copyOf(ends, 2 * count);
+    }
+    starts[count] = start;
+    ends[count] = end;
+    count++;
+  }
+
+  /**
+   * @return the number of fields
+   */
+  public int count() {
+    return count;
+  }
+
+  /**
+   * @param i
+   *          the index of a field
+   * @return the index in the line of the first character of field i
+   */
+  public int start(int i) {
+    checkIndex(i);
+    return starts[i];
+  }
+
+  /**
+   * @param i
+   *          the index of a field
+   * @return the index in the line after the last character of field i
+   */
+  public int end(int i) {
+    checkIndex(i);
+    return ends[i];
+  }
+
+  /**
+   * @param i
+   *          the index of a field
+   * @return the length of field i
+   */
+  public int length(int i) {
+    checkIndex(i);
+    return ends[i] - starts[i];
+  }
+
+  /**
+   * @param i
+   *          the index of a field
+   * @return field i as a new String
+   */
+  public String get(int i) {
+    checkIndex(i);
+    return line.subSequence(starts[i], ends[i]).toString();
+  }
+
+  /**
+   * @return all of the fields as new Strings, like String.split
+   */
+  public String[] toArray() {
+    String[] fields = new String[count];
+    for (int i = 0; i < count; i++) {
+      fields[i] = line.subSequence(starts[i], ends[i]).toString();
+    }
+    return fields;
+  }
+
+  /**
+   * @param i
+   *          the index of a field
+   * @param s
+   *          a String to compare with
+   * @return true if field i is equal to s
+   */
+  public boolean equals(int i, String s) {
+    checkIndex(i);
+    if (ends[i] - starts[i] != s.length()) {
+      return false;
+    }
+    for (int j = 0; j < s.length(); j++) {
+      if (line.charAt(starts[i] + j) != s.charAt(j)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @param i
+   *          the index of a field
+   * @param s
+   *          a String to compare with
+   * @return true if field i is equal to s, ignoring case
+   */
+  public boolean equalsIgnoreCase(int i, String s) {
+    checkIndex(i);
+    if (ends[i] - starts[i] != s.length()) {
+      return false;
+    }
+    for (int j = 0; j < s.length(); j++) {
+      char c1 = line.charAt(starts[i] + j);
+      char c2 = s.charAt(j);
+      if (c1 != c2 && Character.toUpperCase(c1) != Character.toUpperCase(c2)
+          && Character.toLowerCase(c1) != Character.toLowerCase(c2)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Parse field i as a decimal integer, with the same rules as
+   * Integer.parseInt
+   *
+   * @param i
+   *          the index of a field
+   * @return the parsed integer
+   * @throws NumberFormatException
+   *           if field i is not a valid integer
+   */
+  public int getInt(int i) {
+    checkIndex(i);
+    int pos = starts[i];
+    int end = ends[i];
+    boolean isNegative = false;
+    if (pos < end) {
+      char c = line.charAt(pos);
+      if (c == '-' || c == '+') {
+        isNegative = (c == '-');
+        pos++;
+      }
+    }
+    if (pos == end) {
+      throw invalidNumber(i);
+    }
+
+    // Accumulate negatively so that Integer.MIN_VALUE can be parsed
+    long limit = isNegative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+    long value = 0;
+    for (; pos < end; pos++) {
+      char c = line.charAt(pos);
+      if (c < '0' || c > '9') {
+        throw invalidNumber(i);
+      }
+      value = 10 * value - (c - '0');
+      if (value < limit) {
+        throw invalidNumber(i);
+      }
+    }
+    return (int) (isNegative ? value : -value);
+  }
+
+  /**
+   * Parse field i as a double, with the same result as Double.parseDouble.
+   * Plain decimal numbers are parsed in place, and anything else falls back to
+   * Double.parseDouble.
+   *
+   * @param i
+   *          the index of a field
+   * @return the parsed value
+   * @throws NumberFormatException
+   *           if field i is not a valid number
+   */
+  public double getDouble(int i) {
+    checkIndex(i);
+    if (parseDecimal(i) && mantissa <= MAX_EXACT_MANTISSA && Math.abs(exponent) < POWERS_OF_TEN.length) {
+      // Both the mantissa and the power of ten are exact, so the result is
+      // correctly rounded
+      double value = (exponent < 0) ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+      return negative ? -value : value;
+    }
+    return Double.parseDouble(get(i));
+  }
+
+  /**
+   * Parse field i as a float, with the same result as Float.parseFloat. Plain
+   * decimal numbers are parsed in place, and anything else falls back to
+   * Float.parseFloat.
+   *
+   * @param i
+   *          the index of a field
+   * @return the parsed value
+   * @throws NumberFormatException
+   *           if field i is not a valid number
+   */
+  public float getFloat(int i) {
+    checkIndex(i);
+    if (parseDecimal(i) && mantissa <= MAX_EXACT_FLOAT_MANTISSA && Math.abs(exponent) < FLOAT_POWERS_OF_TEN.length) {
+      float value = (exponent < 0) ? mantissa / FLOAT_POWERS_OF_TEN[-exponent] : mantissa
+          * FLOAT_POWERS_OF_TEN[exponent];
+      return negative ? -value : value;
+    }
+    return Float.parseFloat(get(i));
+  }
+
+  /**
+   * Parse field i if it is a plain decimal number with at most MAX_DIGITS
+   * significant digits, such as -12.5 or 1.5e-3
+   *
+   * @return false if field i must be parsed with the slow path
+   */
+  private boolean parseDecimal(int i) {
+    int pos = starts[i];
+    int end = ends[i];
+    negative = false;
+    mantissa = 0;
+    exponent = 0;
+    if (pos < end) {
+      char c = line.charAt(pos);
+      if (c == '-' || c == '+') {
+        negative = (c == '-');
+        pos++;
+      }
+    }
+
+    int numDigits = 0;
+    int significantDigits = 0;
+    boolean point = false;
+    for (; pos < end; pos++) {
+      char c = line.charAt(pos);
+      if (c >= '0' && c <= '9') {
+        numDigits++;
+        if (significantDigits > 0 || c != '0') {
+          if (++significantDigits > MAX_DIGITS) {
+            return false;
+          }
+        }
+        mantissa = 10 * mantissa + (c - '0');
+        if (point) {
+          exponent--;
+        }
+      } else if (c == '.' && !point) {
+        point = true;
+      } else {
+        break;
+      }
+    }
+    if (numDigits == 0) {
+      return false;
+    }
+
+    if (pos < end) {
+      char c = line.charAt(pos);
+      if (c != 'e' && c != 'E') {
+        return false;
+      }
+      pos++;
+      boolean negativeExponent = false;
+      if (pos < end && (line.charAt(pos) == '-' || line.charAt(pos) == '+')) {
+        negativeExponent = (line.charAt(pos) == '-');
+        pos++;
+      }
+      if (pos == end || end - pos > 3) {
+        return false;
+      }
+      int exp = 0;
+      for (; pos < end; pos++) {
+        c = line.charAt(pos);
+        if (c < '0' || c > '9') {
+          return false;
+        }
+        exp = 10 * exp + (c - '0');
+      }
+      exponent += negativeExponent ? -exp : exp;
+    }
+
+    return true;
+  }
+
+  private NumberFormatException invalidNumber(int i) {
+    return new NumberFormatException("For input string: \"" + get(i) + "\"");
+  }
+
+  private void checkIndex(int i) {
+    if (i < 0 || i >= count) {
+      throw new ArrayIndexOutOfBoundsException(i);
+    }
+  }
+
+}
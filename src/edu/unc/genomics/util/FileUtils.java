@@ -1,6 +1,7 @@
 package edu.unc.genomics.util;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.charset.MalformedInputException;
@@ -88,4 +89,53 @@ public class FileUtils {
     ExternalSort.mergeSortedFiles(pieces, output, cmp);
   }
 
+  /**
+   * Sorts a file using an external merge-sort like the UNIX "sort" command.
+   * Each line is parsed once into a key, and lines are sorted by their keys,
+   * which is much faster than parsing lines in a Comparator.
+   * 
+   * @param input
+   *          the file to sort
+   * @param output
+   *          the output file (sorted)
+   * @param keys
+   *          extracts the key to sort each line by. Lines without a key are
+   *          dropped.
+   * @throws IOException
+   */
+  public static void sort(final Path input, final Path output, final ExternalSort.KeyExtractor keys)
+      throws IOException {
+    sort(input, output, keys, 1, false);
+  }
+
+  /**
+   * Sorts a file by keys extracted from each line, sorting chunks and merging
+   * groups of sorted chunks on a pool of threads
+   * 
+   * @param input
+   *          the file to sort
+   * @param output
+   *          the output file (sorted)
+   * @param keys
+   *          extracts the key to sort each line by. Lines without a key are
+   *          dropped.
+   * @param numThreads
+   *          the number of threads to sort with
+   * @param compressRuns
+   *          whether to compress the temporary files
+   * @throws IOException
+   */
+  public static void sort(final Path input, final Path output, final ExternalSort.KeyExtractor keys,
+      int numThreads, boolean compressRuns) throws IOException {
+    log.debug("Sorting file " + input + " to " + output + " by extracted keys");
+    Charset cs = Charset.defaultCharset();
+    List<Path> runs = ExternalSort.sortInBatch(input, keys, ExternalSort.DEFAULTMAXTEMPFILES, cs, numThreads,
+        compressRuns);
+
+    log.debug("Merging sorted runs");
+    try (BufferedWriter writer = Files.newBufferedWriter(output, cs)) {
+      ExternalSort.mergeSortedRuns(runs, ExternalSort.newLineWriter(writer), cs, numThreads, compressRuns);
+    }
+  }
+
 }
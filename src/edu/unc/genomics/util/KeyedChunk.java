@@ -0,0 +1,242 @@
+package edu.unc.genomics.util;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * A chunk of lines and their keys for ExternalSort, held within a fixed memory
+ * budget. The encoded lines are packed into large byte[] pages, and each line
+ * is a (page, offset, length) entry in primitive arrays alongside its key. The
+ * memory that a chunk uses is counted from the arrays that it allocates, so a
+ * chunk never grows past its budget.
+ *
+ * Lines are sorted by packed long keys. Chromosomes are numbered by their
+ * sorted order when the chunk is sorted, so comparisons never touch the
+ * chromosome names.
+ *
+ * @author timpalpant
+ *
+ */
+class KeyedChunk implements Callable<Path> {
+
+  /** The largest size of the pages that lines are packed into */
+  public static final int PAGE_SIZE = 1 << 20;
+  /**
+   * The memory for each line outside of the pages: chromosome, start, stop,
+   * page, offset, and length (4 bytes each), and the two long keys and two int
+   * permutations that are allocated to sort the chunk
+   */
+  public static final int BYTES_PER_LINE = 6 * 4 + 2 * 8 + 2 * 4;
+  /** Approximate memory for each distinct chromosome (name and map entry) */
+  private static final int BYTES_PER_CHR = 128;
+  private static final int MIN_PAGE_SIZE = 4096;
+  private static final int INITIAL_CAPACITY = 1024;
+  private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+  private final Charset cs;
+  private final boolean compress;
+  private final long maxBytes;
+  private final int pageSize;
+  private final Map<String, Integer> chrIds = new HashMap<String, Integer>();
+  private final List<String> chrs = new ArrayList<String>();
+  private final List<byte[]> pages = new ArrayList<byte[]>();
+  private int pageOffset = 0;
+  private int[] lineChrs = new int[0];
+  private int[] starts = new int[0];
+  private int[] stops = new int[0];
+  private int[] linePages = new int[0];
+  private int[] lineOffsets = new int[0];
+  private int[] lineLengths = new int[0];
+  private int size = 0;
+  private long pageBytes = 0;
+  private long chrBytes = 0;
+
+  /**
+   * @param cs
+   *          character set to encode lines with
+   * @param compress
+   *          whether to compress the run file
+   * @param maxBytes
+   *          the most memory that this chunk may use
+   */
+  public KeyedChunk(Charset cs, boolean compress, long maxBytes) {
+    this.cs = cs;
+    this.compress = compress;
+    this.maxBytes = maxBytes;
+    // Small budgets use smaller pages, so that one page is not the whole chunk
+    pageSize = (int) Math.max(MIN_PAGE_SIZE, Math.min(PAGE_SIZE, maxBytes / 16));
+  }
+
+  /**
+   * Add a line to this chunk, if it fits within the memory budget. An empty
+   * chunk always accepts a line, so that a line larger than the budget can
+   * still be sorted.
+   *
+   * @param line
+   *          the line
+   * @param key
+   *          the key of the line
+   * @return true if the line was added, or false if the chunk is full
+   */
+  public boolean add(String line, ExternalSort.SortKey key) {
+    byte[] bytes = line.getBytes(cs);
+
+    // The memory that adding the line would allocate
+    boolean newChr = !chrIds.containsKey(key.chr);
+    long newChrBytes = newChr ? BYTES_PER_CHR + 2 * key.chr.length() : 0;
+    boolean newPage = (pages.isEmpty() || pageOffset + bytes.length > pageSize);
+    long newPageBytes = newPage ? Math.max(pageSize, bytes.length) : 0;
+    int capacity = lineChrs.length;
+    if (size == capacity) {
+      // Double the arrays, or grow them into whatever room is left
+      long room = (maxBytes - memoryUsed() - newChrBytes - newPageBytes) / BYTES_PER_LINE;
+      long grown = Math.min(Math.max(INITIAL_CAPACITY, 2L * size), size + room);
+      capacity = (int) Math.min(MAX_CAPACITY, Math.max(size + 1, grown));
+    }
+    long needed = newChrBytes + newPageBytes + (long) (capacity - lineChrs.length) * BYTES_PER_LINE;
+    if (size > 0 && memoryUsed() + needed > maxBytes) {
+      return false;
+    }
+
+    if (capacity != lineChrs.length) {
+      lineChrs = Arrays.copyOf(lineChrs, capacity);
+      starts = Arrays.copyOf(starts, capacity);
+      stops = Arrays.copyOf(stops, capacity);
+      linePages = Arrays.copyOf(linePages, capacity);
+      lineOffsets = Arrays.copyOf(lineOffsets, capacity);
+      lineLengths = Arrays.copyOf(lineLengths, capacity);
+    }
+    if (newPage) {
+      pages.add(new byte[(int) newPageBytes]);
+      pageBytes += newPageBytes;
+      pageOffset = 0;
+    }
+    if (newChr) {
+      chrIds.put(key.chr, chrs.size());
+      chrs.add(key.chr);
+      chrBytes += newChrBytes;
+    }
+
+    System.arraycopy(bytes, 0, pages.get(pages.size() - 1), pageOffset, bytes.length);
+    lineChrs[size] = chrIds.get(key.chr);
+    starts[size] = key.start;
+    stops[size] = key.stop;
+    linePages[size] = pages.size() - 1;
+    lineOffsets[size] = pageOffset;
+    lineLengths[size] = bytes.length;
+    pageOffset += bytes.length;
+    size++;
+    return true;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return the memory used by this chunk's pages and arrays, including the
+   *         arrays that will be allocated to sort it
+   */
+  public long memoryUsed() {
+    return pageBytes + chrBytes + (long) lineChrs.length * BYTES_PER_LINE;
+  }
+
+  /**
+   * Sort the chunk and write it to a temporary run file: the number of
+   * chromosomes and their names in sorted order, then (chromosome rank, start,
+   * stop, line length, line bytes) for each line, then -1
+   */
+  @Override
+  public Path call() throws IOException {
+    String[] sortedChrs = chrs.toArray(new String[chrs.size()]);
+    Arrays.sort(sortedChrs);
+    int[] ranks = new int[sortedChrs.length];
+    for (int i = 0; i < sortedChrs.length; i++) {
+      ranks[chrIds.get(sortedChrs[i])] = i;
+    }
+
+    long[] keys1 = new long[size];
+    long[] keys2 = new long[size];
+    for (int i = 0; i < size; i++) {
+      keys1[i] = ((long) ranks[lineChrs[i]] << 32) | unsigned(starts[i]);
+      keys2[i] = (unsigned(stops[i]) << 32) | i;
+    }
+    int[] order = sortedOrder(keys1, keys2, size);
+
+    Path tmpFile = Files.createTempFile("sortInBatch", "run");
+    tmpFile.toFile().deleteOnExit();
+    try (DataOutputStream out = new DataOutputStream(ExternalSort.newRunOutputStream(tmpFile, compress))) {
+      out.writeInt(sortedChrs.length);
+      for (String chr : sortedChrs) {
+        out.writeUTF(chr);
+      }
+      for (int i : order) {
+        out.writeInt(ranks[lineChrs[i]]);
+        out.writeInt(starts[i]);
+        out.writeInt(stops[i]);
+        out.writeInt(lineLengths[i]);
+        out.write(pages.get(linePages[i]), lineOffsets[i], lineLengths[i]);
+      }
+      out.writeInt(-1);
+    }
+
+    return tmpFile;
+  }
+
+  /**
+   * Map ints to longs in the same order, so they can be packed into the high
+   * bits of a key
+   */
+  private static long unsigned(int value) {
+    return (value ^ Integer.MIN_VALUE) & 0xFFFFFFFFL;
+  }
+
+  /**
+   * @return the indices 0..n-1 in order of (keys1, keys2), found with a
+   *         bottom-up merge sort so that only primitives are compared
+   */
+  static int[] sortedOrder(long[] keys1, long[] keys2, int n) {
+    int[] order = new int[n];
+    for (int i = 0; i < n; i++) {
+      order[i] = i;
+    }
+    int[] tmp = new int[n];
+    for (int width = 1; width < n; width *= 2) {
+      for (int lo = 0; lo < n; lo += 2 * width) {
+        int mid = Math.min(lo + width, n);
+        int hi = Math.min(lo + 2 * width, n);
+        int i = lo, j = mid, k = lo;
+        while (i < mid && j < hi) {
+          int a = order[i], b = order[j];
+          if (keys1[b] < keys1[a] || (keys1[b] == keys1[a] && keys2[b] < keys2[a])) {
+            tmp[k++] = b;
+            j++;
+          } else {
+            tmp[k++] = a;
+            i++;
+          }
+        }
+        while (i < mid) {
+          tmp[k++] = order[i++];
+        }
+        while (j < hi) {
+          tmp[k++] = order[j++];
+        }
+      }
+      int[] swap = order;
+      order = tmp;
+      tmp = swap;
+    }
+    return order;
+  }
+
+}
@@ -0,0 +1,38 @@
+package edu.unc.genomics.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates daemon threads for a thread pool, named after the pool's purpose and
+ * numbered like the threads of Executors.defaultThreadFactory()
+ * (name-pool-thread), so that they can be told apart in thread dumps. Daemon
+ * threads do not keep the JVM running if the object that owns a pool is
+ * abandoned without being closed.
+ *
+ * @author timpalpant
+ *
+ */
+public class NamedDaemonThreadFactory implements ThreadFactory {
+
+  private static final AtomicInteger pools = new AtomicInteger();
+
+  private final String prefix;
+  private final AtomicInteger threads = new AtomicInteger();
+
+  /**
+   * @param name
+   *          the purpose of the threads, e.g. "bgzf-compressor"
+   */
+  public NamedDaemonThreadFactory(String name) {
+    prefix = name + "-" + pools.incrementAndGet() + "-";
+  }
+
+  @Override
+  public Thread newThread(Runnable r) {
+    Thread t = new Thread(r, prefix + threads.incrementAndGet());
+    t.setDaemon(true);
+    return t;
+  }
+
+}
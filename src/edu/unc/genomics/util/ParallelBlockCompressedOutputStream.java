@@ -0,0 +1,378 @@
+package edu.unc.genomics.util;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import net.sf.samtools.util.BlockCompressedOutputStream;
+import net.sf.samtools.util.BlockCompressedStreamConstants;
+
+/**
+ * Writes BGZF (blocked gzip) files, compressing blocks on a pool of threads
+ * and writing them in order. Data is split into blocks and compressed the same
+ * way as BlockCompressedOutputStream, so the output can be read with
+ * BlockCompressedInputStream and indexed with Tabix.
+ *
+ * At most a few blocks per thread are held in memory at once; writing more
+ * data waits for the oldest block to be compressed and written.
+ *
+ * Since the compressed address of a block is not known until the blocks before
+ * it have been compressed, positions in the stream are first recorded as block
+ * pointers (see getBlockPointer) and converted to BGZF virtual file offsets
+ * once the blocks have been written (see getFilePointer).
+ *
+ * Instances are not thread-safe.
+ *
+ * @author timpalpant
+ *
+ */
+public class ParallelBlockCompressedOutputStream extends OutputStream {
+
+  /** The maximum amount of uncompressed data in each block */
+  public static final int BLOCK_SIZE = BlockCompressedStreamConstants.DEFAULT_UNCOMPRESSED_BLOCK_SIZE;
+  /** The maximum size of the compressed data in each block */
+  private static final int MAX_DEFLATED_SIZE = BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE
+      - BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH - BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH;
+  private static final int BLOCKS_PER_THREAD = 4;
+  private static final int OUTPUT_BUFFER_SIZE = 1 << 20;
+
+  private final OutputStream out;
+  private final ExecutorService executor;
+  private final int compressionLevel;
+  private final int maxPending;
+  private final Deque<PendingBlock> pending = new ArrayDeque<>();
+  private byte[] block = new byte[BLOCK_SIZE];
+  private int count = 0;
+  private boolean closed = false;
+  private int numBlocks = 0;
+  private long[] blockAddresses = new long[64];
+  private int[] blockLengths = new int[64];
+  private int numWritten = 0;
+  private long position = 0;
+
+  /**
+   * Write a BGZF file, compressing blocks on all available processors
+   *
+   * @param output
+   *          the file to write
+   * @throws IOException
+   *           if the file cannot be opened
+   */
+  public ParallelBlockCompressedOutputStream(Path output) throws IOException {
+    this(output, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Write a BGZF file
+   *
+   * @param output
+   *          the file to write
+   * @param numThreads
+   *          the number of threads to compress blocks on, or 1 to compress
+   *          them on the calling thread
+   * @throws IOException
+   *           if the file cannot be opened
+   */
+  public ParallelBlockCompressedOutputStream(Path output, int numThreads) throws IOException {
+    this(new BufferedOutputStream(Files.newOutputStream(output), OUTPUT_BUFFER_SIZE), numThreads,
+        BlockCompressedOutputStream.getDefaultCompressionLevel());
+  }
+
+  /**
+   * Write BGZF data to a stream
+   *
+   * @param out
+   *          the stream to write compressed blocks to, which is closed when
+   *          this stream is closed
+   * @param numThreads
+   *          the number of threads to compress blocks on, or 1 to compress
+   *          them on the calling thread
+   * @param compressionLevel
+   *          the deflate compression level (0-9)
+   */
+  public ParallelBlockCompressedOutputStream(OutputStream out, int numThreads, int compressionLevel) {
+    if (numThreads < 1) {
+      throw new IllegalArgumentException("Number of threads must be >= 1");
+    }
+    if (compressionLevel < Deflater.NO_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+      throw new IllegalArgumentException("Invalid compression level: " + compressionLevel);
+    }
+
+    this.out = out;
+    this.compressionLevel = compressionLevel;
+    this.executor = (numThreads > 1) ? Executors.newFixedThreadPool(numThreads, new NamedDaemonThreadFactory(
+        "bgzf-compressor")) : null;
+    this.maxPending = BLOCKS_PER_THREAD * numThreads;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    block[count++] = (byte) b;
+    if (count == BLOCK_SIZE) {
+      submitBlock();
+    }
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    while (len > 0) {
+      int n = Math.min(len, BLOCK_SIZE - count);
+      System.arraycopy(b, off, block, count, n);
+      count += n;
+      off += n;
+      len -= n;
+      if (count == BLOCK_SIZE) {
+        submitBlock();
+      }
+    }
+  }
+
+  /**
+   * Write all of the data from a stream, reading it directly into the
+   * uncompressed blocks
+   *
+   * @param in
+   *          the stream to read until its end
+   * @return the number of bytes transferred
+   * @throws IOException
+   *           if an error occurs reading or writing
+   */
+  public long transferFrom(InputStream in) throws IOException {
+    long total = 0;
+    int n;
+    while ((n = in.read(block, count, BLOCK_SIZE - count)) != -1) {
+      count += n;
+      total += n;
+      if (count == BLOCK_SIZE) {
+        submitBlock();
+      }
+    }
+    return total;
+  }
+
+  /**
+   * @return the current position in the stream, as (block number << 16) |
+   *         (offset in the block)
+   */
+  public long getBlockPointer() {
+    return ((long) numBlocks << 16) | count;
+  }
+
+  /**
+   * Convert a block pointer to a BGZF virtual file offset
+   *
+   * @param blockPointer
+   *          a value returned by getBlockPointer
+   * @return the virtual file offset of the same position, (compressed block
+   *         address << 16) | (offset in the block). After this stream is
+   *         closed, the position after the last block is the end of the file.
+   * @throws IllegalStateException
+   *           if the block has not been written yet
+   */
+  public long getFilePointer(long blockPointer) {
+    int block = (int) (blockPointer >>> 16);
+    int offset = (int) (blockPointer & 0xFFFF);
+    // Like BlockCompressedInputStream, refer to the end of a block as the
+    // start of the next block
+    if (block < numWritten && offset == blockLengths[block]) {
+      block++;
+      offset = 0;
+    }
+
+    long address;
+    if (block < numWritten) {
+      address = blockAddresses[block];
+    } else if (block == numWritten && pending.isEmpty()) {
+      address = position;
+    } else {
+      throw new IllegalStateException("Block " + block + " has not been written");
+    }
+    return (address << 16) | offset;
+  }
+
+  /**
+   * Compress and write any buffered data. As with BlockCompressedOutputStream,
+   * this ends the current block, so flushing often makes the output larger.
+   */
+  @Override
+  public void flush() throws IOException {
+    if (count > 0) {
+      submitBlock();
+    }
+    while (!pending.isEmpty()) {
+      writeNext();
+    }
+    out.flush();
+  }
+
+  /**
+   * Write any buffered data and the BGZF terminator block, then close the
+   * underlying stream
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+
+    closed = true;
+    try {
+      flush();
+      out.write(BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK);
+      position += BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK.length;
+    } finally {
+      if (executor != null) {
+        executor.shutdownNow();
+      }
+      out.close();
+    }
+  }
+
+  private void submitBlock() throws IOException {
+    final byte[] data = block;
+    final int length = count;
+    Future<byte[]> compressed = null;
+    if (executor != null) {
+      compressed = executor.submit(new Callable<byte[]>() {
+        @Override
+        public byte[] call() {
+          return compressBlock(data, length, compressionLevel);
+        }
+      });
+    }
+    pending.add(new PendingBlock(data, length, compressed));
+    numBlocks++;
+    block = new byte[BLOCK_SIZE];
+    count = 0;
+
+    while (pending.size() > maxPending) {
+      writeNext();
+    }
+  }
+
+  private void writeNext() throws IOException {
+    PendingBlock next = pending.remove();
+    byte[] compressed;
+    if (next.compressed == null) {
+      compressed = compressBlock(next.data, next.length, compressionLevel);
+    } else {
+      try {
+        compressed = next.compressed.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while compressing block", e);
+      } catch (ExecutionException e) {
+        throw new IOException("Error compressing block", e.getCause());
+      }
+    }
+    out.write(compressed);
+    if (numWritten == blockAddresses.length) {
+      blockAddresses = Arrays.copyOf(blockAddresses, 2 * numWritten);
+      blockLengths = Arrays.copyOf(blockLengths, 2 * numWritten);
+    }
+    blockAddresses[numWritten] = position;
+    blockLengths[numWritten++] = next.length;
+    position += compressed.length;
+  }
+
+  /**
+   * Compress data into a single BGZF block. Data that does not fit in a block
+   * when compressed is stored without compression.
+   *
+   * @param data
+   *          the uncompressed data
+   * @param length
+   *          the amount of data to compress (at most BLOCK_SIZE)
+   * @param compressionLevel
+   *          the deflate compression level
+   * @return the complete BGZF block, including the gzip header and footer
+   */
+  static byte[] compressBlock(byte[] data, int length, int compressionLevel) {
+    byte[] deflated = new byte[MAX_DEFLATED_SIZE];
+    int deflatedSize = deflate(data, length, compressionLevel, deflated);
+    if (deflatedSize < 0) {
+      deflatedSize = deflate(data, length, Deflater.NO_COMPRESSION, deflated);
+      if (deflatedSize < 0) {
+        throw new IllegalStateException("Block is too large to store without compression");
+      }
+    }
+
+    CRC32 crc = new CRC32();
+    crc.update(data, 0, length);
+
+    int blockSize = BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH + deflatedSize
+        + BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH;
+    byte[] result = new byte[blockSize];
+    int i = 0;
+    result[i++] = BlockCompressedStreamConstants.GZIP_ID1;
+    result[i++] = (byte) BlockCompressedStreamConstants.GZIP_ID2;
+    result[i++] = BlockCompressedStreamConstants.GZIP_CM_DEFLATE;
+    result[i++] = BlockCompressedStreamConstants.GZIP_FLG;
+    // Modification time (4 bytes) is zero
+    i += 4;
+    result[i++] = BlockCompressedStreamConstants.GZIP_XFL;
+    result[i++] = (byte) BlockCompressedStreamConstants.GZIP_OS_UNKNOWN;
+    i = putShort(result, i, BlockCompressedStreamConstants.GZIP_XLEN);
+    result[i++] = BlockCompressedStreamConstants.BGZF_ID1;
+    result[i++] = BlockCompressedStreamConstants.BGZF_ID2;
+    i = putShort(result, i, BlockCompressedStreamConstants.BGZF_LEN);
+    i = putShort(result, i, blockSize - 1);
+    System.arraycopy(deflated, 0, result, i, deflatedSize);
+    i += deflatedSize;
+    i = putInt(result, i, (int) crc.getValue());
+    putInt(result, i, length);
+    return result;
+  }
+
+  /**
+   * @return the size of the deflated data, or -1 if it does not fit in out
+   */
+  private static int deflate(byte[] data, int length, int level, byte[] out) {
+    Deflater deflater = new Deflater(level, true);
+    try {
+      deflater.setInput(data, 0, length);
+      deflater.finish();
+      int n = deflater.deflate(out, 0, out.length);
+      return deflater.finished() ? n : -1;
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static int putShort(byte[] buf, int i, int value) {
+    buf[i++] = (byte) value;
+    buf[i++] = (byte) (value >>> 8);
+    return i;
+  }
+
+  private static int putInt(byte[] buf, int i, int value) {
+    i = putShort(buf, i, value);
+    return putShort(buf, i, value >>> 16);
+  }
+
+  private static class PendingBlock {
+    final byte[] data;
+    final int length;
+    final Future<byte[]> compressed;
+
+    PendingBlock(byte[] data, int length, Future<byte[]> compressed) {
+      this.data = data;
+      this.length = length;
+      this.compressed = compressed;
+    }
+  }
+
+}
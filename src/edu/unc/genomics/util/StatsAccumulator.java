@@ -0,0 +1,364 @@
+package edu.unc.genomics.util;
+
+import java.io.Serializable;
+
+import org.apache.commons.math3.stat.descriptive.StatisticalSummary;
+import org.apache.commons.math3.stat.descriptive.StatisticalSummaryValues;
+import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
+
+/**
+ * Accumulates summary statistics (count, sum, sum of squares, sum of logs, mean,
+ * variance, min, and max) from a stream of values using only primitive fields, so adding
+ * a value does not allocate. A value may be added with a weight n, which is
+ * equivalent to (but much faster than) adding it n times, and accumulators may
+ * be merged, so that statistics can be computed in parallel.
+ *
+ * The mean and variance are updated with the weighted form of Welford's
+ * algorithm (Chan et al.), which is more accurate than computing them from the
+ * sum and sum of squares.
+ *
+ * @author timpalpant
+ *
+ */
+public class StatsAccumulator implements StatisticalSummary, Serializable {
+
+  private static final long serialVersionUID = 2619683467283411392L;
+
+  private long n = 0;
+  private double sum = 0;
+  private double sumsq = 0;
+  private double sumLog = 0;
+  private double mean = 0;
+  // The sum of squared differences from the mean
+  private double m2 = 0;
+  private double min = Double.NaN;
+  private double max = Double.NaN;
+
+  /**
+   * Add a value
+   *
+   * @param value
+   *          the value to add
+   */
+  public void add(double value) {
+    add(value, 1);
+  }
+
+  /**
+   * Add a value n times
+   *
+   * @param value
+   *          the value to add
+   * @param n
+   *          the number of times to add it (e.g. the number of bases it covers)
+   */
+  public void add(double value, long n) {
+    if (n <= 0) {
+      return;
+    }
+
+    long total = this.n + n;
+    double delta = value - mean;
+    mean += delta * n / total;
+    m2 += delta * delta * this.n * n / total;
+    sum += value * n;
+    sumsq += value * value * n;
+    sumLog += Math.log(value) * n;
+    updateExtrema(value, value);
+    this.n = total;
+  }
+
+  /**
+   * Add all of the values accumulated by another accumulator
+   *
+   * @param other
+   *          the accumulator to merge into this one
+   */
+  public void merge(StatsAccumulator other) {
+    merge(other.n, other.sum, other.sumsq, other.sumLog, other.mean, other.m2, other.min, other.max);
+  }
+
+  /**
+   * Add a block of values that has already been summarized, such as a BigWig
+   * zoom-level record. The sum of logs of the values is not known, so the
+   * geometric mean will be NaN.
+   *
+   * @param n
+   *          the number of values in the block
+   * @param sum
+   *          the sum of the values
+   * @param sumOfSquares
+   *          the sum of the squares of the values
+   * @param min
+   *          the minimum value
+   * @param max
+   *          the maximum value
+   */
+  public void addSummary(long n, double sum, double sumOfSquares, double min, double max) {
+    if (n <= 0) {
+      return;
+    }
+
+    // Rounding error can make the sum of squared differences slightly negative
+    double m2 = Math.max(0, sumOfSquares - sum * sum / n);
+    merge(n, sum, sumOfSquares, Double.NaN, sum / n, m2, min, max);
+  }
+
+  /**
+   * Merge the moments of another set of values into this one
+   */
+  private void merge(long n, double sum, double sumsq, double sumLog, double mean, double m2, double min, double max) {
+    if (n == 0) {
+      return;
+    } else if (this.n == 0) {
+      this.n = n;
+      this.sum = sum;
+      this.sumsq = sumsq;
+      this.sumLog = sumLog;
+      this.mean = mean;
+      this.m2 = m2;
+      this.min = min;
+      this.max = max;
+      return;
+    }
+
+    long total = this.n + n;
+    double delta = mean - this.mean;
+    this.mean += delta * n / total;
+    this.m2 += m2 + delta * delta * this.n * n / total;
+    this.sum += sum;
+    this.sumsq += sumsq;
+    this.sumLog += sumLog;
+    updateExtrema(min, max);
+    this.n = total;
+  }
+
+  /**
+   * Update the min and max in the same way as SummaryStatistics
+   */
+  private void updateExtrema(double otherMin, double otherMax) {
+    if (otherMin < min || Double.isNaN(min)) {
+      min = otherMin;
+    }
+    if (otherMax > max || Double.isNaN(max)) {
+      max = otherMax;
+    }
+  }
+
+  /**
+   * Reset this accumulator so that it can be reused
+   */
+  public void clear() {
+    n = 0;
+    sum = 0;
+    sumsq = 0;
+    sumLog = 0;
+    mean = 0;
+    m2 = 0;
+    min = Double.NaN;
+    max = Double.NaN;
+  }
+
+  @Override
+  public long getN() {
+    return n;
+  }
+
+  @Override
+  public double getSum() {
+    return sum;
+  }
+
+  /**
+   * @return the sum of the squares of the values
+   */
+  public double getSumOfSquares() {
+    return sumsq;
+  }
+
+  /**
+   * @return the sum of the natural logs of the values
+   */
+  public double getSumOfLogs() {
+    return sumLog;
+  }
+
+  @Override
+  public double getMean() {
+    return (n > 0) ? mean : Double.NaN;
+  }
+
+  /**
+   * @return the geometric mean, which is NaN if any value is negative
+   */
+  public double getGeometricMean() {
+    return (n > 0) ? Math.exp(sumLog / n) : Double.NaN;
+  }
+
+  /**
+   * @return the sample (bias-corrected) variance
+   */
+  @Override
+  public double getVariance() {
+    if (n == 0) {
+      return Double.NaN;
+    } else if (n == 1) {
+      return 0;
+    }
+
+    return m2 / (n - 1);
+  }
+
+  /**
+   * @return the population variance
+   */
+  public double getPopulationVariance() {
+    if (n == 0) {
+      return Double.NaN;
+    }
+
+    return m2 / n;
+  }
+
+  @Override
+  public double getStandardDeviation() {
+    return Math.sqrt(getVariance());
+  }
+
+  /**
+   * @return the square root of the population variance
+   */
+  public double getPopulationStandardDeviation() {
+    return Math.sqrt(getPopulationVariance());
+  }
+
+  @Override
+  public double getMin() {
+    return min;
+  }
+
+  @Override
+  public double getMax() {
+    return max;
+  }
+
+  /**
+   * @return an immutable copy of the current statistics
+   */
+  public StatisticalSummary getSummary() {
+    return new StatisticalSummaryValues(getMean(), getVariance(), getN(), getMax(), getMin(), getSum());
+  }
+
+  /**
+   * Adapt the current statistics to the SummaryStatistics API. The returned
+   * object reports the statistics of this accumulator (values added to it are
+   * added to a copy of this accumulator).
+   *
+   * @return a SummaryStatistics with the statistics of this accumulator
+   */
+  public SummaryStatistics toSummaryStatistics() {
+    StatsAccumulator copy = new StatsAccumulator();
+    copy.merge(this);
+    return new AccumulatedSummaryStatistics(copy);
+  }
+
+  @Override
+  public String toString() {
+    return "StatsAccumulator: n=" + getN() + " sum=" + getSum() + " mean=" + getMean() + " variance="
+        + getVariance() + " min=" + getMin() + " max=" + getMax();
+  }
+
+  /**
+   * A SummaryStatistics backed by a StatsAccumulator
+   */
+  private static class AccumulatedSummaryStatistics extends SummaryStatistics {
+
+    private static final long serialVersionUID = -6143702637418853093L;
+
+    private final StatsAccumulator stats;
+
+    public AccumulatedSummaryStatistics(StatsAccumulator stats) {
+      this.stats = stats;
+    }
+
+    @Override
+    public void addValue(double value) {
+      stats.add(value);
+    }
+
+    @Override
+    public void clear() {
+      stats.clear();
+    }
+
+    @Override
+    public long getN() {
+      return stats.getN();
+    }
+
+    @Override
+    public double getSum() {
+      return stats.getSum();
+    }
+
+    @Override
+    public double getSumsq() {
+      return stats.getSumOfSquares();
+    }
+
+    @Override
+    public double getMean() {
+      return stats.getMean();
+    }
+
+    @Override
+    public double getVariance() {
+      return stats.getVariance();
+    }
+
+    @Override
+    public double getPopulationVariance() {
+      return stats.getPopulationVariance();
+    }
+
+    @Override
+    public double getStandardDeviation() {
+      return stats.getStandardDeviation();
+    }
+
+    @Override
+    public double getSecondMoment() {
+      return stats.m2;
+    }
+
+    @Override
+    public double getMin() {
+      return stats.getMin();
+    }
+
+    @Override
+    public double getMax() {
+      return stats.getMax();
+    }
+
+    @Override
+    public double getGeometricMean() {
+      return stats.getGeometricMean();
+    }
+
+    @Override
+    public double getSumOfLogs() {
+      return stats.getSumOfLogs();
+    }
+
+    @Override
+    public StatisticalSummary getSummary() {
+      return stats.getSummary();
+    }
+
+    @Override
+    public SummaryStatistics copy() {
+      return stats.toSummaryStatistics();
+    }
+  }
+}
@@ -1,6 +1,5 @@
 package edu.unc.genomics.util;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
@@ -10,7 +9,6 @@ import org.apache.log4j.Logger;
 
 import net.sf.samtools.TabixWriter;
 import net.sf.samtools.TabixWriter.TabixException;
-import net.sf.samtools.util.BlockCompressedOutputStream;
 
 /**
  * Utility methods for working with Tabix files
@@ -23,7 +21,8 @@ public class Tabix {
   private static final Logger log = Logger.getLogger(Tabix.class);
 
   /**
-   * BGZip an interval file for use with Tabix
+   * BGZip an interval file for use with Tabix, compressing blocks on all
+   * available processors
    * 
    * @param input
    *          the input interval file in ASCII text format
@@ -32,19 +31,26 @@ public class Tabix {
    * @throws IOException
    */
   public static void bgzip(Path input, Path output) throws IOException {
-    log.debug("BGZipping " + input + " for Tabix indexing");
-    InputStream is = Files.newInputStream(input);
-    BufferedInputStream bis = new BufferedInputStream(is);
+    bgzip(input, output, Runtime.getRuntime().availableProcessors());
+  }
 
-    BlockCompressedOutputStream bcos = new BlockCompressedOutputStream(output.toFile());
-    int data = -1;
-    while ((data = bis.read()) != -1) {
-      bcos.write(data);
+  /**
+   * BGZip an interval file for use with Tabix
+   * 
+   * @param input
+   *          the input interval file in ASCII text format
+   * @param output
+   *          the bgzipped output file
+   * @param numThreads
+   *          the number of threads to compress blocks on
+   * @throws IOException
+   */
+  public static void bgzip(Path input, Path output, int numThreads) throws IOException {
+    log.debug("BGZipping " + input + " for Tabix indexing");
+    try (InputStream is = Files.newInputStream(input);
+        ParallelBlockCompressedOutputStream bgzf = new ParallelBlockCompressedOutputStream(output, numThreads)) {
+      bgzf.transferFrom(is);
     }
-
-    bcos.close();
-    bis.close();
-    is.close();
   }
 
   /**
@@ -0,0 +1,123 @@
+package edu.unc.genomics.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+
+import net.sf.samtools.TabixWriter;
+import net.sf.samtools.TabixWriter.TabixException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Writes sorted lines to a bgzipped file and builds its Tabix index as the
+ * lines are written, so that the file does not have to be read again to index
+ * it. The index is written to the file with the extension ".tbi" when this
+ * writer is closed.
+ *
+ * @author timpalpant
+ *
+ */
+public class TabixIndexingWriter implements Closeable, ExternalSort.LineWriter {
+
+  private static final Logger log = Logger.getLogger(TabixIndexingWriter.class);
+
+  private final Path output;
+  private final ParallelBlockCompressedOutputStream out;
+  private final TabixWriter indexer;
+  private final Charset cs;
+  private Path index;
+
+  /**
+   * Write a bgzipped file, compressing blocks on all available processors
+   *
+   * @param output
+   *          the bgzipped file to write
+   * @param conf
+   *          the Tabix configuration to index the file with
+   * @throws IOException
+   *           if the file cannot be opened
+   */
+  public TabixIndexingWriter(Path output, TabixWriter.Conf conf) throws IOException {
+    this(output, conf, Runtime.getRuntime().availableProcessors(), Charset.defaultCharset());
+  }
+
+  /**
+   * @param output
+   *          the bgzipped file to write
+   * @param conf
+   *          the Tabix configuration to index the file with
+   * @param numThreads
+   *          the number of threads to compress blocks on
+   * @param cs
+   *          the character set to encode lines with
+   * @throws IOException
+   *           if the file cannot be opened
+   */
+  public TabixIndexingWriter(Path output, TabixWriter.Conf conf, int numThreads, Charset cs) throws IOException {
+    log.debug("Writing bgzipped file " + output + " with Tabix index");
+    this.output = output;
+    this.out = new ParallelBlockCompressedOutputStream(output, numThreads);
+    this.indexer = new TabixWriter(output, conf);
+    this.cs = cs;
+  }
+
+  /**
+   * Write a line and add it to the index. Lines must be sorted by chromosome
+   * and start.
+   *
+   * @param line
+   *          the line to write, without a line terminator
+   * @throws IOException
+   *           if a disk write error occurs, or the line cannot be indexed
+   */
+  @Override
+  public void writeLine(String line) throws IOException {
+    out.write(line.getBytes(cs));
+    out.write('\n');
+    try {
+      indexer.addLine(line, out.getBlockPointer());
+    } catch (TabixException e) {
+      throw new IOException("Error indexing " + output + " with Tabix", e);
+    }
+  }
+
+  /**
+   * Finish the bgzipped file and write its index
+   */
+  @Override
+  public void close() throws IOException {
+    if (index != null) {
+      return;
+    }
+
+    long end = out.getBlockPointer();
+    out.close();
+    try {
+      index = indexer.createIndex(end, new TabixWriter.OffsetMap() {
+        @Override
+        public long getFilePointer(long offset) {
+          return out.getFilePointer(offset);
+        }
+      });
+    } catch (TabixException e) {
+      throw new IOException("Error indexing " + output + " with Tabix", e);
+    }
+  }
+
+  /**
+   * @return the bgzipped file
+   */
+  public Path getPath() {
+    return output;
+  }
+
+  /**
+   * @return the Tabix index file, or null if this writer has not been closed
+   */
+  public Path getIndex() {
+    return index;
+  }
+
+}
@@ -31,15 +31,22 @@ import net.sf.samtools.util.BlockCompressedInputStream;
 
 import java.io.*;
 import java.nio.*;
+import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 
+import edu.unc.genomics.io.BGZFBlockCache;
+import edu.unc.genomics.io.BGZFBlockReader;
+import edu.unc.genomics.io.BGZFFile;
 import edu.unc.genomics.io.LineReader;
 import edu.unc.genomics.io.LineReaderIterator;
 
@@ -47,12 +54,20 @@ import edu.unc.genomics.io.LineReaderIterator;
  * Class adapted from the Broad Institute for reading from files indexed with
  * Tabix
  * 
+ * Queries are thread-safe: each query iterator reads with its own cursor on
+ * a shared BGZFFile. Decompressed blocks are kept in a BGZFBlockCache, so
+ * nearby queries only inflate each block once. The parsed index is immutable,
+ * and is cached for the whole process, so opening another reader for the same
+ * file does not read the index again. Sequential reading with readLine() and
+ * iterator() uses a single cursor, and is not thread-safe.
+ * 
  * @author timpalpant
  *
  */
-public class TabixReader implements LineReader, Iterable<String> {
+public class TabixReader implements LineReader, Iterable<String>, Closeable {
   protected Path mFn;
-  private BlockCompressedInputStream mFp;
+  private final BGZFFile bgzf;
+  private BGZFBlockReader mFp;
 
   protected int mPreset;
   protected int mSc;
@@ -69,10 +84,21 @@ public class TabixReader implements LineReader, Iterable<String> {
   static final int MAX_BIN = 37450;
   static final int TAD_MIN_CHUNK_GAP = 32768;
   static final int TAD_LIDX_SHIFT = 14;
+  /** The most parsed indexes to keep in the process-wide cache */
+  static final int MAX_CACHED_INDEXES = 256;
+
+  private static final Map<Path, Index> indexCache = new LinkedHashMap<Path, Index>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Path, Index> eldest) {
+      return size() > MAX_CACHED_INDEXES;
+    }
+  };
 
   protected Path index;
 
-  class TPair64 implements Comparable<TPair64> {
+  static class TPair64 implements Comparable<TPair64> {
     long u, v;
 
     public TPair64(final long _u, final long _v) {
@@ -92,14 +118,27 @@ public class TabixReader implements LineReader, Iterable<String> {
     }
   };
 
-  class TIndex {
+  static class TIndex {
     HashMap<Integer, TPair64[]> b; // binning index
     long[] l; // linear index
   };
 
   private TIndex[] mIndex;
 
-  class TIntv {
+  /**
+   * The parsed contents of a Tabix index file, which are shared by all readers
+   * of the file and must not be modified
+   */
+  private static class Index {
+    long size, modified;
+    int preset, sc, bc, ec, meta, skip;
+    String[] seq;
+    HashMap<String, Integer> chr2tid;
+    Set<String> chromosomes;
+    TIndex[] index;
+  }
+
+  static class TIntv {
     int tid, beg, end, bin;
   };
 
@@ -115,15 +154,38 @@ public class TabixReader implements LineReader, Iterable<String> {
    *          File name of the data file
    */
   public TabixReader(final Path p) throws IOException {
-    mFn = p;
-    mFp = new BlockCompressedInputStream(p.toFile());
+    this(p, BGZFBlockCache.getShared());
+  }
 
-    index = mFn.resolveSibling(mFn.getFileName() + DEFAULT_INDEX_EXTENSION);
+  /**
+   * @param p
+   *          the data file
+   * @param cache
+   *          the cache to keep decompressed blocks of the data file in
+   */
+  public TabixReader(final Path p, final BGZFBlockCache cache) throws IOException {
+    this(p, new BGZFFile(p, cache));
+    mFp = bgzf.newReader();
     if (Files.exists(index)) {
       readIndex();
     }
   }
 
+  /**
+   * Constructor for subclasses that do not read the data file, which may not
+   * exist yet
+   * 
+   * @param p
+   *          the data file
+   * @param bgzf
+   *          the data file to read, or null
+   */
+  protected TabixReader(final Path p, final BGZFFile bgzf) {
+    mFn = p;
+    this.bgzf = bgzf;
+    index = mFn.resolveSibling(mFn.getFileName() + DEFAULT_INDEX_EXTENSION);
+  }
+
   private static int reg2bins(final int beg, final int _end, final int[] list) {
     int i = 0, k, end = _end;
     if (beg >= end)
@@ -168,25 +230,74 @@ public class TabixReader implements LineReader, Iterable<String> {
   }
 
   /**
-   * Read the Tabix index from a file
+   * Get the Tabix index from the cache, or read it from a file if it has not
+   * been read or the file has changed
    * 
-   * @param fp
-   *          File pointer
+   * @param p
+   *          the index file
    */
   private void readIndex(final Path p) throws IOException {
+    Path key = p.toAbsolutePath().normalize();
+    long size = Files.size(p);
+    long modified = Files.getLastModifiedTime(p).toMillis();
+    Index idx;
+    synchronized (indexCache) {
+      idx = indexCache.get(key);
+    }
+    if (idx == null || idx.size != size || idx.modified != modified) {
+      idx = parseIndex(p);
+      idx.size = size;
+      idx.modified = modified;
+      synchronized (indexCache) {
+        indexCache.put(key, idx);
+      }
+    }
+
+    mPreset = idx.preset;
+    mSc = idx.sc;
+    mBc = idx.bc;
+    mEc = idx.ec;
+    mMeta = idx.meta;
+    mSkip = idx.skip;
+    mSeq = idx.seq;
+    mChr2tid = idx.chr2tid;
+    chromosomes = idx.chromosomes;
+    mIndex = idx.index;
+  }
+
+  /**
+   * Remove an index file from the cache, after it has been rewritten
+   * 
+   * @param p
+   *          the index file
+   */
+  static void evictIndex(final Path p) {
+    synchronized (indexCache) {
+      indexCache.remove(p.toAbsolutePath().normalize());
+    }
+  }
+
+  /**
+   * Read the Tabix index from a file
+   * 
+   * @param p
+   *          the index file
+   */
+  private static Index parseIndex(final Path p) throws IOException {
+    Index idx = new Index();
     BlockCompressedInputStream is = new BlockCompressedInputStream(p.toFile());
     byte[] buf = new byte[4];
 
     is.read(buf, 0, 4); // read "TBI\1"
-    chromosomes = new LinkedHashSet<String>();
-    mSeq = new String[readInt(is)]; // # sequences
-    mChr2tid = new HashMap<String, Integer>();
-    mPreset = readInt(is);
-    mSc = readInt(is);
-    mBc = readInt(is);
-    mEc = readInt(is);
-    mMeta = readInt(is);
-    mSkip = readInt(is);
+    Set<String> chromosomes = new LinkedHashSet<String>();
+    idx.seq = new String[readInt(is)]; // # sequences
+    idx.chr2tid = new HashMap<String, Integer>();
+    idx.preset = readInt(is);
+    idx.sc = readInt(is);
+    idx.bc = readInt(is);
+    idx.ec = readInt(is);
+    idx.meta = readInt(is);
+    idx.skip = readInt(is);
     // read sequence dictionary
     int i, j, k, l = readInt(is);
     buf = new byte[l];
@@ -196,19 +307,20 @@ public class TabixReader implements LineReader, Iterable<String> {
         byte[] b = new byte[i - j];
         System.arraycopy(buf, j, b, 0, b.length);
         String s = new String(b);
-        mChr2tid.put(s, k);
+        idx.chr2tid.put(s, k);
         chromosomes.add(s);
-        mSeq[k++] = s;
+        idx.seq[k++] = s;
         j = i + 1;
       }
     }
+    idx.chromosomes = Collections.unmodifiableSet(chromosomes);
     // read the index
-    mIndex = new TIndex[mSeq.length];
-    for (i = 0; i < mSeq.length; ++i) {
+    idx.index = new TIndex[idx.seq.length];
+    for (i = 0; i < idx.seq.length; ++i) {
       // the binning index
       int n_bin = readInt(is);
-      mIndex[i] = new TIndex();
-      mIndex[i].b = new HashMap<Integer, TPair64[]>();
+      idx.index[i] = new TIndex();
+      idx.index[i].b = new HashMap<Integer, TPair64[]>();
       for (j = 0; j < n_bin; ++j) {
         int bin = readInt(is);
         TPair64[] chunks = new TPair64[readInt(is)];
@@ -217,15 +329,16 @@ public class TabixReader implements LineReader, Iterable<String> {
           long v = readLong(is);
           chunks[k] = new TPair64(u, v); // in C, this is inefficient
         }
-        mIndex[i].b.put(bin, chunks);
+        idx.index[i].b.put(bin, chunks);
       }
       // the linear index
-      mIndex[i].l = new long[readInt(is)];
-      for (k = 0; k < mIndex[i].l.length; ++k)
-        mIndex[i].l[k] = readLong(is);
+      idx.index[i].l = new long[readInt(is)];
+      for (k = 0; k < idx.index[i].l.length; ++k)
+        idx.index[i].l[k] = readLong(is);
     }
     // close
     is.close();
+    return idx;
   }
 
   /**
@@ -246,6 +359,24 @@ public class TabixReader implements LineReader, Iterable<String> {
     return chromosomes;
   }
 
+  /**
+   * Close the data file. Decompressed blocks stay in the cache for other
+   * readers of the same file.
+   */
+  @Override
+  public void close() throws IOException {
+    if (bgzf != null) {
+      bgzf.close();
+    }
+  }
+
+  /**
+   * @return the cache that decompressed blocks of the data file are kept in
+   */
+  public BGZFBlockCache getBlockCache() {
+    return (bgzf == null) ? null : bgzf.getCache();
+  }
+
   @Override
   public Iterator<String> iterator() {
     return new LineReaderIterator(this);
@@ -334,6 +465,134 @@ public class TabixReader implements LineReader, Iterable<String> {
     return intv;
   }
 
+  /**
+   * Parse the interval of a line from its bytes, as getIntv(String) does, but
+   * without decoding the line. Columns after the last one that is needed are
+   * not scanned.
+   * 
+   * @param buf
+   *          holds the line
+   * @param from
+   *          the start of the line in buf
+   * @param to
+   *          the end of the line in buf
+   * @param tid
+   *          the id of the chromosome that is being queried
+   * @param chr
+   *          the name of the chromosome that is being queried, encoded in the
+   *          same character set as the lines are decoded with
+   * @param intv
+   *          set to the interval of the line, with tid -1 if the line is on a
+   *          different chromosome
+   * @return false if the line must be parsed with getIntv(String) instead
+   */
+  private boolean getIntv(final byte[] buf, final int from, final int to, final int tid, final byte[] chr,
+      final TIntv intv) {
+    int preset = mPreset & 0xffff;
+    if (preset == 1) { // SAM
+      return false;
+    }
+    int lastCol = Math.max(mSc, mBc);
+    lastCol = Math.max(lastCol, (preset == 2) ? 8 : mEc);
+
+    boolean hasChr = false, hasBeg = false;
+    int col = 0, beg = from, end;
+    for (;;) {
+      end = beg;
+      while (end < to && buf[end] != '\t') {
+        end++;
+      }
+      ++col;
+      if (col == mSc) {
+        hasChr = true;
+        intv.tid = equals(buf, beg, end, chr) ? tid : -1;
+      } else if (col == mBc) {
+        hasBeg = true;
+        intv.beg = intv.end = parseInt(buf, beg, end);
+        if ((mPreset & 0x10000) != 0)
+          ++intv.end;
+        else
+          --intv.beg;
+        if (intv.beg < 0)
+          intv.beg = 0;
+        if (intv.end < 1)
+          intv.end = 1;
+      } else if (preset == 0) { // generic
+        if (col == mEc) {
+          intv.end = parseInt(buf, beg, end);
+        }
+      } else if (preset == 2) { // VCF
+        if (col == 4) { // REF
+          if (end > beg)
+            intv.end = intv.beg + (end - beg);
+        } else if (col == 8) { // INFO
+          int e_off = -1;
+          if (startsWith(buf, beg, end, INFO_END)) {
+            e_off = beg + INFO_END.length;
+          } else {
+            int i = indexOf(buf, beg, end, INFO_SEMI_END);
+            if (i >= 0)
+              e_off = i + INFO_SEMI_END.length;
+          }
+          if (e_off > 0) {
+            int i = indexOf(buf, e_off, end, INFO_SEMI);
+            intv.end = parseInt(buf, e_off, (i > e_off) ? i : end);
+          }
+        }
+      }
+      if (end == to || col == lastCol)
+        break;
+      beg = end + 1;
+    }
+    return hasChr && hasBeg;
+  }
+
+  private static final byte[] INFO_END = "END=".getBytes(Charset.forName("US-ASCII"));
+  private static final byte[] INFO_SEMI_END = ";END=".getBytes(Charset.forName("US-ASCII"));
+  private static final byte[] INFO_SEMI = ";".getBytes(Charset.forName("US-ASCII"));
+
+  private static boolean equals(final byte[] buf, final int from, final int to, final byte[] s) {
+    if (to - from != s.length)
+      return false;
+    for (int i = 0; i < s.length; i++) {
+      if (buf[from + i] != s[i])
+        return false;
+    }
+    return true;
+  }
+
+  private static boolean startsWith(final byte[] buf, final int from, final int to, final byte[] s) {
+    return to - from >= s.length && equals(buf, from, from + s.length, s);
+  }
+
+  private static int indexOf(final byte[] buf, final int from, final int to, final byte[] s) {
+    for (int i = from; i <= to - s.length; i++) {
+      if (equals(buf, i, i + s.length, s))
+        return i;
+    }
+    return -1;
+  }
+
+  /**
+   * Parse a decimal integer from bytes, with the same rules as
+   * Integer.parseInt
+   */
+  private static int parseInt(final byte[] buf, final int from, final int to) {
+    // Up to 9 digits cannot overflow; leave anything else to Integer.parseInt
+    if (to > from && to - from <= 9) {
+      int value = 0, i = from;
+      for (; i < to; i++) {
+        int d = buf[i] - '0';
+        if (d < 0 || d > 9)
+          break;
+        value = 10 * value + d;
+      }
+      if (i == to)
+        return value;
+    }
+    return Integer.parseInt(new String(buf, from, to - from, Charset.defaultCharset()));
+  }
+
   private Iterator<String> query(final int tid, final int beg, final int end) {
     TPair64[] off, chunks;
     long min_off;
@@ -419,6 +678,9 @@ public class TabixReader implements LineReader, Iterable<String> {
     private long curr_off;
     private boolean iseof;
     private String nextLine;
+    private BGZFBlockReader fp;
+    private final byte[] chr;
+    private final TIntv intv = new TIntv();
 
     public TabixIterator(final int _tid, final int _beg, final int _end, final TPair64[] _off) {
       i = -1;
@@ -428,6 +690,7 @@ public class TabixReader implements LineReader, Iterable<String> {
       tid = _tid;
       beg = _beg;
       end = _end;
+      chr = mSeq[tid].getBytes(Charset.defaultCharset());
       advance();
     }
 
@@ -469,41 +732,50 @@ public class TabixReader implements LineReader, Iterable<String> {
           if (i < 0 || off[i].v != off[i + 1].u) { // not adjacent chunks; then
                                                    // seek
             try {
-              mFp.seek(off[i + 1].u);
+              if (fp == null) {
+                fp = bgzf.newReader();
+              }
+              fp.seek(off[i + 1].u);
             } catch (IOException e) {
               throw new NoSuchElementException("IOException while trying to get next element");
             }
-            curr_off = mFp.getFilePointer();
+            curr_off = fp.getFilePointer();
           }
 
           ++i;
         }
 
-        String s;
         try {
-          if ((s = mFp.readLine()) != null) {
-            TIntv intv;
-            char[] str = s.toCharArray();
-            curr_off = mFp.getFilePointer();
-            if (str.length == 0 || str[0] == mMeta) {
-              continue;
-            }
-            intv = getIntv(s);
-            if (intv.tid != tid || intv.beg >= end) {
-              iseof = true;
-              break; // no need to proceed
-            } else if (intv.end > beg && intv.beg < end) {
-              nextLine = s; // overlap; return
-              return;
-            }
-          } else {
+          int length = fp.scanLine();
+          if (length < 0) {
             iseof = true;
             break;
           }
+          byte[] buf = fp.getLineArray();
+          int from = fp.getLineStart(), to = from + length;
+          curr_off = fp.getFilePointer();
+          if (length == 0 || (char) (buf[from] & 0xff) == mMeta) {
+            continue;
+          }
+          // Only decode the lines that overlap the query
+          TIntv intv = this.intv;
+          if (!getIntv(buf, from, to, tid, chr, intv)) {
+            intv = getIntv(new String(buf, from, length, Charset.defaultCharset()));
+          }
+          if (intv.tid != tid || intv.beg >= end) {
+            iseof = true;
+            break; // no need to proceed
+          } else if (intv.end > beg && intv.beg < end) {
+            nextLine = new String(buf, from, length, Charset.defaultCharset()); // overlap; return
+            return;
+          }
         } catch (IOException e) {
           throw new NoSuchElementException("IOException while trying to get next element");
         }
       }
+
+      // The query is finished, so let go of the cursor and its block
+      fp = null;
     }
   }
 
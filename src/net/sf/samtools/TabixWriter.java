@@ -33,12 +33,15 @@ import java.nio.ByteOrder;
 import java.nio.charset.Charset;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import net.sf.samtools.util.BlockCompressedInputStream;
 import net.sf.samtools.util.BlockCompressedOutputStream;
+import edu.unc.genomics.io.BGZFBlockCache;
+import edu.unc.genomics.io.BGZFBlockReader;
+import edu.unc.genomics.io.BGZFFile;
 
 /**
  * Tabix writer, based on Heng Li's C implementation.
@@ -60,16 +63,30 @@ public class TabixWriter extends TabixReader {
   public static final Conf SAM_CONF = new Conf(TI_PRESET_SAM, 3, 4, 0, '@', 0);
   public static final Conf VCF_CONF = new Conf(TI_PRESET_VCF, 1, 2, 0, '#', 0);
 
-  /** The binning index. */
-  List<Map<Integer, List<TPair64>>> binningIndex = new ArrayList<Map<Integer, List<TPair64>>>();
+  /** The binning and linear index of each chromosome, by tid. */
+  private final List<ChrIndex> chrIndexes = new ArrayList<ChrIndex>();
 
-  /** The linear index. */
-  List<List<Long>> linearIndex = new ArrayList<List<Long>>();
+  /** The state of the index as lines are added. */
+  private int last_bin, save_bin;
+  private int last_coor, last_tid, save_tid;
+  private long save_off, last_off, lineno = 0, offset0 = (long) -1;
 
-  public TabixWriter(final Path p, Conf conf) throws IOException {
-    super(p);
+  /**
+   * @param p
+   *          the bgzipped file to index, which does not need to exist until
+   *          createIndex() is called. Lines can also be added with addLine() as
+   *          the file is written.
+   * @param conf
+   *          the configuration to use (specifying the chr, start, stop cols)
+   */
+  public TabixWriter(final Path p, Conf conf) {
+    super(p, (BGZFFile) null);
     applyConf(conf);
     mChr2tid = new LinkedHashMap<String, Integer>();
+    save_bin = save_tid = last_tid = last_bin = 0xffffffff; // Was unsigned in
+                                                            // C implementation.
+    save_off = last_off = 0;
+    last_coor = 0xffffffff; // Should be unsigned.
   }
 
   private void applyConf(Conf conf) {
@@ -82,142 +99,109 @@ public class TabixWriter extends TabixReader {
   }
 
   public Path createIndex() throws IOException, TabixException {
-    // Make the index
-    BlockCompressedInputStream fp = new BlockCompressedInputStream(mFn.toFile());
-    makeIndex(fp);
-    fp.close();
-
-    // Save the index to disk
-    BlockCompressedOutputStream fpidx = new BlockCompressedOutputStream(index.toFile());
-    saveIndex(fpidx);
-    fpidx.close();
+    // Make the index, without filling the block cache with the whole file
+    long end;
+    try (BGZFFile bgzf = new BGZFFile(mFn, new BGZFBlockCache(0))) {
+      BGZFBlockReader fp = bgzf.newReader();
+      int length;
+      while ((length = fp.scanLine()) >= 0) {
+        addLine(new String(fp.getLineArray(), fp.getLineStart(), length, LATIN1), fp.getFilePointer());
+      }
+      end = fp.getFilePointer();
+    }
 
-    return index;
+    return createIndex(end, null);
   }
 
-  private void makeIndex(BlockCompressedInputStream fp) throws IOException, TabixException {
-    int last_bin, save_bin;
-    int last_coor, last_tid, save_tid;
-    long save_off, last_off, lineno = 0, offset0 = (long) -1;
-    String str;
-
-    save_bin = save_tid = last_tid = last_bin = 0xffffffff; // Was unsigned in C
-                                                            // implementation.
-    save_off = last_off = 0;
-    last_coor = 0xffffffff; // Should be unsigned.
-    while ((str = readLine(fp)) != null) {
-      ++lineno;
-      if (lineno <= mSkip || str.charAt(0) == mMeta) {
-        last_off = fp.getFilePointer();
-        continue;
-      }
-      TIntv intv = getIntv(str);
-      if (intv.beg < 0 || intv.end < 0) {
-        throw new TabixException("The indexes overlap or are out of bounds.");
-      }
-      if (last_tid != intv.tid) { // change of chromosomes
-        if (last_tid > intv.tid) {
-          throw new TabixException(String.format(
-              "The chromosome blocks are not continuous at line %d, is the file sorted? [pos %d].", lineno,
-              intv.beg + 1));
-        }
-        last_tid = intv.tid;
-        last_bin = 0xffffffff;
-      } else if (last_coor > intv.beg) {
-        throw new TabixException(String.format("File out of order at line %d.", lineno));
-      }
-      long tmp = insertLinear(linearIndex.get(intv.tid), intv.beg, intv.end, last_off);
-      if (last_off == 0)
-        offset0 = tmp;
-      if (intv.bin != last_bin) { // then possibly write the binning index
-        if (save_bin != 0xffffffff) { // save_bin==0xffffffffu only happens to
-                                      // the first record
-          insertBinning(binningIndex.get(save_tid), save_bin, save_off, last_off);
-        }
-        save_off = last_off;
-        save_bin = last_bin = intv.bin;
-        save_tid = intv.tid;
-        if (save_tid < 0)
-          break;
-      }
-      if (fp.getFilePointer() <= last_off) {
-        throw new TabixException(String.format("Bug in BGZF: %x < %x.", fp.getFilePointer(), last_off));
+  /**
+   * Write the index for the lines that have been added with addLine()
+   * 
+   * @param endOffset
+   *          the offset of the end of the data file
+   * @param offsets
+   *          maps the offsets that were passed to addLine() to virtual file
+   *          offsets, or null if they are already virtual file offsets
+   * @return the path to the Tabix index file
+   * @throws IOException
+   * @throws TabixException
+   */
+  public Path createIndex(long endOffset, OffsetMap offsets) throws IOException, TabixException {
+    if (save_tid >= 0) {
+      chrIndexes.get(save_tid).addChunk(save_bin, save_off, endOffset);
+    }
+    for (ChrIndex chrIndex : chrIndexes) {
+      if (offsets != null) {
+        chrIndex.mapOffsets(offsets);
       }
-      last_off = fp.getFilePointer();
-      last_coor = intv.beg;
+      chrIndex.mergeChunks();
+      chrIndex.fillMissing();
     }
-    if (save_tid >= 0)
-      insertBinning(binningIndex.get(save_tid), save_bin, save_off, fp.getFilePointer());
-    mergeChunks();
-    fillMissing();
-    if (offset0 != (long) -1 && !linearIndex.isEmpty() && linearIndex.get(0) != null) {
+    if (offset0 != (long) -1 && !chrIndexes.isEmpty()) {
       int beg = (int) (offset0 >> 32), end = (int) (offset0 & 0xffffffff);
       for (int i = beg; i <= end; ++i) {
-        linearIndex.get(0).set(i, 0L);
+        chrIndexes.get(0).linear[i] = 0L;
       }
     }
-  }
 
-  private void insertBinning(Map<Integer, List<TPair64>> binningForChr, int bin, long beg, long end) {
-    if (!binningForChr.containsKey(bin)) {
-      binningForChr.put(bin, new ArrayList<TPair64>());
-    }
-    List<TPair64> list = binningForChr.get(bin);
-    list.add(new TPair64(beg, end));
-  }
+    // Save the index to disk
+    BlockCompressedOutputStream fpidx = new BlockCompressedOutputStream(index.toFile());
+    saveIndex(fpidx);
+    fpidx.close();
+    evictIndex(index);
 
-  private long insertLinear(List<Long> linearForChr, int beg, int end, long offset) {
-    beg = beg >> TAD_LIDX_SHIFT;
-    end = (end - 1) >> TAD_LIDX_SHIFT;
+    return index;
+  }
 
-    // Expand the array if necessary.
-    int newSize = Math.max(beg, end) + 1;
-    while (linearForChr.size() < newSize) {
-      linearForChr.add(0L);
+  /**
+   * Add the next line of the data file to the index
+   * 
+   * @param str
+   *          the line, without its line terminator
+   * @param endOffset
+   *          the offset of the end of the line (including its terminator) in
+   *          the data file. Offsets must increase, and mapping them with the
+   *          OffsetMap passed to createIndex must give the virtual file offsets
+   * @throws TabixException
+   *           if the line cannot be indexed or is out of order
+   */
+  public void addLine(String str, long endOffset) throws TabixException {
+    ++lineno;
+    if (lineno <= mSkip || str.charAt(0) == mMeta) {
+      last_off = endOffset;
+      return;
     }
-    if (beg == end) {
-      if (linearForChr.get(beg) == 0L) {
-        linearForChr.set(beg, offset);
-      }
-    } else {
-      for (int i = beg; i <= end; ++i) {
-        if (linearForChr.get(i) == 0L) {
-          linearForChr.set(i, offset);
-        }
-      }
+    TIntv intv = getIntv(str);
+    if (intv.beg < 0 || intv.end < 0) {
+      throw new TabixException("The indexes overlap or are out of bounds.");
     }
-    return (long) beg << 32 | end;
-  }
-
-  private void mergeChunks() {
-    for (int i = 0; i < binningIndex.size(); i++) {
-      Map<Integer, List<TPair64>> binningForChr = binningIndex.get(i);
-      for (Integer k : binningForChr.keySet()) {
-        List<TPair64> p = binningForChr.get(k);
-        int m = 0;
-        for (int l = 1; l < p.size(); l++) {
-          if (p.get(m).v >> 16 == p.get(l).u >> 16) {
-            p.get(m).v = p.get(l).v;
-          } else {
-            p.set(++m, p.get(l));
-          }
-        }
-        while (p.size() > m + 1) {
-          p.remove(p.size() - 1);
-        }
+    if (last_tid != intv.tid) { // change of chromosomes
+      if (last_tid > intv.tid) {
+        throw new TabixException(String.format(
+            "The chromosome blocks are not continuous at line %d, is the file sorted? [pos %d].", lineno,
+            intv.beg + 1));
       }
+      last_tid = intv.tid;
+      last_bin = 0xffffffff;
+    } else if (last_coor > intv.beg) {
+      throw new TabixException(String.format("File out of order at line %d.", lineno));
     }
-  }
-
-  private void fillMissing() {
-    for (int i = 0; i < linearIndex.size(); ++i) {
-      List<Long> linearForChr = linearIndex.get(i);
-      for (int j = 1; j < linearForChr.size(); ++j) {
-        if (linearForChr.get(j) == 0) {
-          linearForChr.set(j, linearForChr.get(j - 1));
-        }
+    long tmp = chrIndexes.get(intv.tid).insertLinear(intv.beg, intv.end, last_off);
+    if (last_off == 0)
+      offset0 = tmp;
+    if (intv.bin != last_bin) { // then possibly write the binning index
+      if (save_bin != 0xffffffff) { // save_bin==0xffffffffu only happens to
+                                    // the first record
+        chrIndexes.get(save_tid).addChunk(save_bin, save_off, last_off);
       }
+      save_off = last_off;
+      save_bin = last_bin = intv.bin;
+      save_tid = intv.tid;
+    }
+    if (endOffset <= last_off) {
+      throw new TabixException(String.format("Bug in BGZF: %x < %x.", endOffset, last_off));
     }
+    last_off = endOffset;
+    last_coor = intv.beg;
   }
 
   public static void writeInt(final OutputStream os, int value) throws IOException {
@@ -234,7 +218,7 @@ public class TabixWriter extends TabixReader {
 
   private void saveIndex(BlockCompressedOutputStream fp) throws IOException {
     fp.write("TBI\1".getBytes(LATIN1));
-    writeInt(fp, binningIndex.size());
+    writeInt(fp, chrIndexes.size());
 
     // Write the ti_conf_t
     writeInt(fp, mPreset);
@@ -257,24 +241,22 @@ public class TabixWriter extends TabixReader {
     }
 
     for (int i = 0; i < mChr2tid.size(); i++) {
-      Map<Integer, List<TPair64>> binningForChr = binningIndex.get(i);
+      ChrIndex chrIndex = chrIndexes.get(i);
 
       // Write the binning index.
-      writeInt(fp, binningForChr.size());
-      for (int k : binningForChr.keySet()) {
-        List<TPair64> p = binningForChr.get(k);
-        writeInt(fp, k);
-        writeInt(fp, p.size());
-        for (TPair64 bin : p) {
-          writeLong(fp, bin.u);
-          writeLong(fp, bin.v);
+      writeInt(fp, chrIndex.numBins);
+      for (int b : chrIndex.binOrder) {
+        writeInt(fp, chrIndex.bins[b]);
+        writeInt(fp, chrIndex.binSize[b]);
+        for (int c = chrIndex.binStart[b]; c < chrIndex.binStart[b] + chrIndex.binSize[b]; c++) {
+          writeLong(fp, chrIndex.chunkBeg[c]);
+          writeLong(fp, chrIndex.chunkEnd[c]);
         }
       }
       // Write the linear index.
-      List<Long> linearForChr = linearIndex.get(i);
-      writeInt(fp, linearForChr.size());
-      for (int x = 0; x < linearForChr.size(); x++) {
-        writeLong(fp, linearForChr.get(x));
+      writeInt(fp, chrIndex.linearSize);
+      for (int x = 0; x < chrIndex.linearSize; x++) {
+        writeLong(fp, chrIndex.linear[x]);
       }
     }
   }
@@ -290,8 +272,7 @@ public class TabixWriter extends TabixReader {
       mChr2tid.put(chr, mChr2tid.size());
 
       // Expand our indices.
-      binningIndex.add(new HashMap<Integer, List<TPair64>>());
-      linearIndex.add(new ArrayList<Long>());
+      chrIndexes.add(new ChrIndex());
     }
     return mChr2tid.get(chr);
   }
@@ -326,6 +307,145 @@ public class TabixWriter extends TabixReader {
     return 0;
   }
 
+  /**
+   * The binning and linear index of one chromosome, kept in primitive arrays
+   * so that indexing a large file does not allocate an object per chunk.
+   * Chunks are appended in file order as the bin changes, and are only grouped
+   * by bin and merged once all of the lines have been added.
+   */
+  private static final class ChrIndex {
+    /** The chunks, and after mergeChunks() the merged chunks grouped by bin */
+    long[] chunkBeg = new long[16];
+    long[] chunkEnd = new long[16];
+    int[] chunkBin = new int[16];
+    int numChunks = 0;
+
+    /** The linear index */
+    long[] linear = new long[16];
+    int linearSize = 0;
+
+    /** After mergeChunks(), the bins with their range of chunks */
+    int numBins = 0;
+    int[] bins, binStart, binSize;
+    /** The order to write the bins in */
+    int[] binOrder;
+
+    void addChunk(int bin, long beg, long end) {
+      if (numChunks == chunkBeg.length) {
+        int newLength = 2 * numChunks;
+        chunkBeg = Arrays.copyOf(chunkBeg, newLength);
+        chunkEnd = Arrays.copyOf(chunkEnd, newLength);
+        chunkBin = Arrays.copyOf(chunkBin, newLength);
+      }
+      chunkBeg[numChunks] = beg;
+      chunkEnd[numChunks] = end;
+      chunkBin[numChunks] = bin;
+      numChunks++;
+    }
+
+    long insertLinear(int beg, int end, long offset) {
+      beg = beg >> TAD_LIDX_SHIFT;
+      end = (end - 1) >> TAD_LIDX_SHIFT;
+
+      // Expand the array if necessary.
+      int newSize = Math.max(beg, end) + 1;
+      if (newSize > linear.length) {
+        linear = Arrays.copyOf(linear, Math.max(newSize, 2 * linear.length));
+      }
+      linearSize = Math.max(linearSize, newSize);
+      for (int i = beg; i <= end; ++i) {
+        if (linear[i] == 0L) {
+          linear[i] = offset;
+        }
+      }
+      return (long) beg << 32 | end;
+    }
+
+    void mapOffsets(OffsetMap offsets) {
+      for (int i = 0; i < numChunks; i++) {
+        chunkBeg[i] = offsets.getFilePointer(chunkBeg[i]);
+        chunkEnd[i] = offsets.getFilePointer(chunkEnd[i]);
+      }
+      for (int i = 0; i < linearSize; i++) {
+        linear[i] = offsets.getFilePointer(linear[i]);
+      }
+    }
+
+    /**
+     * Group the chunks by bin, and merge the chunks of each bin that start in
+     * the block where the previous one ends
+     */
+    void mergeChunks() {
+      // Sort by bin, then by position in the file
+      long[] order = new long[numChunks];
+      for (int i = 0; i < numChunks; i++) {
+        order[i] = (long) chunkBin[i] << 32 | i;
+      }
+      Arrays.sort(order);
+
+      long[] beg = new long[numChunks];
+      long[] end = new long[numChunks];
+      bins = new int[numChunks];
+      binStart = new int[numChunks];
+      binSize = new int[numChunks];
+      long[] firstUse = new long[numChunks];
+      int m = -1;
+      for (long key : order) {
+        int bin = (int) (key >>> 32);
+        int i = (int) key;
+        if (numBins == 0 || bins[numBins - 1] != bin) {
+          firstUse[numBins] = (long) i << 32 | numBins;
+          bins[numBins] = bin;
+          binStart[numBins] = m + 1;
+          numBins++;
+        } else if (end[m] >> 16 == chunkBeg[i] >> 16) {
+          end[m] = chunkEnd[i];
+          continue;
+        }
+        m++;
+        beg[m] = chunkBeg[i];
+        end[m] = chunkEnd[i];
+        binSize[numBins - 1] = m + 1 - binStart[numBins - 1];
+      }
+      chunkBeg = beg;
+      chunkEnd = end;
+      chunkBin = null;
+      numChunks = m + 1;
+
+      // Write the bins in the order that a HashMap iterates over them when
+      // they are added in order of first use, which is the order this writer
+      // has always used, so that index files are reproduced byte for byte
+      Arrays.sort(firstUse, 0, numBins);
+      Map<Integer, Integer> hash = new HashMap<Integer, Integer>();
+      for (int b = 0; b < numBins; b++) {
+        int k = (int) firstUse[b];
+        hash.put(bins[k], k);
+      }
+      binOrder = new int[numBins];
+      int b = 0;
+      for (int k : hash.values()) {
+        binOrder[b++] = k;
+      }
+    }
+
+    void fillMissing() {
+      for (int j = 1; j < linearSize; ++j) {
+        if (linear[j] == 0) {
+          linear[j] = linear[j - 1];
+        }
+      }
+    }
+  }
+
+  /**
+   * Maps offsets in a data file to BGZF virtual file offsets, for files that
+   * are indexed as they are written, before the addresses of their compressed
+   * blocks are known. Must map 0 to 0 and preserve order.
+   */
+  public interface OffsetMap {
+    long getFilePointer(long offset);
+  }
+
   public static class Conf {
     public final int preset;
     public final int chrColumn;
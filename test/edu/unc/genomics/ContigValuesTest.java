@@ -0,0 +1,99 @@
+package edu.unc.genomics;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.unc.genomics.util.StatsAccumulator;
+
+public class ContigValuesTest {
+
+  private static final int SIZE = 1000;
+
+  @Test
+  public void testAllocate() {
+    for (Contig.Storage storage : Contig.Storage.values()) {
+      ContigValues values = ContigValues.allocate(storage, SIZE);
+      assertEquals(storage, values.getStorage());
+      assertEquals(SIZE, values.size());
+      for (int i = 0; i < SIZE; i++) {
+        assertTrue(Float.isNaN(values.get(i)));
+      }
+    }
+  }
+
+  @Test
+  public void testRandomFills() {
+    for (Contig.Storage storage : Contig.Storage.values()) {
+      Random rng = new Random(42);
+      ContigValues values = ContigValues.allocate(storage, SIZE);
+      float[] expected = new float[SIZE];
+      Arrays.fill(expected, Float.NaN);
+      for (int k = 0; k < 500; k++) {
+        int from = rng.nextInt(SIZE);
+        int to = Math.min(SIZE, from + rng.nextInt(50));
+        // Use few distinct values so that runs coalesce
+        float value = (rng.nextInt(5) == 0) ? Float.NaN : rng.nextInt(3);
+        if (rng.nextBoolean()) {
+          values.fill(from, to, value);
+          Arrays.fill(expected, from, to, value);
+        } else {
+          values.set(from, value);
+          expected[from] = value;
+        }
+      }
+
+      assertArrayEquals(storage.toString(), expected, values.toArray(), 0f);
+      for (int i = 0; i < SIZE; i++) {
+        assertEquals(expected[i], values.get(i), 0f);
+      }
+    }
+  }
+
+  @Test
+  public void testAddTo() {
+    for (Contig.Storage storage : Contig.Storage.values()) {
+      ContigValues values = ContigValues.allocate(storage, 10);
+      values.fill(0, 4, 2);
+      values.fill(6, 8, 5);
+      values.set(9, Float.POSITIVE_INFINITY);
+      StatsAccumulator stats = new StatsAccumulator();
+      values.addTo(stats, 3);
+      assertEquals(18, stats.getN());
+      assertEquals(54, stats.getSum(), 1e-7);
+      assertEquals(2, stats.getMin(), 1e-7);
+      assertEquals(5, stats.getMax(), 1e-7);
+    }
+  }
+
+  @Test
+  public void testSparseCoalesces() {
+    SparseContigValues values = new SparseContigValues(100);
+    assertEquals(1, values.numRuns());
+    values.fill(10, 20, 1);
+    assertEquals(3, values.numRuns());
+    values.fill(20, 30, 1);
+    assertEquals(3, values.numRuns());
+    values.fill(15, 16, 2);
+    assertEquals(5, values.numRuns());
+    values.set(15, 1);
+    assertEquals(3, values.numRuns());
+    values.fill(0, 100, Float.NaN);
+    assertEquals(1, values.numRuns());
+  }
+
+  @Test
+  public void testDirectPages() {
+    // Span a page boundary without allocating a whole second page
+    int size = (1 << DirectContigValues.PAGE_BITS) + 10;
+    DirectContigValues values = new DirectContigValues(size);
+    values.fill(size - 20, size, 7);
+    assertTrue(Float.isNaN(values.get(size - 21)));
+    assertEquals(7, values.get(size - 20), 0f);
+    assertEquals(7, values.get(size - 1), 0f);
+  }
+
+}
@@ -2,6 +2,11 @@ package edu.unc.genomics;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -16,6 +21,42 @@ public class FixedStepContigTest {
     test = new Contig(interval, values);
   }
 
+  @Test
+  public void testStorage() {
+    assertEquals(Contig.Storage.ARRAY, test.getStorage());
+    float[] expected = test.getValues();
+    for (Contig.Storage storage : Contig.Storage.values()) {
+      Contig contig = new Contig(test, expected, storage);
+      assertEquals(storage, contig.getStorage());
+      assertArrayEquals(expected, contig.getValues(), 1e-7f);
+      assertEquals(test.mean(), contig.mean(), 1e-7f);
+      assertEquals(test.numBases(), contig.numBases());
+      contig.set(11, 13, 2.0f);
+      assertArrayEquals(new float[] { Float.NaN, 2.0f, 2.0f, 2.0f, Float.NaN }, contig.get(10, 14), 1e-7f);
+      assertEquals(7, contig.numBases());
+    }
+  }
+
+  @Test
+  public void testSerialization() throws Exception {
+    float[] expected = test.getValues();
+    for (Contig.Storage storage : Contig.Storage.values()) {
+      Contig contig = new Contig(test, expected, storage);
+      assertEquals(test.mean(), contig.mean(), 1e-7f);
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+        out.writeObject(contig);
+      }
+      try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+        Contig copy = (Contig) in.readObject();
+        assertEquals(contig, copy);
+        assertEquals(storage, copy.getStorage());
+        assertArrayEquals(expected, copy.getValues(), 1e-7f);
+        assertEquals(test.mean(), copy.mean(), 1e-7f);
+      }
+    }
+  }
+
   @Test
   public void testGetValues() {
     float[] expected = { Float.NaN, Float.NaN, 3.0f, 3.0f, Float.NaN, 3.0f, 3.0f, Float.NaN, 4.0f, 4.0f };
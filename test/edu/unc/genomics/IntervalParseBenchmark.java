@@ -0,0 +1,156 @@
+package edu.unc.genomics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import edu.unc.genomics.util.ArrayUtils;
+
+/**
+ * Compares the throughput of the IntervalFactory parse methods with the
+ * String.split parsing that they used previously. Not run as part of the unit
+ * tests.
+ *
+ * Usage: java edu.unc.genomics.IntervalParseBenchmark [secondsPerRun]
+ *
+ * @author timpalpant
+ *
+ */
+public class IntervalParseBenchmark {
+
+  private interface Parser {
+    Object parse(String line);
+  }
+
+  public static void main(String[] args) throws Exception {
+    long millisPerRun = 1000L * ((args.length > 0) ? Integer.parseInt(args[0]) : 3);
+
+    Random rng = new Random(42);
+    List<String> bed = new ArrayList<>();
+    List<String> vcf = new ArrayList<>();
+    List<String> bedGraph = new ArrayList<>();
+    for (int i = 0; i < 100_000; i++) {
+      int start = rng.nextInt(100_000_000);
+      bed.add("chr" + (1 + i % 22) + "\t" + start + "\t" + (start + 147) + "\tread" + i + "\t" + rng.nextInt(1000)
+          + "\t" + (rng.nextBoolean() ? "+" : "-"));
+      bedGraph.add("chr" + (1 + i % 22) + "\t" + start + "\t" + (start + 10) + "\t" + rng.nextGaussian());
+      vcf.add("chr" + (1 + i % 22) + "\t" + start + "\trs" + i + "\tA\tC,G\t" + rng.nextInt(100)
+          + ".5\tPASS\tDP=" + rng.nextInt(200) + ";AF=0.5;DB\tGT:GQ\t0|1:48\t1/1:43");
+    }
+
+    System.out.println("format\tsplit lines/s\ttokenizer lines/s\tspeedup");
+    compare("Bed", bed, new Parser() {
+      public Object parse(String line) {
+        return splitBed(line);
+      }
+    }, new Parser() {
+      public Object parse(String line) {
+        return BedEntry.parse(line);
+      }
+    }, millisPerRun);
+    compare("BedGraph", bedGraph, new Parser() {
+      public Object parse(String line) {
+        return splitBedGraph(line);
+      }
+    }, new Parser() {
+      public Object parse(String line) {
+        return BedGraphEntry.parse(line);
+      }
+    }, millisPerRun);
+    compare("VCF", vcf, new Parser() {
+      public Object parse(String line) {
+        return splitVCF(line);
+      }
+    }, new Parser() {
+      public Object parse(String line) {
+        return VCFEntry.parse(line);
+      }
+    }, millisPerRun);
+  }
+
+  private static void compare(String format, List<String> lines, Parser split, Parser tokenizer, long millis) {
+    // Warm up
+    run(lines, split, millis);
+    run(lines, tokenizer, millis);
+
+    double splitRate = run(lines, split, millis);
+    double tokenizerRate = run(lines, tokenizer, millis);
+    System.out.printf("%s\t%.0f\t%.0f\t%.2f%n", format, splitRate, tokenizerRate, tokenizerRate / splitRate);
+  }
+
+  /**
+   * @return the number of lines parsed per second
+   */
+  private static double run(List<String> lines, Parser parser, long millis) {
+    long start = System.nanoTime();
+    long stop = start + 1_000_000 * millis;
+    long count = 0;
+    int hash = 0;
+    while (System.nanoTime() < stop) {
+      for (String line : lines) {
+        hash += parser.parse(line).hashCode();
+      }
+      count += lines.size();
+    }
+    if (hash == 42) {
+      System.out.print("");
+    }
+    return count / ((System.nanoTime() - start) / 1e9);
+  }
+
+  private static BedEntry splitBed(String line) {
+    String[] entry = line.split("\t");
+    int start = Integer.parseInt(entry[1]) + 1;
+    int stop = Integer.parseInt(entry[2]);
+    BedEntry bed = new BedEntry(entry[0], start, stop);
+    if (entry.length >= 4) {
+      bed.setId(entry[3]);
+    }
+    if (entry.length >= 5 && !entry[4].equalsIgnoreCase(".")) {
+      bed.setValue(Float.valueOf(entry[4]));
+    }
+    if (entry.length >= 6 && entry[5].equalsIgnoreCase("-")) {
+      bed.setStart(stop);
+      bed.setStop(start);
+    }
+    if (entry.length >= 12) {
+      bed.setBlockSizes(ArrayUtils.mapToInt(entry[10].split(",")));
+      bed.setBlockStarts(ArrayUtils.mapToInt(entry[11].split(",")));
+    }
+    return bed;
+  }
+
+  private static BedGraphEntry splitBedGraph(String line) {
+    String[] entry = line.split("\t");
+    BedGraphEntry bedGraph = new BedGraphEntry(entry[0], Integer.parseInt(entry[1]) + 1, Integer.parseInt(entry[2]));
+    if (entry.length >= 4) {
+      bedGraph.setValue(Double.parseDouble(entry[3]));
+    }
+    return bedGraph;
+  }
+
+  private static VCFEntry splitVCF(String line) {
+    String[] entry = line.split("\t");
+    VCFEntry vcf = new VCFEntry(entry[0], Integer.parseInt(entry[1]), entry[2]);
+    vcf.setRef(entry[3]);
+    if (!entry[4].equalsIgnoreCase(".")) {
+      vcf.setAlt(entry[4].split(","));
+    }
+    if (!entry[5].equalsIgnoreCase(".")) {
+      vcf.setQual(Double.parseDouble(entry[5]));
+    }
+    vcf.setFilter(entry[6]);
+    for (String token : entry[7].split(";")) {
+      String[] keypair = token.split("=");
+      vcf.addInfo(keypair[0], (keypair.length == 2) ? keypair[1] : null);
+    }
+    if (entry.length > 8) {
+      vcf.setFormat(entry[8].split(":"));
+      for (int i = 9; i < entry.length; i++) {
+        vcf.addGenotype(entry[i].split(":"));
+      }
+    }
+    return vcf;
+  }
+
+}
@@ -4,6 +4,16 @@ import static org.junit.Assert.*;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
 import org.junit.After;
@@ -11,6 +21,8 @@ import org.junit.AfterClass;
 import org.junit.Test;
 
 import edu.unc.genomics.Contig;
+import edu.unc.genomics.Interval;
+import edu.unc.genomics.util.StatsAccumulator;
 
 public abstract class AbstractWigFileReaderTest {
 
@@ -68,6 +80,97 @@ public abstract class AbstractWigFileReaderTest {
     assertArrayEquals(expected, data, 1e-7f);
   }
 
+  @Test
+  public void testConcurrentQueries() throws Exception {
+    ExecutorService pool = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<Boolean>> results = new ArrayList<>();
+      for (int t = 0; t < 32; t++) {
+        results.add(pool.submit(new Callable<Boolean>() {
+          @Override
+          public Boolean call() throws Exception {
+            float[] fixed = { 5.0f, 6.0f, 7.0f, 8.0f };
+            float[] variable = { 6.0f, Float.NaN, Float.NaN, Float.NaN, 10.0f, Float.NaN };
+            for (int i = 0; i < 200; i++) {
+              assertArrayEquals(fixed, test.query("chrI", 5, 8).getValues(), 1e-7f);
+              assertArrayEquals(variable, test.query("2micron", 101, 106).getValues(), 1e-7f);
+              assertEquals(4, test.queryStats("chrI", 5, 8).getN());
+            }
+            return true;
+          }
+        }));
+      }
+
+      for (Future<Boolean> result : results) {
+        assertTrue(result.get());
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testBatchQuery() throws WigFileException, IOException {
+    List<Interval> intervals = new ArrayList<>();
+    intervals.add(new Interval("chrXI", 30, 60));
+    intervals.add(new Interval("chrI", 5, 8));
+    intervals.add(new Interval("chrI", 12, 3));
+    intervals.add(new Interval("chrI", 9, 10));
+    intervals.add(new Interval("chrI", 5, 8));
+    intervals.add(new Interval("chrI", 14, 20));
+    intervals.add(new Interval("chrXI", 100, 120));
+
+    Iterator<Contig> it = test.query(intervals);
+    for (Interval interval : intervals) {
+      assertTrue(it.hasNext());
+      Contig result = it.next();
+      assertEquals(interval, result);
+      assertArrayEquals(test.query(interval).getValues(), result.getValues(), 1e-7f);
+    }
+    assertFalse(it.hasNext());
+  }
+
+  @Test
+  public void testBatchQueryCallback() throws WigFileException, IOException {
+    List<Interval> intervals = new ArrayList<>();
+    intervals.add(new Interval("chrI", 10, 12));
+    intervals.add(new Interval("chrI", 1, 3));
+    intervals.add(new Interval("chrI", 4, 6));
+    final List<Integer> indices = new ArrayList<>();
+    test.query(intervals, new WigFileReader.QueryCallback() {
+      @Override
+      public void result(int index, Contig result) {
+        indices.add(index);
+      }
+    });
+
+    // Results are delivered in sorted order
+    assertEquals(Arrays.asList(1, 2, 0), indices);
+  }
+
+  @Test
+  public void testWindows() throws WigFileException, IOException {
+    Map<String, Integer> nextStart = new HashMap<>();
+    for (Contig window : test.windows(7)) {
+      String chr = window.getChr();
+      Integer start = nextStart.get(chr);
+      assertEquals((start == null) ? test.getChrStart(chr) : start.intValue(), window.getStart());
+      assertTrue(window.length() <= 7);
+      assertArrayEquals(test.query(window).getValues(), window.getValues(), 1e-7f);
+      nextStart.put(chr, window.getStop() + 1);
+    }
+
+    assertEquals(test.chromosomes(), nextStart.keySet());
+    for (String chr : test.chromosomes()) {
+      assertEquals(test.getChrStop(chr) + 1, nextStart.get(chr).intValue());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testWindowsInvalidSize() {
+    test.windows(0);
+  }
+
   @Test
   public void testGetRange() throws WigFileException, IOException {
     Contig result = test.query("chrI", 5, 8);
@@ -126,6 +229,39 @@ public abstract class AbstractWigFileReaderTest {
     assertEquals(4, stats.getN());
   }
 
+  @Test
+  public void testQueryBins() throws WigFileException, IOException {
+    Interval interval = new Interval("chrI", 1, 15);
+    assertArrayEquals(new float[] { 3, 8, 13 }, test.query(interval, 3, WigFileReader.Aggregation.MEAN), 1e-6f);
+    assertArrayEquals(new float[] { 1, 6, 11 }, test.query(interval, 3, WigFileReader.Aggregation.MIN), 1e-6f);
+    assertArrayEquals(new float[] { 5, 10, 15 }, test.query(interval, 3, WigFileReader.Aggregation.MAX), 1e-6f);
+    assertArrayEquals(new float[] { 15, 40, 65 }, test.query(interval, 3, WigFileReader.Aggregation.SUM), 1e-6f);
+  }
+
+  @Test
+  public void testQueryBinsCrick() throws WigFileException, IOException {
+    Interval interval = new Interval("chrI", 15, 1);
+    assertArrayEquals(new float[] { 13, 8, 3 }, test.query(interval, 3, WigFileReader.Aggregation.MEAN), 1e-6f);
+  }
+
+  @Test
+  public void testQueryBinsOutsideData() throws WigFileException, IOException {
+    Interval interval = new Interval("chrI", 11, 20);
+    assertArrayEquals(new float[] { 13, Float.NaN }, test.query(interval, 2, WigFileReader.Aggregation.MEAN), 1e-6f);
+    assertArrayEquals(new float[] { 5, 0 }, test.query(interval, 2, WigFileReader.Aggregation.COVERAGE), 1e-6f);
+  }
+
+  @Test
+  public void testQuerySummary() throws WigFileException, IOException {
+    StatsAccumulator[] summaries = test.querySummary(new Interval("chrI", 2, 8), 2);
+    assertEquals(2, summaries.length);
+    // Bins of unequal size: [2, 4] and [5, 8]
+    assertEquals(3, summaries[0].getN());
+    assertEquals(3, summaries[0].getMean(), 1e-7);
+    assertEquals(4, summaries[1].getN());
+    assertEquals(6.5, summaries[1].getMean(), 1e-7);
+  }
+
   @Test
   public void testMeanQuery() throws WigFileException, IOException {
     Contig result = test.query("chrI", 5, 8);
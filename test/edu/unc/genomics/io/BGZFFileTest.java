@@ -0,0 +1,169 @@
+package edu.unc.genomics.io;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sf.samtools.util.BlockCompressedInputStream;
+import net.sf.samtools.util.BlockCompressedOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BGZFFileTest {
+
+  private Path bgzip;
+
+  @Before
+  public void setUp() throws IOException {
+    bgzip = Files.createTempFile("test", ".txt.gz");
+    try (BlockCompressedOutputStream out = new BlockCompressedOutputStream(bgzip.toFile())) {
+      for (int i = 0; i < 20_000; i++) {
+        // Mix line terminators, and lines that span blocks
+        String terminator = (i % 3 == 0) ? "\r\n" : (i % 7 == 0) ? "\r" : "\n";
+        StringBuilder line = new StringBuilder("line" + i);
+        for (int j = 0; j < i % 13; j++) {
+          line.append("\tfield").append(j);
+        }
+        out.write((line + terminator).getBytes("US-ASCII"));
+        if (i % 5000 == 0) {
+          out.write(new byte[70_000]);
+          out.write('\n');
+        }
+      }
+    }
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(bgzip);
+  }
+
+  @Test
+  public void testReadLinesLikeBlockCompressedInputStream() throws IOException {
+    BGZFBlockCache cache = new BGZFBlockCache(1 << 20);
+    try (BGZFFile file = new BGZFFile(bgzip, cache);
+        BlockCompressedInputStream expected = new BlockCompressedInputStream(bgzip.toFile())) {
+      BGZFBlockReader reader = file.newReader();
+      String line;
+      while ((line = expected.readLine()) != null) {
+        assertEquals(line, reader.readLine());
+        assertEquals(expected.getFilePointer(), reader.getFilePointer());
+      }
+      assertNull(reader.readLine());
+    }
+  }
+
+  @Test
+  public void testSeek() throws IOException {
+    List<Long> pointers = new ArrayList<>();
+    List<String> lines = new ArrayList<>();
+    try (BlockCompressedInputStream in = new BlockCompressedInputStream(bgzip.toFile())) {
+      String line;
+      long pointer = 0;
+      while ((line = in.readLine()) != null) {
+        pointers.add(pointer);
+        lines.add(line);
+        pointer = in.getFilePointer();
+      }
+    }
+
+    try (BGZFFile file = new BGZFFile(bgzip, new BGZFBlockCache(1 << 20))) {
+      BGZFBlockReader reader = file.newReader();
+      for (int i = pointers.size() - 1; i >= 0; i -= 97) {
+        reader.seek(pointers.get(i));
+        assertEquals(lines.get(i), reader.readLine());
+      }
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testInvalidSeek() throws IOException {
+    try (BGZFFile file = new BGZFFile(bgzip, new BGZFBlockCache(0))) {
+      file.newReader().seek(0xffff);
+    }
+  }
+
+  @Test
+  public void testCacheHits() throws IOException {
+    BGZFBlockCache cache = new BGZFBlockCache(64L << 20);
+    try (BGZFFile file = new BGZFFile(bgzip, cache)) {
+      readAll(file);
+      long misses = cache.getMissCount();
+      assertTrue(misses > 1);
+      assertEquals(misses, cache.getNumBlocks());
+
+      readAll(file);
+      assertEquals(misses, cache.getMissCount());
+      assertTrue(cache.getHitCount() >= misses);
+    }
+
+    // Another reader of the same file shares the cached blocks
+    try (BGZFFile file = new BGZFFile(bgzip, cache)) {
+      long misses = cache.getMissCount();
+      readAll(file);
+      assertEquals(misses, cache.getMissCount());
+    }
+  }
+
+  @Test
+  public void testCacheBudget() throws IOException {
+    BGZFBlockCache cache = new BGZFBlockCache(200_000);
+    try (BGZFFile file = new BGZFFile(bgzip, cache)) {
+      readAll(file);
+      assertTrue(cache.getSize() <= cache.getMaxBytes());
+      assertTrue(cache.getNumBlocks() > 0);
+    }
+
+    cache.clear();
+    assertEquals(0, cache.getSize());
+    assertEquals(0, cache.getNumBlocks());
+  }
+
+  @Test
+  public void testNoCache() throws IOException {
+    BGZFBlockCache cache = new BGZFBlockCache(0);
+    try (BGZFFile file = new BGZFFile(bgzip, cache)) {
+      readAll(file);
+      readAll(file);
+      assertEquals(0, cache.getHitCount());
+      assertEquals(0, cache.getNumBlocks());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidCacheSize() {
+    new BGZFBlockCache(-1);
+  }
+
+  @Test
+  public void testChangedFileIsNotCached() throws IOException {
+    BGZFBlockCache cache = new BGZFBlockCache(64L << 20);
+    try (BGZFFile file = new BGZFFile(bgzip, cache)) {
+      readAll(file);
+    }
+
+    File f = bgzip.toFile();
+    try (BlockCompressedOutputStream out = new BlockCompressedOutputStream(f)) {
+      out.write("changed\n".getBytes("US-ASCII"));
+    }
+    try (BGZFFile file = new BGZFFile(bgzip, cache)) {
+      BGZFBlockReader reader = file.newReader();
+      assertEquals("changed", reader.readLine());
+      assertNull(reader.readLine());
+    }
+  }
+
+  private static void readAll(BGZFFile file) throws IOException {
+    BGZFBlockReader reader = file.newReader();
+    while (reader.readLine() != null) {
+    }
+  }
+
+}
@@ -1,9 +1,20 @@
 package edu.unc.genomics.io;
 
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Before;
+import org.junit.Test;
+
+import edu.unc.genomics.BedEntry;
 
 public class BedFileReaderTest extends AbstractBedFileReaderTest {
 
@@ -14,4 +25,40 @@ public class BedFileReaderTest extends AbstractBedFileReaderTest {
     test = new BedFileReader(TEST_BED);
   }
 
+  @SuppressWarnings("deprecation")
+  @Test
+  public void testOverriddenTabixComparator() throws IOException {
+    final AtomicInteger comparisons = new AtomicInteger();
+    Path cacheDir = Files.createTempDirectory("tabixCache");
+    System.setProperty(TabixCache.CACHE_DIR_PROPERTY, cacheDir.toString());
+    try (BedFileReader reader = new BedFileReader(TEST_BED) {
+      @Override
+      protected Comparator<String> getTabixComparator() {
+        final Comparator<String> cmp = super.getTabixComparator();
+        return new Comparator<String>() {
+          @Override
+          public int compare(String s1, String s2) {
+            comparisons.incrementAndGet();
+            return cmp.compare(s1, s2);
+          }
+        };
+      }
+    }) {
+      Iterator<BedEntry> it = reader.query("chrI", 10, 97);
+      int count = 0;
+      while (it.hasNext()) {
+        it.next();
+        count++;
+      }
+      assertEquals(3, count);
+      assertTrue(comparisons.get() > 0);
+    } finally {
+      System.clearProperty(TabixCache.CACHE_DIR_PROPERTY);
+      for (File f : cacheDir.toFile().listFiles()) {
+        Files.delete(f.toPath());
+      }
+      Files.delete(cacheDir);
+    }
+  }
+
 }
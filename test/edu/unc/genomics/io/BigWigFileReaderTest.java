@@ -1,9 +1,19 @@
 package edu.unc.genomics.io;
 
+import static org.junit.Assert.*;
+
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.junit.Before;
+import org.junit.Test;
+
+import edu.unc.genomics.Interval;
+import edu.unc.genomics.util.StatsAccumulator;
 
 public class BigWigFileReaderTest extends AbstractWigFileReaderTest {
 
@@ -14,4 +24,100 @@ public class BigWigFileReaderTest extends AbstractWigFileReaderTest {
     test = new BigWigFileReader(TEST_BIGWIG);
   }
 
+  @Test
+  public void testGetZoomLevel() {
+    BigWigFileReader bw = (BigWigFileReader) test;
+    // The test file has zoom levels with reduction levels 370 and 1480
+    assertEquals(0, bw.getZoomLevel(1));
+    assertEquals(0, bw.getZoomLevel(739));
+    assertEquals(1, bw.getZoomLevel(740));
+    assertEquals(1, bw.getZoomLevel(2959));
+    assertEquals(2, bw.getZoomLevel(2960));
+  }
+
+  @Test
+  public void testQuerySummaryRawData() {
+    StatsAccumulator[] summaries = ((BigWigFileReader) test).querySummary(new Interval("chrI", 1, 15), 3);
+    assertEquals(3, summaries.length);
+    assertEquals(5, summaries[0].getN());
+    assertEquals(3, summaries[0].getMean(), 1e-7);
+    assertEquals(1, summaries[0].getMin(), 0);
+    assertEquals(5, summaries[0].getMax(), 0);
+    assertEquals(8, summaries[1].getMean(), 1e-7);
+    assertEquals(13, summaries[2].getMean(), 1e-7);
+    assertEquals(15, summaries[2].getMax(), 0);
+  }
+
+  @Test
+  public void testQuerySummaryCrick() {
+    StatsAccumulator[] summaries = ((BigWigFileReader) test).querySummary(new Interval("chrI", 15, 1), 3);
+    assertEquals(13, summaries[0].getMean(), 1e-7);
+    assertEquals(3, summaries[2].getMean(), 1e-7);
+  }
+
+  @Test
+  public void testQuerySummaryZoomLevel() {
+    StatsAccumulator[] summaries = ((BigWigFileReader) test).querySummary(new Interval("chrI", 1, 10_000), 10);
+    assertEquals(10, summaries.length);
+    // All of the data on chrI is summarized by the first zoom record
+    assertEquals(15, summaries[0].getN());
+    assertEquals(8, summaries[0].getMean(), 1e-7);
+    assertEquals(1, summaries[0].getMin(), 0);
+    assertEquals(15, summaries[0].getMax(), 0);
+    for (int i = 1; i < summaries.length; i++) {
+      assertEquals(0, summaries[i].getN());
+    }
+  }
+
+  @Test
+  public void testQueryAfterClose() throws Exception {
+    test.close();
+    try {
+      test.query(new Interval("chrI", 1, 15));
+      fail("Closed reader was queried");
+    } catch (IllegalStateException e) {
+    }
+
+    // Threads that have not used the reader cannot open new handles either
+    final Throwable[] error = new Throwable[1];
+    Thread t = new Thread() {
+      @Override
+      public void run() {
+        try {
+          test.chromosomes();
+        } catch (Throwable e) {
+          error[0] = e;
+        }
+      }
+    };
+    t.start();
+    t.join();
+    assertTrue(error[0] instanceof IllegalStateException);
+  }
+
+  @Test
+  public void testPooledThreadAfterClose() throws Exception {
+    ExecutorService pool = Executors.newSingleThreadExecutor();
+    try {
+      Callable<Integer> query = new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          return test.query(new Interval("chrI", 1, 15)).getValues().length;
+        }
+      };
+      assertEquals(15, (int) pool.submit(query).get());
+
+      // The worker thread outlives the reader, but not its handle
+      test.close();
+      try {
+        pool.submit(query).get();
+        fail("Closed reader was queried from a pooled thread");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof IllegalStateException);
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
 }
@@ -0,0 +1,149 @@
+package edu.unc.genomics.io;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.unc.genomics.Assembly;
+import edu.unc.genomics.Contig;
+import edu.unc.genomics.Interval;
+import edu.unc.genomics.util.StatsAccumulator;
+
+/**
+ * Runs the reader tests against a BigWig file converted from the test Wig file
+ */
+public class BigWigFileWriterTest extends AbstractWigFileReaderTest {
+
+  public static final Path TEST_ASSEMBLY = Paths.get("test/fixtures/test.len");
+
+  private static Path bw;
+
+  @BeforeClass
+  public static void convert() throws Exception {
+    bw = Files.createTempFile("test", ".bw");
+    try (WigFileReader wig = new TextWigFileReader(TextWigFileReaderTest.TEST_WIG);
+        BigWigFileWriter writer = new BigWigFileWriter(bw, new Assembly(TEST_ASSEMBLY), 2)) {
+      // Write in small windows to exercise many contigs per chromosome
+      for (Contig window : wig.windows(5)) {
+        writer.write(window);
+      }
+    }
+  }
+
+  @AfterClass
+  public static void deleteBigWig() throws Exception {
+    Files.deleteIfExists(bw);
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    test = new BigWigFileReader(bw);
+  }
+
+  @Test
+  public void testMatchesWig() throws Exception {
+    try (WigFileReader wig = new TextWigFileReader(TextWigFileReaderTest.TEST_WIG)) {
+      assertEquals(wig.chromosomes(), test.chromosomes());
+      for (String chr : wig.chromosomes()) {
+        assertEquals(wig.getChrStart(chr), test.getChrStart(chr));
+        assertEquals(wig.getChrStop(chr), test.getChrStop(chr));
+        Interval interval = new Interval(chr, wig.getChrStart(chr), wig.getChrStop(chr));
+        assertArrayEquals(wig.query(interval).getValues(), test.query(interval).getValues(), 0f);
+      }
+      assertEquals(wig.numBases(), test.numBases());
+      assertEquals(wig.total(), test.total(), 1e-4);
+      assertEquals(wig.min(), test.min(), 0);
+      assertEquals(wig.max(), test.max(), 0);
+    }
+  }
+
+  @Test
+  public void testZoomLevels() {
+    BigWigFileReader reader = (BigWigFileReader) test;
+    int level = reader.getZoomLevel(2 * BigWigFileWriter.INITIAL_REDUCTION);
+    assertEquals(1, level);
+    Interval interval = new Interval("chrXI", 1, 2 * BigWigFileWriter.INITIAL_REDUCTION * 4);
+    StatsAccumulator[] zoom = reader.querySummary(interval, 4);
+    StatsAccumulator[] raw = reader.querySummary(interval, interval.length());
+    StatsAccumulator total = new StatsAccumulator();
+    for (StatsAccumulator s : raw) {
+      total.merge(s);
+    }
+    StatsAccumulator zoomTotal = new StatsAccumulator();
+    for (StatsAccumulator s : zoom) {
+      zoomTotal.merge(s);
+    }
+    assertEquals(total.getN(), zoomTotal.getN());
+    assertEquals(total.getSum(), zoomTotal.getSum(), 1e-3);
+    assertEquals(total.getMin(), zoomTotal.getMin(), 0);
+    assertEquals(total.getMax(), zoomTotal.getMax(), 0);
+  }
+
+  @Test
+  public void testMultiLevelIndex() throws Exception {
+    // Enough sections for the R-tree to need more than one level
+    float[] values = new float[400_000];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = i % 7;
+    }
+    Path tmp = Files.createTempFile("test", ".bw");
+    try {
+      try (BigWigFileWriter writer = new BigWigFileWriter(tmp, new Assembly(TEST_ASSEMBLY), 2)) {
+        writer.write(new Contig(new Interval("chrIV", 1, values.length), values));
+      }
+      try (WigFileReader reader = new BigWigFileReader(tmp)) {
+        assertEquals(values.length, reader.numBases());
+        for (int start : new int[] { 1, 1000, 262_000, 399_990 }) {
+          Contig result = reader.query("chrIV", start, start + 10);
+          for (int bp = start; bp <= start + 10; bp++) {
+            float expected = (bp <= values.length) ? values[bp - 1] : Float.NaN;
+            assertEquals(expected, result.get(bp), 0);
+          }
+        }
+      }
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testOutOfOrder() throws Exception {
+    Path tmp = Files.createTempFile("test", ".bw");
+    try (BigWigFileWriter writer = new BigWigFileWriter(tmp, new Assembly(TEST_ASSEMBLY), 1)) {
+      writer.write(new Contig(new Interval("chrI", 10, 12), new float[] { 1, 2, 3 }));
+      writer.write(new Contig(new Interval("chrI", 5, 7), new float[] { 1, 2, 3 }));
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testChromosomeNotConsecutive() throws Exception {
+    Path tmp = Files.createTempFile("test", ".bw");
+    try (BigWigFileWriter writer = new BigWigFileWriter(tmp, new Assembly(TEST_ASSEMBLY), 1)) {
+      writer.write(new Contig(new Interval("chrI", 10, 12), new float[] { 1, 2, 3 }));
+      writer.write(new Contig(new Interval("chrII", 10, 12), new float[] { 1, 2, 3 }));
+      writer.write(new Contig(new Interval("chrI", 20, 22), new float[] { 1, 2, 3 }));
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownChromosome() throws Exception {
+    Path tmp = Files.createTempFile("test", ".bw");
+    try (BigWigFileWriter writer = new BigWigFileWriter(tmp, new Assembly(TEST_ASSEMBLY), 1)) {
+      writer.write(new Contig(new Interval("chrZ", 10, 12), new float[] { 1, 2, 3 }));
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+}
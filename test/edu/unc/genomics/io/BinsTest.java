@@ -0,0 +1,43 @@
+package edu.unc.genomics.io;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import edu.unc.genomics.Interval;
+
+public class BinsTest {
+
+  @Test
+  public void testBins() {
+    Bins bins = new Bins(new Interval("chrI", 11, 20), 3);
+    assertEquals(3, bins.size());
+    assertEquals(11, bins.start(0));
+    assertEquals(13, bins.stop(0));
+    assertEquals(14, bins.start(1));
+    assertEquals(16, bins.stop(1));
+    assertEquals(17, bins.start(2));
+    assertEquals(20, bins.stop(2));
+  }
+
+  @Test
+  public void testIndexOf() {
+    for (int length = 1; length < 50; length++) {
+      for (int numBins = 1; numBins <= length; numBins++) {
+        Bins bins = new Bins(new Interval("chrI", 100, 100 + length - 1), numBins);
+        for (int i = 0; i < numBins; i++) {
+          for (int bp = bins.start(i); bp <= bins.stop(i); bp++) {
+            assertEquals(i, bins.indexOf(bp));
+          }
+        }
+        assertEquals(100 + length - 1, bins.stop(numBins - 1));
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTooManyBins() {
+    new Bins(new Interval("chrI", 1, 10), 11);
+  }
+
+}
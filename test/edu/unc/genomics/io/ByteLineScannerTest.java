@@ -0,0 +1,116 @@
+package edu.unc.genomics.io;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ByteLineScannerTest {
+
+  private Path tmp;
+  private MappedFileBuffer mapped;
+
+  @After
+  public void tearDown() throws Exception {
+    if (mapped != null) {
+      mapped.close();
+    }
+    if (tmp != null) {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  private ByteLineScanner scan(String contents) throws IOException {
+    tmp = Files.createTempFile("scanner", ".txt");
+    try (BufferedWriter writer = Files.newBufferedWriter(tmp, Charset.defaultCharset())) {
+      writer.write(contents);
+    }
+    mapped = new MappedFileBuffer(tmp);
+    return new ByteLineScanner(mapped);
+  }
+
+  @Test
+  public void testNextFloatMatchesParseFloat() throws IOException {
+    Random rand = new Random(42);
+    List<String> values = new ArrayList<>();
+    for (int i = 0; i < 20_000; i++) {
+      values.add(String.valueOf(rand.nextFloat() * Math.pow(10, rand.nextInt(20) - 10)));
+      values.add(String.valueOf(-rand.nextDouble() * rand.nextInt(100_000)));
+      values.add(String.format("%." + rand.nextInt(9) + "f", rand.nextGaussian() * 100));
+      values.add(String.valueOf(Float.intBitsToFloat(rand.nextInt())));
+    }
+    values.add("0");
+    values.add("-0.0");
+    values.add("1e-45");
+    values.add("3.4028236e38");
+    values.add("123456789012345678901234567890");
+    values.add(".5");
+    values.add("7.");
+
+    StringBuilder contents = new StringBuilder();
+    for (String value : values) {
+      contents.append(value).append('\n');
+    }
+    ByteLineScanner scanner = scan(contents.toString());
+
+    for (String value : values) {
+      float expected = Float.parseFloat(value);
+      assertEquals(value, Float.floatToIntBits(expected), Float.floatToIntBits(scanner.nextFloat()));
+      scanner.skipLine();
+    }
+    assertFalse(scanner.hasRemaining());
+  }
+
+  @Test
+  public void testNextFloatSpecialValues() throws IOException {
+    ByteLineScanner scanner = scan("NaN\nInf\n-Inf\nInfinity\n2.5e3");
+    assertTrue(Float.isNaN(scanner.nextFloat()));
+    scanner.skipLine();
+    assertEquals(Float.POSITIVE_INFINITY, scanner.nextFloat(), 0);
+    scanner.skipLine();
+    assertEquals(Float.NEGATIVE_INFINITY, scanner.nextFloat(), 0);
+    scanner.skipLine();
+    assertEquals(Float.POSITIVE_INFINITY, scanner.nextFloat(), 0);
+    scanner.skipLine();
+    assertEquals(2500, scanner.nextFloat(), 0);
+    assertFalse(scanner.hasRemaining());
+  }
+
+  @Test(expected = NumberFormatException.class)
+  public void testNextFloatInvalid() throws IOException {
+    scan("abc\n").nextFloat();
+  }
+
+  @Test
+  public void testVariableStepEntries() throws IOException {
+    ByteLineScanner scanner = scan("100\t5\r\n101 6.5\rvariableStep chrom=chrI\n");
+    assertFalse(scanner.isHeaderLine());
+    assertEquals(100, scanner.nextInt());
+    assertEquals(5, scanner.nextFloat(), 0);
+    scanner.skipLine();
+    assertEquals(101, scanner.nextInt());
+    assertEquals(6.5, scanner.nextFloat(), 0);
+    scanner.skipLine();
+    assertTrue(scanner.isHeaderLine());
+  }
+
+  @Test
+  public void testSeek() throws IOException {
+    ByteLineScanner scanner = scan("1\n22\n333\n");
+    scanner.seek(5);
+    assertEquals(5, scanner.getPosition());
+    assertEquals(333, scanner.nextInt());
+    scanner.skipLine();
+    assertFalse(scanner.hasRemaining());
+  }
+
+}
@@ -0,0 +1,55 @@
+package edu.unc.genomics.io;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.unc.genomics.Interval;
+
+public class ChromosomeContigsTest {
+
+  private ContigIndex a, b, c, d;
+  private ChromosomeContigs contigs;
+
+  @Before
+  public void setUp() {
+    a = new FixedStepContigIndex("chrI", 1, 1000, 1, 1);
+    b = new VariableStepContigIndex("chrI", 10, 20, 5);
+    c = new FixedStepContigIndex("chrI", 2000, 2100, 2, 4);
+    d = new FixedStepContigIndex("chrI", 1500, 1600, 1, 2);
+    contigs = new ChromosomeContigs(Arrays.asList(c, a, d, b));
+  }
+
+  @Test
+  public void testGetContigsSortedByStart() {
+    assertEquals(Arrays.asList(a, b, d, c), contigs.getContigs());
+  }
+
+  @Test
+  public void testGetOverlapping() {
+    assertEquals(Arrays.asList(a, b), contigs.getOverlapping(new Interval("chrI", 15, 15)));
+    assertEquals(Arrays.asList(a), contigs.getOverlapping(new Interval("chrI", 500, 1400)));
+    assertEquals(Arrays.asList(a, d, c), contigs.getOverlapping(new Interval("chrI", 1000, 2000)));
+    assertEquals(Arrays.asList(c), contigs.getOverlapping(new Interval("chrI", 2100, 3000)));
+  }
+
+  @Test
+  public void testGetOverlappingNone() {
+    List<ContigIndex> result = contigs.getOverlapping(new Interval("chrI", 1100, 1400));
+    assertTrue(result.isEmpty());
+    assertTrue(contigs.getOverlapping(new Interval("chrI", 2101, 3000)).isEmpty());
+  }
+
+  @Test
+  public void testExtents() {
+    assertEquals(1, contigs.getStart());
+    assertEquals(2100, contigs.getStop());
+    assertEquals(1, contigs.getStep());
+    assertEquals(1, contigs.getSpan());
+  }
+
+}
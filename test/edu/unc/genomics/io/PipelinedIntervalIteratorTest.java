@@ -0,0 +1,146 @@
+package edu.unc.genomics.io;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.unc.genomics.BedEntry;
+
+public class PipelinedIntervalIteratorTest {
+
+  private final BedFileReader.BedEntryFactory factory = new BedFileReader.BedEntryFactory();
+
+  /**
+   * Lines that throw an IOException after a number of lines
+   */
+  private static class Lines implements LineReader {
+    private final List<String> lines;
+    private final int failAt;
+    private int i = 0;
+
+    Lines(List<String> lines, int failAt) {
+      this.lines = lines;
+      this.failAt = failAt;
+    }
+
+    @Override
+    public String readLine() throws IOException {
+      if (i == failAt) {
+        throw new IOException("Disk read error");
+      }
+      return (i < lines.size()) ? lines.get(i++) : null;
+    }
+  }
+
+  private static List<String> bedLines(int n) {
+    List<String> lines = new ArrayList<>();
+    lines.add("track name=test");
+    for (int i = 0; i < n; i++) {
+      lines.add("chr" + (i % 3) + "\t" + i + "\t" + (i + 100) + "\tentry" + i + "\t" + i % 17 + "\t+");
+      if (i % 1000 == 0) {
+        lines.add("#comment");
+      }
+    }
+    return lines;
+  }
+
+  private static List<String> toStrings(Iterator<BedEntry> it) {
+    List<String> entries = new ArrayList<>();
+    while (it.hasNext()) {
+      entries.add(it.next().toOutput());
+    }
+    return entries;
+  }
+
+  @Test
+  public void testSameAsSerial() {
+    List<String> lines = bedLines(20_000);
+    List<String> expected = toStrings(new StringIntervalIterator<>(lines.iterator(), factory));
+    assertEquals(20_000, expected.size());
+
+    int[][] configs = { { 1, 1, 1 }, { 4, 7, 1 }, { 3, 100, 2 }, { 8, 4096, 16 }, { 2, 50_000, 4 } };
+    for (int[] config : configs) {
+      try (PipelinedIntervalIterator<BedEntry> it = new PipelinedIntervalIterator<>(new Lines(lines, -1), factory,
+          config[0], config[1], config[2])) {
+        assertEquals(expected, toStrings(it));
+        assertFalse(it.hasNext());
+      }
+    }
+  }
+
+  @Test
+  public void testEmpty() {
+    try (PipelinedIntervalIterator<BedEntry> it = new PipelinedIntervalIterator<>(new Lines(new ArrayList<String>(),
+        -1), factory, 2)) {
+      assertFalse(it.hasNext());
+    }
+  }
+
+  @Test
+  public void testCloseEarly() {
+    List<String> lines = bedLines(100_000);
+    PipelinedIntervalIterator<BedEntry> it = new PipelinedIntervalIterator<>(new Lines(lines, -1), factory, 2, 10, 2);
+    for (int i = 0; i < 25; i++) {
+      assertEquals(i + 1, it.next().getStart());
+    }
+    it.close();
+    assertFalse(it.hasNext());
+  }
+
+  @Test
+  public void testReadError() {
+    List<String> lines = bedLines(10_000);
+    int n = 0;
+    try (PipelinedIntervalIterator<BedEntry> it = new PipelinedIntervalIterator<>(new Lines(lines, 5000), factory, 4,
+        64, 4)) {
+      while (it.hasNext()) {
+        it.next();
+        n++;
+      }
+      fail("Read error was not reported");
+    } catch (RuntimeException e) {
+      assertTrue(e.getCause() instanceof IOException);
+    }
+
+    // Every line before the error is returned first
+    assertEquals(4994, n);
+  }
+
+  @Test(expected = NumberFormatException.class)
+  public void testParseError() {
+    List<String> lines = bedLines(10_000);
+    lines.set(7777, "chrI\tnotanumber\t10");
+    try (PipelinedIntervalIterator<BedEntry> it = new PipelinedIntervalIterator<>(new Lines(lines, -1), factory, 4)) {
+      while (it.hasNext()) {
+        it.next();
+      }
+    }
+  }
+
+  @Test
+  public void testReaderProperty() throws IOException {
+    List<String> expected = new ArrayList<>();
+    try (BedFileReader reader = new BedFileReader(BedFileReaderTest.TEST_BED)) {
+      for (BedEntry entry : reader) {
+        expected.add(entry.toOutput());
+      }
+    }
+
+    System.setProperty(TextIntervalFileReader.PARSE_THREADS_PROPERTY, "3");
+    try (BedFileReader reader = new BedFileReader(BedFileReaderTest.TEST_BED)) {
+      List<String> actual = new ArrayList<>();
+      for (BedEntry entry : reader) {
+        actual.add(entry.toOutput());
+      }
+      assertEquals(expected, actual);
+    } finally {
+      System.clearProperty(TextIntervalFileReader.PARSE_THREADS_PROPERTY);
+    }
+  }
+
+}
@@ -0,0 +1,148 @@
+package edu.unc.genomics.io;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Iterator;
+
+import net.sf.samtools.TabixReader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.unc.genomics.BedEntry;
+
+public class TabixCacheTest {
+
+  private Path cacheDir;
+  private Path bed;
+  private int conversions;
+
+  private final TabixCache.Converter converter = new TabixCache.Converter() {
+    @Override
+    public void convert(Path output) throws IOException {
+      conversions++;
+      Files.write(output, new byte[] { 1 });
+      Files.write(output.resolveSibling(output.getFileName() + TabixReader.DEFAULT_INDEX_EXTENSION), new byte[] { 2 });
+    }
+  };
+
+  @Before
+  public void setUp() throws IOException {
+    cacheDir = Files.createTempDirectory("tabixCache");
+    System.setProperty(TabixCache.CACHE_DIR_PROPERTY, cacheDir.toString());
+    bed = Files.createTempFile("test", ".bed");
+    Files.copy(BedFileReaderTest.TEST_BED, bed, StandardCopyOption.REPLACE_EXISTING);
+    conversions = 0;
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    System.clearProperty(TabixCache.CACHE_DIR_PROPERTY);
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(cacheDir)) {
+      for (Path p : files) {
+        Files.delete(p);
+      }
+    }
+    Files.delete(cacheDir);
+    Files.deleteIfExists(bed);
+  }
+
+  @Test
+  public void testConvertsOnce() throws IOException {
+    Path first = TabixCache.get(bed, "bed", converter);
+    Path second = TabixCache.get(bed, "bed", converter);
+    assertEquals(1, conversions);
+    assertEquals(first, second);
+    assertEquals(cacheDir, first.getParent());
+    assertTrue(Files.exists(first.resolveSibling(first.getFileName() + TabixReader.DEFAULT_INDEX_EXTENSION)));
+  }
+
+  @Test
+  public void testVariants() throws IOException {
+    Path bedCopy = TabixCache.get(bed, "bed", converter);
+    Path bedGraphCopy = TabixCache.get(bed, "bedGraph", converter);
+    assertEquals(2, conversions);
+    assertFalse(bedCopy.equals(bedGraphCopy));
+  }
+
+  @Test
+  public void testModifiedFile() throws IOException {
+    Path first = TabixCache.get(bed, "bed", converter);
+    Files.setLastModifiedTime(bed, FileTime.fromMillis(Files.getLastModifiedTime(bed).toMillis() + 10_000));
+    Path second = TabixCache.get(bed, "bed", converter);
+    assertEquals(2, conversions);
+    assertFalse(first.equals(second));
+
+    // The copy of the previous version is deleted
+    assertFalse(Files.exists(first));
+    assertFalse(Files.exists(first.resolveSibling(first.getFileName() + TabixReader.DEFAULT_INDEX_EXTENSION)));
+    assertEquals(2, cacheDir.toFile().list().length);
+  }
+
+  @Test
+  public void testPrunesExpiredFiles() throws IOException {
+    Path other = Files.createTempFile("other", ".bed");
+    try {
+      Path otherCopy = TabixCache.get(other, "bed", converter);
+      long old = System.currentTimeMillis() - 60L * 24 * 60 * 60 * 1000;
+      Files.setLastModifiedTime(otherCopy, FileTime.fromMillis(old));
+
+      // Temporary files left by a conversion that was killed
+      String hashes = ".0123456789abcdef.fedcba9876543210.gz";
+      Path staleTmp = Files.createFile(cacheDir.resolve("killed.bed" + hashes + "123.tmp"));
+      Files.setLastModifiedTime(staleTmp, FileTime.fromMillis(old));
+      Path freshTmp = Files.createFile(cacheDir.resolve("running.bed" + hashes + "456.tmp"));
+
+      // Files that the cache did not create are never deleted
+      Path[] unrelated = { cacheDir.resolve("unrelated.txt"), cacheDir.resolve("data.bed.gz"),
+          cacheDir.resolve("orphan.vcf.gz" + TabixReader.DEFAULT_INDEX_EXTENSION), cacheDir.resolve("notes.tmp") };
+      for (Path f : unrelated) {
+        Files.createFile(f);
+        Files.setLastModifiedTime(f, FileTime.fromMillis(old));
+      }
+
+      Path copy = TabixCache.get(bed, "bed", converter);
+      assertFalse(Files.exists(otherCopy));
+      assertFalse(Files.exists(otherCopy.resolveSibling(otherCopy.getFileName()
+          + TabixReader.DEFAULT_INDEX_EXTENSION)));
+      assertFalse(Files.exists(staleTmp));
+      assertTrue(Files.exists(freshTmp));
+      for (Path f : unrelated) {
+        assertTrue(f.toString(), Files.exists(f));
+      }
+      assertTrue(Files.exists(copy));
+    } finally {
+      Files.deleteIfExists(other);
+    }
+  }
+
+  @Test
+  public void testReaderInstances() throws IOException {
+    int expected = 0;
+    try (BedFileReader reader = new BedFileReader(bed)) {
+      for (Iterator<BedEntry> it = reader.iterator(); it.hasNext(); it.next()) {
+        expected++;
+      }
+    }
+    try (BedFileReader reader = new BedFileReader(bed)) {
+      assertEquals(expected, reader.count());
+    }
+    String[] cached = cacheDir.toFile().list();
+
+    // A second reader uses the cached copy
+    try (BedFileReader reader = new BedFileReader(bed)) {
+      Iterator<BedEntry> it = reader.query("chrI", 1, 100);
+      assertTrue(it.hasNext());
+    }
+    assertArrayEquals(cached, cacheDir.toFile().list());
+    assertEquals(2, cached.length);
+  }
+
+}
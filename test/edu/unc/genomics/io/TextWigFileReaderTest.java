@@ -1,17 +1,126 @@
 package edu.unc.genomics.io;
 
+import static org.junit.Assert.*;
+
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
 
 import org.junit.Before;
+import org.junit.Test;
+
+import edu.unc.genomics.Contig;
+import edu.unc.genomics.Interval;
+import edu.unc.genomics.io.TextWigFileReader.IndexValidation;
 
 public class TextWigFileReaderTest extends AbstractWigFileReaderTest {
 
   public static final Path TEST_WIG = Paths.get("test/fixtures/test.wig");
+  public static final Path TEST_INDEX = TEST_WIG.resolveSibling(TEST_WIG.getFileName()
+      + TextWigFileReader.INDEX_EXTENSION);
 
   @Before
   public void setUp() throws Exception {
     test = new TextWigFileReader(TEST_WIG);
   }
 
+  @Test
+  public void testRegenerateInvalidIndex() throws Exception {
+    test.close();
+    Files.write(TEST_INDEX, new byte[] { (byte) 0xAC, (byte) 0xED, 0, 5, 1, 2, 3 });
+    test = new TextWigFileReader(TEST_WIG);
+    assertEquals(5.0f, test.query("chrI", 5, 5).get(5), 0);
+    try (DataInputStream dis = new DataInputStream(Files.newInputStream(TEST_INDEX))) {
+      assertEquals(TextWigIndex.MAGIC, dis.readLong());
+    }
+  }
+
+  @Test
+  public void testStrictValidation() throws Exception {
+    test.close();
+    // The fast index is regenerated with a full checksum, and then reused
+    test = new TextWigFileReader(TEST_WIG, IndexValidation.STRICT);
+    assertEquals(IndexValidation.STRICT, TextWigIndex.load(TEST_INDEX).getFingerprint().getValidation());
+    test.close();
+    test = new TextWigFileReader(TEST_WIG);
+    assertEquals(IndexValidation.STRICT, TextWigIndex.load(TEST_INDEX).getFingerprint().getValidation());
+    assertEquals(5.0f, test.query("chrI", 5, 5).get(5), 0);
+  }
+
+  @Test
+  public void testRegenerateModifiedIndex() throws Exception {
+    test.close();
+    Path tmp = Files.createTempFile("test", ".wig");
+    Path tmpIndex = tmp.resolveSibling(tmp.getFileName() + TextWigFileReader.INDEX_EXTENSION);
+    try {
+      Files.write(tmp, "fixedStep chrom=chrI start=1 step=1 span=1\n1\n2\n".getBytes());
+      test = new TextWigFileReader(tmp);
+      assertEquals(2, test.numBases());
+      test.close();
+
+      Files.write(tmp, "fixedStep chrom=chrI start=1 step=1 span=1\n1\n2\n3\n".getBytes());
+      test = new TextWigFileReader(tmp);
+      assertEquals(3, test.numBases());
+    } finally {
+      test.close();
+      test = null;
+      Files.deleteIfExists(tmp);
+      Files.deleteIfExists(tmpIndex);
+    }
+  }
+
+  @Test(expected = WigFileFormatException.class)
+  public void testEmptyFile() throws Exception {
+    Path empty = Files.createTempFile("empty", ".wig");
+    try {
+      new TextWigFileReader(empty).close();
+    } finally {
+      Files.deleteIfExists(empty);
+    }
+  }
+
+  @Test
+  public void testBatchQueryWithGaps() throws Exception {
+    // Enough entries for several index checkpoints in each contig
+    Path wig = Files.createTempFile("test", ".wig");
+    Path idx = wig.resolveSibling(wig.getFileName() + TextWigFileReader.INDEX_EXTENSION);
+    try (BufferedWriter writer = Files.newBufferedWriter(wig, StandardCharsets.US_ASCII)) {
+      writer.write("fixedStep chrom=chrI start=1 step=3 span=2\n");
+      for (int i = 0; i < 20_000; i++) {
+        writer.write(i % 7 + "\n");
+      }
+      writer.write("variableStep chrom=chrII span=3\n");
+      for (int bp = 5; bp < 100_000; bp += 1 + bp % 5) {
+        writer.write(bp + "\t" + bp % 11 + "\n");
+      }
+    }
+
+    try (WigFileReader reader = new TextWigFileReader(wig)) {
+      Random rng = new Random(7);
+      List<Interval> intervals = new ArrayList<>();
+      for (int i = 0; i < 500; i++) {
+        String chr = rng.nextBoolean() ? "chrI" : "chrII";
+        int start = 1 + rng.nextInt(59_000);
+        int length = 1 + rng.nextInt(50);
+        intervals.add(rng.nextBoolean() ? new Interval(chr, start, start + length) : new Interval(chr, start
+            + length, start));
+      }
+
+      Iterator<Contig> it = reader.query(intervals);
+      for (Interval interval : intervals) {
+        assertArrayEquals(interval.toString(), reader.query(interval).getValues(), it.next().getValues(), 0f);
+      }
+    } finally {
+      Files.deleteIfExists(wig);
+      Files.deleteIfExists(idx);
+    }
+  }
+
 }
@@ -0,0 +1,123 @@
+package edu.unc.genomics.io;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.unc.genomics.io.TextWigFileReader.IndexValidation;
+
+public class TextWigIndexTest {
+
+  private Path tmp;
+  private TextWigIndex.Fingerprint fingerprint;
+  private TextWigIndex index;
+
+  @Before
+  public void setUp() throws IOException {
+    tmp = Files.createTempFile("test", TextWigFileReader.INDEX_EXTENSION);
+
+    FixedStepContigIndex fixed = new FixedStepContigIndex("chrI", 1, 100_000, 2, 5);
+    fixed.setStartLine(2);
+    fixed.setStopLine(20_001);
+    fixed.storeIndex(1, 30);
+    fixed.storeIndex(50_001, 123_456_789_012L);
+    VariableStepContigIndex variable = new VariableStepContigIndex("chrII", 10, 20, 1);
+    variable.setStartLine(20_003);
+    variable.setStopLine(20_006);
+    Map<String, ChromosomeContigs> contigs = new HashMap<>();
+    contigs.put("chrI", new ChromosomeContigs(Arrays.<ContigIndex> asList(fixed)));
+    contigs.put("chrII", new ChromosomeContigs(Arrays.<ContigIndex> asList(variable)));
+
+    SummaryStatistics stats = new SummaryStatistics();
+    for (int i = 1; i <= 10; i++) {
+      stats.addValue(i);
+    }
+    fingerprint = new TextWigIndex.Fingerprint(IndexValidation.STRICT, 1000, 123, 17, 42);
+    index = new TextWigIndex(fingerprint, stats, contigs);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(tmp);
+  }
+
+  @Test
+  public void testSaveAndLoad() throws IOException, WigFileException {
+    index.save(tmp);
+    TextWigIndex loaded = TextWigIndex.load(tmp);
+
+    assertEquals(IndexValidation.STRICT, loaded.getFingerprint().getValidation());
+    assertTrue(fingerprint.validates(loaded.getFingerprint()));
+    assertEquals(10, loaded.getStats().getN());
+    assertEquals(55, loaded.getStats().getSum(), 0);
+    assertEquals(5.5, loaded.getStats().getMean(), 0);
+    assertEquals(index.getStats().getVariance(), loaded.getStats().getVariance(), 0);
+    assertEquals(1, loaded.getStats().getMin(), 0);
+    assertEquals(10, loaded.getStats().getMax(), 0);
+
+    assertEquals(index.getContigs().keySet(), loaded.getContigs().keySet());
+    List<ContigIndex> chrI = loaded.getContigs().get("chrI").getContigs();
+    assertEquals(1, chrI.size());
+    FixedStepContigIndex fixed = (FixedStepContigIndex) chrI.get(0);
+    assertEquals(1, fixed.getStart());
+    assertEquals(100_000, fixed.getStop());
+    assertEquals(2, fixed.getSpan());
+    assertEquals(5, fixed.getStep());
+    assertEquals(2, fixed.getStartLine());
+    assertEquals(20_001, fixed.getStopLine());
+    assertArrayEquals(new int[] { 1, 50_001 }, fixed.getIndexedBPs());
+    assertEquals(123_456_789_012L, fixed.getIndex(50_001));
+
+    ContigIndex variable = loaded.getContigs().get("chrII").getContigs().get(0);
+    assertTrue(variable.isVariableStep());
+    assertEquals(10, variable.getStart());
+    assertEquals(20, variable.getStop());
+    assertEquals(20_003, variable.getStartLine());
+    assertEquals(0, variable.numIndexed());
+  }
+
+  @Test
+  public void testFingerprintValidates() {
+    TextWigIndex.Fingerprint fast = new TextWigIndex.Fingerprint(IndexValidation.FAST, 1000, 123, 17, 0);
+    assertTrue(fast.validates(fingerprint));
+    assertTrue(fast.validates(fast));
+    assertFalse(fast.validates(new TextWigIndex.Fingerprint(IndexValidation.FAST, 1001, 123, 17, 0)));
+    assertFalse(fast.validates(new TextWigIndex.Fingerprint(IndexValidation.FAST, 1000, 124, 17, 0)));
+    assertFalse(fast.validates(new TextWigIndex.Fingerprint(IndexValidation.FAST, 1000, 123, 18, 0)));
+
+    // Strict validation requires an index with a full checksum
+    assertFalse(fingerprint.validates(fast));
+    assertTrue(fingerprint.validates(new TextWigIndex.Fingerprint(IndexValidation.STRICT, 1000, 999, 99, 42)));
+    assertFalse(fingerprint.validates(new TextWigIndex.Fingerprint(IndexValidation.STRICT, 1000, 123, 17, 43)));
+  }
+
+  @Test(expected = WigFileException.class)
+  public void testLoadSerializedIndex() throws IOException, WigFileException {
+    try (ObjectOutputStream oos = new ObjectOutputStream(Files.newOutputStream(tmp))) {
+      oos.writeLong(7);
+      oos.writeLong(42);
+    }
+    TextWigIndex.load(tmp);
+  }
+
+  @Test(expected = WigFileException.class)
+  public void testLoadTruncatedIndex() throws IOException, WigFileException {
+    index.save(tmp);
+    byte[] bytes = Files.readAllBytes(tmp);
+    Files.write(tmp, Arrays.copyOf(bytes, TextWigIndex.HEADER_SIZE + 10));
+    TextWigIndex.load(tmp);
+  }
+
+}
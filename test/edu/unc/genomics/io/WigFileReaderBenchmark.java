@@ -0,0 +1,118 @@
+package edu.unc.genomics.io;
+
+import java.io.BufferedWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.unc.genomics.Interval;
+
+/**
+ * Measures query throughput when many threads share a single WigFileReader.
+ * Not run as part of the unit tests.
+ *
+ * Usage: java edu.unc.genomics.io.WigFileReaderBenchmark [file.wig|file.bw]
+ * [queryLength] [secondsPerRun]
+ *
+ * If no file is given, a synthetic fixedStep Wig file is generated.
+ *
+ * @author timpalpant
+ *
+ */
+public class WigFileReaderBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    Path p;
+    if (args.length > 0) {
+      p = Paths.get(args[0]);
+    } else {
+      p = Files.createTempFile("benchmark", ".wig");
+      p.toFile().deleteOnExit();
+      p.resolveSibling(p.getFileName() + TextWigFileReader.INDEX_EXTENSION).toFile().deleteOnExit();
+      generate(p, 4, 5_000_000);
+    }
+    int queryLength = (args.length > 1) ? Integer.parseInt(args[1]) : 10_000;
+    long millisPerRun = 1000L * ((args.length > 2) ? Integer.parseInt(args[2]) : 3);
+
+    try (final WigFileReader reader = WigFileReader.autodetect(p)) {
+      final List<Interval> extents = new ArrayList<>();
+      for (String chr : reader.chromosomes()) {
+        extents.add(reader.getChrExtents(chr));
+      }
+
+      // Warm up
+      run(reader, extents, queryLength, 1, millisPerRun);
+
+      int maxThreads = Runtime.getRuntime().availableProcessors();
+      double baseline = 0;
+      System.out.println("threads\tqueries/s\tspeedup");
+      for (int threads = 1; threads <= maxThreads; threads *= 2) {
+        double throughput = run(reader, extents, queryLength, threads, millisPerRun);
+        if (threads == 1) {
+          baseline = throughput;
+        }
+        System.out.printf("%d\t%.0f\t%.2f%n", threads, throughput, throughput / baseline);
+      }
+    }
+  }
+
+  /**
+   * Query random intervals from the reader on a number of threads
+   *
+   * @return the total number of queries per second
+   */
+  private static double run(final WigFileReader reader, final List<Interval> extents, final int queryLength,
+      int threads, final long millis) throws Exception {
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    final long stop = System.currentTimeMillis() + millis;
+    List<Future<Long>> results = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      final Random rand = new Random(t);
+      results.add(pool.submit(new Callable<Long>() {
+        @Override
+        public Long call() throws Exception {
+          long n = 0;
+          while (System.currentTimeMillis() < stop) {
+            Interval extent = extents.get(rand.nextInt(extents.size()));
+            int start = extent.low() + rand.nextInt(Math.max(1, extent.length() - queryLength));
+            reader.query(extent.getChr(), start, start + queryLength - 1);
+            n++;
+          }
+          return n;
+        }
+      }));
+    }
+
+    long total = 0;
+    for (Future<Long> result : results) {
+      total += result.get();
+    }
+    pool.shutdown();
+    return 1000.0 * total / millis;
+  }
+
+  /**
+   * Write a synthetic fixedStep Wig file
+   */
+  private static void generate(Path p, int numChromosomes, int chrLength) throws Exception {
+    Random rand = new Random(0);
+    try (BufferedWriter writer = Files.newBufferedWriter(p, Charset.defaultCharset())) {
+      for (int i = 1; i <= numChromosomes; i++) {
+        writer.write("fixedStep chrom=chr" + i + " start=1 step=1 span=1\n");
+        for (int bp = 0; bp < chrLength; bp++) {
+          writer.write(String.valueOf(rand.nextInt(1000) / 10.0f));
+          writer.write('\n');
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,82 @@
+package edu.unc.genomics.io;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.DecimalFormat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.ucsc.genome.TrackHeader;
+import edu.unc.genomics.Contig;
+import edu.unc.genomics.Interval;
+
+public class WigFileWriterTest {
+
+  private Path tmp;
+
+  @Before
+  public void setUp() throws Exception {
+    tmp = Files.createTempFile("test", ".wig");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    Files.deleteIfExists(tmp);
+    Files.deleteIfExists(tmp.resolveSibling(tmp.getFileName() + TextWigFileReader.INDEX_EXTENSION));
+  }
+
+  @Test
+  public void testWriteFixedStep() throws Exception {
+    float[] values = { 1.5f, 0.1f, -2f, 1e-9f, Float.POSITIVE_INFINITY, 3.14159265f };
+    Contig contig = new Contig(new Interval("chrI", 11, 16), values);
+    TrackHeader header = TrackHeader.newWiggle();
+    try (WigFileWriter writer = new WigFileWriter(tmp, header)) {
+      writer.writeFixedStepContig(contig);
+    }
+
+    // The output is the same as formatting with a DecimalFormat
+    DecimalFormat formatter = WigFileWriter.newFormatter();
+    StringBuilder expected = new StringBuilder();
+    String eol = System.lineSeparator();
+    expected.append(header).append(eol).append(contig.getFixedStepHeader()).append(eol);
+    for (float value : values) {
+      expected.append(formatter.format(value)).append(eol);
+    }
+    assertEquals(expected.toString(), new String(Files.readAllBytes(tmp), Charset.defaultCharset()));
+  }
+
+  @Test
+  public void testWriteVariableStep() throws Exception {
+    Contig contig = new Contig(new Interval("chrI", 1, 10));
+    contig.set(3, 0.25f);
+    contig.set(8, 9, -7.125f);
+    try (WigFileWriter writer = new WigFileWriter(tmp)) {
+      writer.writeVariableStepContig(contig);
+    }
+
+    String eol = System.lineSeparator();
+    String expected = contig.getVariableStepHeader() + eol + "3\t0.25" + eol + "8\t-7.125" + eol + "9\t-7.125" + eol;
+    assertEquals(expected, new String(Files.readAllBytes(tmp), Charset.defaultCharset()));
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    float[] values = new float[100_000];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = (i % 13) / 8f;
+    }
+    try (WigFileWriter writer = new WigFileWriter(tmp)) {
+      writer.write(new Contig(new Interval("chrII", 1, values.length), values));
+    }
+
+    try (WigFileReader reader = new TextWigFileReader(tmp)) {
+      assertArrayEquals(values, reader.query("chrII", 1, values.length).getValues(), 0f);
+    }
+  }
+
+}
@@ -0,0 +1,130 @@
+package edu.unc.genomics.io;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WigIndexerTest {
+
+  private Path tmp;
+
+  @Before
+  public void setUp() throws IOException {
+    tmp = Files.createTempFile("indexer", ".wig");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(tmp);
+  }
+
+  private WigIndexer index(int numThreads, long minChunkSize) throws IOException {
+    try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.READ)) {
+      WigIndexer indexer = new WigIndexer(null, channel, numThreads, minChunkSize);
+      indexer.index();
+      return indexer;
+    }
+  }
+
+  private void write(String contents) throws IOException {
+    try (BufferedWriter writer = Files.newBufferedWriter(tmp, Charset.defaultCharset())) {
+      writer.write(contents);
+    }
+  }
+
+  @Test
+  public void testChunksMatchSequential() throws IOException {
+    Random rand = new Random(0);
+    StringBuilder contents = new StringBuilder("track type=wiggle_0\n");
+    for (int c = 0; c < 5; c++) {
+      String newline = (c % 2 == 0) ? "\n" : "\r\n";
+      if (c % 2 == 0) {
+        contents.append("fixedStep chrom=chr" + c + " start=" + (c + 1) + " step=3 span=2").append(newline);
+        for (int i = 0; i < 25_000 + rand.nextInt(1000); i++) {
+          contents.append(rand.nextInt(1000) / 10.0f).append(newline);
+        }
+      } else {
+        contents.append("variableStep chrom=chr" + c + " span=5").append(newline);
+        int bp = 10;
+        for (int i = 0; i < 25_000 + rand.nextInt(1000); i++) {
+          contents.append(bp).append('\t').append(rand.nextInt(1000) / 10.0f).append(newline);
+          bp += 5 + rand.nextInt(10);
+        }
+      }
+    }
+    write(contents.toString());
+
+    WigIndexer sequential = index(1, WigIndexer.MIN_CHUNK_SIZE);
+    WigIndexer parallel = index(4, 1000);
+
+    assertEquals(sequential.getStats().getN(), parallel.getStats().getN());
+    assertEquals(sequential.getStats().getSum(), parallel.getStats().getSum(), 1e-6);
+    assertEquals(sequential.getStats().getMean(), parallel.getStats().getMean(), 1e-9);
+    assertEquals(sequential.getStats().getVariance(), parallel.getStats().getVariance(), 1e-6);
+    assertEquals(sequential.getStats().getMin(), parallel.getStats().getMin(), 0);
+    assertEquals(sequential.getStats().getMax(), parallel.getStats().getMax(), 0);
+
+    Map<String, ChromosomeContigs> expected = sequential.getContigs();
+    Map<String, ChromosomeContigs> actual = parallel.getContigs();
+    assertEquals(5, expected.size());
+    assertEquals(expected.keySet(), actual.keySet());
+    for (String chr : expected.keySet()) {
+      List<ContigIndex> e = expected.get(chr).getContigs();
+      List<ContigIndex> a = actual.get(chr).getContigs();
+      assertEquals(1, a.size());
+      assertEquals(e.get(0).toOutput(), a.get(0).toOutput());
+      assertEquals(e.get(0).getStart(), a.get(0).getStart());
+      assertEquals(e.get(0).getStop(), a.get(0).getStop());
+      assertEquals(e.get(0).getStartLine(), a.get(0).getStartLine());
+      assertEquals(e.get(0).getStopLine(), a.get(0).getStopLine());
+      assertEquals(3, a.get(0).numIndexed());
+      assertArrayEquals(e.get(0).getIndexedBPs(), a.get(0).getIndexedBPs());
+      assertArrayEquals(e.get(0).getIndexedPositions(), a.get(0).getIndexedPositions());
+    }
+  }
+
+  @Test
+  public void testIndex() throws IOException {
+    write("track type=wiggle_0\nfixedStep chrom=chrI start=10 step=2 span=2\n1\n2\nNaN\nvariableStep chrom=chrII\n5 3\n9 4");
+    WigIndexer indexer = index(1, WigIndexer.MIN_CHUNK_SIZE);
+    assertEquals(6, indexer.getStats().getN());
+    assertEquals(13, indexer.getStats().getSum(), 1e-8);
+
+    ContigIndex fixed = indexer.getContigs().get("chrI").getContigs().get(0);
+    assertEquals(10, fixed.getStart());
+    assertEquals(15, fixed.getStop());
+    assertEquals(3, fixed.getStartLine());
+    assertEquals(5, fixed.getStopLine());
+    ContigIndex variable = indexer.getContigs().get("chrII").getContigs().get(0);
+    assertEquals(5, variable.getStart());
+    assertEquals(9, variable.getStop());
+    assertEquals(7, variable.getStartLine());
+    assertEquals(8, variable.getStopLine());
+  }
+
+  @Test(expected = WigFileFormatException.class)
+  public void testMissingHeader() throws IOException {
+    write("1.0\n2.0\n");
+    index(1, WigIndexer.MIN_CHUNK_SIZE);
+  }
+
+  @Test(expected = WigFileFormatException.class)
+  public void testInvalidValue() throws IOException {
+    write("fixedStep chrom=chrI start=10 step=2 span=2\n1\nabc\n");
+    index(1, WigIndexer.MIN_CHUNK_SIZE);
+  }
+
+}
@@ -3,8 +3,12 @@ package edu.unc.genomics.util;
 import static org.junit.Assert.*;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Random;
+import java.util.zip.CRC32;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -29,4 +33,41 @@ public class ChecksumUtilsTest {
     assertEquals(2455014470L, ChecksumUtils.crc32(TEST));
   }
 
+  @Test
+  public void testSampledCrc32() throws IOException {
+    // Small files are checksummed entirely, along with their size
+    CRC32 expected = new CRC32();
+    expected.update(ByteBuffer.allocate(8).putLong(Files.size(TEST)).array());
+    expected.update(Files.readAllBytes(TEST));
+    assertEquals(expected.getValue(), ChecksumUtils.sampledCrc32(TEST));
+  }
+
+  @Test
+  public void testSampled() throws IOException {
+    Path tmp = Files.createTempFile("checksum", ".txt");
+    try {
+      byte[] data = new byte[10_000];
+      new Random(0).nextBytes(data);
+      Files.write(tmp, data);
+      long checksum = ChecksumUtils.sampled(tmp, new CRC32(), 100, 4);
+      assertEquals(checksum, ChecksumUtils.sampled(tmp, new CRC32(), 100, 4));
+
+      // Changes in the sampled blocks are detected
+      data[9_999]++;
+      Files.write(tmp, data);
+      assertTrue(checksum != ChecksumUtils.sampled(tmp, new CRC32(), 100, 4));
+      data[9_999]--;
+      data[4_000]++;
+      Files.write(tmp, data);
+      assertTrue(checksum != ChecksumUtils.sampled(tmp, new CRC32(), 100, 4));
+      // But not elsewhere
+      data[4_000]--;
+      data[500]++;
+      Files.write(tmp, data);
+      assertEquals(checksum, ChecksumUtils.sampled(tmp, new CRC32(), 100, 4));
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
 }
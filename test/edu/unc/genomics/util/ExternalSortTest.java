@@ -0,0 +1,205 @@
+package edu.unc.genomics.util;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExternalSortTest {
+
+  private static final Charset cs = Charset.defaultCharset();
+
+  private static final ExternalSort.KeyExtractor keys = new ExternalSort.KeyExtractor() {
+    @Override
+    public boolean extract(String line, ExternalSort.SortKey key) {
+      String[] entry = line.split("\t");
+      key.chr = entry[0];
+      key.start = Integer.parseInt(entry[1]);
+      key.stop = Integer.parseInt(entry[2]);
+      return true;
+    }
+  };
+
+  private static final Comparator<String> keyOrder = new Comparator<String>() {
+    @Override
+    public int compare(String s1, String s2) {
+      String[] entry1 = s1.split("\t");
+      String[] entry2 = s2.split("\t");
+      int c = entry1[0].compareTo(entry2[0]);
+      if (c == 0) {
+        c = Integer.compare(Integer.parseInt(entry1[1]), Integer.parseInt(entry2[1]));
+      }
+      if (c == 0) {
+        c = Integer.compare(Integer.parseInt(entry1[2]), Integer.parseInt(entry2[2]));
+      }
+      return c;
+    }
+  };
+
+  private final List<Path> inputs = new ArrayList<>();
+  private final List<String> allLines = new ArrayList<>();
+  private int fanIn;
+
+  @Before
+  public void setUp() throws IOException {
+    fanIn = ExternalSort.DEFAULTMERGEFANIN;
+    ExternalSort.DEFAULTMERGEFANIN = 3;
+
+    // Many small inputs, each of which is sorted into one run. Some
+    // chromosomes only appear in some of the runs.
+    Random rng = new Random(7);
+    for (int i = 0; i < 20; i++) {
+      List<String> lines = new ArrayList<>();
+      for (int j = 0; j < 200; j++) {
+        lines.add("chr" + rng.nextInt(2 + i % 5) + "\t" + rng.nextInt(50) + "\t" + rng.nextInt(3) + "\tline" + i + "_"
+            + j);
+      }
+      Path input = Files.createTempFile("input", ".txt");
+      Files.write(input, lines, cs);
+      inputs.add(input);
+      allLines.addAll(lines);
+    }
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    ExternalSort.DEFAULTMERGEFANIN = fanIn;
+    for (Path input : inputs) {
+      Files.deleteIfExists(input);
+    }
+  }
+
+  private static ExternalSort.LineWriter collect(final List<String> lines) {
+    return new ExternalSort.LineWriter() {
+      @Override
+      public void writeLine(String line) {
+        lines.add(line);
+      }
+    };
+  }
+
+  @Test
+  public void testCascadeMergeRuns() throws IOException {
+    List<Path> runs = new ArrayList<>();
+    for (int i = 0; i < inputs.size(); i++) {
+      runs.addAll(ExternalSort.sortInBatch(inputs.get(i), keys, ExternalSort.DEFAULTMAXTEMPFILES, cs, 2, i % 2 == 0));
+    }
+    assertEquals(inputs.size(), runs.size());
+
+    List<String> merged = new ArrayList<>();
+    assertEquals(allLines.size(), ExternalSort.mergeSortedRuns(runs, collect(merged), cs, 4, true));
+
+    // Lines with equal keys stay in their original order
+    List<String> expected = new ArrayList<>(allLines);
+    Collections.sort(expected, keyOrder);
+    assertEquals(expected, merged);
+    for (Path run : runs) {
+      assertFalse(Files.exists(run));
+    }
+  }
+
+  @Test
+  public void testCascadeMergeFiles() throws IOException {
+    Comparator<String> natural = new Comparator<String>() {
+      @Override
+      public int compare(String s1, String s2) {
+        return s1.compareTo(s2);
+      }
+    };
+
+    List<Path> runs = new ArrayList<>();
+    for (int i = 0; i < inputs.size(); i++) {
+      runs.addAll(ExternalSort.sortInBatch(inputs.get(i), natural, ExternalSort.DEFAULTMAXTEMPFILES, cs, null, 3,
+          i % 3 == 0));
+    }
+
+    List<String> merged = new ArrayList<>();
+    assertEquals(allLines.size(), ExternalSort.mergeSortedFiles(runs, collect(merged), natural, cs, 4, true));
+    List<String> expected = new ArrayList<>(allLines);
+    Collections.sort(expected);
+    assertEquals(expected, merged);
+  }
+
+  @Test
+  public void testCompressedRuns() throws IOException {
+    List<Path> runs = ExternalSort.sortInBatch(inputs.get(0), keys, ExternalSort.DEFAULTMAXTEMPFILES, cs, 1, true);
+    try (InputStream is = Files.newInputStream(runs.get(0))) {
+      assertEquals(0x1f, is.read());
+      assertEquals(0x8b, is.read());
+    }
+
+    List<String> merged = new ArrayList<>();
+    ExternalSort.mergeSortedRuns(runs, collect(merged), cs);
+    assertEquals(200, merged.size());
+  }
+
+  @Test
+  public void testMemoryBudget() throws IOException {
+    Path input = Files.createTempFile("input", ".txt");
+    inputs.add(input);
+    Files.write(input, allLines, cs);
+
+    // A small budget forces many runs and a cascade of merges
+    ExternalSort.DEFAULTMERGEFANIN = fanIn;
+    ExternalSort sorter = new ExternalSort(64 * 1024, 2, false);
+    assertEquals(2, sorter.getMergeFanIn());
+    List<String> sorted = new ArrayList<>();
+    assertEquals(allLines.size(), sorter.sort(input, keys, collect(sorted), cs));
+
+    List<String> expected = new ArrayList<>(allLines);
+    Collections.sort(expected, keyOrder);
+    assertEquals(expected, sorted);
+
+    // Merging with a Comparator does not keep ties in order, so compare whole
+    // lines
+    Comparator<String> natural = new Comparator<String>() {
+      @Override
+      public int compare(String s1, String s2) {
+        return s1.compareTo(s2);
+      }
+    };
+    sorted.clear();
+    sorter = new ExternalSort(64 * 1024);
+    assertEquals(allLines.size(), sorter.sort(input, natural, null, collect(sorted), cs));
+    Collections.sort(expected);
+    assertEquals(expected, sorted);
+  }
+
+  @Test
+  public void testChunkBudget() {
+    long budget = 100_000;
+    KeyedChunk chunk = new KeyedChunk(cs, false, budget);
+    ExternalSort.SortKey key = new ExternalSort.SortKey();
+    key.chr = "chr1";
+    int n = 0;
+    while (chunk.add("chr1\t" + n + "\t" + (n + 1) + "\tsome longer text for line " + n, key)) {
+      n++;
+      assertTrue(chunk.memoryUsed() <= budget);
+    }
+    assertEquals(n, chunk.size());
+    assertTrue(n > 100);
+
+    // A line larger than the budget is still accepted by an empty chunk
+    chunk = new KeyedChunk(cs, false, 10);
+    assertTrue(chunk.add("chr1\t1\t2", key));
+    assertFalse(chunk.add("chr1\t1\t2", key));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidBudget() {
+    new ExternalSort(0);
+  }
+
+}
@@ -0,0 +1,80 @@
+package edu.unc.genomics.util;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.text.DecimalFormat;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class FastFloatFormatTest {
+
+  private static final float[] EDGE_CASES = { 0.0f, -0.0f, 1.0f, -1.0f, 0.1f, 0.001953125f, 1e-8f, 5e-9f,
+      -5.000001e-9f, -1e-10f, Float.MIN_VALUE, Float.MIN_NORMAL, 123456.78f, 16777216f, 16777217f, 1e15f, 1e16f,
+      1e20f, Float.MAX_VALUE, -Float.MAX_VALUE, Float.NaN, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY };
+
+  private static void assertMatches(FastFloatFormat fast, DecimalFormat expected, float value) {
+    assertEquals("Formatting " + value, expected.format(value), fast.format(value));
+  }
+
+  @Test
+  public void testEdgeCases() {
+    FastFloatFormat fast = new FastFloatFormat();
+    DecimalFormat expected = FastFloatFormat.newDecimalFormat(FastFloatFormat.DEFAULT_MAX_FRACTION_DIGITS);
+    for (float value : EDGE_CASES) {
+      assertMatches(fast, expected, value);
+    }
+  }
+
+  @Test
+  public void testRandomBits() {
+    FastFloatFormat fast = new FastFloatFormat();
+    DecimalFormat expected = FastFloatFormat.newDecimalFormat(FastFloatFormat.DEFAULT_MAX_FRACTION_DIGITS);
+    Random rng = new Random(42);
+    for (int i = 0; i < 200_000; i++) {
+      assertMatches(fast, expected, Float.intBitsToFloat(rng.nextInt()));
+    }
+  }
+
+  @Test
+  public void testTypicalValues() {
+    FastFloatFormat fast = new FastFloatFormat();
+    DecimalFormat expected = FastFloatFormat.newDecimalFormat(FastFloatFormat.DEFAULT_MAX_FRACTION_DIGITS);
+    Random rng = new Random(42);
+    for (int i = 0; i < 200_000; i++) {
+      assertMatches(fast, expected, (float) (rng.nextGaussian() * Math.pow(10, rng.nextInt(12) - 6)));
+    }
+  }
+
+  @Test
+  public void testPrecision() {
+    Random rng = new Random(42);
+    for (int digits = 0; digits <= FastFloatFormat.MAX_FRACTION_DIGITS; digits++) {
+      FastFloatFormat fast = new FastFloatFormat(digits);
+      DecimalFormat expected = FastFloatFormat.newDecimalFormat(digits);
+      for (float value : EDGE_CASES) {
+        assertMatches(fast, expected, value);
+      }
+      for (int i = 0; i < 10_000; i++) {
+        assertMatches(fast, expected, (float) (rng.nextGaussian() * 100));
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidPrecision() {
+    new FastFloatFormat(FastFloatFormat.MAX_FRACTION_DIGITS + 1);
+  }
+
+  @Test
+  public void testFormatIntoBuffer() {
+    FastFloatFormat fast = new FastFloatFormat();
+    ByteBuffer buf = ByteBuffer.allocate(64);
+    fast.format(-1234L, buf);
+    buf.put((byte) '\t');
+    fast.format(2.5f, buf);
+    assertEquals("-1234\t2.5", new String(buf.array(), 0, buf.position()));
+  }
+
+}
@@ -0,0 +1,97 @@
+package edu.unc.genomics.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class FieldTokenizerTest {
+
+  private final FieldTokenizer tabs = new FieldTokenizer('\t');
+
+  @Test
+  public void testSplitsLikeStringSplit() {
+    String[] lines = { "chrI\t10\t20", "a\t\tb", "a\tb\t\t", "", "\t", "\t\t", "noDelimiters", "\ta" };
+    for (String line : lines) {
+      assertArrayEquals(line, line.split("\t"), tabs.reset(line).toArray());
+    }
+  }
+
+  @Test
+  public void testFields() {
+    tabs.reset("chrI\t-10\t+20\t.\tabc");
+    assertEquals(5, tabs.count());
+    assertEquals("chrI", tabs.get(0));
+    assertEquals(-10, tabs.getInt(1));
+    assertEquals(20, tabs.getInt(2));
+    assertTrue(tabs.equals(3, "."));
+    assertFalse(tabs.equals(4, "ab"));
+    assertTrue(tabs.equalsIgnoreCase(4, "ABC"));
+    assertEquals(5, tabs.start(1));
+    assertEquals(8, tabs.end(1));
+    assertEquals(3, tabs.length(4));
+  }
+
+  @Test
+  public void testPartOfLine() {
+    String line = "chrI\t1\t2\t10,20,30,";
+    tabs.reset(line);
+    FieldTokenizer commas = new FieldTokenizer(',').reset(line, tabs.start(3), tabs.end(3));
+    assertArrayEquals(new String[] { "10", "20", "30" }, commas.toArray());
+    assertEquals(30, commas.getInt(2));
+  }
+
+  @Test(expected = ArrayIndexOutOfBoundsException.class)
+  public void testMissingField() {
+    tabs.reset("a\tb").get(2);
+  }
+
+  @Test
+  public void testIntLimits() {
+    tabs.reset(Integer.MAX_VALUE + "\t" + Integer.MIN_VALUE);
+    assertEquals(Integer.MAX_VALUE, tabs.getInt(0));
+    assertEquals(Integer.MIN_VALUE, tabs.getInt(1));
+  }
+
+  @Test
+  public void testInvalidInts() {
+    String[] invalid = { "", "-", "+", "1.5", "12a", " 1", "2147483648", "-2147483649" };
+    for (String s : invalid) {
+      try {
+        tabs.reset("x\t" + s + "\tx").getInt(1);
+        fail("Parsed invalid integer: " + s);
+      } catch (NumberFormatException e) {
+      }
+    }
+  }
+
+  @Test
+  public void testDoublesMatchParseDouble() {
+    String[] values = { "0", "-0", "1.5", "-2.25", ".5", "5.", "1e10", "1.5E-7", "3.14159", "1e22", "1e23",
+        "123456789012345678901234", "0.1", "NaN", "-Infinity", "0x1p3", "1d", " 7 ", "0.000000000000000000000000001" };
+    for (String s : values) {
+      tabs.reset(s);
+      assertEquals(s, Double.doubleToLongBits(Double.parseDouble(s)), Double.doubleToLongBits(tabs.getDouble(0)));
+      assertEquals(s, Float.floatToIntBits(Float.parseFloat(s)), Float.floatToIntBits(tabs.getFloat(0)));
+    }
+
+    Random rng = new Random(42);
+    for (int i = 0; i < 100_000; i++) {
+      String s = Double.toString(rng.nextDouble() * Math.pow(10, rng.nextInt(20) - 10));
+      if (rng.nextBoolean()) {
+        s = String.format(Locale.US, "%." + rng.nextInt(8) + "f", rng.nextGaussian() * 1000);
+      }
+      tabs.reset(s);
+      assertEquals(s, Double.parseDouble(s), tabs.getDouble(0), 0);
+      assertEquals(s, Float.parseFloat(s), tabs.getFloat(0), 0);
+    }
+  }
+
+  @Test(expected = NumberFormatException.class)
+  public void testInvalidDouble() {
+    tabs.reset("1.2.3").getDouble(0);
+  }
+
+}
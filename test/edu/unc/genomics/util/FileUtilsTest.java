@@ -8,7 +8,11 @@ import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
 
 import net.sf.samtools.TabixWriter;
 import net.sf.samtools.TabixWriter.Conf;
@@ -92,4 +96,66 @@ public class FileUtilsTest {
       }
     }
   }
+
+  private static final ExternalSort.KeyExtractor bedKeys = new ExternalSort.KeyExtractor() {
+    @Override
+    public boolean extract(String line, ExternalSort.SortKey key) {
+      if (line.startsWith("#")) {
+        return false;
+      }
+      String[] entry = line.split("\t");
+      key.chr = entry[0];
+      key.start = Integer.parseInt(entry[1]);
+      key.stop = Integer.parseInt(entry[2]);
+      return true;
+    }
+  };
+
+  @Test
+  public void testSortKeys() throws IOException {
+    FileUtils.sort(testBed, testOutput, bedKeys);
+    assertEquals(Files.readAllLines(testSorted, Charset.defaultCharset()),
+        Files.readAllLines(testOutput, Charset.defaultCharset()));
+  }
+
+  @Test
+  public void testSortKeysStable() throws IOException {
+    // Many lines with equal keys, negative coordinates, and dropped lines
+    Random rng = new Random(17);
+    List<String> lines = new ArrayList<>();
+    List<String> expected = new ArrayList<>();
+    for (int i = 0; i < 5000; i++) {
+      String line = "chr" + rng.nextInt(5) + "\t" + (rng.nextInt(20) - 10) + "\t" + rng.nextInt(3) + "\tline" + i;
+      lines.add(line);
+      expected.add(line);
+      if (i % 100 == 0) {
+        lines.add("# comment " + i);
+      }
+    }
+    Collections.sort(expected, new Comparator<String>() {
+      @Override
+      public int compare(String s1, String s2) {
+        String[] entry1 = s1.split("\t");
+        String[] entry2 = s2.split("\t");
+        int c = entry1[0].compareTo(entry2[0]);
+        if (c == 0) {
+          c = Integer.compare(Integer.parseInt(entry1[1]), Integer.parseInt(entry2[1]));
+        }
+        if (c == 0) {
+          c = Integer.compare(Integer.parseInt(entry1[2]), Integer.parseInt(entry2[2]));
+        }
+        return c;
+      }
+    });
+
+    Files.write(testOutput, lines, Charset.defaultCharset());
+    Path sorted = Files.createTempFile("sorted", ".txt");
+    try {
+      FileUtils.sort(testOutput, sorted, bedKeys);
+      assertEquals(expected, Files.readAllLines(sorted, Charset.defaultCharset()));
+    } finally {
+      Files.delete(sorted);
+    }
+  }
+
 }
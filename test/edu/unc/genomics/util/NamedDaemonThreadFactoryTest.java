@@ -0,0 +1,36 @@
+package edu.unc.genomics.util;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class NamedDaemonThreadFactoryTest {
+
+  private static final Runnable NOOP = new Runnable() {
+    @Override
+    public void run() {
+    }
+  };
+
+  @Test
+  public void testNames() {
+    NamedDaemonThreadFactory first = new NamedDaemonThreadFactory("worker");
+    NamedDaemonThreadFactory second = new NamedDaemonThreadFactory("worker");
+    Thread a = first.newThread(NOOP);
+    Thread b = first.newThread(NOOP);
+    Thread c = second.newThread(NOOP);
+    assertTrue(a.getName().startsWith("worker-"));
+    assertTrue(a.getName().endsWith("-1"));
+    assertTrue(b.getName().endsWith("-2"));
+    assertTrue(c.getName().endsWith("-1"));
+
+    // Threads of different pools are distinguishable
+    assertFalse(a.getName().equals(c.getName()));
+  }
+
+  @Test
+  public void testDaemon() {
+    assertTrue(new NamedDaemonThreadFactory("worker").newThread(NOOP).isDaemon());
+  }
+
+}
@@ -0,0 +1,94 @@
+package edu.unc.genomics.util;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import net.sf.samtools.util.BlockCompressedInputStream;
+import net.sf.samtools.util.BlockCompressedOutputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelBlockCompressedOutputStreamTest {
+
+  private byte[] data;
+
+  @Before
+  public void setUp() {
+    // Mix compressible text with random bytes that cannot be compressed
+    Random rng = new Random(42);
+    data = new byte[5 * ParallelBlockCompressedOutputStream.BLOCK_SIZE + 1234];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) ('A' + (i % 7));
+    }
+    byte[] noise = new byte[2 * ParallelBlockCompressedOutputStream.BLOCK_SIZE];
+    rng.nextBytes(noise);
+    System.arraycopy(noise, 0, data, ParallelBlockCompressedOutputStream.BLOCK_SIZE / 2, noise.length);
+  }
+
+  private byte[] compress(int numThreads) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ParallelBlockCompressedOutputStream out = new ParallelBlockCompressedOutputStream(bytes, numThreads,
+        BlockCompressedOutputStream.getDefaultCompressionLevel())) {
+      out.transferFrom(new ByteArrayInputStream(data));
+    }
+    return bytes.toByteArray();
+  }
+
+  private static byte[] decompress(byte[] compressed) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (InputStream in = new BlockCompressedInputStream(new ByteArrayInputStream(compressed))) {
+      byte[] buf = new byte[8192];
+      int n;
+      while ((n = in.read(buf)) != -1) {
+        bytes.write(buf, 0, n);
+      }
+    }
+    return bytes.toByteArray();
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    assertArrayEquals(data, decompress(compress(4)));
+  }
+
+  @Test
+  public void testMatchesBlockCompressedOutputStream() throws IOException {
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    try (BlockCompressedOutputStream out = new BlockCompressedOutputStream(expected, null)) {
+      out.write(data);
+    }
+
+    assertArrayEquals(expected.toByteArray(), compress(1));
+    assertArrayEquals(expected.toByteArray(), compress(3));
+  }
+
+  @Test
+  public void testWrite() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ParallelBlockCompressedOutputStream out = new ParallelBlockCompressedOutputStream(bytes, 2, 5)) {
+      out.write(data[0]);
+      out.write(data, 1, 100000);
+      out.write(data, 100001, data.length - 100001);
+    }
+    assertArrayEquals(data, decompress(bytes.toByteArray()));
+  }
+
+  @Test
+  public void testEmpty() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    new ParallelBlockCompressedOutputStream(bytes, 2, 5).close();
+    assertArrayEquals(new byte[0], decompress(bytes.toByteArray()));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidThreads() {
+    new ParallelBlockCompressedOutputStream(new ByteArrayOutputStream(), 0, 5);
+  }
+
+}
@@ -0,0 +1,104 @@
+package edu.unc.genomics.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
+import org.junit.Test;
+
+public class StatsAccumulatorTest {
+
+  private static void assertSameStats(SummaryStatistics expected, StatsAccumulator actual) {
+    assertEquals(expected.getN(), actual.getN());
+    assertEquals(expected.getSum(), actual.getSum(), 1e-8 * Math.abs(expected.getSum()));
+    assertEquals(expected.getSumsq(), actual.getSumOfSquares(), 1e-8 * expected.getSumsq());
+    assertEquals(expected.getMean(), actual.getMean(), 1e-10);
+    assertEquals(expected.getVariance(), actual.getVariance(), 1e-8);
+    assertEquals(expected.getPopulationVariance(), actual.getPopulationVariance(), 1e-8);
+    assertEquals(expected.getSumOfLogs(), actual.getSumOfLogs(), 1e-8 * Math.abs(expected.getSumOfLogs()));
+    assertEquals(expected.getGeometricMean(), actual.getGeometricMean(), 1e-8 * expected.getGeometricMean());
+    assertEquals(expected.getMin(), actual.getMin(), 0);
+    assertEquals(expected.getMax(), actual.getMax(), 0);
+  }
+
+  @Test
+  public void testEmpty() {
+    StatsAccumulator stats = new StatsAccumulator();
+    assertEquals(0, stats.getN());
+    assertEquals(0, stats.getSum(), 0);
+    assertTrue(Double.isNaN(stats.getMean()));
+    assertTrue(Double.isNaN(stats.getVariance()));
+    assertTrue(Double.isNaN(stats.getMin()));
+    assertTrue(Double.isNaN(stats.getMax()));
+  }
+
+  @Test
+  public void testSingleValue() {
+    StatsAccumulator stats = new StatsAccumulator();
+    stats.add(-3);
+    assertEquals(1, stats.getN());
+    assertEquals(-3, stats.getMean(), 0);
+    assertEquals(0, stats.getVariance(), 0);
+    assertEquals(0, stats.getStandardDeviation(), 0);
+  }
+
+  @Test
+  public void testWeightedAdd() {
+    Random rand = new Random(0);
+    SummaryStatistics expected = new SummaryStatistics();
+    StatsAccumulator actual = new StatsAccumulator();
+    for (int i = 0; i < 1000; i++) {
+      double value = 100 * rand.nextGaussian();
+      int n = rand.nextInt(20);
+      for (int j = 0; j < n; j++) {
+        expected.addValue(value);
+      }
+      actual.add(value, n);
+    }
+
+    assertSameStats(expected, actual);
+  }
+
+  @Test
+  public void testMerge() {
+    Random rand = new Random(1);
+    SummaryStatistics expected = new SummaryStatistics();
+    StatsAccumulator merged = new StatsAccumulator();
+    for (int k = 0; k < 10; k++) {
+      StatsAccumulator partial = new StatsAccumulator();
+      for (int i = 0; i < k * 100; i++) {
+        double value = 1000 + rand.nextDouble();
+        expected.addValue(value);
+        partial.add(value);
+      }
+      merged.merge(partial);
+    }
+
+    assertSameStats(expected, merged);
+  }
+
+  @Test
+  public void testToSummaryStatistics() {
+    StatsAccumulator stats = new StatsAccumulator();
+    stats.add(1, 2);
+    stats.add(4);
+    SummaryStatistics summary = stats.toSummaryStatistics();
+    assertEquals(3, summary.getN());
+    assertEquals(6, summary.getSum(), 0);
+    assertEquals(2, summary.getMean(), 0);
+    assertEquals(3, summary.getVariance(), 1e-12);
+    assertEquals(2, summary.getPopulationVariance(), 1e-12);
+    assertEquals(1, summary.getMin(), 0);
+    assertEquals(4, summary.getMax(), 0);
+    assertEquals(Math.log(4), summary.getSumOfLogs(), 1e-12);
+    assertEquals(Math.cbrt(4), summary.getGeometricMean(), 1e-12);
+
+    // The adapter is a copy
+    summary.addValue(10);
+    assertEquals(4, summary.getN());
+    assertEquals(10, summary.getMax(), 0);
+    assertEquals(3, stats.getN());
+  }
+
+}
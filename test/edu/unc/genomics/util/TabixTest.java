@@ -2,14 +2,22 @@ package edu.unc.genomics.util;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
 
 import net.sf.samtools.TabixReader;
 import net.sf.samtools.TabixWriter;
 import net.sf.samtools.TabixWriter.TabixException;
+import net.sf.samtools.util.BlockCompressedInputStream;
 
 import org.junit.After;
 import org.junit.Test;
@@ -33,6 +41,52 @@ public class TabixTest {
   public void testBgzip() throws IOException {
     Tabix.bgzip(testSorted, testBgzipped);
     assertTrue(Files.exists(testBgzipped));
+    try (InputStream in = new BlockCompressedInputStream(testBgzipped.toFile())) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buf = new byte[8192];
+      int n;
+      while ((n = in.read(buf)) != -1) {
+        bytes.write(buf, 0, n);
+      }
+      assertArrayEquals(Files.readAllBytes(testSorted), bytes.toByteArray());
+    }
+  }
+
+  @Test
+  public void testIndexingWriter() throws IOException, TabixException {
+    // Enough lines to span many BGZF blocks
+    Path sorted = Files.createTempFile("test", ".bed");
+    Path expected = Files.createTempFile("expected", ".bed.gz");
+    Path actual = Files.createTempFile("actual", ".bed.gz");
+    try {
+      List<String> lines = new ArrayList<>();
+      for (String chr : new String[] { "chrI", "chrII", "chrIII" }) {
+        for (int i = 0; i < 20_000; i++) {
+          lines.add(chr + "\t" + (50 * i) + "\t" + (50 * i + 1000 + i % 7) + "\tentry" + i + "\t" + i % 13 + "\t+");
+        }
+      }
+      Files.write(sorted, lines, StandardCharsets.US_ASCII);
+      Tabix.bgzip(sorted, expected);
+      Tabix.index(expected, TabixWriter.BED_CONF);
+
+      try (TabixIndexingWriter writer = new TabixIndexingWriter(actual, TabixWriter.BED_CONF, 3,
+          StandardCharsets.US_ASCII)) {
+        for (String line : lines) {
+          writer.writeLine(line);
+        }
+      }
+
+      assertArrayEquals(Files.readAllBytes(expected), Files.readAllBytes(actual));
+      assertArrayEquals(Files.readAllBytes(indexOf(expected)), Files.readAllBytes(indexOf(actual)));
+    } finally {
+      for (Path p : new Path[] { sorted, expected, indexOf(expected), actual, indexOf(actual) }) {
+        Files.deleteIfExists(p);
+      }
+    }
+  }
+
+  private static Path indexOf(Path p) {
+    return p.resolveSibling(p.getFileName() + TabixReader.DEFAULT_INDEX_EXTENSION);
   }
 
   @Test
@@ -42,4 +96,48 @@ public class TabixTest {
     assertTrue(Files.exists(testIndex));
   }
 
+  @Test
+  public void testIndexQueries() throws IOException, TabixException {
+    // Intervals of many sizes, so that they fall in every level of bins
+    Path sorted = Files.createTempFile("test", ".bed");
+    Path bgzipped = Files.createTempFile("test", ".bed.gz");
+    try {
+      Random rng = new Random(42);
+      List<String> lines = new ArrayList<>();
+      List<int[]> intervals = new ArrayList<>();
+      int start = 0;
+      for (int i = 0; i < 50_000; i++) {
+        start += rng.nextInt(2000);
+        int length = 1 + ((rng.nextInt(20) == 0) ? rng.nextInt(5_000_000) : rng.nextInt(500));
+        lines.add("chrI\t" + start + "\t" + (start + length) + "\tentry" + i);
+        intervals.add(new int[] { start, start + length });
+      }
+      Files.write(sorted, lines, StandardCharsets.US_ASCII);
+      Tabix.bgzip(sorted, bgzipped);
+      Tabix.index(bgzipped, TabixWriter.BED_CONF);
+
+      try (TabixReader reader = new TabixReader(bgzipped)) {
+        for (int q = 0; q < 200; q++) {
+          int qstart = rng.nextInt(start);
+          int qstop = qstart + 1 + rng.nextInt((q % 2 == 0) ? 1000 : 1_000_000);
+          List<String> expected = new ArrayList<>();
+          for (int i = 0; i < intervals.size(); i++) {
+            if (intervals.get(i)[0] < qstop && intervals.get(i)[1] > qstart) {
+              expected.add(lines.get(i));
+            }
+          }
+          List<String> actual = new ArrayList<>();
+          for (Iterator<String> it = reader.query("chrI", qstart, qstop); it.hasNext();) {
+            actual.add(it.next());
+          }
+          assertEquals(expected, actual);
+        }
+      }
+    } finally {
+      for (Path p : new Path[] { sorted, bgzipped, indexOf(bgzipped) }) {
+        Files.deleteIfExists(p);
+      }
+    }
+  }
+
 }
@@ -2,14 +2,26 @@ package net.sf.samtools;
 
 import static org.junit.Assert.*;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import edu.unc.genomics.io.BGZFBlockCache;
+import edu.unc.genomics.util.TabixIndexingWriter;
+
 public class TabixReaderTest {
 
   private static final Path TEST_TABIX = Paths.get("test/fixtures/test.tabix.bed.gz");
@@ -20,12 +32,40 @@ public class TabixReaderTest {
     reader = new TabixReader(TEST_TABIX);
   }
 
+  @After
+  public void tearDown() throws Exception {
+    reader.close();
+  }
+
+  private static List<String> toList(Iterator<String> it) {
+    List<String> lines = new ArrayList<>();
+    while (it.hasNext()) {
+      lines.add(it.next());
+    }
+    return lines;
+  }
+
   @Test
   public void testChromosomes() {
     Set<String> chromosomes = reader.chromosomes();
     assertEquals(4, chromosomes.size());
   }
 
+  @Test
+  public void testQueriesShareBlocks() throws IOException {
+    BGZFBlockCache cache = new BGZFBlockCache(1 << 20);
+    try (TabixReader cached = new TabixReader(TEST_TABIX, cache)) {
+      assertSame(cache, cached.getBlockCache());
+      List<String> expected = toList(cached.query("chrI", 5, 97));
+      long misses = cache.getMissCount();
+      for (int i = 0; i < 10; i++) {
+        assertEquals(expected, toList(cached.query("chrI", 5, 97)));
+      }
+      assertEquals(misses, cache.getMissCount());
+      assertTrue(cache.getHitCount() >= 10);
+    }
+  }
+
   @Test
   public void testIterator() {
     int count = 0;
@@ -46,4 +86,123 @@ public class TabixReaderTest {
     assertEquals(3, count);
   }
 
+  @Test
+  public void testSharedIndex() throws IOException {
+    try (TabixReader other = new TabixReader(TEST_TABIX)) {
+      assertSame(reader.chromosomes(), other.chromosomes());
+      assertEquals(toList(reader.query("chrI", 5, 97)), toList(other.query("chrI", 5, 97)));
+    }
+  }
+
+  @Test
+  public void testInterleavedQueries() {
+    List<String> expected1 = toList(reader.query("chrI", 5, 97));
+    List<String> expected2 = toList(reader.query("chrII", 1, 1000));
+    assertFalse(expected2.isEmpty());
+
+    // Advance two queries in turn, which would corrupt a shared stream
+    Iterator<String> it1 = reader.query("chrI", 5, 97);
+    Iterator<String> it2 = reader.query("chrII", 1, 1000);
+    List<String> lines1 = new ArrayList<>();
+    List<String> lines2 = new ArrayList<>();
+    while (it1.hasNext() || it2.hasNext()) {
+      if (it1.hasNext()) {
+        lines1.add(it1.next());
+      }
+      if (it2.hasNext()) {
+        lines2.add(it2.next());
+      }
+    }
+    assertEquals(expected1, lines1);
+    assertEquals(expected2, lines2);
+  }
+
+  @Test
+  public void testConcurrentQueries() throws Exception {
+    final Path bgzip = Files.createTempFile("test", ".bed.gz");
+    Path index = bgzip.resolveSibling(bgzip.getFileName() + TabixReader.DEFAULT_INDEX_EXTENSION);
+    ExecutorService pool = Executors.newFixedThreadPool(8);
+    try {
+      try (TabixIndexingWriter writer = new TabixIndexingWriter(bgzip, TabixWriter.BED_CONF)) {
+        for (String chr : new String[] { "chr1", "chr2" }) {
+          for (int i = 0; i < 50_000; i++) {
+            writer.writeLine(chr + "\t" + (20 * i) + "\t" + (20 * i + 50) + "\tentry" + i);
+          }
+        }
+      }
+
+      try (final TabixReader shared = new TabixReader(bgzip)) {
+        final int numQueries = 200;
+        final List<List<String>> expected = new ArrayList<>();
+        for (int q = 0; q < numQueries; q++) {
+          expected.add(toList(shared.query((q % 2 == 0) ? "chr1" : "chr2", 5000 * q, 5000 * q + 2000)));
+        }
+
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+          results.add(pool.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+              for (int q = 0; q < numQueries; q++) {
+                List<String> lines = toList(shared.query((q % 2 == 0) ? "chr1" : "chr2", 5000 * q, 5000 * q + 2000));
+                if (!lines.equals(expected.get(q))) {
+                  return false;
+                }
+              }
+              return true;
+            }
+          }));
+        }
+        for (Future<Boolean> result : results) {
+          assertTrue(result.get());
+        }
+      }
+    } finally {
+      pool.shutdownNow();
+      Files.deleteIfExists(bgzip);
+      Files.deleteIfExists(index);
+    }
+  }
+
+  @Test
+  public void testVCFQueries() throws Exception {
+    Path bgzip = Files.createTempFile("test", ".vcf.gz");
+    Path index = bgzip.resolveSibling(bgzip.getFileName() + TabixReader.DEFAULT_INDEX_EXTENSION);
+    try {
+      // Records whose extent comes from REF, or from END= anywhere in INFO
+      List<String> lines = new ArrayList<>();
+      try (TabixIndexingWriter writer = new TabixIndexingWriter(bgzip, TabixWriter.VCF_CONF)) {
+        writer.writeLine("##fileformat=VCFv4.1");
+        writer.writeLine("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO");
+        for (int i = 1; i <= 20_000; i++) {
+          String ref = (i % 5 == 0) ? "ACGTACGTAC" : "A";
+          String info = (i % 7 == 0) ? "END=" + (10 * i + 300) : (i % 11 == 0) ? "DP=3;END=" + (10 * i + 40)
+              + ";AF=0.5" : "DP=3";
+          String line = "chrI\t" + (10 * i) + "\trs" + i + "\t" + ref + "\tC\t50\tPASS\t" + info;
+          writer.writeLine(line);
+          lines.add(line);
+        }
+      }
+
+      try (TabixReader vcf = new TabixReader(bgzip)) {
+        for (int q = 0; q < 100; q++) {
+          int beg = 2000 * q + 9, end = beg + 1 + 37 * q;
+          List<String> expected = new ArrayList<>();
+          for (String line : lines) {
+            TabixReader.TIntv intv = vcf.getIntv(line);
+            if (intv.end > beg && intv.beg < end) {
+              expected.add(line);
+            }
+          }
+          assertFalse(expected.isEmpty());
+          assertEquals(expected, toList(vcf.query("chrI", beg, end)));
+        }
+        assertFalse(vcf.query("chrII", 0, 1000).hasNext());
+      }
+    } finally {
+      Files.deleteIfExists(bgzip);
+      Files.deleteIfExists(index);
+    }
+  }
+
 }